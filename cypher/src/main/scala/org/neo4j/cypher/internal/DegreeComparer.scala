@@ -0,0 +1,45 @@
+/**
+ * Copyright (c) 2002-2012 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.cypher.internal
+
+import org.neo4j.graphdb.{RelationshipType, Direction, Node}
+import org.neo4j.kernel.GraphDatabaseAPI
+
+/**
+ * DegreeComparer picks which of two nodes to look for the relationships between them from.
+ * The node with the lower degree is picked, but only when both degrees are cheap to get,
+ * i.e. the nodes are dense or their relationships are cached. Otherwise the start node is
+ * kept, since counting would walk the relationship chains of both nodes.
+ */
+trait DegreeComparer {
+  def cheaperSide(start: Node, end: Node, dir: Direction, types: RelationshipType*): (Node, Node, Direction) = {
+    val degreesAreCheap = start.getGraphDatabase match {
+      case db: GraphDatabaseAPI =>
+        val nodeManager = db.getNodeManager
+        nodeManager.hasCheapDegree(start, dir, types: _*) && nodeManager.hasCheapDegree(end, dir.reverse(), types: _*)
+      case _ => false
+    }
+
+    if (degreesAreCheap && end.getDegree(dir.reverse(), types: _*) < start.getDegree(dir, types: _*))
+      (end, start, dir.reverse())
+    else
+      (start, end, dir)
+  }
+}
@@ -28,6 +28,7 @@ import org.neo4j.cypher.internal.symbols._
 import org.neo4j.helpers.ThisShouldNotHappenError
 import collection.Map
 import org.neo4j.cypher.SyntaxException
+import org.neo4j.cypher.internal.DegreeComparer
 
 abstract class Predicate extends Dependant {
   def ++(other: Predicate): Predicate = And(this, other)
@@ -102,7 +103,7 @@ case class Not(a: Predicate) extends Predicate {
   def filter(f: (Expression) => Boolean) = a.filter(f)
 }
 
-case class HasRelationshipTo(from: Expression, to: Expression, dir: Direction, relType: Seq[String]) extends Predicate {
+case class HasRelationshipTo(from: Expression, to: Expression, dir: Direction, relType: Seq[String]) extends Predicate with DegreeComparer {
   def isMatch(m: Map[String, Any]): Boolean = {
     val fromNode = from(m).asInstanceOf[Node]
     val toNode = to(m).asInstanceOf[Node]
@@ -111,13 +112,16 @@ case class HasRelationshipTo(from: Expression, to: Expression, dir: Direction, r
       return false
     }
 
-    if(relType.isEmpty) {
-      fromNode.getRelationships(dir).iterator().asScala.exists(rel => rel.getOtherNode(fromNode) == toNode)
-    } else {
-      val types = relType.map(t=>  DynamicRelationshipType.withName(t))
-      val rels = fromNode.getRelationships(dir, types: _*).iterator().asScala
-      rels.exists(rel => rel.getOtherNode(fromNode) == toNode)
-    }
+    val types = relType.map(t=>  DynamicRelationshipType.withName(t))
+
+    val (start, end, direction) = cheaperSide(fromNode, toNode, dir, types: _*)
+
+    val rels = if (types.isEmpty)
+      start.getRelationships(direction).iterator().asScala
+    else
+      start.getRelationships(direction, types: _*).iterator().asScala
+
+    rels.exists(rel => rel.getOtherNode(start) == end)
   }
 
   def atoms: Seq[Predicate] = Seq(this)
@@ -26,6 +26,7 @@ import collection.Map
 import org.neo4j.graphdb._
 import org.neo4j.cypher.internal.commands._
 import org.neo4j.cypher.{UniquePathNotUniqueException, CypherTypeException}
+import org.neo4j.cypher.internal.DegreeComparer
 
 case class NamedExpectation(name: String, properties: Map[String, Expression])
   extends GraphElementPropertyFunctions
@@ -54,7 +55,7 @@ object UniqueLink {
 }
 
 case class UniqueLink(start: NamedExpectation, end: NamedExpectation, rel: NamedExpectation, relType: String, dir: Direction)
-  extends GraphElementPropertyFunctions {
+  extends GraphElementPropertyFunctions with DegreeComparer {
   lazy val relationshipType = DynamicRelationshipType.withName(relType)
 
   def exec(context: ExecutionContext, state: QueryState): Option[(UniqueLink, CreateUniqueResult)] = {
@@ -83,9 +84,11 @@ case class UniqueLink(start: NamedExpectation, end: NamedExpectation, rel: Named
   // If any matching rels are found, they are returned. Otherwise, a new one is
   // created and returned.
   private def twoNodes(startNode: Node, endNode: Node, ctx: ExecutionContext, state: QueryState): Option[(UniqueLink, CreateUniqueResult)] = {
-    val rels = startNode.getRelationships(relationshipType, dir).asScala.
+    val (from, to, direction) = cheaperSide(startNode, endNode, dir, relationshipType)
+
+    val rels = from.getRelationships(relationshipType, direction).asScala.
       filter(r => {
-      r.getOtherNode(startNode) == endNode && rel.compareWithExpectations(r, ctx)
+      r.getOtherNode(from) == to && rel.compareWithExpectations(r, ctx)
     }).toList
 
     rels match {
@@ -142,6 +142,12 @@ class PathImplTests extends Spec {
 
     def hasRelationship(`type` : RelationshipType, dir: Direction): Boolean = false
 
+    def getDegree: Int = 0
+
+    def getDegree(types: RelationshipType*): Int = 0
+
+    def getDegree(direction: Direction, types: RelationshipType*): Int = 0
+
     def getSingleRelationship(`type` : RelationshipType, dir: Direction): Relationship = null
 
     def createRelationshipTo(otherNode: Node, `type` : RelationshipType): Relationship = null
@@ -128,6 +128,12 @@ class PausingNode(n: Node, afterGetRelationship: Node => Unit) extends Node {
 
   def hasRelationship(`type`: RelationshipType, dir: Direction): Boolean = throw new RuntimeException
 
+  def getDegree: Int = n.getDegree
+
+  def getDegree(types: RelationshipType*): Int = n.getDegree(types: _*)
+
+  def getDegree(direction: Direction, types: RelationshipType*): Int = n.getDegree(direction, types: _*)
+
   def getSingleRelationship(`type`: RelationshipType, dir: Direction): Relationship = throw new RuntimeException
 
   def createRelationshipTo(otherNode: Node, `type`: RelationshipType): Relationship = {
@@ -0,0 +1,42 @@
+/**
+ * Copyright (c) 2002-2012 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.jmx;
+
+@ManagementInterface( name = GroupCommit.NAME )
+@Description( "Group commit, where transactions committing at the same time share one force of the logical log" )
+public interface GroupCommit
+{
+    final String NAME = "Group Commit";
+
+    @Description( "Whether or not group commit is enabled" )
+    boolean isEnabled();
+
+    @Description( "The number of forces of the logical log done for group commit" )
+    long getForceCount();
+
+    @Description( "The number of transactions that have been made durable by group commit" )
+    long getCommitCount();
+
+    @Description( "The average number of transactions made durable by each force" )
+    double getAverageBatchSize();
+
+    @Description( "The largest number of transactions made durable by a single force" )
+    long getLargestBatchSize();
+}
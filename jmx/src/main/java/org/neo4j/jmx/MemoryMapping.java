@@ -0,0 +1,40 @@
+/**
+ * Copyright (c) 2002-2012 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.jmx;
+
+@ManagementInterface( name = MemoryMapping.NAME )
+@Description( "The memory mapping of the Neo4j store files" )
+public interface MemoryMapping
+{
+    final String NAME = "Memory Mapping";
+
+    @Description( "The total amount of memory, in bytes, shared between the stores for memory mapping, "
+                  + "or 0 if each store has a fixed amount" )
+    long getTotalMappedMemory();
+
+    @Description( "The hit ratio, memory used and memory available for memory mapping of each store" )
+    String[] getMemoryPools();
+
+    @Description( "The number of times memory for memory mapping has been moved between the stores" )
+    int getRebalanceCount();
+
+    @Description( "The most recent decisions about how to divide the memory for memory mapping between the stores" )
+    String[] getRebalanceDecisions();
+}
@@ -0,0 +1,86 @@
+/**
+ * Copyright (c) 2002-2012 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.jmx.impl;
+
+import javax.management.NotCompliantMBeanException;
+
+import org.neo4j.helpers.Service;
+import org.neo4j.jmx.GroupCommit;
+import org.neo4j.kernel.KernelData;
+import org.neo4j.kernel.impl.transaction.xaframework.XaLogicalLog;
+
+@Service.Implementation( ManagementBeanProvider.class )
+public final class GroupCommitBean extends ManagementBeanProvider
+{
+    public GroupCommitBean()
+    {
+        super( GroupCommit.class );
+    }
+
+    @Override
+    protected Neo4jMBean createMBean( ManagementData management ) throws NotCompliantMBeanException
+    {
+        return new GroupCommitImpl( management );
+    }
+
+    private static class GroupCommitImpl extends Neo4jMBean implements GroupCommit
+    {
+        private final KernelData kernel;
+
+        GroupCommitImpl( ManagementData management ) throws NotCompliantMBeanException
+        {
+            super( management );
+            this.kernel = management.getKernelData();
+        }
+
+        private XaLogicalLog getLogicalLog()
+        {
+            return kernel.graphDatabase().getXaDataSourceManager().getNeoStoreDataSource().getXaContainer()
+                    .getLogicalLog();
+        }
+
+        public boolean isEnabled()
+        {
+            return getLogicalLog().isGroupCommit();
+        }
+
+        public long getForceCount()
+        {
+            return getLogicalLog().getGroupCommitForceCount();
+        }
+
+        public long getCommitCount()
+        {
+            return getLogicalLog().getGroupCommitCount();
+        }
+
+        public double getAverageBatchSize()
+        {
+            XaLogicalLog log = getLogicalLog();
+            long forces = log.getGroupCommitForceCount();
+            return forces == 0 ? 0 : (double) log.getGroupCommitCount() / forces;
+        }
+
+        public long getLargestBatchSize()
+        {
+            return getLogicalLog().getLargestGroupCommit();
+        }
+    }
+}
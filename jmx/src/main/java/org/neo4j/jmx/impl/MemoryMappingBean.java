@@ -0,0 +1,103 @@
+/**
+ * Copyright (c) 2002-2012 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.jmx.impl;
+
+import java.util.List;
+
+import javax.management.NotCompliantMBeanException;
+
+import org.neo4j.helpers.Service;
+import org.neo4j.jmx.MemoryMapping;
+import org.neo4j.kernel.KernelData;
+import org.neo4j.kernel.impl.nioneo.store.MappedMemoryBalancer;
+import org.neo4j.kernel.impl.nioneo.store.WindowPoolStats;
+import org.neo4j.kernel.impl.nioneo.xa.NeoStoreXaDataSource;
+
+@Service.Implementation( ManagementBeanProvider.class )
+public final class MemoryMappingBean extends ManagementBeanProvider
+{
+    public MemoryMappingBean()
+    {
+        super( MemoryMapping.class );
+    }
+
+    @Override
+    protected Neo4jMBean createMBean( ManagementData management ) throws NotCompliantMBeanException
+    {
+        return new MemoryMappingImpl( management );
+    }
+
+    private static class MemoryMappingImpl extends Neo4jMBean implements MemoryMapping
+    {
+        private final KernelData kernel;
+
+        MemoryMappingImpl( ManagementData management ) throws NotCompliantMBeanException
+        {
+            super( management );
+            this.kernel = management.getKernelData();
+        }
+
+        private NeoStoreXaDataSource getNeoDataSource()
+        {
+            return kernel.graphDatabase().getXaDataSourceManager().getNeoStoreDataSource();
+        }
+
+        private MappedMemoryBalancer getBalancer()
+        {
+            return getNeoDataSource().getNeoStore().getMappedMemoryBalancer();
+        }
+
+        public long getTotalMappedMemory()
+        {
+            MappedMemoryBalancer balancer = getBalancer();
+            return balancer == null ? 0 : balancer.getTotalMemory();
+        }
+
+        public String[] getMemoryPools()
+        {
+            List<WindowPoolStats> stats = getNeoDataSource().getWindowPoolStats();
+            String[] result = new String[stats.size()];
+            for ( int i = 0; i < result.length; i++ )
+            {
+                WindowPoolStats pool = stats.get( i );
+                long requests = (long) pool.getHitCount() + pool.getMissCount();
+                double hitRatio = requests == 0 ? 0 : (double) pool.getHitCount() / requests;
+                result[i] = String.format( "%s: hitRatio=%.3f, memUsed=%d, memAvail=%d",
+                        pool.getName(), hitRatio, pool.getMemUsed(), pool.getMemAvail() );
+            }
+            return result;
+        }
+
+        public int getRebalanceCount()
+        {
+            MappedMemoryBalancer balancer = getBalancer();
+            return balancer == null ? 0 : balancer.getRebalanceCount();
+        }
+
+        public String[] getRebalanceDecisions()
+        {
+            MappedMemoryBalancer balancer = getBalancer();
+            if ( balancer == null )
+                return new String[0];
+            List<String> decisions = balancer.getRecentDecisions();
+            return decisions.toArray( new String[decisions.size()] );
+        }
+    }
+}
@@ -221,6 +221,40 @@ public interface Node extends PropertyContainer
      */
     public boolean hasRelationship( RelationshipType type, Direction dir );
 
+    /**
+     * Returns the number of relationships attached to this node. This is
+     * cheaper than counting the relationships returned by
+     * {@link #getRelationships()} in that the relationships don't have to be
+     * loaded, which makes a difference for nodes with many relationships.
+     *
+     * @return the number of relationships attached to this node
+     */
+    public int getDegree();
+
+    /**
+     * Returns the number of relationships of any of the types in
+     * <code>types</code> attached to this node, regardless of direction.
+     *
+     * @param types the given relationship type(s)
+     * @return the number of relationships of the given type(s) attached to
+     *         this node
+     */
+    public int getDegree( RelationshipType... types );
+
+    /**
+     * Returns the number of relationships of any of the types in
+     * <code>types</code> attached to this node and having the given
+     * <code>direction</code>, or of any type if no types are given. A
+     * relationship from this node to itself is counted once, whatever the
+     * direction.
+     *
+     * @param direction the direction of the relationships to count
+     * @param types the given relationship type(s)
+     * @return the number of relationships of the given type(s) and direction
+     *         attached to this node
+     */
+    public int getDegree( Direction direction, RelationshipType... types );
+
     /**
      * Returns the only relationship of a given type and direction that is
      * attached to this node, or <code>null</code>. This is a convenience method
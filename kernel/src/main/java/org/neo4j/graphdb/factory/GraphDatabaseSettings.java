@@ -133,6 +133,28 @@ public abstract class GraphDatabaseSettings
             "Must be 'true'/'false' or of format '<number><optional unit> <type>' for example '100M size' for limiting logical log space on disk to 100Mb," +
                     " or '200k txs' for limiting the number of transactions to keep to 200 000." );
 
+    @Description( "Let transactions committing at the same time share one force of the logical log to disk, " +
+                  "instead of each forcing it on its own. Increases throughput for many small concurrent " +
+                  "transactions at the cost of some latency for each." )
+    @Default(FALSE)
+    public static final BooleanSetting group_commit = new BooleanSetting( "group_commit" );
+
+    @Description( "The longest time a transaction about to force the logical log, when doing group commit, " +
+                  "waits for other transactions to join in on that force." )
+    @Default( "0ms" )
+    public static final TimeSpanSetting group_commit_max_wait = new TimeSpanSetting( "group_commit_max_wait" );
+
+    @Description( "The number of threads to commit recovered transactions with when starting up after a crash. " +
+                  "With more than one, transactions that don't change the same records are committed " +
+                  "concurrently, while the logical log is read ahead by a separate thread." )
+    @Default( "1" )
+    public static final IntegerSetting recovery_threads = new IntegerSetting( "recovery_threads", "Must be a number", 1, null );
+
+    @Description( "Let transactions that span more than one data source, e.g. the graph and an index, " +
+                  "prepare and commit those data sources concurrently instead of one after the other." )
+    @Default(FALSE)
+    public static final BooleanSetting concurrent_two_phase_commit = new BooleanSetting( "concurrent_two_phase_commit" );
+
     @Description( "Use a quick approach for rebuilding the ID generators. This give quicker recovery time, but will limit the ability to reuse the space of deleted entities." )
     @Default(TRUE)
     public static final BooleanSetting rebuild_idgenerators_fast = new BooleanSetting( "rebuild_idgenerators_fast" );
@@ -169,9 +191,27 @@ public abstract class GraphDatabaseSettings
     @Default("100M")
     public static final NumberOfBytesSetting relationshipstore_mapped_memory = new NumberOfBytesSetting("neostore.relationshipstore.db.mapped_memory");
 
+    @Description( "The total size to allocate for memory mapping all the stores. If set, this memory is shared between " +
+            "the stores and continuously moved over to the stores that see the most misses, and the per-store " +
+            "mapped memory settings are only used as the initial sizes for bricks." )
+    public static final NumberOfBytesSetting all_stores_total_mapped_memory_size = new NumberOfBytesSetting("all_stores_total_mapped_memory_size");
+
     @Default("100")
     public static final IntegerSetting relationship_grab_size = new IntegerSetting( "relationship_grab_size", "Must be a number" );
 
+    @Description( "The number of relationship records read in one go when following a relationship chain into a part " +
+                  "of the relationship store that isn't memory mapped. Relationships of a node are often stored close " +
+                  "to each other, so this saves reads of single records on cold stores. 0 reads one record at a time." )
+    @Default( "64" )
+    public static final IntegerSetting relationship_chain_read_ahead = new IntegerSetting( "relationship_chain_read_ahead", "Must be a number", 0, null );
+
+    @Description( "The number of relationships a node gets before its relationships are stored grouped by type " +
+                  "and direction, so that getting the relationships of one type and direction of it only reads " +
+                  "those. 0 leaves all nodes with one chain of relationships. A store with such dense nodes " +
+                  "can't be opened by versions without support for them." )
+    @Default( "0" )
+    public static final IntegerSetting dense_node_threshold = new IntegerSetting( "dense_node_threshold", "Must be a number", 0, null );
+
     @Description( "Whether to grab locks on files or not." )
     @Default(TRUE)
     public static final BooleanSetting grab_file_lock = new BooleanSetting( "grab_file_lock" );
@@ -188,6 +228,28 @@ public abstract class GraphDatabaseSettings
     @Default("120")
     public static final IntegerSetting array_block_size = new IntegerSetting( "array_block_size", "Must be a number", 1, null );
 
+    @Description( "The number of distinct strings kept in memory in the string dictionary. Strings too long to be " +
+                  "stored inline in a property record, but no longer than 512 characters, are then stored once in the " +
+                  "string store and shared by all properties with that value. Such shared strings are never deleted. " +
+                  "0 stores every string by itself. A store with shared strings can't be opened by versions without " +
+                  "support for them." )
+    @Default( "0" )
+    public static final IntegerSetting string_dictionary_size = new IntegerSetting( "string_dictionary_size", "Must be a number", 0, null );
+
+    @Description( "The size in bytes from which strings and arrays stored in the dynamic stores are compressed. A " +
+                  "value is only stored compressed if that takes fewer records, and is then kept in the array store. " +
+                  "0 never compresses values. A store with compressed values can't be opened by versions without " +
+                  "support for them." )
+    @Default( "0" )
+    public static final IntegerSetting value_compression_threshold = new IntegerSetting( "value_compression_threshold", "Must be a number", 0, null );
+
+    @Description( "The number of relationships the batch inserter keeps in memory before writing them. They are " +
+                  "then linked into the chains of their nodes in memory and written in one sweep over the " +
+                  "relationship store and one over the node store, both in id order. At most 16777216, 0 writes " +
+                  "each relationship when it is created." )
+    @Default( "0" )
+    public static final IntegerSetting batch_relationship_buffer_size = new IntegerSetting( "batch_relationship_buffer_size", "Must be a number", 0, 1 << 24 );
+
     @Description( "Mark this database as a backup slave." )
     @Default( FALSE )
     public static final BooleanSetting backup_slave = new BooleanSetting( "backup_slave" );
@@ -231,10 +293,10 @@ public abstract class GraphDatabaseSettings
     // GCR Settings
     // TODO: These should be part of a settings class specifically for GCR, and loaded
     // the same way settings for kernel extensions are loaded.
-    @Description( "The amount of memory to use for the node cache (when using the 'gcr' cache)." )
+    @Description( "The amount of memory to use for the node cache (when using the 'gcr' or 'segmented' cache)." )
     public static final GCRMemoryUsageSetting node_cache_size = new GCRMemoryUsageSetting( "node_cache_size");
 
-    @Description( "The amount of memory to use for the relationship cache (when using the 'gcr' cache)." )
+    @Description( "The amount of memory to use for the relationship cache (when using the 'gcr' or 'segmented' cache)." )
     public static final GCRMemoryUsageSetting relationship_cache_size = new GCRMemoryUsageSetting( "relationship_cache_size");
 
     @Description( "The fraction of the heap (1%-10%) to use for the base array in the node cache (when using the 'gcr' cache)." )
@@ -245,6 +307,18 @@ public abstract class GraphDatabaseSettings
     @Default( "1.0" )
     public static final FloatSetting relationship_cache_array_fraction = new FloatSetting( "relationship_cache_array_fraction", "Must be a valid fraction", 1.0f, 10.0f);
 
+    @Description( "The amount of direct memory, outside of the JVM heap, to use for the node cache (when using the 'offheap' cache)." )
+    @Default( "256M" )
+    public static final NumberOfBytesSetting offheap_node_cache_size = new NumberOfBytesSetting( "offheap_node_cache_size" );
+
+    @Description( "The amount of direct memory, outside of the JVM heap, to use for the relationship cache (when using the 'offheap' cache)." )
+    @Default( "256M" )
+    public static final NumberOfBytesSetting offheap_relationship_cache_size = new NumberOfBytesSetting( "offheap_relationship_cache_size" );
+
+    @Description( "The size of the slots that the memory of the 'offheap' cache is divided into. Each cached node or relationship occupies one or more slots." )
+    @Default( "128" )
+    public static final IntegerSetting offheap_cache_slot_size = new IntegerSetting( "offheap_cache_slot_size", "Must be a number", 32, null );
+
     @Description( "The minimal time that must pass in between logging statistics from the cache (when using the 'gcr' cache)." )
     @Default( "60s" )
     public static final TimeSpanSetting gcr_cache_min_log_interval = new TimeSpanSetting( "gcr_cache_min_log_interval");
@@ -312,6 +386,16 @@ public abstract class GraphDatabaseSettings
         		"This is the default cache setting." )
         public static final String gcr = "gcr";
 
+        @Description("Bounded cache divided into segments which can be read concurrently without any locking. \n" +
+                "Evicts the least recently used objects when it grows bigger than the configured amount of memory. \n" +
+                "Suitable for read heavy loads on machines with many cores." )
+        public static final String segmented = "segmented";
+
+        @Description("Keeps nodes and relationships serialized in direct memory outside of the JVM heap, \n" +
+                "evicting the least recently used ones when the configured amount of memory is used up. \n" +
+                "Lookups are slower than with the other caches, but a large cache doesn't cause long GC pauses." )
+        public static final String offheap = "offheap";
+
         public CacheTypeSetting()
         {
             super( "cache_type", availableCaches() );
@@ -322,10 +406,10 @@ public abstract class GraphDatabaseSettings
             try
             {
                 GraphDatabaseSettings.class.getClassLoader().loadClass( "org.neo4j.kernel.impl.cache.GCResistantCacheProvider" );
-                return new String[]{gcr,soft,weak,strong,none};
+                return new String[]{gcr,soft,weak,strong,segmented,offheap,none};
             } catch( ClassNotFoundException e )
             {
-                return new String[]{soft,weak,strong,none};
+                return new String[]{soft,weak,strong,segmented,offheap,none};
             }
         }
     }
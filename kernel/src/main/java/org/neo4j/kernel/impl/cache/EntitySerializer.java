@@ -0,0 +1,51 @@
+/**
+ * Copyright (c) 2002-2012 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel.impl.cache;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Converts the cached state of an entity to and from bytes, for caches
+ * which keep their contents outside of the java heap, see {@link OffHeapCache}.
+ */
+public interface EntitySerializer<E extends EntityWithSize>
+{
+    /**
+     * Writes the state of {@code entity}, except its id, into {@code target}.
+     * 
+     * @param entity the entity to write.
+     * @param target the buffer to write into. If it's too small a
+     * {@link java.nio.BufferOverflowException} is expected to be thrown and
+     * this method will be called again with a bigger buffer.
+     * @throws IllegalArgumentException if the entity contains state which
+     * cannot be serialized, in which case the entity will not be cached.
+     */
+    void write( E entity, ByteBuffer target );
+
+    /**
+     * Creates a new entity from the state previously written by
+     * {@link #write(EntityWithSize, ByteBuffer)}.
+     * 
+     * @param id the id of the entity.
+     * @param source the buffer to read from.
+     * @return the recreated entity.
+     */
+    E read( long id, ByteBuffer source );
+}
@@ -19,31 +19,61 @@
  */
 package org.neo4j.kernel.impl.cache;
 
-import org.neo4j.helpers.Counter;
+import java.util.concurrent.atomic.AtomicLongArray;
 
+/**
+ * Counts hits and misses of a cache. The counts are striped over a number of
+ * counters, picked by thread, so that concurrent readers of a cache don't all
+ * contend on updating the same memory location.
+ */
 final class HitCounter
 {
-    private final Counter hits, miss;
+    private static final int STRIPES = stripes();
+    // Keep the counters of different stripes on different cache lines
+    private static final int PADDING = 8;
+
+    private final AtomicLongArray hits, miss;
 
     public HitCounter( )
     {
-        this.hits = new Counter();
-        this.miss = new Counter();
+        this.hits = new AtomicLongArray( STRIPES * PADDING );
+        this.miss = new AtomicLongArray( STRIPES * PADDING );
     }
 
     public <T> T count( T item )
     {
-        ( ( item == null ) ? miss : hits ).inc();
+        int index = ( (int) Thread.currentThread().getId() & ( STRIPES - 1 ) ) * PADDING;
+        ( ( item == null ) ? miss : hits ).incrementAndGet( index );
         return item;
     }
 
     public long getHitsCount()
     {
-        return hits.count();
+        return sum( hits );
     }
 
     public long getMissCount()
     {
-        return miss.count();
+        return sum( miss );
+    }
+
+    private static long sum( AtomicLongArray counters )
+    {
+        long sum = 0;
+        for ( int i = 0; i < counters.length(); i += PADDING )
+        {
+            sum += counters.get( i );
+        }
+        return sum;
+    }
+
+    private static int stripes()
+    {
+        int stripes = 1;
+        while ( stripes < Runtime.getRuntime().availableProcessors() * 2 )
+        {
+            stripes <<= 1;
+        }
+        return stripes;
     }
 }
@@ -0,0 +1,573 @@
+/**
+ * Copyright (c) 2002-2012 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel.impl.cache;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Collection;
+
+import org.neo4j.kernel.impl.util.StringLogger;
+
+/**
+ * A {@link Cache} which keeps serialized entities in direct memory, outside of
+ * the java heap, so that a large cache doesn't add to the work of the garbage
+ * collector. The memory is divided into fixed size slots and an entity occupies
+ * a chain of one or more slots. The only state kept on the heap is an index
+ * from id to the first slot of each entity.
+ * <p>
+ * Entities are evicted with a clock algorithm when the configured number of
+ * bytes is used up. Every {@link #get(long)} returns a new instance, so changes
+ * to an entity are written back to the cache in {@link #updateSize(EntityWithSize, int)},
+ * which is where entities report changes to their cached state. Since several
+ * instances of an entity can be alive at the same time each write is stamped
+ * and the stamp is kept in {@link EntityWithSize#setRegisteredSize(int)}. A write
+ * from an instance which was read before the most recent write is considered
+ * stale and evicts the entity instead of overwriting newer state.
+ */
+public class OffHeapCache<E extends EntityWithSize> implements Cache<E>
+{
+    public static final int DEFAULT_SLOT_SIZE = 128;
+
+    private static final int MAX_BUFFER_SIZE = 1 << 30;
+
+    // Header of every slot: [next slot:int][state:byte][referenced:byte][padding:2]
+    private static final int NEXT_OFFSET = 0;
+    private static final int STATE_OFFSET = 4;
+    private static final int REFERENCED_OFFSET = 5;
+    private static final int HEADER_SIZE = 8;
+    // Header of the first slot of an entity also has [length:int][stamp:int][id:long]
+    private static final int LENGTH_OFFSET = 8;
+    private static final int STAMP_OFFSET = 12;
+    private static final int ID_OFFSET = 16;
+    private static final int FIRST_HEADER_SIZE = 24;
+
+    private static final byte FREE = 0;
+    private static final byte FIRST = 1;
+    private static final byte CONTINUATION = 2;
+
+    private static final int NO_SLOT = -1;
+
+    private final String name;
+    private final EntitySerializer<E> serializer;
+    private final StringLogger logger;
+    private final int slotSize;
+    private final int slotsPerBuffer;
+    private final int slotCount;
+    private final ByteBuffer[] buffers;
+    private final SlotIndex index = new SlotIndex();
+    private final HitCounter counter = new HitCounter();
+    private final ThreadLocal<ByteBuffer> scratch = new ThreadLocal<ByteBuffer>()
+    {
+        @Override
+        protected ByteBuffer initialValue()
+        {
+            return ByteBuffer.allocate( 1024 );
+        }
+    };
+
+    private int freeListHead = NO_SLOT;
+    private int freeListSize;
+    private int highestUsedSlot;
+    private int usedSlots;
+    private int clockHand;
+    private int stampCounter;
+    private long evictions;
+
+    public OffHeapCache( String name, EntitySerializer<E> serializer, long maxBytes, int slotSize,
+            StringLogger logger )
+    {
+        if ( slotSize <= FIRST_HEADER_SIZE || slotSize > MAX_BUFFER_SIZE )
+        {
+            throw new IllegalArgumentException( "Invalid slot size " + slotSize );
+        }
+        long slots = maxBytes / slotSize;
+        if ( slots <= 0 || slots > Integer.MAX_VALUE )
+        {
+            throw new IllegalArgumentException( "Invalid cache size " + maxBytes + " for slot size " + slotSize );
+        }
+        this.name = name;
+        this.serializer = serializer;
+        this.logger = logger;
+        this.slotSize = slotSize;
+        this.slotCount = (int) slots;
+        this.slotsPerBuffer = MAX_BUFFER_SIZE / slotSize;
+        this.buffers = new ByteBuffer[(slotCount - 1) / slotsPerBuffer + 1];
+    }
+
+    @Override
+    public String getName()
+    {
+        return name;
+    }
+
+    @Override
+    public void put( E value )
+    {
+        ByteBuffer bytes = serialize( value );
+        synchronized ( this )
+        {
+            if ( bytes == null )
+            {
+                // Make sure no older state of it is left behind
+                int slot = index.remove( value.getId() );
+                if ( slot != NO_SLOT )
+                {
+                    free( slot );
+                }
+                return;
+            }
+            store( value, bytes );
+        }
+    }
+
+    @Override
+    public void putAll( Collection<E> values )
+    {
+        for ( E value : values )
+        {
+            put( value );
+        }
+    }
+
+    @Override
+    public E get( long key )
+    {
+        byte[] bytes;
+        int stamp;
+        synchronized ( this )
+        {
+            int slot = index.get( key );
+            if ( slot == NO_SLOT )
+            {
+                return counter.<E>count( null );
+            }
+            ByteBuffer buffer = bufferFor( slot );
+            int offset = offsetOf( slot );
+            buffer.put( offset + REFERENCED_OFFSET, (byte) 1 );
+            stamp = buffer.getInt( offset + STAMP_OFFSET );
+            bytes = readChain( slot );
+        }
+        E entity = serializer.read( key, ByteBuffer.wrap( bytes ) );
+        entity.setRegisteredSize( stamp );
+        return counter.count( entity );
+    }
+
+    @Override
+    public E remove( long key )
+    {
+        byte[] bytes;
+        synchronized ( this )
+        {
+            int slot = index.remove( key );
+            if ( slot == NO_SLOT )
+            {
+                return null;
+            }
+            bytes = readChain( slot );
+            free( slot );
+        }
+        return serializer.read( key, ByteBuffer.wrap( bytes ) );
+    }
+
+    @Override
+    public void updateSize( E entity, int newSize )
+    {
+        ByteBuffer bytes = serialize( entity );
+        synchronized ( this )
+        {
+            int slot = index.get( entity.getId() );
+            if ( slot == NO_SLOT )
+            {
+                return;
+            }
+            if ( bytes == null || bufferFor( slot ).getInt( offsetOf( slot ) + STAMP_OFFSET ) !=
+                    entity.getRegisteredSize() )
+            {
+                // Written by someone else since this instance was read, so what we've got is stale
+                index.remove( entity.getId() );
+                free( slot );
+                evictions++;
+                return;
+            }
+            store( entity, bytes );
+        }
+    }
+
+    @Override
+    public synchronized void clear()
+    {
+        index.clear();
+        freeListHead = NO_SLOT;
+        freeListSize = 0;
+        highestUsedSlot = 0;
+        usedSlots = 0;
+        clockHand = 0;
+    }
+
+    @Override
+    public synchronized long size()
+    {
+        return index.size();
+    }
+
+    @Override
+    public long hitCount()
+    {
+        return counter.getHitsCount();
+    }
+
+    @Override
+    public long missCount()
+    {
+        return counter.getMissCount();
+    }
+
+    @Override
+    public synchronized void printStatistics()
+    {
+        logger.logMessage( name + " entities:" + index.size() + " used:" + (long) usedSlots * slotSize +
+                "/" + (long) slotCount * slotSize + " bytes hits:" + hitCount() + " misses:" + missCount() +
+                " evictions:" + evictions );
+    }
+
+    private ByteBuffer serialize( E entity )
+    {
+        ByteBuffer buffer = scratch.get();
+        while ( true )
+        {
+            buffer.clear();
+            try
+            {
+                serializer.write( entity, buffer );
+                buffer.flip();
+                return buffer;
+            }
+            catch ( BufferOverflowException e )
+            {
+                buffer = ByteBuffer.allocate( buffer.capacity() * 2 );
+                scratch.set( buffer );
+            }
+            catch ( IllegalArgumentException e )
+            {
+                // Can't be represented as bytes, so it won't be cached
+                return null;
+            }
+        }
+    }
+
+    private void store( E entity, ByteBuffer bytes )
+    {
+        long id = entity.getId();
+        int existing = index.remove( id );
+        if ( existing != NO_SLOT )
+        {
+            free( existing );
+        }
+        int slotsNeeded = slotsNeededFor( bytes.remaining() );
+        if ( slotsNeeded > slotCount )
+        {
+            return;
+        }
+        while ( freeListSize + (slotCount - highestUsedSlot) < slotsNeeded )
+        {
+            evictOne();
+        }
+
+        int length = bytes.remaining();
+        int first = allocate();
+        int slot = first;
+        ByteBuffer buffer = bufferFor( slot );
+        int offset = offsetOf( slot );
+        int payload = FIRST_HEADER_SIZE;
+        while ( true )
+        {
+            int chunk = Math.min( bytes.remaining(), slotSize - payload );
+            ByteBuffer source = bytes.duplicate();
+            source.limit( source.position() + chunk );
+            buffer.position( offset + payload );
+            buffer.put( source );
+            bytes.position( bytes.position() + chunk );
+            if ( !bytes.hasRemaining() )
+            {
+                buffer.putInt( offset + NEXT_OFFSET, NO_SLOT );
+                break;
+            }
+            int next = allocate();
+            buffer.putInt( offset + NEXT_OFFSET, next );
+            buffer = bufferFor( next );
+            offset = offsetOf( next );
+            payload = HEADER_SIZE;
+        }
+
+        int stamp = ++stampCounter;
+        buffer = bufferFor( first );
+        offset = offsetOf( first );
+        buffer.putInt( offset + LENGTH_OFFSET, length );
+        buffer.putInt( offset + STAMP_OFFSET, stamp );
+        buffer.putLong( offset + ID_OFFSET, id );
+        buffer.put( offset + REFERENCED_OFFSET, (byte) 1 );
+        buffer.put( offset + STATE_OFFSET, FIRST );
+        index.put( id, first );
+        entity.setRegisteredSize( stamp );
+    }
+
+    private byte[] readChain( int slot )
+    {
+        ByteBuffer buffer = bufferFor( slot );
+        int offset = offsetOf( slot );
+        byte[] bytes = new byte[buffer.getInt( offset + LENGTH_OFFSET )];
+        int position = 0;
+        int payload = FIRST_HEADER_SIZE;
+        while ( true )
+        {
+            int chunk = Math.min( bytes.length - position, slotSize - payload );
+            ByteBuffer source = buffer.duplicate();
+            source.position( offset + payload );
+            source.get( bytes, position, chunk );
+            position += chunk;
+            if ( position == bytes.length )
+            {
+                return bytes;
+            }
+            slot = buffer.getInt( offset + NEXT_OFFSET );
+            buffer = bufferFor( slot );
+            offset = offsetOf( slot );
+            payload = HEADER_SIZE;
+        }
+    }
+
+    private int slotsNeededFor( int length )
+    {
+        int firstPayload = slotSize - FIRST_HEADER_SIZE;
+        if ( length <= firstPayload )
+        {
+            return 1;
+        }
+        int payload = slotSize - HEADER_SIZE;
+        return 1 + (length - firstPayload + payload - 1) / payload;
+    }
+
+    private void evictOne()
+    {
+        while ( true )
+        {
+            if ( clockHand >= highestUsedSlot )
+            {
+                clockHand = 0;
+            }
+            int slot = clockHand++;
+            ByteBuffer buffer = bufferFor( slot );
+            int offset = offsetOf( slot );
+            if ( buffer.get( offset + STATE_OFFSET ) != FIRST )
+            {
+                continue;
+            }
+            if ( buffer.get( offset + REFERENCED_OFFSET ) != 0 )
+            {
+                buffer.put( offset + REFERENCED_OFFSET, (byte) 0 );
+                continue;
+            }
+            index.remove( buffer.getLong( offset + ID_OFFSET ) );
+            free( slot );
+            evictions++;
+            return;
+        }
+    }
+
+    private int allocate()
+    {
+        int slot;
+        if ( freeListHead != NO_SLOT )
+        {
+            slot = freeListHead;
+            freeListHead = bufferFor( slot ).getInt( offsetOf( slot ) + NEXT_OFFSET );
+            freeListSize--;
+        }
+        else
+        {
+            slot = highestUsedSlot++;
+        }
+        // Not visible to the clock until the whole chain is written
+        bufferFor( slot ).put( offsetOf( slot ) + STATE_OFFSET, CONTINUATION );
+        usedSlots++;
+        return slot;
+    }
+
+    private void free( int slot )
+    {
+        while ( slot != NO_SLOT )
+        {
+            ByteBuffer buffer = bufferFor( slot );
+            int offset = offsetOf( slot );
+            int next = buffer.getInt( offset + NEXT_OFFSET );
+            buffer.put( offset + STATE_OFFSET, FREE );
+            buffer.putInt( offset + NEXT_OFFSET, freeListHead );
+            freeListHead = slot;
+            freeListSize++;
+            usedSlots--;
+            slot = next;
+        }
+    }
+
+    private ByteBuffer bufferFor( int slot )
+    {
+        int bufferIndex = slot / slotsPerBuffer;
+        ByteBuffer buffer = buffers[bufferIndex];
+        if ( buffer == null )
+        {
+            int slots = Math.min( slotsPerBuffer, slotCount - bufferIndex * slotsPerBuffer );
+            buffer = ByteBuffer.allocateDirect( slots * slotSize );
+            buffers[bufferIndex] = buffer;
+        }
+        return buffer;
+    }
+
+    private int offsetOf( int slot )
+    {
+        return (slot % slotsPerBuffer) * slotSize;
+    }
+
+    /**
+     * Open addressing hash table from id to the first slot of an entity, so
+     * that neither lookups nor inserts allocate any objects.
+     */
+    private static class SlotIndex
+    {
+        private static final long NO_KEY = -1;
+
+        private long[] keys;
+        private int[] values;
+        private int size;
+
+        SlotIndex()
+        {
+            allocate( 1024 );
+        }
+
+        int get( long key )
+        {
+            int mask = keys.length - 1;
+            for ( int i = hash( key ) & mask; ; i = (i + 1) & mask )
+            {
+                if ( keys[i] == key )
+                {
+                    return values[i];
+                }
+                if ( keys[i] == NO_KEY )
+                {
+                    return NO_SLOT;
+                }
+            }
+        }
+
+        void put( long key, int value )
+        {
+            if ( (size + 1) * 4L > keys.length * 3L )
+            {
+                grow();
+            }
+            int mask = keys.length - 1;
+            for ( int i = hash( key ) & mask; ; i = (i + 1) & mask )
+            {
+                if ( keys[i] == key )
+                {
+                    values[i] = value;
+                    return;
+                }
+                if ( keys[i] == NO_KEY )
+                {
+                    keys[i] = key;
+                    values[i] = value;
+                    size++;
+                    return;
+                }
+            }
+        }
+
+        int remove( long key )
+        {
+            int mask = keys.length - 1;
+            int i = hash( key ) & mask;
+            while ( keys[i] != key )
+            {
+                if ( keys[i] == NO_KEY )
+                {
+                    return NO_SLOT;
+                }
+                i = (i + 1) & mask;
+            }
+            int removed = values[i];
+            size--;
+            // Shift back the following entries in the probe sequence into the hole
+            int hole = i;
+            for ( int j = (i + 1) & mask; keys[j] != NO_KEY; j = (j + 1) & mask )
+            {
+                int home = hash( keys[j] ) & mask;
+                if ( ((j - home) & mask) >= ((j - hole) & mask) )
+                {
+                    keys[hole] = keys[j];
+                    values[hole] = values[j];
+                    hole = j;
+                }
+            }
+            keys[hole] = NO_KEY;
+            return removed;
+        }
+
+        int size()
+        {
+            return size;
+        }
+
+        void clear()
+        {
+            allocate( 1024 );
+        }
+
+        private void grow()
+        {
+            long[] oldKeys = keys;
+            int[] oldValues = values;
+            allocate( oldKeys.length * 2 );
+            for ( int i = 0; i < oldKeys.length; i++ )
+            {
+                if ( oldKeys[i] != NO_KEY )
+                {
+                    put( oldKeys[i], oldValues[i] );
+                }
+            }
+        }
+
+        private void allocate( int capacity )
+        {
+            keys = new long[capacity];
+            values = new int[capacity];
+            Arrays.fill( keys, NO_KEY );
+            size = 0;
+        }
+
+        private static int hash( long key )
+        {
+            long h = key * 0x9E3779B97F4A7C15L;
+            return (int) (h ^ (h >>> 32));
+        }
+    }
+}
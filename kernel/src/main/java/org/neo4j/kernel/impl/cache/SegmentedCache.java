@@ -0,0 +1,386 @@
+/**
+ * Copyright (c) 2002-2012 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel.impl.cache;
+
+import java.util.Collection;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.neo4j.kernel.impl.util.StringLogger;
+
+/**
+ * A size bounded {@link Cache} which scales with the number of concurrent
+ * readers. Entities are spread over a number of segments, each one with its own
+ * lock for modifications and its own share of the maximum size. Lookups don't
+ * take any lock at all, they only mark the found entry as recently used.
+ * <p>
+ * When the total size of the entities in a segment, as reported by
+ * {@link EntityWithSize#size()}, grows above its share a clock sweep over the
+ * segment evicts entries which haven't been used since the previous sweep.
+ */
+public class SegmentedCache<E extends EntityWithSize> implements Cache<E>
+{
+    private final String name;
+    private final StringLogger logger;
+    private final Segment<E>[] segments;
+    private final int segmentMask;
+    private final HitCounter counter = new HitCounter();
+
+    public SegmentedCache( String name, long maxSize, int concurrencyLevel, StringLogger logger )
+    {
+        if ( maxSize <= 0 || concurrencyLevel <= 0 )
+        {
+            throw new IllegalArgumentException( "maxSize=" + maxSize + ", concurrencyLevel=" + concurrencyLevel );
+        }
+        int segmentCount = 1;
+        while ( segmentCount < concurrencyLevel )
+        {
+            segmentCount <<= 1;
+        }
+        this.name = name;
+        this.logger = logger;
+        this.segments = newSegments( segmentCount );
+        this.segmentMask = segmentCount - 1;
+        for ( int i = 0; i < segmentCount; i++ )
+        {
+            segments[i] = new Segment<E>( Math.max( 1, maxSize / segmentCount ) );
+        }
+    }
+
+    @Override
+    public String getName()
+    {
+        return name;
+    }
+
+    @Override
+    public void put( E value )
+    {
+        long key = value.getId();
+        int hash = hash( key );
+        segmentFor( hash ).put( key, hash, value );
+    }
+
+    @Override
+    public void putAll( Collection<E> values )
+    {
+        for ( E value : values )
+        {
+            put( value );
+        }
+    }
+
+    @Override
+    public E get( long key )
+    {
+        int hash = hash( key );
+        return counter.count( segmentFor( hash ).get( key, hash ) );
+    }
+
+    @Override
+    public E remove( long key )
+    {
+        int hash = hash( key );
+        return segmentFor( hash ).remove( key, hash );
+    }
+
+    @Override
+    public void updateSize( E entity, int newSize )
+    {
+        long key = entity.getId();
+        int hash = hash( key );
+        segmentFor( hash ).updateSize( key, hash, entity, newSize );
+    }
+
+    @Override
+    public void clear()
+    {
+        for ( Segment<E> segment : segments )
+        {
+            segment.clear();
+        }
+    }
+
+    /**
+     * @return the number of entities in this cache.
+     */
+    @Override
+    public long size()
+    {
+        long size = 0;
+        for ( Segment<E> segment : segments )
+        {
+            size += segment.count;
+        }
+        return size;
+    }
+
+    @Override
+    public long hitCount()
+    {
+        return counter.getHitsCount();
+    }
+
+    @Override
+    public long missCount()
+    {
+        return counter.getMissCount();
+    }
+
+    @Override
+    public void printStatistics()
+    {
+        long size = 0, maxSize = 0, evictions = 0;
+        for ( Segment<E> segment : segments )
+        {
+            size += segment.size;
+            maxSize += segment.maxSize;
+            evictions += segment.evictions;
+        }
+        logger.logMessage( name + " entities:" + size() + " size:" + size + "/" + maxSize + " hits:" +
+                hitCount() + " misses:" + missCount() + " evictions:" + evictions );
+    }
+
+    private Segment<E> segmentFor( int hash )
+    {
+        return segments[( hash >>> 16 ) & segmentMask];
+    }
+
+    private static int hash( long key )
+    {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) ( h ^ ( h >>> 32 ) );
+    }
+
+    private static class Entry<E>
+    {
+        final long key;
+        final int hash;
+        final E value;
+        final Entry<E> next;
+        volatile boolean referenced = true;
+
+        Entry( long key, int hash, E value, Entry<E> next )
+        {
+            this.key = key;
+            this.hash = hash;
+            this.value = value;
+            this.next = next;
+        }
+    }
+
+    @SuppressWarnings( { "unchecked", "rawtypes" } )
+    private static <E extends EntityWithSize> Segment<E>[] newSegments( int count )
+    {
+        return new Segment[count];
+    }
+
+    private static class Segment<E extends EntityWithSize> extends ReentrantLock
+    {
+        private static final long serialVersionUID = 1L;
+
+        private final long maxSize;
+        private volatile AtomicReferenceArray<Entry<E>> table = new AtomicReferenceArray<Entry<E>>( 16 );
+        // Only modified under the lock, read without it for statistics
+        private volatile int count;
+        private long size;
+        private long evictions;
+        private int clockHand;
+
+        Segment( long maxSize )
+        {
+            this.maxSize = maxSize;
+        }
+
+        E get( long key, int hash )
+        {
+            AtomicReferenceArray<Entry<E>> table = this.table;
+            for ( Entry<E> entry = table.get( hash & ( table.length() - 1 ) ); entry != null; entry = entry.next )
+            {
+                if ( entry.key == key )
+                {
+                    if ( !entry.referenced )
+                    {
+                        // Only write when needed, to not invalidate the cache line for other readers
+                        entry.referenced = true;
+                    }
+                    return entry.value;
+                }
+            }
+            return null;
+        }
+
+        void put( long key, int hash, E value )
+        {
+            lock();
+            try
+            {
+                removeEntry( key, hash );
+                if ( count + 1 > table.length() * 3 / 4 )
+                {
+                    rehash();
+                }
+                int index = hash & ( table.length() - 1 );
+                table.set( index, new Entry<E>( key, hash, value, table.get( index ) ) );
+                count++;
+                int entitySize = value.size();
+                value.setRegisteredSize( entitySize );
+                size += entitySize;
+                evictIfNeeded();
+            }
+            finally
+            {
+                unlock();
+            }
+        }
+
+        E remove( long key, int hash )
+        {
+            lock();
+            try
+            {
+                return removeEntry( key, hash );
+            }
+            finally
+            {
+                unlock();
+            }
+        }
+
+        void updateSize( long key, int hash, E entity, int newSize )
+        {
+            lock();
+            try
+            {
+                AtomicReferenceArray<Entry<E>> table = this.table;
+                for ( Entry<E> entry = table.get( hash & ( table.length() - 1 ) ); entry != null; entry = entry.next )
+                {
+                    if ( entry.key == key )
+                    {
+                        if ( entry.value == entity )
+                        {
+                            size += newSize - entity.getRegisteredSize();
+                            entity.setRegisteredSize( newSize );
+                            evictIfNeeded();
+                        }
+                        return;
+                    }
+                }
+            }
+            finally
+            {
+                unlock();
+            }
+        }
+
+        void clear()
+        {
+            lock();
+            try
+            {
+                table = new AtomicReferenceArray<Entry<E>>( 16 );
+                count = 0;
+                size = 0;
+                clockHand = 0;
+            }
+            finally
+            {
+                unlock();
+            }
+        }
+
+        // Precondition: called under the lock
+        private E removeEntry( long key, int hash )
+        {
+            AtomicReferenceArray<Entry<E>> table = this.table;
+            int index = hash & ( table.length() - 1 );
+            Entry<E> first = table.get( index );
+            for ( Entry<E> entry = first; entry != null; entry = entry.next )
+            {
+                if ( entry.key == key )
+                {
+                    // Entries are immutable so that readers never see a half updated
+                    // chain, copy the ones in front of the removed entry instead
+                    Entry<E> newFirst = entry.next;
+                    for ( Entry<E> copy = first; copy != entry; copy = copy.next )
+                    {
+                        newFirst = new Entry<E>( copy.key, copy.hash, copy.value, newFirst );
+                        newFirst.referenced = copy.referenced;
+                    }
+                    table.set( index, newFirst );
+                    count--;
+                    size -= entry.value.getRegisteredSize();
+                    return entry.value;
+                }
+            }
+            return null;
+        }
+
+        // Precondition: called under the lock
+        private void rehash()
+        {
+            AtomicReferenceArray<Entry<E>> oldTable = this.table;
+            AtomicReferenceArray<Entry<E>> newTable = new AtomicReferenceArray<Entry<E>>( oldTable.length() * 2 );
+            int mask = newTable.length() - 1;
+            for ( int i = 0; i < oldTable.length(); i++ )
+            {
+                for ( Entry<E> entry = oldTable.get( i ); entry != null; entry = entry.next )
+                {
+                    int index = entry.hash & mask;
+                    Entry<E> copy = new Entry<E>( entry.key, entry.hash, entry.value, newTable.get( index ) );
+                    copy.referenced = entry.referenced;
+                    newTable.set( index, copy );
+                }
+            }
+            this.table = newTable;
+            clockHand = 0;
+        }
+
+        // Precondition: called under the lock
+        private void evictIfNeeded()
+        {
+            AtomicReferenceArray<Entry<E>> table = this.table;
+            int length = table.length();
+            // Two rounds is enough for every entry to have had its reference bit cleared
+            for ( int visited = 0; size > maxSize && count > 1 && visited < length * 2; visited++ )
+            {
+                int index = clockHand;
+                clockHand = ( clockHand + 1 ) & ( length - 1 );
+                Entry<E> victim = null;
+                for ( Entry<E> entry = table.get( index ); entry != null; entry = entry.next )
+                {
+                    if ( entry.referenced )
+                    {
+                        entry.referenced = false;
+                    }
+                    else if ( victim == null )
+                    {
+                        victim = entry;
+                    }
+                }
+                if ( victim != null )
+                {
+                    removeEntry( victim.key, victim.hash );
+                    evictions++;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,57 @@
+/**
+ * Copyright (c) 2002-2012 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel.impl.cache;
+
+import org.neo4j.graphdb.factory.GraphDatabaseSettings;
+import org.neo4j.helpers.Service;
+import org.neo4j.kernel.configuration.Config;
+import org.neo4j.kernel.impl.core.NodeImpl;
+import org.neo4j.kernel.impl.core.RelationshipImpl;
+import org.neo4j.kernel.impl.util.StringLogger;
+
+@Service.Implementation( CacheProvider.class )
+public class SegmentedCacheProvider extends CacheProvider
+{
+    public static final String NAME = "segmented";
+
+    public SegmentedCacheProvider()
+    {
+        super( NAME, "segmented concurrent cache" );
+    }
+
+    @Override
+    public Cache<NodeImpl> newNodeCache( StringLogger logger, Config config )
+    {
+        return new SegmentedCache<NodeImpl>( NODE_CACHE_NAME, config.get( GraphDatabaseSettings.node_cache_size ),
+                concurrencyLevel(), logger );
+    }
+
+    @Override
+    public Cache<RelationshipImpl> newRelationshipCache( StringLogger logger, Config config )
+    {
+        return new SegmentedCache<RelationshipImpl>( RELATIONSHIP_CACHE_NAME,
+                config.get( GraphDatabaseSettings.relationship_cache_size ), concurrencyLevel(), logger );
+    }
+
+    private static int concurrencyLevel()
+    {
+        return Runtime.getRuntime().availableProcessors() * 4;
+    }
+}
@@ -20,16 +20,14 @@
 package org.neo4j.kernel.impl.cache;
 
 import java.lang.ref.ReferenceQueue;
-import java.lang.ref.SoftReference;
 import java.util.Collection;
-import java.util.HashMap;
-import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
+
+import org.neo4j.kernel.impl.util.ConcurrentLongObjectMap;
 
 public class SoftLruCache<E extends EntityWithSize> extends ReferenceCache<E>
 {
-    private final ConcurrentHashMap<Long,SoftValue<Long,E>> cache =
-        new ConcurrentHashMap<Long,SoftValue<Long,E>>();
+    private final ConcurrentLongObjectMap<SoftValue<Long,E>> cache =
+        new ConcurrentLongObjectMap<SoftValue<Long,E>>();
 
     private final SoftReferenceQueue<Long,E> refQueue =
         new SoftReferenceQueue<Long,E>();
@@ -54,35 +52,34 @@ public class SoftLruCache<E extends EntityWithSize> extends ReferenceCache<E>
 
     public void putAll( Collection<E> list )
     {
-        Map<Long,SoftValue<Long,E>> softMap = new HashMap<Long,SoftValue<Long,E>>( list.size() * 2 );
         for ( E entry : list )
         {
             Long key = entry.getId();
             SoftValue<Long,E> ref =
                 new SoftValue<Long,E>( key, entry, (ReferenceQueue) refQueue );
-            softMap.put( key, ref );
+            cache.put( key, ref );
         }
-        cache.putAll( softMap );
         pollClearedValues();
     }
 
     public E get( long key )
     {
-        SoftReference<E> ref = cache.get( key );
+        SoftValue<Long,E> ref = cache.get( key );
         if ( ref != null )
         {
-            if ( ref.get() == null )
+            E value = ref.get();
+            if ( value == null )
             {
-                cache.remove( key );
+                cache.remove( key, ref );
             }
-            return counter.count( ref.get() );
+            return counter.count( value );
         }
         return counter.<E>count( null );
     }
 
     public E remove( long key )
     {
-        SoftReference<E> ref = cache.remove( key );
+        SoftValue<Long,E> ref = cache.remove( key );
         if ( ref != null )
         {
             return ref.get();
@@ -96,7 +93,8 @@ public class SoftLruCache<E extends EntityWithSize> extends ReferenceCache<E>
         SoftValue<Long,E> clearedValue = refQueue.safePoll();
         while ( clearedValue != null )
         {
-            cache.remove( clearedValue.key );
+            // Only if not replaced by a newer value in the meantime
+            cache.remove( clearedValue.key, clearedValue );
             clearedValue = refQueue.safePoll();
         }
     }
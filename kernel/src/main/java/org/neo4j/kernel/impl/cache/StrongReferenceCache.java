@@ -21,12 +21,13 @@ package org.neo4j.kernel.impl.cache;
 
 import java.util.Collection;
 import java.util.List;
-import java.util.concurrent.ConcurrentHashMap;
+
+import org.neo4j.kernel.impl.util.ConcurrentLongObjectMap;
 
 public class StrongReferenceCache<E extends EntityWithSize> implements Cache<E>
 {
     private final String name;
-    private final ConcurrentHashMap<Long,E> cache = new ConcurrentHashMap<Long,E>();
+    private final ConcurrentLongObjectMap<E> cache = new ConcurrentLongObjectMap<E>();
 
     private final HitCounter counter = new HitCounter();
 
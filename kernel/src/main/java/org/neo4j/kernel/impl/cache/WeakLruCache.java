@@ -20,16 +20,14 @@
 package org.neo4j.kernel.impl.cache;
 
 import java.lang.ref.ReferenceQueue;
-import java.lang.ref.WeakReference;
 import java.util.Collection;
-import java.util.HashMap;
-import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
+
+import org.neo4j.kernel.impl.util.ConcurrentLongObjectMap;
 
 public class WeakLruCache<E extends EntityWithSize> extends ReferenceCache<E>
 {
-    private final ConcurrentHashMap<Long,WeakValue<Long,E>> cache =
-        new ConcurrentHashMap<Long,WeakValue<Long,E>>();
+    private final ConcurrentLongObjectMap<WeakValue<Long,E>> cache =
+        new ConcurrentLongObjectMap<WeakValue<Long,E>>();
 
     private final WeakReferenceQueue<Long,E> refQueue =
         new WeakReferenceQueue<Long,E>();
@@ -54,35 +52,34 @@ public class WeakLruCache<E extends EntityWithSize> extends ReferenceCache<E>
 
     public void putAll( Collection<E> entities )
     {
-        Map<Long,WeakValue<Long,E>> softMap = new HashMap<Long,WeakValue<Long,E>>( entities.size() * 2 );
         for ( E entity : entities )
         {
             Long key = entity.getId();
             WeakValue<Long,E> ref =
                 new WeakValue<Long,E>( key, entity, (ReferenceQueue) refQueue );
-            softMap.put( key, ref );
+            cache.put( key, ref );
         }
-        cache.putAll( softMap );
         pollClearedValues();
     }
 
     public E get( long key )
     {
-        WeakReference<E> ref = cache.get( key );
+        WeakValue<Long,E> ref = cache.get( key );
         if ( ref != null )
         {
-            if ( ref.get() == null )
+            E value = ref.get();
+            if ( value == null )
             {
-                cache.remove( key );
+                cache.remove( key, ref );
             }
-            return counter.count( ref.get() );
+            return counter.count( value );
         }
         return counter.<E>count( null );
     }
 
     public E remove( long key )
     {
-        WeakReference<E> ref = cache.remove( key );
+        WeakValue<Long,E> ref = cache.remove( key );
         if ( ref != null )
         {
             return ref.get();
@@ -96,7 +93,8 @@ public class WeakLruCache<E extends EntityWithSize> extends ReferenceCache<E>
         WeakValue<Long,E> clearedValue = refQueue.safePoll();
         while ( clearedValue != null )
         {
-            cache.remove( clearedValue.key );
+            // Only if not replaced by a newer value in the meantime
+            cache.remove( clearedValue.key, clearedValue );
             clearedValue = refQueue.safePoll();
         }
     }
@@ -104,6 +104,16 @@ abstract class ArrayBasedPrimitive extends Primitive implements EntityWithSize
         return properties;
     }
 
+    /**
+     * Sets the properties array as is, without notifying any cache about it.
+     * Used when an instance is recreated from state which was already
+     * registered with a cache, see {@link EntitySerializers}.
+     */
+    void restoreProperties( PropertyData[] properties )
+    {
+        this.properties = properties;
+    }
+
     @Override
     protected PropertyData getPropertyForIndex( int keyId )
     {
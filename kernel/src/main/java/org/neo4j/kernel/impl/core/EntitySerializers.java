@@ -0,0 +1,399 @@
+/**
+ * Copyright (c) 2002-2012 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel.impl.core;
+
+import java.nio.ByteBuffer;
+
+import org.neo4j.kernel.impl.cache.EntitySerializer;
+import org.neo4j.kernel.impl.nioneo.store.DenseNodeChainPosition;
+import org.neo4j.kernel.impl.nioneo.store.PropertyData;
+import org.neo4j.kernel.impl.nioneo.store.PropertyDatas;
+import org.neo4j.kernel.impl.nioneo.store.Record;
+import org.neo4j.kernel.impl.nioneo.store.RelationshipLoadingPosition;
+import org.neo4j.kernel.impl.nioneo.store.SingleChainPosition;
+import org.neo4j.kernel.impl.util.RelIdArray;
+import org.neo4j.kernel.impl.util.RelIdArray.DirectionWrapper;
+import org.neo4j.kernel.impl.util.RelIdArrayWithLoops;
+import org.neo4j.kernel.impl.util.RelIdIterator;
+
+/**
+ * {@link EntitySerializer}s for {@link NodeImpl} and {@link RelationshipImpl},
+ * writing the state they've got cached, i.e. properties and relationship ids
+ * loaded so far.
+ */
+public class EntitySerializers
+{
+    private static final byte NOT_LOADED = 0;
+    private static final byte BOOLEAN = 1;
+    private static final byte BYTE = 2;
+    private static final byte SHORT = 3;
+    private static final byte CHAR = 4;
+    private static final byte INT = 5;
+    private static final byte LONG = 6;
+    private static final byte FLOAT = 7;
+    private static final byte DOUBLE = 8;
+    private static final byte STRING = 9;
+    private static final byte ARRAY = 0x10;
+
+    private static final DirectionWrapper[] DIRECTIONS = new DirectionWrapper[] {
+            DirectionWrapper.OUTGOING, DirectionWrapper.INCOMING, DirectionWrapper.BOTH };
+
+    public static final EntitySerializer<NodeImpl> NODE = new EntitySerializer<NodeImpl>()
+    {
+        @Override
+        public void write( NodeImpl node, ByteBuffer target )
+        {
+            RelationshipLoadingPosition position = node.getRelChainPosition();
+            // The positions of a dense node aren't kept, its relationships will be loaded again instead
+            boolean dense = position instanceof DenseNodeChainPosition;
+            target.putLong( dense ? Record.NO_NEXT_RELATIONSHIP.intValue() :
+                    position.position( DirectionWrapper.BOTH, null ) );
+            writeProperties( node.allProperties(), target );
+            RelIdArray[] relationships = dense ? null : node.getRelationshipIds();
+            if ( relationships == null )
+            {
+                target.putInt( -1 );
+                return;
+            }
+            target.putInt( relationships.length );
+            for ( RelIdArray ids : relationships )
+            {
+                writeString( ids.getType(), target );
+                for ( DirectionWrapper direction : DIRECTIONS )
+                {
+                    int countPosition = target.position();
+                    target.putInt( 0 );
+                    int count = 0;
+                    for ( RelIdIterator iterator = ids.exclusiveIterator( direction ); iterator.hasNext(); count++ )
+                    {
+                        target.putLong( iterator.next() );
+                    }
+                    target.putInt( countPosition, count );
+                }
+            }
+        }
+
+        @Override
+        public NodeImpl read( long id, ByteBuffer source )
+        {
+            NodeImpl node = new NodeImpl( id, -1, -1 );
+            long relChainPosition = source.getLong();
+            node.restoreProperties( readProperties( source ) );
+            int types = source.getInt();
+            RelIdArray[] relationships = null;
+            if ( types != -1 )
+            {
+                relationships = new RelIdArray[types];
+                for ( int i = 0; i < types; i++ )
+                {
+                    RelIdArray ids = new RelIdArrayWithLoops( readString( source ) );
+                    for ( DirectionWrapper direction : DIRECTIONS )
+                    {
+                        for ( int count = source.getInt(); count > 0; count-- )
+                        {
+                            ids.add( source.getLong(), direction );
+                        }
+                    }
+                    relationships[i] = ids.downgradeIfPossible().shrink();
+                }
+            }
+            node.restoreRelationships( relationships, relChainPosition == Record.NO_NEXT_RELATIONSHIP.intValue() ?
+                    RelationshipLoadingPosition.EMPTY : new SingleChainPosition( relChainPosition ) );
+            return node;
+        }
+    };
+
+    public static final EntitySerializer<RelationshipImpl> RELATIONSHIP = new EntitySerializer<RelationshipImpl>()
+    {
+        @Override
+        public void write( RelationshipImpl relationship, ByteBuffer target )
+        {
+            target.putLong( relationship.getStartNodeId() );
+            target.putLong( relationship.getEndNodeId() );
+            target.putInt( relationship.getTypeId() );
+            writeProperties( relationship.allProperties(), target );
+        }
+
+        @Override
+        public RelationshipImpl read( long id, ByteBuffer source )
+        {
+            long startNodeId = source.getLong();
+            long endNodeId = source.getLong();
+            int typeId = source.getInt();
+            RelationshipImpl relationship = new RelationshipImpl( id, startNodeId, endNodeId, typeId, false );
+            relationship.restoreProperties( readProperties( source ) );
+            return relationship;
+        }
+    };
+
+    private EntitySerializers()
+    {
+    }
+
+    static void writeProperties( PropertyData[] properties, ByteBuffer target )
+    {
+        if ( properties == null )
+        {
+            target.putInt( -1 );
+            return;
+        }
+        target.putInt( properties.length );
+        for ( PropertyData property : properties )
+        {
+            target.putInt( property.getIndex() );
+            target.putLong( property.getId() );
+            writeValue( property.getValue(), target );
+        }
+    }
+
+    static PropertyData[] readProperties( ByteBuffer source )
+    {
+        int count = source.getInt();
+        if ( count == -1 )
+        {
+            return null;
+        }
+        if ( count == 0 )
+        {
+            return Primitive.NO_PROPERTIES;
+        }
+        PropertyData[] properties = new PropertyData[count];
+        for ( int i = 0; i < count; i++ )
+        {
+            int index = source.getInt();
+            long id = source.getLong();
+            properties[i] = readPropertyData( index, id, source );
+        }
+        return properties;
+    }
+
+    private static PropertyData readPropertyData( int index, long id, ByteBuffer source )
+    {
+        byte type = source.get();
+        switch ( type )
+        {
+        case NOT_LOADED: return PropertyDatas.forStringOrArray( index, id, null );
+        case BOOLEAN: return PropertyDatas.forBoolean( index, id, source.get() != 0 );
+        case BYTE: return PropertyDatas.forByte( index, id, source.get() );
+        case SHORT: return PropertyDatas.forShort( index, id, source.getShort() );
+        case CHAR: return PropertyDatas.forChar( index, id, source.getChar() );
+        case INT: return PropertyDatas.forInt( index, id, source.getInt() );
+        case LONG: return PropertyDatas.forLong( index, id, source.getLong() );
+        case FLOAT: return PropertyDatas.forFloat( index, id, source.getFloat() );
+        case DOUBLE: return PropertyDatas.forDouble( index, id, source.getDouble() );
+        case STRING: return PropertyDatas.forStringOrArray( index, id, readString( source ) );
+        default: return PropertyDatas.forStringOrArray( index, id, readArray( (byte) (type & ~ARRAY), source ) );
+        }
+    }
+
+    private static void writeValue( Object value, ByteBuffer target )
+    {
+        if ( value == null )
+        {
+            target.put( NOT_LOADED );
+        }
+        else if ( value instanceof Boolean )
+        {
+            target.put( BOOLEAN ).put( (byte) (((Boolean) value).booleanValue() ? 1 : 0) );
+        }
+        else if ( value instanceof Byte )
+        {
+            target.put( BYTE ).put( ((Byte) value).byteValue() );
+        }
+        else if ( value instanceof Short )
+        {
+            target.put( SHORT ).putShort( ((Short) value).shortValue() );
+        }
+        else if ( value instanceof Character )
+        {
+            target.put( CHAR ).putChar( ((Character) value).charValue() );
+        }
+        else if ( value instanceof Integer )
+        {
+            target.put( INT ).putInt( ((Integer) value).intValue() );
+        }
+        else if ( value instanceof Long )
+        {
+            target.put( LONG ).putLong( ((Long) value).longValue() );
+        }
+        else if ( value instanceof Float )
+        {
+            target.put( FLOAT ).putFloat( ((Float) value).floatValue() );
+        }
+        else if ( value instanceof Double )
+        {
+            target.put( DOUBLE ).putDouble( ((Double) value).doubleValue() );
+        }
+        else if ( value instanceof String )
+        {
+            target.put( STRING );
+            writeString( (String) value, target );
+        }
+        else
+        {
+            writeArray( value, target );
+        }
+    }
+
+    private static void writeArray( Object value, ByteBuffer target )
+    {
+        if ( value instanceof boolean[] )
+        {
+            boolean[] array = (boolean[]) value;
+            target.put( (byte) (ARRAY | BOOLEAN) ).putInt( array.length );
+            for ( boolean item : array ) target.put( (byte) (item ? 1 : 0) );
+        }
+        else if ( value instanceof byte[] )
+        {
+            byte[] array = (byte[]) value;
+            target.put( (byte) (ARRAY | BYTE) ).putInt( array.length );
+            target.put( array );
+        }
+        else if ( value instanceof short[] )
+        {
+            short[] array = (short[]) value;
+            target.put( (byte) (ARRAY | SHORT) ).putInt( array.length );
+            for ( short item : array ) target.putShort( item );
+        }
+        else if ( value instanceof char[] )
+        {
+            char[] array = (char[]) value;
+            target.put( (byte) (ARRAY | CHAR) ).putInt( array.length );
+            for ( char item : array ) target.putChar( item );
+        }
+        else if ( value instanceof int[] )
+        {
+            int[] array = (int[]) value;
+            target.put( (byte) (ARRAY | INT) ).putInt( array.length );
+            for ( int item : array ) target.putInt( item );
+        }
+        else if ( value instanceof long[] )
+        {
+            long[] array = (long[]) value;
+            target.put( (byte) (ARRAY | LONG) ).putInt( array.length );
+            for ( long item : array ) target.putLong( item );
+        }
+        else if ( value instanceof float[] )
+        {
+            float[] array = (float[]) value;
+            target.put( (byte) (ARRAY | FLOAT) ).putInt( array.length );
+            for ( float item : array ) target.putFloat( item );
+        }
+        else if ( value instanceof double[] )
+        {
+            double[] array = (double[]) value;
+            target.put( (byte) (ARRAY | DOUBLE) ).putInt( array.length );
+            for ( double item : array ) target.putDouble( item );
+        }
+        else if ( value instanceof String[] )
+        {
+            String[] array = (String[]) value;
+            target.put( (byte) (ARRAY | STRING) ).putInt( array.length );
+            for ( String item : array ) writeString( item, target );
+        }
+        else
+        {
+            throw new IllegalArgumentException( "Unknown property type " + value.getClass() );
+        }
+    }
+
+    private static Object readArray( byte type, ByteBuffer source )
+    {
+        int length = source.getInt();
+        switch ( type )
+        {
+        case BOOLEAN:
+        {
+            boolean[] array = new boolean[length];
+            for ( int i = 0; i < length; i++ ) array[i] = source.get() != 0;
+            return array;
+        }
+        case BYTE:
+        {
+            byte[] array = new byte[length];
+            source.get( array );
+            return array;
+        }
+        case SHORT:
+        {
+            short[] array = new short[length];
+            for ( int i = 0; i < length; i++ ) array[i] = source.getShort();
+            return array;
+        }
+        case CHAR:
+        {
+            char[] array = new char[length];
+            for ( int i = 0; i < length; i++ ) array[i] = source.getChar();
+            return array;
+        }
+        case INT:
+        {
+            int[] array = new int[length];
+            for ( int i = 0; i < length; i++ ) array[i] = source.getInt();
+            return array;
+        }
+        case LONG:
+        {
+            long[] array = new long[length];
+            for ( int i = 0; i < length; i++ ) array[i] = source.getLong();
+            return array;
+        }
+        case FLOAT:
+        {
+            float[] array = new float[length];
+            for ( int i = 0; i < length; i++ ) array[i] = source.getFloat();
+            return array;
+        }
+        case DOUBLE:
+        {
+            double[] array = new double[length];
+            for ( int i = 0; i < length; i++ ) array[i] = source.getDouble();
+            return array;
+        }
+        case STRING:
+        {
+            String[] array = new String[length];
+            for ( int i = 0; i < length; i++ ) array[i] = readString( source );
+            return array;
+        }
+        default: throw new IllegalStateException( "Unknown array type " + type );
+        }
+    }
+
+    private static void writeString( String value, ByteBuffer target )
+    {
+        int length = value.length();
+        target.putInt( length );
+        for ( int i = 0; i < length; i++ )
+        {
+            target.putChar( value.charAt( i ) );
+        }
+    }
+
+    private static String readString( ByteBuffer source )
+    {
+        char[] chars = new char[source.getInt()];
+        for ( int i = 0; i < chars.length; i++ )
+        {
+            chars[i] = source.getChar();
+        }
+        return new String( chars );
+    }
+}
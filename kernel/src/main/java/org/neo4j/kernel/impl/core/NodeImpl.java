@@ -38,9 +38,11 @@ import org.neo4j.helpers.Triplet;
 import org.neo4j.kernel.impl.cache.SizeOfs;
 import org.neo4j.kernel.impl.core.LockReleaser.CowEntityElement;
 import org.neo4j.kernel.impl.core.LockReleaser.PrimitiveElement;
+import org.neo4j.kernel.impl.nioneo.store.DenseNodeChainPosition;
 import org.neo4j.kernel.impl.nioneo.store.InvalidRecordException;
 import org.neo4j.kernel.impl.nioneo.store.PropertyData;
 import org.neo4j.kernel.impl.nioneo.store.Record;
+import org.neo4j.kernel.impl.nioneo.store.RelationshipLoadingPosition;
 import org.neo4j.kernel.impl.transaction.LockType;
 import org.neo4j.kernel.impl.util.ArrayMap;
 import org.neo4j.kernel.impl.util.CombinedRelIdIterator;
@@ -51,10 +53,11 @@ import org.neo4j.kernel.impl.util.RelIdIterator;
 public class NodeImpl extends ArrayBasedPrimitive
 {
     private static final RelIdArray[] NO_RELATIONSHIPS = new RelIdArray[0];
+    private static final RelationshipType[] NO_TYPES = new RelationshipType[0];
 
     private volatile RelIdArray[] relationships;
 
-    private long relChainPosition = Record.NO_NEXT_RELATIONSHIP.intValue();
+    private RelationshipLoadingPosition relChainPosition = RelationshipLoadingPosition.EMPTY;
     private final long id;
 
     NodeImpl( long id, long firstRel, long firstProp )
@@ -134,7 +137,7 @@ public class NodeImpl extends ArrayBasedPrimitive
 
     List<RelIdIterator> getAllRelationships( NodeManager nodeManager, DirectionWrapper direction )
     {
-        ensureRelationshipMapNotNull( nodeManager );
+        ensureRelationshipMapNotNull( nodeManager, direction, NO_TYPES );
         List<RelIdIterator> relTypeList = new LinkedList<RelIdIterator>();
         boolean hasModifications = nodeManager.getLockReleaser().hasRelationshipModifications( this );
         ArrayMap<String,RelIdArray> addMap = null;
@@ -182,7 +185,7 @@ public class NodeImpl extends ArrayBasedPrimitive
     List<RelIdIterator> getAllRelationshipsOfType( NodeManager nodeManager,
         DirectionWrapper direction, RelationshipType... types)
     {
-        ensureRelationshipMapNotNull( nodeManager );
+        ensureRelationshipMapNotNull( nodeManager, direction, types );
         List<RelIdIterator> relTypeList = new LinkedList<RelIdIterator>();
         boolean hasModifications = nodeManager.getLockReleaser().hasRelationshipModifications( this );
         for ( RelationshipType type : types )
@@ -210,28 +213,31 @@ public class NodeImpl extends ArrayBasedPrimitive
     public Iterable<Relationship> getRelationships( NodeManager nodeManager )
     {
         return new IntArrayIterator( getAllRelationships( nodeManager, DirectionWrapper.BOTH ), this,
-            DirectionWrapper.BOTH, nodeManager, new RelationshipType[0], !hasMoreRelationshipsToLoad() );
+            DirectionWrapper.BOTH, nodeManager, NO_TYPES,
+            !hasMoreRelationshipsToLoad( nodeManager, DirectionWrapper.BOTH, NO_TYPES ) );
     }
 
     public Iterable<Relationship> getRelationships( NodeManager nodeManager, Direction dir )
     {
         DirectionWrapper direction = RelIdArray.wrap( dir );
         return new IntArrayIterator( getAllRelationships( nodeManager, direction ), this, direction,
-            nodeManager, new RelationshipType[0], !hasMoreRelationshipsToLoad() );
+            nodeManager, NO_TYPES, !hasMoreRelationshipsToLoad( nodeManager, direction, NO_TYPES ) );
     }
 
     public Iterable<Relationship> getRelationships( NodeManager nodeManager, RelationshipType type )
     {
         RelationshipType types[] = new RelationshipType[] { type };
         return new IntArrayIterator( getAllRelationshipsOfType( nodeManager, DirectionWrapper.BOTH, types ),
-            this, DirectionWrapper.BOTH, nodeManager, types, !hasMoreRelationshipsToLoad() );
+            this, DirectionWrapper.BOTH, nodeManager, types,
+            !hasMoreRelationshipsToLoad( nodeManager, DirectionWrapper.BOTH, types ) );
     }
 
     public Iterable<Relationship> getRelationships( NodeManager nodeManager,
             RelationshipType... types )
     {
         return new IntArrayIterator( getAllRelationshipsOfType( nodeManager, DirectionWrapper.BOTH, types ),
-            this, DirectionWrapper.BOTH, nodeManager, types, !hasMoreRelationshipsToLoad() );
+            this, DirectionWrapper.BOTH, nodeManager, types,
+            !hasMoreRelationshipsToLoad( nodeManager, DirectionWrapper.BOTH, types ) );
     }
 
     public Iterable<Relationship> getRelationships( NodeManager nodeManager,
@@ -239,7 +245,7 @@ public class NodeImpl extends ArrayBasedPrimitive
     {
         DirectionWrapper dir = RelIdArray.wrap( direction );
         return new IntArrayIterator( getAllRelationshipsOfType( nodeManager, dir, types ),
-            this, dir, nodeManager, types, !hasMoreRelationshipsToLoad() );
+            this, dir, nodeManager, types, !hasMoreRelationshipsToLoad( nodeManager, dir, types ) );
     }
 
     public Relationship getSingleRelationship( NodeManager nodeManager, RelationshipType type,
@@ -248,7 +254,8 @@ public class NodeImpl extends ArrayBasedPrimitive
         DirectionWrapper direction = RelIdArray.wrap( dir );
         RelationshipType types[] = new RelationshipType[] { type };
         Iterator<Relationship> rels = new IntArrayIterator( getAllRelationshipsOfType( nodeManager,
-                direction, types ), this, direction, nodeManager, types, !hasMoreRelationshipsToLoad() );
+                direction, types ), this, direction, nodeManager, types,
+                !hasMoreRelationshipsToLoad( nodeManager, direction, types ) );
         if ( !rels.hasNext() )
         {
             return null;
@@ -268,7 +275,7 @@ public class NodeImpl extends ArrayBasedPrimitive
         RelationshipType types[] = new RelationshipType[] { type };
         DirectionWrapper direction = RelIdArray.wrap( dir );
         return new IntArrayIterator( getAllRelationshipsOfType( nodeManager, direction, types ),
-            this, direction, nodeManager, types, !hasMoreRelationshipsToLoad() );
+            this, direction, nodeManager, types, !hasMoreRelationshipsToLoad( nodeManager, direction, types ) );
     }
 
     public void delete( NodeManager nodeManager, Node proxy )
@@ -332,15 +339,17 @@ public class NodeImpl extends ArrayBasedPrimitive
         relationshipSet.add( relId );
     }
 
-    private void ensureRelationshipMapNotNull( NodeManager nodeManager )
+    private void ensureRelationshipMapNotNull( NodeManager nodeManager, DirectionWrapper direction,
+            RelationshipType[] types )
     {
         if ( relationships == null )
         {
-            loadInitialRelationships( nodeManager );
+            loadInitialRelationships( nodeManager, direction, types );
         }
     }
 
-    private void loadInitialRelationships( NodeManager nodeManager )
+    private void loadInitialRelationships( NodeManager nodeManager, DirectionWrapper direction,
+            RelationshipType[] types )
     {
         // Triplet<ArrayMap<String, RelIdArray>, Map<Long, RelationshipImpl>, Long> rels = null;
         Triplet<ArrayMap<String, RelIdArray>, List<RelationshipImpl>, Long> rels = null;
@@ -359,11 +368,14 @@ public class NodeImpl extends ArrayBasedPrimitive
                 }
 
                 ArrayMap<String,RelIdArray> tmpRelMap = new ArrayMap<String,RelIdArray>();
-                rels = getMoreRelationships( nodeManager, tmpRelMap );
+                // Only the chains of a dense node that are asked for are loaded
+                long position = relChainPosition.position( direction,
+                        nodeManager.getRelationshipTypeIdsFor( types ) );
+                rels = getMoreRelationships( nodeManager, tmpRelMap, position );
                 this.relationships = toRelIdArray( tmpRelMap );
                 if ( rels != null )
                 {
-                    setRelChainPosition( rels.third() );
+                    updateRelChainPosition( position, rels.third() );
                 }
                 updateSize( nodeManager );
             }
@@ -398,21 +410,17 @@ public class NodeImpl extends ArrayBasedPrimitive
 
 //            NodeManager nodeManager, ArrayMap<String,RelIdArray> tmpRelMap )
     private Triplet<ArrayMap<String,RelIdArray>,List<RelationshipImpl>,Long> getMoreRelationships(
-            NodeManager nodeManager, ArrayMap<String,RelIdArray> tmpRelMap )
+            NodeManager nodeManager, ArrayMap<String,RelIdArray> tmpRelMap, long position )
     {
-        if ( !hasMoreRelationshipsToLoad() )
+        if ( position == Record.NO_NEXT_RELATIONSHIP.intValue() )
         {
             return null;
         }
         Triplet<ArrayMap<String,RelIdArray>,List<RelationshipImpl>,Long> rels;
 
-        rels = loadMoreRelationshipsFromNodeManager(nodeManager);
+        rels = loadMoreRelationshipsFromNodeManager( nodeManager, position );
 
         ArrayMap<String,RelIdArray> addMap = rels.first();
-        if ( addMap.size() == 0 )
-        {
-            return null;
-        }
         for ( String type : addMap.keySet() )
         {
             RelIdArray addRels = addMap.get( type );
@@ -435,28 +443,32 @@ public class NodeImpl extends ArrayBasedPrimitive
         // nodeManager.putAllInRelCache( pair.other() );
     }
 
-    boolean hasMoreRelationshipsToLoad()
+    boolean hasMoreRelationshipsToLoad( NodeManager nodeManager, DirectionWrapper direction,
+            RelationshipType[] types )
     {
-        return getRelChainPosition() != Record.NO_NEXT_RELATIONSHIP.intValue();
+        return relChainPosition.hasMore( direction, nodeManager.getRelationshipTypeIdsFor( types ) );
     }
 
-    boolean getMoreRelationships( NodeManager nodeManager )
+    boolean getMoreRelationships( NodeManager nodeManager, DirectionWrapper direction, RelationshipType[] types )
     {
         Triplet<ArrayMap<String,RelIdArray>,List<RelationshipImpl>,Long> rels;
-        if ( !hasMoreRelationshipsToLoad() )
+        int[] typeIds = nodeManager.getRelationshipTypeIdsFor( types );
+        if ( !relChainPosition.hasMore( direction, typeIds ) )
         {
             return false;
         }
         synchronized ( this )
         {
-            if ( !hasMoreRelationshipsToLoad() )
+            long position = relChainPosition.position( direction, typeIds );
+            if ( position == Record.NO_NEXT_RELATIONSHIP.intValue() )
             {
                 return false;
             }
-            rels = loadMoreRelationshipsFromNodeManager(nodeManager);
+            rels = loadMoreRelationshipsFromNodeManager( nodeManager, position );
             ArrayMap<String,RelIdArray> addMap = rels.first();
             if ( addMap.size() == 0 )
             {
+                updateRelChainPosition( position, rels.third() );
                 return false;
             }
             for ( String type : addMap.keySet() )
@@ -478,7 +490,7 @@ public class NodeImpl extends ArrayBasedPrimitive
                     }
                 }
             }
-            setRelChainPosition( rels.third() );
+            updateRelChainPosition( position, rels.third() );
             updateSize( nodeManager );
         }
         nodeManager.putAllInRelCache( rels.second() );
@@ -486,11 +498,11 @@ public class NodeImpl extends ArrayBasedPrimitive
     }
 
     private Triplet<ArrayMap<String, RelIdArray>, List<RelationshipImpl>, Long>
-        loadMoreRelationshipsFromNodeManager( NodeManager nodeManager )
+        loadMoreRelationshipsFromNodeManager( NodeManager nodeManager, long position )
     {
         try
         {
-            return nodeManager.getMoreRelationships( this );
+            return nodeManager.getMoreRelationships( this, position );
         } catch(InvalidRecordException e)
         {
             throw new NotFoundException( "Unable to load one or more relationships from " + asProxy( nodeManager ) +
@@ -599,6 +611,43 @@ public class NodeImpl extends ArrayBasedPrimitive
         return getRelationships( nodeManager, type, dir ).iterator().hasNext();
     }
 
+    public int getDegree( NodeManager nodeManager, Direction dir, RelationshipType... types )
+    {
+        DirectionWrapper direction = RelIdArray.wrap( dir );
+        if ( relationships == null || hasMoreRelationshipsToLoad( nodeManager, direction, types ) )
+        {
+            // Rather than loading the rest of them, count them in the store
+            return nodeManager.getRelationshipDegree( this, direction, types );
+        }
+        int degree = 0;
+        for ( RelIdIterator ids : types.length == 0 ? getAllRelationships( nodeManager, direction ) :
+                getAllRelationshipsOfType( nodeManager, direction, types ) )
+        {
+            while ( ids.hasNext() )
+            {
+                ids.next();
+                degree++;
+            }
+        }
+        return degree;
+    }
+
+    /**
+     * @return whether or not {@link #getDegree(NodeManager, Direction, RelationshipType...)}
+     * can be answered without walking a relationship chain, i.e. when those
+     * relationships are all cached or the node is dense and its groups count
+     * them.
+     */
+    public boolean hasCheapDegree( NodeManager nodeManager, Direction dir, RelationshipType... types )
+    {
+        if ( relationships != null )
+        {
+            return !hasMoreRelationshipsToLoad( nodeManager, RelIdArray.wrap( dir ), types ) ||
+                    relChainPosition instanceof DenseNodeChainPosition;
+        }
+        return nodeManager.getRelationshipChainPosition( this ) instanceof DenseNodeChainPosition;
+    }
+
     protected void commitRelationshipMaps(
         ArrayMap<String,RelIdArray> cowRelationshipAddMap,
         ArrayMap<String,Collection<Long>> cowRelationshipRemoveMap, long firstRel, NodeManager nodeManager )
@@ -646,17 +695,22 @@ public class NodeImpl extends ArrayBasedPrimitive
         }
     }
 
-    long getRelChainPosition()
+    RelationshipLoadingPosition getRelChainPosition()
     {
         return relChainPosition;
     }
 
-    void setRelChainPosition( long position )
-    { // precondition: must be called under synchronization
+    void setRelChainPosition( RelationshipLoadingPosition position )
+    {
         relChainPosition = position;
+    }
+
+    private void updateRelChainPosition( long from, long to )
+    { // precondition: must be called under synchronization
+        relChainPosition.updatePosition( from, to );
         // use local reference to avoid multiple read barriers
         RelIdArray[] array = relationships;
-        if ( !hasMoreRelationshipsToLoad() && array != null )
+        if ( !relChainPosition.hasMore( DirectionWrapper.BOTH, null ) && array != null )
         {
             // Done loading - Shrink arrays
             for ( int i = 0; i < array.length; i++ )
@@ -666,6 +720,12 @@ public class NodeImpl extends ArrayBasedPrimitive
         }
     }
 
+    void restoreRelationships( RelIdArray[] relationships, RelationshipLoadingPosition relChainPosition )
+    { // only called for an instance which isn't yet visible to others
+        this.relationships = relationships;
+        this.relChainPosition = relChainPosition;
+    }
+
     RelIdArray getRelationshipIds( String type )
     {
         return getRelIdArray( type );
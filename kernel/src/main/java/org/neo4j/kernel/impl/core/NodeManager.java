@@ -32,6 +32,7 @@ import java.util.logging.Logger;
 import javax.transaction.SystemException;
 import javax.transaction.Transaction;
 import javax.transaction.TransactionManager;
+import org.neo4j.graphdb.Direction;
 import org.neo4j.graphdb.GraphDatabaseService;
 import org.neo4j.graphdb.Node;
 import org.neo4j.graphdb.NotFoundException;
@@ -51,6 +52,7 @@ import org.neo4j.kernel.impl.nioneo.store.NameData;
 import org.neo4j.kernel.impl.nioneo.store.NodeRecord;
 import org.neo4j.kernel.impl.nioneo.store.PropertyData;
 import org.neo4j.kernel.impl.nioneo.store.Record;
+import org.neo4j.kernel.impl.nioneo.store.RelationshipLoadingPosition;
 import org.neo4j.kernel.impl.nioneo.store.RelationshipRecord;
 import org.neo4j.kernel.impl.persistence.EntityIdGenerator;
 import org.neo4j.kernel.impl.persistence.PersistenceManager;
@@ -92,7 +94,11 @@ public class NodeManager
 
     private static final int INDEX_COUNT = 2500;
 
-    private static final int LOCK_STRIPE_COUNT = 32;
+    // Number of records read in one go when scanning all nodes or relationships
+    private static final int SCAN_BATCH_SIZE = 256;
+
+    // Must be a power of two
+    private static final int LOCK_STRIPE_COUNT = 128;
     private final ReentrantLock loadLocks[] =
         new ReentrantLock[LOCK_STRIPE_COUNT];
     private GraphProperties graphProperties;
@@ -322,12 +328,9 @@ public class NodeManager
 
     private ReentrantLock lockId( long id )
     {
-        // TODO: Change stripe mod for new 4B+
-        int stripe = (int) (id / 32768) % LOCK_STRIPE_COUNT;
-        if ( stripe < 0 )
-        {
-            stripe *= -1;
-        }
+        // Neighbouring ids are often loaded at the same time, f.ex. by traversals
+        // or after a batch insert, so they should end up in different stripes
+        int stripe = (int) (id & (LOCK_STRIPE_COUNT - 1));
         ReentrantLock lock = loadLocks[stripe];
         lock.lock();
         return lock;
@@ -380,6 +383,11 @@ public class NodeManager
         final long highId = getHighestPossibleIdInUse( Node.class );
         return new PrefetchingIterator<Node>()
         {
+            // Records are read in batches only to see which nodes exist, the
+            // nodes themselves are loaded when used through their proxies
+            private final NodeRecord[] batch = new NodeRecord[SCAN_BATCH_SIZE];
+            private long batchStart;
+            private int batchSize;
             private long currentId;
             
             @Override
@@ -389,10 +397,22 @@ public class NodeManager
                 {
                     try
                     {
-                        Node node = getNodeByIdOrNull( currentId );
-                        if ( node != null )
+                        if ( currentId >= batchStart + batchSize )
+                        {
+                            batchStart = currentId;
+                            batchSize = persistenceManager.loadLightNodes( currentId, batch );
+                        }
+                        if ( batchSize == 0 )
+                        {
+                            Node node = getNodeByIdOrNull( currentId );
+                            if ( node != null )
+                            {
+                                return node;
+                            }
+                        }
+                        else if ( batch[(int) (currentId - batchStart)] != null || nodeCache.get( currentId ) != null )
                         {
-                            return node;
+                            return new NodeProxy( currentId, nodeLookup );
                         }
                     }
                     finally
@@ -511,6 +531,11 @@ public class NodeManager
         final long highId = getHighestPossibleIdInUse( Relationship.class );
         return new PrefetchingIterator<Relationship>()
         {
+            // Records are read in batches only to see which relationships
+            // exist, they are loaded when used through their proxies
+            private final RelationshipRecord[] batch = new RelationshipRecord[SCAN_BATCH_SIZE];
+            private long batchStart;
+            private int batchSize;
             private long currentId;
             
             @Override
@@ -520,10 +545,22 @@ public class NodeManager
                 {
                     try
                     {
-                        Relationship relationship = getRelationshipByIdOrNull( currentId );
-                        if ( relationship != null )
+                        if ( currentId >= batchStart + batchSize )
                         {
-                            return relationship;
+                            batchStart = currentId;
+                            batchSize = persistenceManager.loadLightRelationships( currentId, batch );
+                        }
+                        if ( batchSize == 0 )
+                        {
+                            Relationship relationship = getRelationshipByIdOrNull( currentId );
+                            if ( relationship != null )
+                            {
+                                return relationship;
+                            }
+                        }
+                        else if ( batch[(int) (currentId - batchStart)] != null || relCache.get( currentId ) != null )
+                        {
+                            return new RelationshipProxy( currentId, relationshipLookups );
                         }
                     }
                     finally
@@ -595,16 +632,37 @@ public class NodeManager
         return persistenceManager.loadPropertyValue( property );
     }
 
-    long getRelationshipChainPosition( NodeImpl node )
+    int getRelationshipDegree( NodeImpl node, DirectionWrapper direction, RelationshipType[] types )
+    {
+        int[] typeIds = getRelationshipTypeIdsFor( types );
+        if ( typeIds != null && typeIds.length == 0 )
+        {
+            // None of the types exist
+            return 0;
+        }
+        return persistenceManager.getRelationshipDegree( node.getId(), typeIds, direction );
+    }
+
+    /**
+     * @return whether or not the degree of {@code node} in that direction and
+     * of those types can be had without walking its relationship chain, see
+     * {@link Node#getDegree(Direction, RelationshipType...)}.
+     */
+    public boolean hasCheapDegree( Node node, Direction direction, RelationshipType... types )
+    {
+        return getNodeForProxy( node.getId(), null ).hasCheapDegree( this, direction, types );
+    }
+
+    RelationshipLoadingPosition getRelationshipChainPosition( NodeImpl node )
     {
         return persistenceManager.getRelationshipChainPosition( node.getId() );
     }
 
     // Triplet<ArrayMap<String,RelIdArray>,Map<Long,RelationshipImpl>,Long> getMoreRelationships( NodeImpl node )
-    Triplet<ArrayMap<String,RelIdArray>,List<RelationshipImpl>,Long> getMoreRelationships( NodeImpl node )
+    Triplet<ArrayMap<String,RelIdArray>,List<RelationshipImpl>,Long> getMoreRelationships( NodeImpl node,
+            long position )
     {
         long nodeId = node.getId();
-        long position = node.getRelChainPosition();
         Pair<Map<DirectionWrapper, Iterable<RelationshipRecord>>, Long> rels =
             persistenceManager.getMoreRelationships( nodeId, position );
         ArrayMap<String,RelIdArray> newRelationshipMap =
@@ -906,6 +964,29 @@ public class NodeManager
         return relTypeHolder.getIdFor( type );
     }
 
+    /**
+     * @return the ids of those of {@code types} that exist, or {@code null}
+     * if no types are given, meaning all types.
+     */
+    int[] getRelationshipTypeIdsFor( RelationshipType[] types )
+    {
+        if ( types.length == 0 )
+        {
+            return null;
+        }
+        int[] ids = new int[types.length];
+        int count = 0;
+        for ( RelationshipType type : types )
+        {
+            Integer id = relTypeHolder.getIdFor( type.name() );
+            if ( id != null )
+            {
+                ids[count++] = id;
+            }
+        }
+        return count == ids.length ? ids : Arrays.copyOf( ids, count );
+    }
+
     void addRawRelationshipTypes( NameData[] relTypes )
     {
         relTypeHolder.addRawRelationshipTypes( relTypes );
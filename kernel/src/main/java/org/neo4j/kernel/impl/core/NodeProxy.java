@@ -119,6 +119,21 @@ public class NodeProxy implements Node
         return nodeLookup.lookup(nodeId).hasRelationship( nodeLookup.getNodeManager(), type, dir );
     }
 
+    public int getDegree()
+    {
+        return nodeLookup.lookup( nodeId ).getDegree( nodeLookup.getNodeManager(), Direction.BOTH );
+    }
+
+    public int getDegree( RelationshipType... types )
+    {
+        return nodeLookup.lookup( nodeId ).getDegree( nodeLookup.getNodeManager(), Direction.BOTH, types );
+    }
+
+    public int getDegree( Direction direction, RelationshipType... types )
+    {
+        return nodeLookup.lookup( nodeId ).getDegree( nodeLookup.getNodeManager(), direction, types );
+    }
+
     public Relationship getSingleRelationship( RelationshipType type,
         Direction dir )
     {
@@ -73,6 +73,13 @@ public abstract class AbstractNameStore<T extends AbstractNameRecord> extends Ab
         nameStore.unsetRecovered();
     }
 
+    @Override
+    protected void setConcurrentRecovery( boolean concurrentRecovery )
+    {
+        super.setConcurrentRecovery( concurrentRecovery );
+        nameStore.setConcurrentRecovery( concurrentRecovery );
+    }
+
     @Override
     public void makeStoreOk()
     {
@@ -229,6 +229,33 @@ public abstract class AbstractStore extends CommonAbstractStore
         openIdGenerator( false );
     }
 
+    /**
+     * Copies the raw records from <CODE>fromId</CODE> and on into
+     * <CODE>target</CODE>, as many as can be read under one window
+     * acquisition, but no more than <CODE>maxCount</CODE>.
+     *
+     * @return the number of records copied, <CODE>0</CODE> if
+     *         <CODE>fromId</CODE> is above the high id
+     */
+    int readRecords( long fromId, byte[] target, int maxCount )
+    {
+        PersistenceWindow window = acquireBulkReadWindow( fromId, fromId + maxCount );
+        if ( window == null )
+        {
+            return 0;
+        }
+        try
+        {
+            int count = bulkReadCount( window, fromId, maxCount );
+            window.getOffsettedBuffer( fromId ).getBuffer().get( target, 0, count * getRecordSize() );
+            return count;
+        }
+        finally
+        {
+            releaseWindow( window );
+        }
+    }
+
     public abstract List<WindowPoolStats> getAllWindowPoolStats();
 
     public void logAllWindowPoolStats( StringLogger.LineLogger logger )
@@ -361,6 +361,11 @@ public abstract class CommonAbstractStore
         this.windowPool = pool;
     }
 
+    PersistenceWindowPool getWindowPool()
+    {
+        return windowPool;
+    }
+
     /**
      * Returns the next id for this store's {@link IdGenerator}.
      *
@@ -531,16 +536,78 @@ public abstract class CommonAbstractStore
         windowPool.release( window );
     }
 
+    /**
+     * Acquires a window for reading as many as possible of the records from
+     * <CODE>fromId</CODE> up to, but not including, <CODE>toId</CODE> under
+     * one acquisition, instead of acquiring a window per record. Where there's
+     * no window for <CODE>fromId</CODE> the records are read from the file in
+     * one go, see {@link PersistenceWindowPool#readAhead(long, long, long)}.
+     * How many records can be read from the window is given by
+     * {@link #bulkReadCount(PersistenceWindow, long, int)}. The window must
+     * be released via {@link #releaseWindow(PersistenceWindow)}.
+     *
+     * @param fromId
+     *            The first record to read
+     * @param toId
+     *            The record after the last one to read
+     * @return a window for reading at least the record at <CODE>fromId</CODE>,
+     *         or <CODE>null</CODE> if <CODE>fromId</CODE> is above the high id
+     */
+    protected PersistenceWindow acquireBulkReadWindow( long fromId, long toId )
+    {
+        long highId = getHighId();
+        if ( fromId > highId && !isInRecoveryMode() )
+        {
+            return null;
+        }
+        if ( toId - fromId > 1 && storeOk && fromId <= highId )
+        {
+            PersistenceWindow window = windowPool.readAhead( fromId, fromId, Math.min( toId, highId + 1 ) );
+            if ( window != null )
+            {
+                return window;
+            }
+        }
+        return acquireWindow( fromId, OperationType.READ );
+    }
+
+    /**
+     * @return the number of records from <CODE>fromId</CODE>, but no more
+     *         than <CODE>maxCount</CODE>, that can be read from a window
+     *         acquired by {@link #acquireBulkReadWindow(long, long)}.
+     */
+    protected int bulkReadCount( PersistenceWindow window, long fromId, int maxCount )
+    {
+        long end = Math.min( window.position() + window.size(), getHighId() + 1 );
+        return (int) Math.max( 1, Math.min( end - fromId, maxCount ) );
+    }
+
     public void flushAll()
     {
         windowPool.flushAll();
     }
 
     private boolean isRecovered = false;
+    private volatile boolean concurrentRecovery = false;
 
     public boolean isInRecoveryMode()
     {
-        return isRecovered;
+        return isRecovered || concurrentRecovery;
+    }
+
+    /**
+     * Keeps this store in recovery mode while recovered transactions are
+     * committed concurrently, since {@link #setRecovered()} and
+     * {@link #unsetRecovered()} are called around each recovered update.
+     */
+    protected void setConcurrentRecovery( boolean concurrentRecovery )
+    {
+        this.concurrentRecovery = concurrentRecovery;
+    }
+
+    public boolean isInConcurrentRecovery()
+    {
+        return concurrentRecovery;
     }
 
     protected void setRecovered()
@@ -769,12 +836,12 @@ public abstract class CommonAbstractStore
         return idType;
     }
 
-    protected void registerIdFromUpdateRecord( long id )
+    protected synchronized void registerIdFromUpdateRecord( long id )
     {
         highestUpdateRecordId = Math.max( highestUpdateRecordId, id + 1 );
     }
 
-    protected void updateHighId()
+    protected synchronized void updateHighId()
     {
         long highId = highestUpdateRecordId;
         highestUpdateRecordId = -1;
@@ -0,0 +1,122 @@
+/**
+ * Copyright (c) 2002-2012 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel.impl.nioneo.store;
+
+import java.util.Collection;
+
+import org.neo4j.kernel.impl.util.RelIdArray.DirectionWrapper;
+
+/**
+ * The positions in the chains of a dense node, one for each type and
+ * direction, see {@link RelationshipGroupRecord}.
+ */
+public class DenseNodeChainPosition implements RelationshipLoadingPosition
+{
+    private static final int OUT = 0, IN = 1, LOOP = 2;
+    private static final int[] CHAINS_FOR_OUTGOING = new int[] { OUT, LOOP };
+    private static final int[] CHAINS_FOR_INCOMING = new int[] { IN, LOOP };
+    private static final int[] CHAINS_FOR_BOTH = new int[] { OUT, IN, LOOP };
+
+    private final int[] types;
+    // [type index][OUT, IN or LOOP]
+    private final long[][] positions;
+
+    public DenseNodeChainPosition( Collection<RelationshipGroupRecord> groups )
+    {
+        types = new int[groups.size()];
+        positions = new long[groups.size()][];
+        int i = 0;
+        for ( RelationshipGroupRecord group : groups )
+        {
+            types[i] = group.getType();
+            positions[i++] = new long[] { group.getFirstOut(), group.getFirstIn(), group.getFirstLoop() };
+        }
+    }
+
+    @Override
+    public long position( DirectionWrapper direction, int[] types )
+    {
+        int[] chains = chainsFor( direction );
+        for ( int i = 0; i < this.types.length; i++ )
+        {
+            if ( types != null && !contains( types, this.types[i] ) )
+            {
+                continue;
+            }
+            for ( int chain : chains )
+            {
+                if ( positions[i][chain] != Record.NO_NEXT_RELATIONSHIP.intValue() )
+                {
+                    return positions[i][chain];
+                }
+            }
+        }
+        return Record.NO_NEXT_RELATIONSHIP.intValue();
+    }
+
+    @Override
+    public void updatePosition( long from, long to )
+    {
+        // A relationship is only in one of the chains of a node
+        for ( long[] chains : positions )
+        {
+            for ( int chain = 0; chain < chains.length; chain++ )
+            {
+                if ( chains[chain] == from )
+                {
+                    chains[chain] = to;
+                    return;
+                }
+            }
+        }
+        throw new IllegalArgumentException( "No chain at " + from );
+    }
+
+    @Override
+    public boolean hasMore( DirectionWrapper direction, int[] types )
+    {
+        return position( direction, types ) != Record.NO_NEXT_RELATIONSHIP.intValue();
+    }
+
+    private static int[] chainsFor( DirectionWrapper direction )
+    {
+        switch ( direction )
+        {
+        case OUTGOING:
+            return CHAINS_FOR_OUTGOING;
+        case INCOMING:
+            return CHAINS_FOR_INCOMING;
+        default:
+            return CHAINS_FOR_BOTH;
+        }
+    }
+
+    private static boolean contains( int[] array, int value )
+    {
+        for ( int candidate : array )
+        {
+            if ( candidate == value )
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -41,6 +41,8 @@ public class DynamicArrayStore extends AbstractDynamicStore
 {
     static final int NUMBER_HEADER_SIZE = 3;
     static final int STRING_HEADER_SIZE = 5;
+    // type of the compressed value (string or array) + its length uncompressed
+    static final int COMPRESSED_HEADER_SIZE = 5;
     
     public static abstract class Configuration
         extends AbstractDynamicStore.Configuration
@@ -68,7 +70,7 @@ public class DynamicArrayStore extends AbstractDynamicStore
         return TYPE_DESCRIPTOR;
     }
 
-    private Collection<DynamicRecord> allocateFromNumbers( long startBlock, Object array )
+    private static byte[] encodeNumbers( Object array )
     {
         Class<?> componentType = array.getClass().getComponentType();
         boolean isPrimitiveByteArray = componentType.equals( Byte.TYPE );
@@ -107,11 +109,10 @@ public class DynamicArrayStore extends AbstractDynamicStore
             type.writeAll(array,length,requiredBits,bits);
             bytes = bits.asBytes();
         }
-        return allocateRecords( startBlock, bytes );
+        return bytes;
     }
 
-    private Collection<DynamicRecord> allocateFromString( long startBlock,
-        String[] array )
+    private static byte[] encodeStrings( String[] array )
     {
         List<byte[]> stringsAsBytes = new ArrayList<byte[]>();
         int totalBytesRequired = STRING_HEADER_SIZE; // 1b type + 4b array length
@@ -130,10 +131,14 @@ public class DynamicArrayStore extends AbstractDynamicStore
             buf.putInt( stringAsBytes.length );
             buf.put( stringAsBytes );
         }
-        return allocateRecords( startBlock, buf.array() );
+        return buf.array();
     }
 
-    public Collection<DynamicRecord> allocateRecords( long startBlock, Object array )
+    /**
+     * @return the bytes stored in the records of <CODE>array</CODE>,
+     *         starting with its header.
+     */
+    static byte[] encode( Object array )
     {
         if ( !array.getClass().isArray() )
         {
@@ -143,14 +148,19 @@ public class DynamicArrayStore extends AbstractDynamicStore
         Class<?> type = array.getClass().getComponentType();
         if ( type.equals( String.class ) )
         {
-            return allocateFromString( startBlock, (String[]) array );
+            return encodeStrings( (String[]) array );
         }
         else
         {
-            return allocateFromNumbers( startBlock, array );
+            return encodeNumbers( array );
         }
     }
 
+    public Collection<DynamicRecord> allocateRecords( long startBlock, Object array )
+    {
+        return allocateRecords( startBlock, encode( array ) );
+    }
+
     public Object getRightArray( Pair<byte[],byte[]> data )
     {
         byte[] header = data.first();
@@ -20,7 +20,10 @@
 package org.neo4j.kernel.impl.nioneo.store;
 
 import java.nio.channels.FileChannel;
+import java.util.ArrayList;
 import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.neo4j.kernel.impl.transaction.LockException;
 
@@ -28,6 +31,10 @@ import org.neo4j.kernel.impl.transaction.LockException;
  * Makes a {@link PersistenceWindow} "lockable" meaning it can be locked by a
  * thread during a operation making sure no other thread use the same window
  * concurrently.
+ * <p>
+ * Readers may also use a window optimistically, see {@link #tryOptimisticRead()},
+ * in which case they don't lock it and only wait for, or make writers wait for,
+ * each other when a write is in flight.
  */
 abstract class LockableWindow implements PersistenceWindow
 {
@@ -36,9 +43,23 @@ abstract class LockableWindow implements PersistenceWindow
     private Thread lockingThread = null;
     private final LinkedList<LockElement> waitingThreadList = 
         new LinkedList<LockElement>();
-    private boolean locked;
-    private int marked = 0;
-    protected boolean closed;
+    private volatile boolean locked;
+    // Number of threads that have marked this window as in use, or -1 if it
+    // has been sealed for closing and may no longer be marked.
+    private final AtomicInteger marked = new AtomicInteger();
+    private final AtomicInteger optimisticReaders = new AtomicInteger();
+    // The windows each thread is reading optimistically right now, so that a
+    // thread locking a window it reads itself doesn't wait for its own reads.
+    private static final ThreadLocal<List<LockableWindow>> optimisticReads =
+            new ThreadLocal<List<LockableWindow>>()
+    {
+        @Override
+        protected List<LockableWindow> initialValue()
+        {
+            return new ArrayList<LockableWindow>( 2 );
+        }
+    };
+    protected volatile boolean closed;
 
     LockableWindow( FileChannel fileChannel )
     {
@@ -69,12 +90,66 @@ abstract class LockableWindow implements PersistenceWindow
      * @return {@code true} if marked, or {@code false} if this window has been
      * closed and couldn't be marked.
      */
-    synchronized boolean markAsInUse()
+    boolean markAsInUse()
+    {
+        while ( true )
+        {
+            int current = marked.get();
+            if ( current < 0 || closed )
+                return false;
+            if ( marked.compareAndSet( current, current + 1 ) )
+                return true;
+        }
+    }
+
+    /**
+     * Tries to start reading from this window without locking it. This will
+     * only succeed if no other thread currently has it locked, and while the
+     * read is ongoing any thread wanting to lock this window will wait for
+     * it to finish. The window must have been {@link #markAsInUse() marked}
+     * and the mark is kept until {@link #endOptimisticRead()} is called, by
+     * the same thread.
+     *
+     * @return {@code true} if the read may go ahead without locking, or
+     * {@code false} if there's a write in flight and the caller should
+     * {@link #lock(OperationType) lock} this window instead.
+     */
+    boolean tryOptimisticRead()
+    {
+        optimisticReaders.incrementAndGet();
+        if ( !locked )
+        {
+            optimisticReads.get().add( this );
+            return true;
+        }
+        optimisticReaders.decrementAndGet();
+        return false;
+    }
+
+    void endOptimisticRead()
     {
-        if ( closed )
-            return false;
-        this.marked++;
-        return true;
+        List<LockableWindow> reads = optimisticReads.get();
+        for ( int i = reads.size() - 1; i >= 0; i-- )
+        {
+            if ( reads.get( i ) == this )
+            {
+                reads.remove( i );
+                break;
+            }
+        }
+        optimisticReaders.decrementAndGet();
+        marked.decrementAndGet();
+    }
+
+    private int optimisticReadsByCurrentThread()
+    {
+        int count = 0;
+        for ( LockableWindow window : optimisticReads.get() )
+        {
+            if ( window == this )
+                count++;
+        }
+        return count;
     }
 
     private static class LockElement
@@ -107,7 +182,15 @@ abstract class LockableWindow implements PersistenceWindow
         locked = true;
         lockingThread = currentThread;
         le.movedOn = true;
-        marked--;
+        marked.decrementAndGet();
+        // Readers that got in before we set the locked flag must finish
+        // before we can have the window to ourselves. Reads by this thread
+        // can't finish while it waits here, so it only waits for the others.
+        int ownReads = optimisticReadsByCurrentThread();
+        while ( optimisticReaders.get() > ownReads )
+        {
+            Thread.yield();
+        }
     }
 
     synchronized void unLock()
@@ -134,13 +217,15 @@ abstract class LockableWindow implements PersistenceWindow
     private boolean isFree( boolean assumingOwnerUnlockedIt )
     {
         return assumingOwnerUnlockedIt ?
-                marked == 0 :           // excluding myself (the owner) no other must have marked this window
-                marked == 0 && !locked; // no one must have this marked and it mustn't be locked
+                marked.get() == 0 :           // excluding myself (the owner) no other must have marked this window
+                marked.get() == 0 && !locked; // no one must have this marked and it mustn't be locked
     }
 
     synchronized boolean writeOutAndCloseIfFree( boolean readOnly )
     {
-        if ( isFree( lockingThread == Thread.currentThread() ) )
+        // Seal the marked count so that no one can mark this window between
+        // us seeing it free and actually closing it.
+        if ( isFree( lockingThread == Thread.currentThread() ) && marked.compareAndSet( 0, -1 ) )
         {
             if ( !readOnly )
                 writeOutAndClose();
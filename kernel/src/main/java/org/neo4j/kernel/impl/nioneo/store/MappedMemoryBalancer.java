@@ -0,0 +1,285 @@
+/**
+ * Copyright (c) 2002-2012 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel.impl.nioneo.store;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.neo4j.kernel.impl.util.StringLogger;
+
+/**
+ * Shares one amount of memory for memory mapping between the
+ * {@link PersistenceWindowPool window pools} of all the stores, instead of
+ * each store having its own fixed amount. The memory is initially divided
+ * according to the sizes of the store files and is then moved over to the
+ * pools seeing the most misses, i.e. requests for positions that aren't
+ * memory mapped.
+ *
+ * <p>
+ * Rebalancing is triggered by pools when they refresh their bricks, which
+ * they do after a certain amount of misses, but happens at most once every
+ * {@link #getRebalanceInterval() interval}.
+ */
+public class MappedMemoryBalancer
+{
+    public static final long DEFAULT_REBALANCE_INTERVAL = 10000;
+    private static final int MAX_DECISIONS = 20;
+
+    private final long totalMemory;
+    private final long rebalanceInterval;
+    private final StringLogger logger;
+    private final List<PersistenceWindowPool> pools = new ArrayList<PersistenceWindowPool>();
+    private int[] missesAtLastRebalance = new int[0];
+
+    private final AtomicBoolean rebalancing = new AtomicBoolean();
+    private volatile long lastRebalanceTime;
+    private final AtomicInteger rebalances = new AtomicInteger();
+    private final LinkedList<String> decisions = new LinkedList<String>();
+
+    public MappedMemoryBalancer( long totalMemory, long rebalanceInterval, StringLogger logger )
+    {
+        this.totalMemory = totalMemory;
+        this.rebalanceInterval = rebalanceInterval;
+        this.logger = logger;
+    }
+
+    /**
+     * Makes the memory of {@code pool} managed by this balancer. All pools
+     * should be registered before {@link #start()} is called.
+     */
+    void register( PersistenceWindowPool pool )
+    {
+        if ( !pool.isMapping() )
+            // Memory mapping has been turned off for this pool, nothing to balance
+            return;
+        pools.add( pool );
+    }
+
+    /**
+     * Divides the memory between the registered pools according to the sizes
+     * of their files and starts listening to them for rebalancing.
+     */
+    synchronized void start()
+    {
+        long[] sizes = new long[pools.size()];
+        for ( int i = 0; i < sizes.length; i++ )
+            sizes[i] = Math.max( 1, pools.get( i ).getFileSize() );
+        long[] allocation = divide( sizes, new long[sizes.length] );
+        missesAtLastRebalance = new int[pools.size()];
+        for ( int i = 0; i < allocation.length; i++ )
+        {
+            PersistenceWindowPool pool = pools.get( i );
+            pool.setAvailableMemory( allocation[i] );
+            missesAtLastRebalance[i] = pool.getMissCount();
+            pool.setBalancer( this );
+        }
+        lastRebalanceTime = System.currentTimeMillis();
+        recordDecision( "Initial", allocation, sizes, "size" );
+    }
+
+    void stop()
+    {
+        for ( PersistenceWindowPool pool : pools )
+            pool.setBalancer( null );
+    }
+
+    /**
+     * Rebalances the memory between the pools if at least the rebalance
+     * interval has passed since the last time. If another thread is
+     * rebalancing right now this call returns right away.
+     */
+    void rebalanceIfDue()
+    {
+        if ( System.currentTimeMillis() - lastRebalanceTime < rebalanceInterval )
+            return;
+        if ( !rebalancing.compareAndSet( false, true ) )
+            return;
+        try
+        {
+            rebalance();
+        }
+        finally
+        {
+            rebalancing.set( false );
+        }
+    }
+
+    /**
+     * Moves memory over to the pools that have seen the most misses since the
+     * last rebalance. Each pool is moved half way from its current amount
+     * towards its share of the misses, so that memory isn't pulled back and
+     * forth between pools on every rebalance.
+     */
+    synchronized void rebalance()
+    {
+        lastRebalanceTime = System.currentTimeMillis();
+        long[] misses = new long[pools.size()];
+        long totalMisses = 0;
+        for ( int i = 0; i < misses.length; i++ )
+        {
+            int missCount = pools.get( i ).getMissCount();
+            misses[i] = Math.max( 0, missCount - missesAtLastRebalance[i] );
+            missesAtLastRebalance[i] = missCount;
+            totalMisses += misses[i];
+        }
+        if ( totalMisses == 0 )
+            // Everything requested is mapped, no reason to change anything
+            return;
+
+        long[] current = new long[pools.size()];
+        for ( int i = 0; i < current.length; i++ )
+            current[i] = pools.get( i ).getAvailableMemory();
+        long[] target = divide( misses, current );
+
+        // Shrink before growing so that the total is never exceeded
+        for ( int i = 0; i < target.length; i++ )
+        {
+            if ( target[i] < current[i] )
+                pools.get( i ).setAvailableMemory( target[i] );
+        }
+        for ( int i = 0; i < target.length; i++ )
+        {
+            if ( target[i] > current[i] )
+                pools.get( i ).setAvailableMemory( target[i] );
+        }
+        rebalances.incrementAndGet();
+        recordDecision( "Rebalance", target, misses, "misses" );
+    }
+
+    /**
+     * Divides the total memory between the pools according to {@code weights},
+     * where no pool gets less than a tenth of an even share. Pools don't get
+     * more than the size of their file as long as other pools can make use of
+     * the memory. If {@code current} contains anything but zeros, the result
+     * is half way between that and the division.
+     */
+    private long[] divide( long[] weights, long[] current )
+    {
+        int count = weights.length;
+        long[] result = new long[count];
+        if ( count == 0 )
+            return result;
+        long minimum = totalMemory / count / 10;
+        long[] maximum = new long[count];
+        boolean[] capped = new boolean[count];
+        for ( int i = 0; i < count; i++ )
+        {
+            maximum[i] = Math.max( minimum, pools.get( i ).getFileSize() );
+        }
+
+        // Hand out what's left after the minimums, giving anything a pool
+        // can't make use of to the others in another round.
+        long left = totalMemory - minimum * count;
+        boolean changed = true;
+        while ( changed && left > 0 )
+        {
+            changed = false;
+            long weightSum = 0;
+            for ( int i = 0; i < count; i++ )
+                if ( !capped[i] )
+                    weightSum += weights[i];
+            if ( weightSum == 0 )
+                break;
+            long distributed = 0;
+            for ( int i = 0; i < count; i++ )
+            {
+                if ( capped[i] )
+                    continue;
+                long share = (long) (left * ((double) weights[i] / weightSum));
+                long room = maximum[i] - minimum - result[i];
+                if ( share >= room )
+                {
+                    share = room;
+                    capped[i] = true;
+                    changed = true;
+                }
+                result[i] += share;
+                distributed += share;
+            }
+            left -= distributed;
+        }
+
+        // If every pool got all it can make use of right now, the rest is
+        // handed out as well so that it's there for when the files grow.
+        long weightSum = 0;
+        for ( long weight : weights )
+            weightSum += weight;
+        for ( int i = 0; i < count && left > 0 && weightSum > 0; i++ )
+            result[i] += (long) (left * ((double) weights[i] / weightSum));
+
+        for ( int i = 0; i < count; i++ )
+        {
+            result[i] += minimum;
+            if ( current[i] > 0 )
+                result[i] = (result[i] + current[i]) / 2;
+        }
+        return result;
+    }
+
+    private void recordDecision( String kind, long[] allocation, long[] weights, String weightName )
+    {
+        StringBuilder builder = new StringBuilder( kind ).append( " of " ).append( totalMemory ).append( "b:" );
+        for ( int i = 0; i < allocation.length; i++ )
+        {
+            builder.append( i == 0 ? " " : ", " ).append( new File( pools.get( i ).getStoreName() ).getName() )
+                    .append( "=" ).append( allocation[i] ).append( "b (" ).append( weightName ).append( "=" )
+                    .append( weights[i] ).append( ")" );
+        }
+        String decision = builder.toString();
+        synchronized ( decisions )
+        {
+            decisions.addLast( decision );
+            if ( decisions.size() > MAX_DECISIONS )
+                decisions.removeFirst();
+        }
+        logger.logMessage( "Mapped memory: " + decision );
+    }
+
+    public long getTotalMemory()
+    {
+        return totalMemory;
+    }
+
+    public long getRebalanceInterval()
+    {
+        return rebalanceInterval;
+    }
+
+    public int getRebalanceCount()
+    {
+        return rebalances.get();
+    }
+
+    /**
+     * @return the most recent decisions about how to divide the memory,
+     * oldest first.
+     */
+    public List<String> getRecentDecisions()
+    {
+        synchronized ( decisions )
+        {
+            return new ArrayList<String>( decisions );
+        }
+    }
+}
@@ -20,6 +20,7 @@
 package org.neo4j.kernel.impl.nioneo.store;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.nio.MappedByteBuffer;
 import java.nio.channels.FileChannel;
 
@@ -137,4 +138,91 @@ class MappedPersistenceWindow extends LockableWindow
         buffer.setOffset( offset );
         return buffer;
     }
+
+    /**
+     * Starts an optimistic read, see {@link #tryOptimisticRead()}, on this
+     * window. The window must have been {@link #markAsInUse() marked} first.
+     *
+     * @return a {@link ReadView} of this window to read from, or {@code null}
+     * if a write is in flight and the window should be locked instead.
+     */
+    ReadView startOptimisticRead()
+    {
+        if ( !tryOptimisticRead() )
+            return null;
+        return new ReadView( this, buffer.getBuffer().duplicate() );
+    }
+
+    /**
+     * A view of a {@link MappedPersistenceWindow} handed out to a single
+     * optimistic reader. It shares contents with the window, but has a
+     * position of its own so that concurrent readers can offset it without
+     * disturbing each other.
+     */
+    static class ReadView implements PersistenceWindow
+    {
+        private final MappedPersistenceWindow window;
+        private final Buffer buffer;
+
+        ReadView( MappedPersistenceWindow window, ByteBuffer byteBuffer )
+        {
+            this.window = window;
+            this.buffer = new Buffer( this, byteBuffer );
+        }
+
+        @Override
+        public Buffer getBuffer()
+        {
+            return buffer;
+        }
+
+        @Override
+        public Buffer getOffsettedBuffer( long id )
+        {
+            int offset = (int) (id - buffer.position()) * window.recordSize;
+            buffer.setOffset( offset );
+            return buffer;
+        }
+
+        @Override
+        public int getRecordSize()
+        {
+            return window.recordSize;
+        }
+
+        @Override
+        public long position()
+        {
+            return window.position;
+        }
+
+        @Override
+        public int size()
+        {
+            return window.windowSize;
+        }
+
+        @Override
+        public void force()
+        {
+            // Nothing is written through a read view, the window forces its own writes
+        }
+
+        @Override
+        public void close()
+        {
+            // The mapping belongs to the window, a read view ends with release()
+        }
+
+        void release()
+        {
+            window.endOptimisticRead();
+        }
+
+        @Override
+        public String toString()
+        {
+            return "ReadView[" + window + "]";
+        }
+    }
 }
\ No newline at end of file
@@ -49,6 +49,8 @@ public class NeoStore extends AbstractStore
         extends AbstractStore.Configuration
     {
         public static final GraphDatabaseSetting.IntegerSetting relationship_grab_size = GraphDatabaseSettings.relationship_grab_size;
+        public static final GraphDatabaseSetting.IntegerSetting dense_node_threshold = GraphDatabaseSettings.dense_node_threshold;
+        public static final GraphDatabaseSetting.NumberOfBytesSetting all_stores_total_mapped_memory_size = GraphDatabaseSettings.all_stores_total_mapped_memory_size;
     }
 
     public static final String TYPE_DESCRIPTOR = "NeoStore";
@@ -69,9 +71,11 @@ public class NeoStore extends AbstractStore
     private long lastCommittedTx = -1;
 
     private final int REL_GRAB_SIZE;
+    private final int denseNodeThreshold;
     private final String fileName;
     private final Config conf;
     private final LastCommittedTxIdSetter lastCommittedTxIdSetter;
+    private final MappedMemoryBalancer mappedMemoryBalancer;
 
     public NeoStore(String fileName, Config conf,
                     LastCommittedTxIdSetter lastCommittedTxIdSetter,
@@ -88,7 +92,12 @@ public class NeoStore extends AbstractStore
         this.relStore = relStore;
         this.nodeStore = nodeStore;
         REL_GRAB_SIZE = conf.getInteger( Configuration.relationship_grab_size );
+        // A store being created has no records yet, nor dense nodes
+        relStore.setMayHaveGroupRecords( getHighId() > 6 && hasDenseNodes() );
+        denseNodeThreshold = conf.getInteger( Configuration.dense_node_threshold );
         this.txHook = txHook;
+        this.mappedMemoryBalancer = conf.isSet( Configuration.all_stores_total_mapped_memory_size ) ?
+                startMappedMemoryBalancer( conf.get( Configuration.all_stores_total_mapped_memory_size ) ) : null;
 
         /* [MP:2012-01-03] Fix for the problem in 1.5.M02 where store version got upgraded but
          * corresponding store version record was not added. That record was added in the release
@@ -115,6 +124,33 @@ public class NeoStore extends AbstractStore
         }
     }
 
+    private MappedMemoryBalancer startMappedMemoryBalancer( long totalMemory )
+    {
+        MappedMemoryBalancer balancer = new MappedMemoryBalancer( totalMemory,
+                MappedMemoryBalancer.DEFAULT_REBALANCE_INTERVAL, stringLogger );
+        balancer.register( getWindowPool() );
+        balancer.register( nodeStore.getWindowPool() );
+        balancer.register( relStore.getWindowPool() );
+        balancer.register( relTypeStore.getWindowPool() );
+        balancer.register( relTypeStore.getNameStore().getWindowPool() );
+        balancer.register( propStore.getWindowPool() );
+        balancer.register( propStore.getStringStore().getWindowPool() );
+        balancer.register( propStore.getArrayStore().getWindowPool() );
+        balancer.register( propStore.getIndexStore().getWindowPool() );
+        balancer.register( propStore.getIndexStore().getNameStore().getWindowPool() );
+        balancer.start();
+        return balancer;
+    }
+
+    /**
+     * @return the {@link MappedMemoryBalancer} sharing memory for memory mapping
+     * between all the stores, or {@code null} if each store has its own fixed amount.
+     */
+    public MappedMemoryBalancer getMappedMemoryBalancer()
+    {
+        return mappedMemoryBalancer;
+    }
+
     @Override
     protected void checkVersion()
     {
@@ -174,6 +210,15 @@ public class NeoStore extends AbstractStore
             insertRecord( 5, -1 );
             registerIdFromUpdateRecord( 5 );
         }
+        /*
+         * The same for the "dense nodes" record. Stores without it were made
+         * before there were dense nodes, so they have none.
+         */
+        if ( getFileChannel().size() == RECORD_SIZE*6 )
+        {
+            insertRecord( 6, 0 );
+            registerIdFromUpdateRecord( 6 );
+        }
     }
 
     private void insertRecord( int recordPosition, long value ) throws IOException
@@ -215,7 +260,9 @@ public class NeoStore extends AbstractStore
     @Override
     protected void closeStorage()
     {
+        if ( mappedMemoryBalancer != null ) mappedMemoryBalancer.stop();
         if ( lastCommittedTxIdSetter != null ) lastCommittedTxIdSetter.close();
+        updateDenseNodesRecord();
         if ( relTypeStore != null )
         {
             relTypeStore.close();
@@ -246,6 +293,7 @@ public class NeoStore extends AbstractStore
         {
             return;
         }
+        updateDenseNodesRecord();
         super.flushAll();
         relTypeStore.flushAll();
         propStore.flushAll();
@@ -386,6 +434,20 @@ public class NeoStore extends AbstractStore
         setRecord( 1, nr );
     }
 
+    /**
+     * Puts all stores in recovery mode, or takes them out of it, around
+     * recovered transactions being committed concurrently.
+     */
+    @Override
+    public void setConcurrentRecovery( boolean concurrentRecovery )
+    {
+        super.setConcurrentRecovery( concurrentRecovery );
+        nodeStore.setConcurrentRecovery( concurrentRecovery );
+        relStore.setConcurrentRecovery( concurrentRecovery );
+        relTypeStore.setConcurrentRecovery( concurrentRecovery );
+        propStore.setConcurrentRecovery( concurrentRecovery );
+    }
+
     public void setRecoveredStatus( boolean status )
     {
         if ( status )
@@ -502,6 +564,29 @@ public class NeoStore extends AbstractStore
         setRecord( 5, propId );
     }
 
+    /**
+     * @return whether or not the relationship store has had relationship
+     * groups, i.e. if there may be dense nodes.
+     */
+    public boolean hasDenseNodes()
+    {
+        return getRecord( 6 ) != 0;
+    }
+
+    /*
+     * Remembers that the relationship store has relationship groups, once it
+     * has, for the next time it's opened. Written together with the store
+     * files, since the groups in them are otherwise recovered from the log,
+     * which marks the relationship store again.
+     */
+    private void updateDenseNodesRecord()
+    {
+        if ( relStore != null && !isReadOnly() && relStore.mayHaveGroupRecords() && !hasDenseNodes() )
+        {
+            setRecord( 6, 1 );
+        }
+    }
+
     /**
      * Returns the node store.
      *
@@ -577,6 +662,15 @@ public class NeoStore extends AbstractStore
         return REL_GRAB_SIZE;
     }
 
+    /**
+     * @return the number of relationships from which a node gets its
+     * relationships grouped by type and direction, or 0 if never.
+     */
+    public int getDenseNodeThreshold()
+    {
+        return denseNodeThreshold;
+    }
+
     @Override
     public List<WindowPoolStats> getAllWindowPoolStats()
     {
@@ -0,0 +1,51 @@
+/**
+ * Copyright (c) 2002-2012 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel.impl.nioneo.store;
+
+/**
+ * A {@link RecordCursor} over the records of a {@link NodeStore}, with the
+ * same getters as a {@link NodeRecord}.
+ */
+public class NodeRecordCursor extends RecordCursor
+{
+    NodeRecordCursor( NodeStore store, int batchSize )
+    {
+        super( store, batchSize );
+    }
+
+    // [    ,   x] in use bit
+    // [    ,xxx ] higher bits for rel id
+    // [xxxx,    ] higher bits for prop id
+    @Override
+    public boolean inUse()
+    {
+        return (getByte( 0 ) & 0x1) == Record.IN_USE.intValue();
+    }
+
+    public long getNextRel()
+    {
+        return longFromIntAndMod( getUnsignedInt( 1 ), (getByte( 0 ) & 0xEL) << 31 );
+    }
+
+    public long getNextProp()
+    {
+        return longFromIntAndMod( getUnsignedInt( 5 ), (getByte( 0 ) & 0xF0L) << 28 );
+    }
+}
@@ -180,6 +180,48 @@ public class NodeStore extends AbstractStore implements Store, RecordStore<NodeR
         }
     }
 
+    /**
+     * Loads the light nodes from <CODE>fromId</CODE> and on into
+     * <CODE>records</CODE>, as many as can be read under one window
+     * acquisition, see {@link #acquireBulkReadWindow(long, long)}. Nodes not
+     * in use are set to <CODE>null</CODE>.
+     *
+     * @return the number of ids loaded, <CODE>0</CODE> if <CODE>fromId</CODE>
+     *         is too high.
+     */
+    public int loadLightNodes( long fromId, NodeRecord[] records )
+    {
+        PersistenceWindow window = acquireBulkReadWindow( fromId, fromId + records.length );
+        if ( window == null )
+        {
+            return 0;
+        }
+        try
+        {
+            int count = bulkReadCount( window, fromId, records.length );
+            for ( int i = 0; i < count; i++ )
+            {
+                records[i] = getRecord( fromId + i, window, RecordLoad.CHECK );
+            }
+            return count;
+        }
+        finally
+        {
+            releaseWindow( window );
+        }
+    }
+
+    /**
+     * @param batchSize the number of records the cursor reads in one go when
+     *            scanning the store.
+     * @return a new cursor for reading records of this store without
+     *         creating {@link NodeRecord}s.
+     */
+    public NodeRecordCursor newRecordCursor( int batchSize )
+    {
+        return new NodeRecordCursor( this, batchSize );
+    }
+
     private NodeRecord getRecord( long id, PersistenceWindow window,
         RecordLoad load  )
     {
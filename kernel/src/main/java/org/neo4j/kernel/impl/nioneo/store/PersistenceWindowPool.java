@@ -20,6 +20,7 @@
 package org.neo4j.kernel.impl.nioneo.store;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
 import java.nio.channels.FileChannel.MapMode;
 import java.util.ArrayList;
@@ -69,7 +70,11 @@ public class PersistenceWindowPool
     private int miss = 0;
     private int switches = 0;
     private int ooe = 0;
+    private int optimisticReads = 0;
+    private int lockedReads = 0;
+    private int readAheads = 0;
     private boolean useMemoryMapped = true;
+    private final long startTime = System.currentTimeMillis();
 
     private final boolean readOnly;
     
@@ -77,6 +82,8 @@ public class PersistenceWindowPool
     private final AtomicInteger avertedRefreshes = new AtomicInteger();
     private final AtomicLong refreshTime = new AtomicLong();
     private final AtomicInteger refreshes = new AtomicInteger();
+
+    private volatile MappedMemoryBalancer balancer;
     
     /**
      * Create new pool for a store.
@@ -109,7 +116,10 @@ public class PersistenceWindowPool
 
     /**
      * Acquires a windows for <CODE>position</CODE> and <CODE>operationType</CODE>
-     * locking the window preventing other threads from using it.
+     * locking the window preventing other threads from using it. READ
+     * operations on memory mapped windows don't lock the window, unless it's
+     * being written to, but instead get a view of it which only the calling
+     * thread uses.
      *
      * @param position
      *            The position the needs to be encapsulated by the window
@@ -147,6 +157,10 @@ public class PersistenceWindowPool
                 {
                     expandBricks( brickIndex + 1 );
                     window = brickArray[brickIndex].getWindow();
+                    // A window we didn't mark would have its count go below
+                    // zero on release, which seals it as if it was closed.
+                    if ( window != null && !window.markAsInUse() )
+                        window = null;
                 }
             }
             if ( window == null )
@@ -192,10 +206,113 @@ public class PersistenceWindowPool
             }
         }
 
+        if ( operationType == OperationType.READ )
+        {
+            if ( window instanceof MappedPersistenceWindow )
+            {
+                // Mapped windows can be read from without locking them, as long
+                // as no one is writing to it right now.
+                PersistenceWindow view = ((MappedPersistenceWindow) window).startOptimisticRead();
+                if ( view != null )
+                {
+                    optimisticReads++;
+                    return view;
+                }
+            }
+            lockedReads++;
+        }
         window.lock( operationType );
         return window;
     }
 
+    /**
+     * Reads the records from {@code start} up to, but not including,
+     * {@code end} in one go straight from the file, for a reader that is
+     * about to read {@code position} and probably more records around it.
+     * This is only done where there's no window to read from, i.e. where
+     * {@link #acquire(long, OperationType)} would read the single record at
+     * {@code position} from the file anyway. The range is cut short at the
+     * brick of {@code position} and at records someone else is using.
+     *
+     * @return a window of the records read, only to be used by the calling
+     * thread and for a short while, or {@code null} if there's a window for
+     * {@code position} so that it should be acquired instead.
+     */
+    PersistenceWindow readAhead( long position, long start, long end )
+    {
+        assert start <= position && position < end;
+        if ( brickMiss >= REFRESH_BRICK_COUNT )
+        {
+            refreshBricks();
+        }
+        if ( brickSize > 0 )
+        {
+            int brickIndex = positionToBrickIndex( position );
+            if ( brickIndex >= brickArray.length )
+            {
+                return null;
+            }
+            BrickElement brick = brickArray[brickIndex];
+            if ( brick.getWindow() != null )
+            {
+                return null;
+            }
+            // Keep track of this as a miss, so that the brick gets mapped if
+            // it's read often enough
+            brick.setHit();
+            start = Math.max( start, brickIndexToPosition( brickIndex ) );
+            end = Math.min( end, brickIndexToPosition( brickIndex + 1 ) );
+        }
+        if ( activeRowWindows.containsKey( position ) )
+        {
+            return null;
+        }
+        for ( long i = position - 1; i >= start; i-- )
+        {
+            if ( activeRowWindows.containsKey( i ) )
+            {
+                start = i + 1;
+                break;
+            }
+        }
+        for ( long i = position + 1; i < end; i++ )
+        {
+            if ( activeRowWindows.containsKey( i ) )
+            {
+                end = i;
+                break;
+            }
+        }
+        miss++;
+        brickMiss++;
+
+        ByteBuffer byteBuffer = ByteBuffer.allocate( (int) (end - start) * blockSize );
+        try
+        {
+            while ( byteBuffer.hasRemaining() )
+            {
+                // Records above the end of the file aren't written yet
+                if ( fileChannel.read( byteBuffer, start * blockSize + byteBuffer.position() ) <= 0 )
+                {
+                    break;
+                }
+            }
+        }
+        catch ( IOException e )
+        {
+            throw new UnderlyingStorageException( "Unable to read ahead [" + start + "-" + end + "] @["
+                    + start * blockSize + "] in " + storeName, e );
+        }
+        int records = byteBuffer.position() / blockSize;
+        if ( start + records <= position )
+        {
+            return null;
+        }
+        byteBuffer.clear();
+        readAheads++;
+        return new ReadAheadWindow( start, blockSize, records, byteBuffer );
+    }
+
     private int positionToBrickIndex( long position )
     {
         return (int) (position * blockSize / brickSize);
@@ -243,6 +360,14 @@ public class PersistenceWindowPool
             }
             dpw.unLock();
         }
+        else if ( window instanceof MappedPersistenceWindow.ReadView )
+        {
+            ((MappedPersistenceWindow.ReadView) window).release();
+        }
+        else if ( window instanceof ReadAheadWindow )
+        {
+            // Only ever seen by the reader that read it, nothing to release
+        }
         else
         {
             ((LockableWindow) window).unLock();
@@ -414,7 +539,7 @@ public class PersistenceWindowPool
      */
     private void freeWindows( int nr )
     {
-        // Only called from expandBricks, so we're under a lock here
+        // Only called from expandBricks and setAvailableMemory, so we're under a lock here
         if ( brickSize <= 0 )
         {
             // memory mapped turned off
@@ -457,6 +582,11 @@ public class PersistenceWindowPool
             // No one is doing refresh right now, go ahead and do it
             try
             {
+                // Lots of misses here, see if memory can be moved over from
+                // other pools before deciding what to map.
+                MappedMemoryBalancer balancer = this.balancer;
+                if ( balancer != null )
+                    balancer.rebalanceIfDue();
                 long t = System.currentTimeMillis();
                 doRefreshBricks();
                 refreshes.incrementAndGet();
@@ -626,6 +756,67 @@ public class PersistenceWindowPool
         return false;
     }
 
+    /**
+     * Changes the amount of memory this pool may use for windows. If less
+     * memory than currently used is given, the least hit windows are unmapped
+     * right away, at least those of them that aren't in use. If more memory
+     * is given it will be used as more bricks are requested, i.e. at the
+     * next refresh or expansion of bricks.
+     *
+     * @param mem the number of bytes this pool may use for windows.
+     */
+    synchronized void setAvailableMemory( long mem )
+    {
+        availableMem = mem;
+        if ( brickSize > 0 && memUsed > availableMem )
+        {
+            freeWindows( (int) ((memUsed - availableMem + brickSize - 1) / brickSize) );
+        }
+    }
+
+    long getAvailableMemory()
+    {
+        return availableMem;
+    }
+
+    /**
+     * @return whether or not this pool maps windows at all. If the memory
+     * given to this pool at creation was too small, or none at all, windows
+     * will never be mapped.
+     */
+    boolean isMapping()
+    {
+        return brickSize > 0;
+    }
+
+    int getMissCount()
+    {
+        return miss;
+    }
+
+    long getFileSize()
+    {
+        try
+        {
+            return fileChannel.size();
+        }
+        catch ( IOException e )
+        {
+            throw new UnderlyingStorageException(
+                "Unable to get file size for " + storeName, e );
+        }
+    }
+
+    String getStoreName()
+    {
+        return storeName;
+    }
+
+    void setBalancer( MappedMemoryBalancer balancer )
+    {
+        this.balancer = balancer;
+    }
+
     private void dumpStatus()
     {
         try
@@ -654,8 +845,11 @@ public class PersistenceWindowPool
     WindowPoolStats getStats()
     {
         int avgRefreshTime = refreshes.get() == 0 ? 0 : (int)(refreshTime.get()/refreshes.get());
+        long uptime = System.currentTimeMillis() - startTime;
+        int acquireThroughput = uptime == 0 ? 0 : (int)(((long) hit + miss) * 1000 / uptime);
         return new WindowPoolStats( storeName, availableMem, memUsed, brickCount,
-                brickSize, hit, miss, ooe, switches, avgRefreshTime, refreshes.get(), avertedRefreshes.get() );
+                brickSize, hit, miss, ooe, switches, avgRefreshTime, refreshes.get(), avertedRefreshes.get(),
+                optimisticReads, lockedReads, readAheads, acquireThroughput );
     }
 
     private static class BrickElement
@@ -172,6 +172,8 @@ public class PropertyBlock
         {
         case STRING:
         case ARRAY:
+        case DICTIONARY_STRING:
+        case COMPRESSED:
             result.append( ",firstDynamic=" ).append( getSingleValueBlock() );
             break;
         default:
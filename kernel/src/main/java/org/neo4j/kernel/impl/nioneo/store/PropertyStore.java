@@ -27,11 +27,14 @@ import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 
+import org.neo4j.graphdb.factory.GraphDatabaseSetting;
+import org.neo4j.graphdb.factory.GraphDatabaseSettings;
 import org.neo4j.helpers.Pair;
 import org.neo4j.helpers.UTF8;
 import org.neo4j.kernel.IdGeneratorFactory;
 import org.neo4j.kernel.IdType;
 import org.neo4j.kernel.configuration.Config;
+import org.neo4j.kernel.impl.util.LZ4;
 import org.neo4j.kernel.impl.util.StringLogger;
 
 /**
@@ -43,7 +46,8 @@ public class PropertyStore extends AbstractStore implements Store, RecordStore<P
     public static abstract class Configuration
         extends AbstractStore.Configuration
     {
-        
+        public static final GraphDatabaseSetting.IntegerSetting string_dictionary_size = GraphDatabaseSettings.string_dictionary_size;
+        public static final GraphDatabaseSetting.IntegerSetting value_compression_threshold = GraphDatabaseSettings.value_compression_threshold;
     }
     
     public static final int DEFAULT_DATA_BLOCK_SIZE = 120;
@@ -60,6 +64,8 @@ public class PropertyStore extends AbstractStore implements Store, RecordStore<P
     private DynamicStringStore stringPropertyStore;
     private PropertyIndexStore propertyIndexStore;
     private DynamicArrayStore arrayPropertyStore;
+    private final StringDictionary stringDictionary;
+    private final int compressionThreshold;
 
     public PropertyStore(String fileName, Config configuration, IdGeneratorFactory idGeneratorFactory, FileSystemAbstraction fileSystemAbstraction, StringLogger stringLogger,
                          DynamicStringStore stringPropertyStore, PropertyIndexStore propertyIndexStore, DynamicArrayStore arrayPropertyStore)
@@ -68,7 +74,10 @@ public class PropertyStore extends AbstractStore implements Store, RecordStore<P
         this.stringPropertyStore = stringPropertyStore;
         this.propertyIndexStore = propertyIndexStore;
         this.arrayPropertyStore = arrayPropertyStore;
-
+        this.stringDictionary = new StringDictionary( configuration.isSet( Configuration.string_dictionary_size ) ?
+                configuration.getInteger( Configuration.string_dictionary_size ) : 0 );
+        this.compressionThreshold = configuration.isSet( Configuration.value_compression_threshold ) ?
+                configuration.getInteger( Configuration.value_compression_threshold ) : 0;
     }
 
     @Override
@@ -87,6 +96,11 @@ public class PropertyStore extends AbstractStore implements Store, RecordStore<P
         return arrayPropertyStore;
     }
 
+    StringDictionary getStringDictionary()
+    {
+        return stringDictionary;
+    }
+
     @Override
     protected void setRecovered()
     {
@@ -105,6 +119,15 @@ public class PropertyStore extends AbstractStore implements Store, RecordStore<P
         arrayPropertyStore.unsetRecovered();
     }
 
+    @Override
+    protected void setConcurrentRecovery( boolean concurrentRecovery )
+    {
+        super.setConcurrentRecovery( concurrentRecovery );
+        stringPropertyStore.setConcurrentRecovery( concurrentRecovery );
+        propertyIndexStore.setConcurrentRecovery( concurrentRecovery );
+        arrayPropertyStore.setConcurrentRecovery( concurrentRecovery );
+    }
+
     @Override
     protected void closeStorage()
     {
@@ -252,6 +275,10 @@ public class PropertyStore extends AbstractStore implements Store, RecordStore<P
                      && block.getValueRecords().get( 0 ).isCreated() )
                 {
                     updateDynamicRecords( block.getValueRecords() );
+                    if ( block.getType() == PropertyType.DICTIONARY_STRING && stringDictionary.hasRoom() )
+                    {
+                        stringDictionary.put( block.getSingleValueLong(), (String) getStringFor( block ) );
+                    }
                 }
             }
             if ( longsAppended < PropertyType.getPayloadSizeLongs() )
@@ -276,11 +303,13 @@ public class PropertyStore extends AbstractStore implements Store, RecordStore<P
     {
         for (DynamicRecord valueRecord : records)
         {
-            if ( valueRecord.getType() == PropertyType.STRING.intValue() )
+            if ( valueRecord.getType() == PropertyType.STRING.intValue()
+                 || valueRecord.getType() == PropertyType.DICTIONARY_STRING.intValue() )
             {
                 stringPropertyStore.updateRecord( valueRecord );
             }
-            else if ( valueRecord.getType() == PropertyType.ARRAY.intValue() )
+            else if ( valueRecord.getType() == PropertyType.ARRAY.intValue()
+                      || valueRecord.getType() == PropertyType.COMPRESSED.intValue() )
             {
                 arrayPropertyStore.updateRecord( valueRecord );
             }
@@ -322,12 +351,12 @@ public class PropertyStore extends AbstractStore implements Store, RecordStore<P
                 record.addValueRecord( stringRecord );
             }
         }
-        else if ( record.getType() == PropertyType.ARRAY )
+        else if ( record.getType() == PropertyType.ARRAY || record.getType() == PropertyType.COMPRESSED )
         {
             Collection<DynamicRecord> arrayRecords = arrayPropertyStore.getLightRecords( record.getSingleValueLong() );
             for ( DynamicRecord arrayRecord : arrayRecords )
             {
-                arrayRecord.setType( PropertyType.ARRAY.intValue() );
+                arrayRecord.setType( record.getType().intValue() );
                 record.addValueRecord( arrayRecord );
             }
         }
@@ -357,12 +386,12 @@ public class PropertyStore extends AbstractStore implements Store, RecordStore<P
                     block.addValueRecord( stringRecord );
                 }
             }
-            else if ( block.getType() == PropertyType.ARRAY )
+            else if ( block.getType() == PropertyType.ARRAY || block.getType() == PropertyType.COMPRESSED )
             {
                 Collection<DynamicRecord> arrayRecords = arrayPropertyStore.getLightRecords( block.getSingleValueLong() );
                 for ( DynamicRecord arrayRecord : arrayRecords )
                 {
-                    arrayRecord.setType( PropertyType.ARRAY.intValue() );
+                    arrayRecord.setType( block.getType().intValue() );
                     block.addValueRecord( arrayRecord );
                 }
             }
@@ -507,10 +536,9 @@ public class PropertyStore extends AbstractStore implements Store, RecordStore<P
         return stringPropertyStore.allocateRecords( valueBlockId, chars );
     }
 
-    private Collection<DynamicRecord> allocateArrayRecords( long valueBlockId,
-        Object array )
+    private Collection<DynamicRecord> allocateArrayRecords( long valueBlockId, byte[] bytes )
     {
-        return arrayPropertyStore.allocateRecords( valueBlockId, array );
+        return arrayPropertyStore.allocateRecords( valueBlockId, bytes );
     }
 
     public void encodeValue( PropertyBlock block, int keyId, Object value )
@@ -521,14 +549,29 @@ public class PropertyStore extends AbstractStore implements Store, RecordStore<P
             if ( LongerShortString.encode( keyId, string, block,
                     PropertyType.getPayloadSize() ) ) return;
 
-            // Fall back to dynamic string store
-            long stringBlockId = nextStringBlockId();
-            setSingleBlockValue( block, keyId, PropertyType.STRING, stringBlockId );
+            // Then a string shared with other blocks, if there's one
+            PropertyType type = PropertyType.STRING;
+            if ( stringDictionary.accepts( string ) )
+            {
+                long sharedBlockId = stringDictionary.idOf( string );
+                if ( sharedBlockId != -1 )
+                {
+                    setSingleBlockValue( block, keyId, PropertyType.DICTIONARY_STRING, sharedBlockId );
+                    return;
+                }
+                type = PropertyType.DICTIONARY_STRING;
+            }
+
+            // Fall back to dynamic string store, compressed if that pays off
             byte[] encodedString = encodeString( string );
+            if ( type == PropertyType.STRING &&
+                 encodeCompressed( block, keyId, PropertyType.STRING, encodedString, stringPropertyStore ) ) return;
+            long stringBlockId = nextStringBlockId();
+            setSingleBlockValue( block, keyId, type, stringBlockId );
             Collection<DynamicRecord> valueRecords = allocateStringRecords( stringBlockId, encodedString );
             for ( DynamicRecord valueRecord : valueRecords )
             {
-                valueRecord.setType( PropertyType.STRING.intValue() );
+                valueRecord.setType( type.intValue() );
                 block.addValueRecord( valueRecord );
             }
         }
@@ -555,10 +598,12 @@ public class PropertyStore extends AbstractStore implements Store, RecordStore<P
         {   // Try short array first, i.e. inlined in the property block
             if ( ShortArray.encode( keyId, value, block, PropertyType.getPayloadSize() ) ) return;
 
-            // Fall back to dynamic array store
+            // Fall back to dynamic array store, compressed if that pays off
+            byte[] encodedArray = DynamicArrayStore.encode( value );
+            if ( encodeCompressed( block, keyId, PropertyType.ARRAY, encodedArray, arrayPropertyStore ) ) return;
             long arrayBlockId = nextArrayBlockId();
             setSingleBlockValue( block, keyId, PropertyType.ARRAY, arrayBlockId );
-            Collection<DynamicRecord> arrayRecords = allocateArrayRecords( arrayBlockId, value );
+            Collection<DynamicRecord> arrayRecords = allocateArrayRecords( arrayBlockId, encodedArray );
             for ( DynamicRecord valueRecord : arrayRecords )
             {
                 valueRecord.setType( PropertyType.ARRAY.intValue() );
@@ -572,6 +617,45 @@ public class PropertyStore extends AbstractStore implements Store, RecordStore<P
         }
     }
 
+    /**
+     * Stores <CODE>bytes</CODE>, the contents of a dynamic record chain of
+     * <CODE>type</CODE>, compressed in the array store if they're at least
+     * as long as the compression threshold and it takes fewer records than
+     * storing them as they are in <CODE>plainStore</CODE>.
+     *
+     * @return whether the value was stored compressed.
+     */
+    private boolean encodeCompressed( PropertyBlock block, int keyId, PropertyType type, byte[] bytes,
+            AbstractDynamicStore plainStore )
+    {
+        if ( compressionThreshold == 0 || bytes.length < compressionThreshold )
+        {
+            return false;
+        }
+        byte[] compressed = LZ4.compress( bytes );
+        int compressedLength = DynamicArrayStore.COMPRESSED_HEADER_SIZE + compressed.length;
+        if ( recordsNeeded( compressedLength, arrayPropertyStore ) >= recordsNeeded( bytes.length, plainStore ) )
+        {
+            return false;
+        }
+        ByteBuffer data = ByteBuffer.allocate( compressedLength );
+        data.put( type.byteValue() ).putInt( bytes.length ).put( compressed );
+        long arrayBlockId = nextArrayBlockId();
+        setSingleBlockValue( block, keyId, PropertyType.COMPRESSED, arrayBlockId );
+        for ( DynamicRecord valueRecord : allocateArrayRecords( arrayBlockId, data.array() ) )
+        {
+            valueRecord.setType( PropertyType.COMPRESSED.intValue() );
+            block.addValueRecord( valueRecord );
+        }
+        return true;
+    }
+
+    private static int recordsNeeded( int length, AbstractDynamicStore store )
+    {
+        int dataSize = store.getBlockSize() - AbstractDynamicStore.BLOCK_HEADER_SIZE;
+        return Math.max( 1, (length + dataSize - 1) / dataSize );
+    }
+
     private void setSingleBlockValue( PropertyBlock block, int keyId, PropertyType type, long longValue )
     {
         block.setSingleBlock( keyId | (((long) type.intValue()) << 24)
@@ -588,6 +672,29 @@ public class PropertyStore extends AbstractStore implements Store, RecordStore<P
         return getStringFor( stringPropertyStore, propertyBlock );
     }
 
+    /**
+     * Returns the value of a {@link PropertyType#DICTIONARY_STRING} block. The
+     * value records of such blocks aren't loaded with the property record,
+     * the string is looked up in the dictionary and read from the string
+     * store if it isn't there. A block with value records has created the
+     * chain in a transaction not yet committed, and is read from those.
+     */
+    public Object getDictionaryStringFor( PropertyBlock propertyBlock )
+    {
+        if ( !propertyBlock.isLight() )
+        {
+            return getStringFor( propertyBlock );
+        }
+        long id = propertyBlock.getSingleValueLong();
+        String string = stringDictionary.stringOf( id );
+        if ( string == null )
+        {
+            string = (String) getStringFor( stringPropertyStore, id, stringPropertyStore.getLightRecords( id ) );
+            stringDictionary.put( id, string );
+        }
+        return string;
+    }
+
     public static Object getStringFor( AbstractDynamicStore store, PropertyBlock propertyBlock )
     {
         return getStringFor( store, propertyBlock.getSingleValueLong(), propertyBlock.getValueRecords() );
@@ -611,6 +718,28 @@ public class PropertyStore extends AbstractStore implements Store, RecordStore<P
         return getArrayFor( propertyBlock.getSingleValueLong(), propertyBlock.getValueRecords(), arrayPropertyStore );
     }
 
+    /**
+     * Returns the string or array stored compressed by a
+     * {@link PropertyType#COMPRESSED} block, which has to be heavy.
+     */
+    public Object getCompressedFor( PropertyBlock propertyBlock )
+    {
+        assert !propertyBlock.isLight();
+        Pair<byte[], byte[]> source = readFullByteArray( propertyBlock.getSingleValueLong(),
+                propertyBlock.getValueRecords(), arrayPropertyStore, PropertyType.COMPRESSED );
+        ByteBuffer header = ByteBuffer.wrap( source.first() );
+        byte type = header.get();
+        byte[] bytes = LZ4.decompress( source.other(), 0, source.other().length, header.getInt() );
+        if ( type == PropertyType.STRING.byteValue() )
+        {
+            return getStringFor( bytes );
+        }
+        byte[] arrayHeader = PropertyType.ARRAY.readDynamicRecordHeader( bytes );
+        byte[] arrayData = new byte[bytes.length - arrayHeader.length];
+        System.arraycopy( bytes, arrayHeader.length, arrayData, 0, arrayData.length );
+        return arrayPropertyStore.getRightArray( Pair.of( arrayHeader, arrayData ) );
+    }
+
     public static Object getArrayFor( long startRecord, Iterable<DynamicRecord> records,
             DynamicArrayStore arrayPropertyStore )
     {
@@ -297,6 +297,54 @@ public enum PropertyType
         {
             return ShortArray.calculateNumberOfBlocksUsed( firstBlock );
         }
+    },
+    DICTIONARY_STRING( 13 )
+    {
+        @Override
+        public Object getValue( PropertyBlock block, PropertyStore store )
+        {
+            if ( store == null ) return null;
+            return store.getDictionaryStringFor( block );
+        }
+
+        @Override
+        public PropertyData newPropertyData( PropertyBlock block,
+                long propertyId, Object extractedValue )
+        {
+            return PropertyDatas.forStringOrArray( block.getKeyIndexId(),
+                    propertyId, extractedValue );
+        }
+
+        @Override
+        byte[] readDynamicRecordHeader( byte[] recordBytes )
+        {
+            return new byte[0];
+        }
+    },
+    COMPRESSED( 14 )
+    {
+        @Override
+        public Object getValue( PropertyBlock block, PropertyStore store )
+        {
+            if ( store == null ) return null;
+            return store.getCompressedFor( block );
+        }
+
+        @Override
+        public PropertyData newPropertyData( PropertyBlock block,
+                long propertyId, Object extractedValue )
+        {
+            return PropertyDatas.forStringOrArray( block.getKeyIndexId(),
+                    propertyId, extractedValue );
+        }
+
+        @Override
+        byte[] readDynamicRecordHeader( byte[] recordBytes )
+        {
+            byte[] header = new byte[DynamicArrayStore.COMPRESSED_HEADER_SIZE];
+            System.arraycopy( recordBytes, 0, header, 0, header.length );
+            return header;
+        }
     };
 
     private final int type;
@@ -366,6 +414,10 @@ public enum PropertyType
             return SHORT_STRING;
         case 12:
             return SHORT_ARRAY;
+        case 13:
+            return DICTIONARY_STRING;
+        case 14:
+            return COMPRESSED;
         default: if (nullOnIllegal) return null;
             throw new InvalidRecordException( "Unknown property type for type "
                                               + type );
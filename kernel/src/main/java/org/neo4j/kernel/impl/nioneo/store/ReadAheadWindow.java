@@ -0,0 +1,99 @@
+/**
+ * Copyright (c) 2002-2012 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel.impl.nioneo.store;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A window over a run of records read in one go straight from the file, for
+ * a single reader that is about to read several records close to each other
+ * where no other window is around, see
+ * {@link PersistenceWindowPool#readAhead(long, long, long)}. Its contents
+ * aren't kept up to date with writes made after it was read, so it should
+ * only be used for a short while, f.ex. one batch of a relationship chain.
+ */
+class ReadAheadWindow implements PersistenceWindow
+{
+    private final long position;
+    private final int recordSize;
+    private final int size;
+    private final Buffer buffer;
+
+    ReadAheadWindow( long position, int recordSize, int size, ByteBuffer byteBuffer )
+    {
+        this.position = position;
+        this.recordSize = recordSize;
+        this.size = size;
+        this.buffer = new Buffer( this, byteBuffer );
+    }
+
+    @Override
+    public Buffer getBuffer()
+    {
+        return buffer;
+    }
+
+    @Override
+    public Buffer getOffsettedBuffer( long id )
+    {
+        if ( id < position || id >= position + size )
+        {
+            throw new InvalidRecordException( "Id[" + id + "] not within " + this );
+        }
+        buffer.setOffset( (int) (id - position) * recordSize );
+        return buffer;
+    }
+
+    @Override
+    public int getRecordSize()
+    {
+        return recordSize;
+    }
+
+    @Override
+    public long position()
+    {
+        return position;
+    }
+
+    @Override
+    public int size()
+    {
+        return size;
+    }
+
+    @Override
+    public void force()
+    {
+        throw new UnsupportedOperationException( "Read ahead " + this );
+    }
+
+    @Override
+    public void close()
+    {
+        throw new UnsupportedOperationException( "Read ahead " + this );
+    }
+
+    @Override
+    public String toString()
+    {
+        return "ReadAheadWindow[p=" + position + ",rs=" + recordSize + ",ws=" + size + "]";
+    }
+}
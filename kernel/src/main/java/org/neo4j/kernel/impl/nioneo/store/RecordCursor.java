@@ -0,0 +1,153 @@
+/**
+ * Copyright (c) 2002-2012 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel.impl.nioneo.store;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A reusable cursor over the records of a store, for reading records without
+ * creating a record object for each one of them. The cursor copies runs of
+ * records into a buffer of its own under one window acquisition and the
+ * getters of a subclass decode the record the cursor is placed at straight
+ * from those bytes. A cursor isn't thread safe. The records read in one go
+ * are a snapshot, so {@link #moveTo(long)} should be used to see the latest
+ * version of a record, whereas {@link #next()} is for scanning the store.
+ */
+public abstract class RecordCursor
+{
+    private final AbstractStore store;
+    private final int recordSize;
+    private final byte[] bytes;
+    private final ByteBuffer buffer;
+    private long batchStart;
+    private int batchCount;
+    private long id = -1;
+    private int offset;
+
+    RecordCursor( AbstractStore store, int batchSize )
+    {
+        if ( batchSize < 1 )
+        {
+            throw new IllegalArgumentException( "Batch size " + batchSize );
+        }
+        this.store = store;
+        this.recordSize = store.getRecordSize();
+        this.bytes = new byte[batchSize * recordSize];
+        this.buffer = ByteBuffer.wrap( bytes );
+    }
+
+    /**
+     * Places this cursor at the record with the given id, which is read from
+     * the store.
+     *
+     * @return whether that record is in use. The getters may only be used if
+     *         it is.
+     */
+    public boolean moveTo( long id )
+    {
+        return read( id, 1 ) && inUse();
+    }
+
+    /**
+     * Places this cursor at the next record in use after the one it's placed
+     * at, or at the first one in use if it hasn't been placed yet.
+     *
+     * @return whether there was a record in use to place the cursor at.
+     */
+    public boolean next()
+    {
+        for ( long nextId = id + 1;; nextId++ )
+        {
+            if ( nextId >= batchStart && nextId < batchStart + batchCount )
+            {
+                place( nextId );
+            }
+            else if ( !read( nextId, bytes.length / recordSize ) )
+            {
+                return false;
+            }
+            if ( inUse() )
+            {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Makes the next call to {@link #next()} start over from the first record.
+     */
+    public void reset()
+    {
+        id = -1;
+        batchCount = 0;
+    }
+
+    /**
+     * @return the id of the record this cursor is placed at.
+     */
+    public long getId()
+    {
+        return id;
+    }
+
+    /**
+     * @return whether the record this cursor is placed at is in use.
+     */
+    public abstract boolean inUse();
+
+    private boolean read( long fromId, int maxCount )
+    {
+        int count = store.readRecords( fromId, bytes, maxCount );
+        if ( count == 0 )
+        {
+            return false;
+        }
+        batchStart = fromId;
+        batchCount = count;
+        place( fromId );
+        return true;
+    }
+
+    private void place( long id )
+    {
+        this.id = id;
+        this.offset = (int) (id - batchStart) * recordSize;
+    }
+
+    protected byte getByte( int at )
+    {
+        return buffer.get( offset + at );
+    }
+
+    protected int getInt( int at )
+    {
+        return buffer.getInt( offset + at );
+    }
+
+    protected long getUnsignedInt( int at )
+    {
+        return buffer.getInt( offset + at ) & 0xFFFFFFFFL;
+    }
+
+    protected long longFromIntAndMod( long base, long modifier )
+    {
+        return store.longFromIntAndMod( base, modifier );
+    }
+}
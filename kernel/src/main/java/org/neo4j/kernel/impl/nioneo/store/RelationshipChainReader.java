@@ -0,0 +1,86 @@
+/**
+ * Copyright (c) 2002-2012 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel.impl.nioneo.store;
+
+/**
+ * Reads records of a relationship chain one after the other, like
+ * {@link RelationshipStore#getChainRecord(long)} does, but keeps the window
+ * of the last record for as long as the chain stays within it instead of
+ * acquiring a window per record. Where the store isn't memory mapped a run
+ * of records around the next one in the chain is read in one go, see
+ * {@link PersistenceWindowPool#readAhead(long, long, long)}.
+ * <p>
+ * A reader is used by one thread and for a short while, f.ex. for loading a
+ * batch of relationships for a node, and must be {@link #close() closed}.
+ */
+public class RelationshipChainReader
+{
+    private final RelationshipStore store;
+    private final int readAhead;
+    private PersistenceWindow window;
+    private long previousRelId = -1;
+
+    RelationshipChainReader( RelationshipStore store, int readAhead )
+    {
+        this.store = store;
+        this.readAhead = readAhead;
+    }
+
+    /**
+     * @return the record for {@code relId} or {@code null} if it's above
+     * the high id of the store.
+     */
+    public RelationshipRecord getChainRecord( long relId )
+    {
+        if ( window == null || relId < window.position() || relId >= window.position() + window.size() )
+        {
+            releaseWindow();
+            try
+            {
+                window = store.acquireChainWindow( relId, previousRelId, readAhead );
+            }
+            catch ( InvalidRecordException e )
+            {
+                // ok to high id
+                return null;
+            }
+        }
+        else if ( relId > store.getHighId() )
+        {
+            return null;
+        }
+        previousRelId = relId;
+        return store.getChainRecord( relId, window );
+    }
+
+    public void close()
+    {
+        releaseWindow();
+    }
+
+    private void releaseWindow()
+    {
+        if ( window != null )
+        {
+            store.releaseChainWindow( window );
+            window = null;
+        }
+    }
+}
@@ -0,0 +1,138 @@
+/**
+ * Copyright (c) 2002-2012 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel.impl.nioneo.store;
+
+/**
+ * The relationships of one type of a dense node, kept as three chains:
+ * outgoing, incoming and loops. A dense node points to the first of its
+ * groups instead of to a relationship, and the groups are chained through
+ * {@link #getNext()}. Groups are stored in the relationship store, see
+ * {@link RelationshipStore#getGroupRecord(long)}. A group also keeps count of
+ * its outgoing and incoming relationships, loops aren't counted.
+ */
+public class RelationshipGroupRecord extends Abstract64BitRecord
+{
+    private final int type;
+    private long next = Record.NO_NEXT_RELATIONSHIP.intValue();
+    private long firstOut = Record.NO_NEXT_RELATIONSHIP.intValue();
+    private long firstIn = Record.NO_NEXT_RELATIONSHIP.intValue();
+    private long firstLoop = Record.NO_NEXT_RELATIONSHIP.intValue();
+    private long owningNode = Record.NO_NEXT_RELATIONSHIP.intValue();
+    private long outCount;
+    private long inCount;
+
+    public RelationshipGroupRecord( long id, int type )
+    {
+        super( id );
+        this.type = type;
+    }
+
+    public int getType()
+    {
+        return type;
+    }
+
+    public long getNext()
+    {
+        return next;
+    }
+
+    public void setNext( long next )
+    {
+        this.next = next;
+    }
+
+    public long getFirstOut()
+    {
+        return firstOut;
+    }
+
+    public void setFirstOut( long firstOut )
+    {
+        this.firstOut = firstOut;
+    }
+
+    public long getFirstIn()
+    {
+        return firstIn;
+    }
+
+    public void setFirstIn( long firstIn )
+    {
+        this.firstIn = firstIn;
+    }
+
+    public long getFirstLoop()
+    {
+        return firstLoop;
+    }
+
+    public void setFirstLoop( long firstLoop )
+    {
+        this.firstLoop = firstLoop;
+    }
+
+    public long getOwningNode()
+    {
+        return owningNode;
+    }
+
+    public void setOwningNode( long owningNode )
+    {
+        this.owningNode = owningNode;
+    }
+
+    public long getOutCount()
+    {
+        return outCount;
+    }
+
+    public void setOutCount( long outCount )
+    {
+        this.outCount = outCount;
+    }
+
+    public long getInCount()
+    {
+        return inCount;
+    }
+
+    public void setInCount( long inCount )
+    {
+        this.inCount = inCount;
+    }
+
+    public boolean isEmpty()
+    {
+        return firstOut == Record.NO_NEXT_RELATIONSHIP.intValue() &&
+                firstIn == Record.NO_NEXT_RELATIONSHIP.intValue() &&
+                firstLoop == Record.NO_NEXT_RELATIONSHIP.intValue();
+    }
+
+    @Override
+    public String toString()
+    {
+        return new StringBuilder( "RelationshipGroup[" ).append( getId() ).append( ",used=" ).append( inUse() ).append(
+                ",type=" ).append( type ).append( ",out=" ).append( firstOut ).append( ",in=" ).append( firstIn ).append(
+                ",loop=" ).append( firstLoop ).append( ",next=" ).append( next ).append( ",owner=" ).append(
+                owningNode ).append( ",outCount=" ).append( outCount ).append( ",inCount=" ).append( inCount ).append(
+                "]" ).toString();
+    }
+}
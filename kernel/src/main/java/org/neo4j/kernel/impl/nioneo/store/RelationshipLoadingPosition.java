@@ -0,0 +1,75 @@
+/**
+ * Copyright (c) 2002-2012 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel.impl.nioneo.store;
+
+import org.neo4j.kernel.impl.util.RelIdArray.DirectionWrapper;
+
+/**
+ * Where loading the relationships of a node continues from. A node with one
+ * chain of relationships has one position for all of them, whereas a dense
+ * node has one in each of its chains, see {@link RelationshipGroupRecord},
+ * and only the chains matching the direction and types asked for are loaded.
+ */
+public interface RelationshipLoadingPosition
+{
+    /**
+     * @param direction the direction of the relationships wanted.
+     * @param types the ids of the relationship types wanted, or {@code null}
+     * for all types.
+     * @return the relationship to continue loading from, or
+     * {@link Record#NO_NEXT_RELATIONSHIP} if all relationships in that
+     * direction and of those types have been loaded.
+     */
+    long position( DirectionWrapper direction, int[] types );
+
+    /**
+     * Moves the chain that loading continued from at {@code from}, as
+     * returned by {@link #position(DirectionWrapper, int[])}, on to
+     * {@code to}, where that loading stopped.
+     */
+    void updatePosition( long from, long to );
+
+    /**
+     * @return whether or not there are relationships in that direction and of
+     * those types left to load.
+     */
+    boolean hasMore( DirectionWrapper direction, int[] types );
+
+    public static final RelationshipLoadingPosition EMPTY = new RelationshipLoadingPosition()
+    {
+        @Override
+        public long position( DirectionWrapper direction, int[] types )
+        {
+            return Record.NO_NEXT_RELATIONSHIP.intValue();
+        }
+
+        @Override
+        public void updatePosition( long from, long to )
+        {
+            throw new IllegalStateException( "No relationships to load" );
+        }
+
+        @Override
+        public boolean hasMore( DirectionWrapper direction, int[] types )
+        {
+            return false;
+        }
+    };
+}
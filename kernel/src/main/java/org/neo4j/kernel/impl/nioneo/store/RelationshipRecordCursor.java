@@ -0,0 +1,101 @@
+/**
+ * Copyright (c) 2002-2012 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel.impl.nioneo.store;
+
+/**
+ * A {@link RecordCursor} over the relationship records of a
+ * {@link RelationshipStore}, with the same getters as a
+ * {@link RelationshipRecord}. Like when reading records, relationship groups
+ * are seen as records not in use.
+ */
+public class RelationshipRecordCursor extends RecordCursor
+{
+    RelationshipRecordCursor( RelationshipStore store, int batchSize )
+    {
+        super( store, batchSize );
+    }
+
+    // [    ,   x] in use flag
+    // [    ,xxx ] first node high order bits
+    // [xxxx,    ] next prop high order bits
+    private long inUseByte()
+    {
+        return getByte( 0 );
+    }
+
+    // [x   ,    ][    ,    ][    ,    ][    ,    ] relationship group flag,         0x80000000
+    // [ xxx,    ][    ,    ][    ,    ][    ,    ] second node high order bits,     0x70000000
+    // [    ,xxx ][    ,    ][    ,    ][    ,    ] first prev rel high order bits,  0xE000000
+    // [    ,   x][xx  ,    ][    ,    ][    ,    ] first next rel high order bits,  0x1C00000
+    // [    ,    ][  xx,x   ][    ,    ][    ,    ] second prev rel high order bits, 0x380000
+    // [    ,    ][    , xxx][    ,    ][    ,    ] second next rel high order bits, 0x70000
+    // [    ,    ][    ,    ][xxxx,xxxx][xxxx,xxxx] type
+    private long typeInt()
+    {
+        return getUnsignedInt( 9 );
+    }
+
+    @Override
+    public boolean inUse()
+    {
+        return (inUseByte() & 0x1) == Record.IN_USE.intValue() &&
+                (typeInt() & RelationshipStore.GROUP_RECORD_BIT) == 0;
+    }
+
+    public long getFirstNode()
+    {
+        return longFromIntAndMod( getUnsignedInt( 1 ), (inUseByte() & 0xEL) << 31 );
+    }
+
+    public long getSecondNode()
+    {
+        return longFromIntAndMod( getUnsignedInt( 5 ), (typeInt() & 0x70000000L) << 4 );
+    }
+
+    public int getType()
+    {
+        return (int) (typeInt() & 0xFFFF);
+    }
+
+    public long getFirstPrevRel()
+    {
+        return longFromIntAndMod( getUnsignedInt( 13 ), (typeInt() & 0xE000000L) << 7 );
+    }
+
+    public long getFirstNextRel()
+    {
+        return longFromIntAndMod( getUnsignedInt( 17 ), (typeInt() & 0x1C00000L) << 10 );
+    }
+
+    public long getSecondPrevRel()
+    {
+        return longFromIntAndMod( getUnsignedInt( 21 ), (typeInt() & 0x380000L) << 13 );
+    }
+
+    public long getSecondNextRel()
+    {
+        return longFromIntAndMod( getUnsignedInt( 25 ), (typeInt() & 0x70000L) << 16 );
+    }
+
+    public long getNextProp()
+    {
+        return longFromIntAndMod( getUnsignedInt( 29 ), (inUseByte() & 0xF0L) << 28 );
+    }
+}
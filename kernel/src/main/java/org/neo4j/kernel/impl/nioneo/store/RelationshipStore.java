@@ -21,6 +21,8 @@ package org.neo4j.kernel.impl.nioneo.store;
 
 import java.util.ArrayList;
 import java.util.List;
+import org.neo4j.graphdb.factory.GraphDatabaseSetting;
+import org.neo4j.graphdb.factory.GraphDatabaseSettings;
 import org.neo4j.kernel.IdGeneratorFactory;
 import org.neo4j.kernel.IdType;
 import org.neo4j.kernel.configuration.Config;
@@ -34,6 +36,7 @@ public class RelationshipStore extends AbstractStore implements Store, RecordSto
     public static abstract class Configuration
         extends AbstractStore.Configuration
     {
+        public static final GraphDatabaseSetting.IntegerSetting relationship_chain_read_ahead = GraphDatabaseSettings.relationship_chain_read_ahead;
     }
     
     public static final String TYPE_DESCRIPTOR = "RelationshipStore";
@@ -44,9 +47,19 @@ public class RelationshipStore extends AbstractStore implements Store, RecordSto
     // second_next_rel_id+next_prop_id(int)
     public static final int RECORD_SIZE = 33;
 
+    // set in the type field of records holding a RelationshipGroupRecord
+    static final long GROUP_RECORD_BIT = 0x80000000L;
+
+    private final int chainReadAhead;
+    // Until this store has had a relationship group no node is dense, so no
+    // record needs to be read to tell, see NeoStore#hasDenseNodes()
+    private volatile boolean mayHaveGroupRecords = true;
+
     public RelationshipStore(String fileName, Config configuration, IdGeneratorFactory idGeneratorFactory, FileSystemAbstraction fileSystemAbstraction, StringLogger stringLogger)
     {
         super(fileName, configuration, IdType.RELATIONSHIP, idGeneratorFactory, fileSystemAbstraction, stringLogger);
+        chainReadAhead = configuration.isSet( Configuration.relationship_chain_read_ahead ) ?
+                configuration.getInteger( Configuration.relationship_chain_read_ahead ) : 0;
     }
 
     @Override
@@ -144,6 +157,49 @@ public class RelationshipStore extends AbstractStore implements Store, RecordSto
         }
     }
 
+    /**
+     * Loads the light relationships from <CODE>fromId</CODE> and on into
+     * <CODE>records</CODE>, as many as can be read under one window
+     * acquisition, see {@link #acquireBulkReadWindow(long, long)}.
+     * Relationships not in use, as well as relationship groups, are set to
+     * <CODE>null</CODE>.
+     *
+     * @return the number of ids loaded, <CODE>0</CODE> if <CODE>fromId</CODE>
+     *         is too high.
+     */
+    public int getLightRels( long fromId, RelationshipRecord[] records )
+    {
+        PersistenceWindow window = acquireBulkReadWindow( fromId, fromId + records.length );
+        if ( window == null )
+        {
+            return 0;
+        }
+        try
+        {
+            int count = bulkReadCount( window, fromId, records.length );
+            for ( int i = 0; i < count; i++ )
+            {
+                records[i] = getRecord( fromId + i, window, RecordLoad.CHECK );
+            }
+            return count;
+        }
+        finally
+        {
+            releaseWindow( window );
+        }
+    }
+
+    /**
+     * @param batchSize the number of records the cursor reads in one go when
+     *            scanning the store.
+     * @return a new cursor for reading relationships of this store without
+     *         creating {@link RelationshipRecord}s.
+     */
+    public RelationshipRecordCursor newRecordCursor( int batchSize )
+    {
+        return new RelationshipRecordCursor( this, batchSize );
+    }
+
     public void updateRecord( RelationshipRecord record, boolean recovered )
     {
         assert recovered;
@@ -221,6 +277,7 @@ public class RelationshipStore extends AbstractStore implements Store, RecordSto
             // [xxxx,    ] next prop high order bits
             short inUseUnsignedByte = (short)((record.inUse() ? Record.IN_USE : Record.NOT_IN_USE).byteValue() | firstNodeMod | nextPropMod);
 
+            // [x   ,    ][    ,    ][    ,    ][    ,    ] relationship group flag, never set here
             // [ xxx,    ][    ,    ][    ,    ][    ,    ] second node high order bits,     0x70000000
             // [    ,xxx ][    ,    ][    ,    ][    ,    ] first prev rel high order bits,  0xE000000
             // [    ,   x][xx  ,    ][    ,    ][    ,    ] first next rel high order bits,  0x1C00000
@@ -253,23 +310,12 @@ public class RelationshipStore extends AbstractStore implements Store, RecordSto
         // [xxxx,    ] next prop high order bits
         long inUseByte = buffer.get();
 
-        boolean inUse = (inUseByte & 0x1) == Record.IN_USE.intValue();
-        if ( !inUse )
-        {
-            switch ( load )
-            {
-            case NORMAL:
-                throw new InvalidRecordException( "RelationshipRecord[" + id + "] not in use" );
-            case CHECK:
-                return null;
-            }
-        }
-
         long firstNode = buffer.getUnsignedInt();
         long firstNodeMod = (inUseByte & 0xEL) << 31;
 
         long secondNode = buffer.getUnsignedInt();
 
+        // [x   ,    ][    ,    ][    ,    ][    ,    ] relationship group flag,         0x80000000
         // [ xxx,    ][    ,    ][    ,    ][    ,    ] second node high order bits,     0x70000000
         // [    ,xxx ][    ,    ][    ,    ][    ,    ] first prev rel high order bits,  0xE000000
         // [    ,   x][xx  ,    ][    ,    ][    ,    ] first next rel high order bits,  0x1C00000
@@ -277,6 +323,20 @@ public class RelationshipStore extends AbstractStore implements Store, RecordSto
         // [    ,    ][    , xxx][    ,    ][    ,    ] second next rel high order bits, 0x70000
         // [    ,    ][    ,    ][xxxx,xxxx][xxxx,xxxx] type
         long typeInt = buffer.getInt();
+
+        // A relationship group isn't a relationship, so it's seen as a record not in use
+        boolean inUse = (inUseByte & 0x1) == Record.IN_USE.intValue() && (typeInt & GROUP_RECORD_BIT) == 0;
+        if ( !inUse )
+        {
+            switch ( load )
+            {
+            case NORMAL:
+                throw new InvalidRecordException( "RelationshipRecord[" + id + "] not in use" );
+            case CHECK:
+                return null;
+            }
+        }
+
         long secondNodeMod = (typeInt & 0x70000000L) << 4;
         int type = (int)(typeInt & 0xFFFF);
 
@@ -325,6 +385,223 @@ public class RelationshipStore extends AbstractStore implements Store, RecordSto
 //        return record;
 //    }
 
+    /**
+     * @return the group with the given id.
+     * @throws InvalidRecordException if there's no relationship group in use
+     * with that id.
+     */
+    public RelationshipGroupRecord getGroupRecord( long id )
+    {
+        PersistenceWindow window = acquireWindow( id, OperationType.READ );
+        try
+        {
+            RelationshipGroupRecord record = getGroupRecord( id, window );
+            if ( record == null )
+            {
+                throw new InvalidRecordException( "RelationshipGroupRecord[" + id + "] not in use" );
+            }
+            return record;
+        }
+        finally
+        {
+            releaseWindow( window );
+        }
+    }
+
+    /**
+     * @return whether or not the record with the given id is a relationship
+     * group in use, i.e. if a node pointing to it is a dense node.
+     */
+    public boolean isGroupRecord( long id )
+    {
+        if ( !mayHaveGroupRecords )
+        {
+            return false;
+        }
+        PersistenceWindow window = null;
+        try
+        {
+            window = acquireWindow( id, OperationType.READ );
+        }
+        catch ( InvalidRecordException e )
+        {
+            // ok to high id
+            return false;
+        }
+        try
+        {
+            return getGroupRecord( id, window ) != null;
+        }
+        finally
+        {
+            releaseWindow( window );
+        }
+    }
+
+    public void updateRecord( RelationshipGroupRecord record, boolean recovered )
+    {
+        assert recovered;
+        setRecovered();
+        try
+        {
+            updateRecord( record );
+            registerIdFromUpdateRecord( record.getId() );
+        }
+        finally
+        {
+            unsetRecovered();
+        }
+    }
+
+    /**
+     * @return whether or not this store may have relationship groups, i.e.
+     * if there may be dense nodes.
+     */
+    public boolean mayHaveGroupRecords()
+    {
+        return mayHaveGroupRecords;
+    }
+
+    void setMayHaveGroupRecords( boolean mayHaveGroupRecords )
+    {
+        this.mayHaveGroupRecords = mayHaveGroupRecords;
+    }
+
+    public void updateRecord( RelationshipGroupRecord record )
+    {
+        if ( record.inUse() )
+        {
+            mayHaveGroupRecords = true;
+        }
+        PersistenceWindow window = acquireWindow( record.getId(),
+            OperationType.WRITE );
+        try
+        {
+            updateRecord( record, window );
+        }
+        finally
+        {
+            releaseWindow( window );
+        }
+    }
+
+    /*
+     * A relationship group is written in the layout of a relationship record
+     * with the group flag set in the type field, the owning node in place of
+     * the first node, the next group in place of the second node and the
+     * first outgoing, incoming and loop relationships in place of the first
+     * node's prev and next and the second node's prev relationships. The
+     * outgoing and incoming counts, as unsigned ints, take the place of the
+     * second node's next relationship and the next property.
+     */
+    private void updateRecord( RelationshipGroupRecord record, PersistenceWindow window )
+    {
+        long id = record.getId();
+        Buffer buffer = window.getOffsettedBuffer( id );
+        if ( record.inUse() )
+        {
+            long owningNode = record.getOwningNode();
+            short owningNodeMod = (short)((owningNode & 0x700000000L) >> 31);
+
+            long next = record.getNext();
+            long nextMod = next == Record.NO_NEXT_RELATIONSHIP.intValue() ? 0 : (next & 0x700000000L) >> 4;
+
+            long firstOut = record.getFirstOut();
+            long firstOutMod = firstOut == Record.NO_NEXT_RELATIONSHIP.intValue() ? 0 : (firstOut & 0x700000000L) >> 7;
+
+            long firstIn = record.getFirstIn();
+            long firstInMod = firstIn == Record.NO_NEXT_RELATIONSHIP.intValue() ? 0 : (firstIn & 0x700000000L) >> 10;
+
+            long firstLoop = record.getFirstLoop();
+            long firstLoopMod = firstLoop == Record.NO_NEXT_RELATIONSHIP.intValue() ? 0 : (firstLoop & 0x700000000L) >> 13;
+
+            short inUseUnsignedByte = (short)(Record.IN_USE.byteValue() | owningNodeMod);
+            int typeInt = (int)(record.getType() | GROUP_RECORD_BIT | nextMod | firstOutMod | firstInMod | firstLoopMod);
+
+            buffer.put( (byte)inUseUnsignedByte ).putInt( (int) owningNode ).putInt( (int) next )
+                .putInt( typeInt ).putInt( (int) firstOut ).putInt( (int) firstIn )
+                .putInt( (int) firstLoop ).putInt( (int) record.getOutCount() )
+                .putInt( (int) record.getInCount() );
+        }
+        else
+        {
+            buffer.put( Record.NOT_IN_USE.byteValue() );
+            if ( !isInRecoveryMode() )
+            {
+                freeId( id );
+            }
+        }
+    }
+
+    private RelationshipGroupRecord getGroupRecord( long id, PersistenceWindow window )
+    {
+        Buffer buffer = window.getOffsettedBuffer( id );
+        long inUseByte = buffer.get();
+        long owningNode = buffer.getUnsignedInt();
+        long next = buffer.getUnsignedInt();
+        long typeInt = buffer.getInt();
+        if ( (inUseByte & 0x1) != Record.IN_USE.intValue() || (typeInt & GROUP_RECORD_BIT) == 0 )
+        {
+            return null;
+        }
+
+        RelationshipGroupRecord record = new RelationshipGroupRecord( id, (int)(typeInt & 0xFFFF) );
+        record.setInUse( true );
+        record.setOwningNode( longFromIntAndMod( owningNode, (inUseByte & 0xEL) << 31 ) );
+        record.setNext( longFromIntAndMod( next, (typeInt & 0x70000000L) << 4 ) );
+        record.setFirstOut( longFromIntAndMod( buffer.getUnsignedInt(), (typeInt & 0xE000000L) << 7 ) );
+        record.setFirstIn( longFromIntAndMod( buffer.getUnsignedInt(), (typeInt & 0x1C00000L) << 10 ) );
+        record.setFirstLoop( longFromIntAndMod( buffer.getUnsignedInt(), (typeInt & 0x380000L) << 13 ) );
+        record.setOutCount( buffer.getUnsignedInt() );
+        record.setInCount( buffer.getUnsignedInt() );
+        return record;
+    }
+
+    /**
+     * @return a reader of relationship chains, which should be closed when
+     * done with.
+     */
+    public RelationshipChainReader newChainReader()
+    {
+        return new RelationshipChainReader( this, chainReadAhead );
+    }
+
+    /**
+     * Acquires a window for reading {@code relId}, possibly reading ahead a
+     * run of records in the direction the chain was followed in, i.e. from
+     * {@code previousRelId}, if it isn't in a mapped part of the store.
+     */
+    PersistenceWindow acquireChainWindow( long relId, long previousRelId, int readAhead )
+    {
+        if ( readAhead > 1 && relId <= getHighId() )
+        {
+            long start = relId, end = relId + readAhead;
+            if ( previousRelId > relId )
+            {
+                // Relationships are added first in chains so they usually
+                // point to lower ids
+                start = Math.max( 0, relId - readAhead + 1 );
+                end = relId + 1;
+            }
+            PersistenceWindow window = getWindowPool().readAhead( relId, start, Math.min( end, getHighId() + 1 ) );
+            if ( window != null )
+            {
+                return window;
+            }
+        }
+        return acquireWindow( relId, OperationType.READ );
+    }
+
+    RelationshipRecord getChainRecord( long relId, PersistenceWindow window )
+    {
+        return getRecord( relId, window, RecordLoad.NORMAL );
+    }
+
+    void releaseChainWindow( PersistenceWindow window )
+    {
+        releaseWindow( window );
+    }
+
     public RelationshipRecord getChainRecord( long relId )
     {
         PersistenceWindow window = null;
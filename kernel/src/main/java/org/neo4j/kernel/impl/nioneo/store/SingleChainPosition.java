@@ -0,0 +1,54 @@
+/**
+ * Copyright (c) 2002-2012 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel.impl.nioneo.store;
+
+import org.neo4j.kernel.impl.util.RelIdArray.DirectionWrapper;
+
+/**
+ * The position in the one relationship chain of a node that isn't dense,
+ * where relationships of all types and directions are mixed.
+ */
+public class SingleChainPosition implements RelationshipLoadingPosition
+{
+    private long position;
+
+    public SingleChainPosition( long firstRel )
+    {
+        this.position = firstRel;
+    }
+
+    @Override
+    public long position( DirectionWrapper direction, int[] types )
+    {
+        return position;
+    }
+
+    @Override
+    public void updatePosition( long from, long to )
+    {
+        position = to;
+    }
+
+    @Override
+    public boolean hasMore( DirectionWrapper direction, int[] types )
+    {
+        return position != Record.NO_NEXT_RELATIONSHIP.intValue();
+    }
+}
@@ -0,0 +1,537 @@
+/**
+ * Copyright (c) 2002-2012 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel.impl.nioneo.store;
+
+import static org.neo4j.kernel.impl.nioneo.store.Record.NO_NEXT_PROPERTY;
+import static org.neo4j.kernel.impl.nioneo.store.Record.NO_NEXT_RELATIONSHIP;
+import static org.neo4j.kernel.impl.nioneo.store.Record.NO_PREVIOUS_PROPERTY;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.neo4j.kernel.impl.util.FileUtils;
+
+/**
+ * Copies a store, which must have been shut down cleanly, so that the records
+ * read together are stored close to each other. The relationships of each
+ * node, or of each type and direction of a dense node, are laid out one after
+ * the other in the order of its chain, right after the relationship groups
+ * of a dense node. Relationships are laid out with the node with the lowest
+ * id of the two. The property records of each node and relationship are laid
+ * out in chain order as they are visited. Other stores are copied as they
+ * are and the id files of the relationship and property stores are rebuilt,
+ * so that the copy has no holes in them.
+ * <p>
+ * Node ids stay the same, but <b>relationship ids change</b>, so relationship
+ * indexes must be rebuilt. Logical logs and indexes aren't copied.
+ */
+public class StoreDefragmenter
+{
+    // A hop from one record to another within this distance is considered
+    // sequential, i.e. not requiring a read of another page from disk.
+    private static final int PAGE_SIZE = 4096;
+    private static final int SCAN_BATCH_SIZE = 1024;
+
+    private final String sourceDirectory;
+    private final String targetDirectory;
+
+    private NeoStore source;
+    private NeoStore target;
+    private long[] relIdMap;
+    private long nextRelId;
+    private long nextPropId;
+
+    public StoreDefragmenter( String sourceDirectory, String targetDirectory )
+    {
+        this.sourceDirectory = sourceDirectory;
+        this.targetDirectory = targetDirectory;
+    }
+
+    public static void main( String[] args ) throws IOException
+    {
+        if ( args.length != 2 )
+        {
+            System.err.println( "Usage: " + StoreDefragmenter.class.getSimpleName() +
+                    " <source store dir> <target store dir>" );
+            System.err.println( "Relationship ids change in the copy, so relationship indexes need to be rebuilt." );
+            System.exit( 1 );
+        }
+        long startTime = System.currentTimeMillis();
+        Report report = new StoreDefragmenter( args[0], args[1] ).defragment();
+        System.out.println( report );
+        System.out.printf( "Defragmentation completed in %d s%n", (System.currentTimeMillis() - startTime) / 1000 );
+    }
+
+    public Report defragment() throws IOException
+    {
+        File targetDirectoryFile = new File( targetDirectory );
+        if ( targetDirectoryFile.exists() )
+        {
+            throw new IllegalStateException( "Cannot defragment into a directory that already exists, " +
+                    "please delete first and re-run" );
+        }
+        // Copied before the source is opened, which marks its id files as in use
+        copyStoreFiles( targetDirectoryFile );
+        StoreAccess sourceAccess = new StoreAccess( sourceDirectory );
+        try
+        {
+            source = sourceAccess.getRawNeoStore();
+            if ( !source.isStoreOk() )
+            {
+                FileUtils.deleteRecursively( targetDirectoryFile );
+                throw new IllegalStateException( "Store in " + sourceDirectory +
+                        " wasn't shut down cleanly, start and shut down a database on it first" );
+            }
+            Locality[] before = measureLocality( source );
+
+            StoreAccess targetAccess = new StoreAccess( targetDirectory );
+            try
+            {
+                target = targetAccess.getRawNeoStore();
+                assignRelationshipIds();
+                copyRecords();
+                clearRecordsAfter( nextRelId, nextPropId );
+                target.getRelationshipStore().rebuildIdGenerators();
+                target.getPropertyStore().rebuildIdGenerators();
+                Locality[] after = measureLocality( target );
+                return new Report( before[0], after[0], before[1], after[1] );
+            }
+            finally
+            {
+                targetAccess.close();
+            }
+        }
+        finally
+        {
+            sourceAccess.close();
+        }
+    }
+
+    private void copyStoreFiles( File targetDirectoryFile ) throws IOException
+    {
+        if ( !targetDirectoryFile.mkdirs() )
+        {
+            throw new IllegalStateException( "Failed to create directory " + targetDirectoryFile );
+        }
+        File[] files = new File( sourceDirectory ).listFiles();
+        if ( files == null )
+        {
+            throw new IllegalArgumentException( "No store found in " + sourceDirectory );
+        }
+        for ( File file : files )
+        {
+            if ( file.isFile() && file.getName().startsWith( NeoStore.DEFAULT_NAME ) )
+            {
+                FileUtils.copyFile( file, new File( targetDirectoryFile, file.getName() ) );
+            }
+        }
+    }
+
+    /**
+     * Visits relationships in the order they are to be laid out and gives
+     * them their new ids, which are needed before any relationship pointing
+     * to them can be written.
+     */
+    private void assignRelationshipIds()
+    {
+        RelationshipStore relStore = source.getRelationshipStore();
+        long highId = relStore.getHighId();
+        if ( highId > Integer.MAX_VALUE )
+        {
+            throw new IllegalStateException( "Can't defragment stores with more than " + Integer.MAX_VALUE +
+                    " relationships, " + highId + " found" );
+        }
+        relIdMap = new long[(int) highId];
+        Arrays.fill( relIdMap, -1 );
+        nextRelId = 0;
+        visitRelationships( false );
+    }
+
+    private void copyRecords()
+    {
+        nextRelId = 0;
+        nextPropId = 0;
+        target.setGraphNextProp( copyPropertyChain( source.getGraphNextProp() ) );
+        visitRelationships( true );
+    }
+
+    /**
+     * Visits all nodes and their relationships, in the same order both when
+     * assigning new ids and when copying. A relationship is copied when it's
+     * first visited, which is when its new id comes up.
+     */
+    private void visitRelationships( boolean copy )
+    {
+        RelationshipStore relStore = source.getRelationshipStore();
+        NodeRecordCursor nodes = source.getNodeStore().newRecordCursor( SCAN_BATCH_SIZE );
+        RelationshipRecordCursor relationships = relStore.newRecordCursor( 1 );
+        while ( nodes.next() )
+        {
+            long nodeId = nodes.getId();
+            long firstRel = nodes.getNextRel();
+            if ( copy )
+            {
+                NodeRecord copiedNode = new NodeRecord( nodeId, map( firstRel ),
+                        copyPropertyChain( nodes.getNextProp() ) );
+                copiedNode.setInUse( true );
+                target.getNodeStore().updateRecord( copiedNode );
+            }
+            if ( firstRel == NO_NEXT_RELATIONSHIP.intValue() )
+            {
+                continue;
+            }
+            if ( relStore.isGroupRecord( firstRel ) )
+            {
+                List<RelationshipGroupRecord> groups = new ArrayList<RelationshipGroupRecord>();
+                for ( long groupId = firstRel; groupId != NO_NEXT_RELATIONSHIP.intValue(); )
+                {
+                    RelationshipGroupRecord group = relStore.getGroupRecord( groupId );
+                    visitGroup( group, copy );
+                    groups.add( group );
+                    groupId = group.getNext();
+                }
+                for ( RelationshipGroupRecord group : groups )
+                {
+                    visitChain( relationships, nodeId, group.getFirstOut(), copy );
+                    visitChain( relationships, nodeId, group.getFirstIn(), copy );
+                    visitChain( relationships, nodeId, group.getFirstLoop(), copy );
+                }
+            }
+            else
+            {
+                visitChain( relationships, nodeId, firstRel, copy );
+            }
+        }
+
+        // Relationships not in any chain, shouldn't be any in a consistent store
+        for ( long relId = 0; relId < relIdMap.length; relId++ )
+        {
+            if ( copy ? relIdMap[(int) relId] == nextRelId : relIdMap[(int) relId] == -1 )
+            {
+                if ( relationships.moveTo( relId ) )
+                {
+                    visitRelationship( relationships, copy );
+                }
+                else if ( relStore.isGroupRecord( relId ) )
+                {
+                    visitGroup( relStore.getGroupRecord( relId ), copy );
+                }
+            }
+        }
+    }
+
+    private void visitChain( RelationshipRecordCursor relationships, long nodeId, long firstRel, boolean copy )
+    {
+        for ( long relId = firstRel; relId != NO_NEXT_RELATIONSHIP.intValue(); )
+        {
+            if ( !relationships.moveTo( relId ) )
+            {
+                throw new InvalidRecordException( "RelationshipRecord[" + relId + "] not in use" );
+            }
+            visitRelationship( relationships, copy );
+            relId = relationships.getFirstNode() == nodeId ? relationships.getFirstNextRel() :
+                    relationships.getSecondNextRel();
+        }
+    }
+
+    private void visitRelationship( RelationshipRecordCursor rel, boolean copy )
+    {
+        if ( !firstVisit( rel.getId(), copy ) )
+        {
+            return;
+        }
+        if ( copy )
+        {
+            RelationshipRecord copiedRel = new RelationshipRecord( map( rel.getId() ), rel.getFirstNode(),
+                    rel.getSecondNode(), rel.getType() );
+            copiedRel.setInUse( true );
+            copiedRel.setFirstPrevRel( map( rel.getFirstPrevRel() ) );
+            copiedRel.setFirstNextRel( map( rel.getFirstNextRel() ) );
+            copiedRel.setSecondPrevRel( map( rel.getSecondPrevRel() ) );
+            copiedRel.setSecondNextRel( map( rel.getSecondNextRel() ) );
+            copiedRel.setNextProp( copyPropertyChain( rel.getNextProp() ) );
+            target.getRelationshipStore().updateRecord( copiedRel );
+        }
+    }
+
+    private void visitGroup( RelationshipGroupRecord group, boolean copy )
+    {
+        if ( !firstVisit( group.getId(), copy ) )
+        {
+            return;
+        }
+        if ( copy )
+        {
+            RelationshipGroupRecord copiedGroup = new RelationshipGroupRecord( map( group.getId() ), group.getType() );
+            copiedGroup.setInUse( true );
+            copiedGroup.setOwningNode( group.getOwningNode() );
+            copiedGroup.setNext( map( group.getNext() ) );
+            copiedGroup.setFirstOut( map( group.getFirstOut() ) );
+            copiedGroup.setFirstIn( map( group.getFirstIn() ) );
+            copiedGroup.setFirstLoop( map( group.getFirstLoop() ) );
+            copiedGroup.setOutCount( group.getOutCount() );
+            copiedGroup.setInCount( group.getInCount() );
+            target.getRelationshipStore().updateRecord( copiedGroup );
+        }
+    }
+
+    /**
+     * @return whether this is the first visit of the relationship or group,
+     * in which case it's given its new id or, when copying, is to be copied.
+     */
+    private boolean firstVisit( long relId, boolean copy )
+    {
+        int index = (int) relId;
+        if ( copy ? relIdMap[index] != nextRelId : relIdMap[index] != -1 )
+        {
+            return false;
+        }
+        relIdMap[index] = nextRelId++;
+        return true;
+    }
+
+    private long map( long relId )
+    {
+        return relId == NO_NEXT_RELATIONSHIP.intValue() ? relId : relIdMap[(int) relId];
+    }
+
+    /**
+     * Copies the property chain starting at firstProp to the records after
+     * the ones copied so far.
+     *
+     * @return the id of the first record of the copied chain.
+     */
+    private long copyPropertyChain( long firstProp )
+    {
+        if ( firstProp == NO_NEXT_PROPERTY.intValue() )
+        {
+            return firstProp;
+        }
+        PropertyStore propStore = source.getPropertyStore();
+        List<PropertyRecord> chain = new ArrayList<PropertyRecord>();
+        for ( long propId = firstProp; propId != NO_NEXT_PROPERTY.intValue(); )
+        {
+            PropertyRecord record = propStore.getLightRecord( propId );
+            chain.add( record );
+            propId = record.getNextProp();
+        }
+        long firstCopiedProp = nextPropId;
+        for ( int i = 0; i < chain.size(); i++ )
+        {
+            long id = nextPropId++;
+            PropertyRecord copiedRecord = new PropertyRecord( id );
+            copiedRecord.setInUse( true );
+            copiedRecord.setPrevProp( i == 0 ? NO_PREVIOUS_PROPERTY.intValue() : id - 1 );
+            copiedRecord.setNextProp( i == chain.size() - 1 ? NO_NEXT_PROPERTY.intValue() : id + 1 );
+            for ( PropertyBlock block : chain.get( i ).getPropertyBlocks() )
+            {
+                copiedRecord.addPropertyBlock( block );
+            }
+            target.getPropertyStore().updateRecord( copiedRecord );
+        }
+        return firstCopiedProp;
+    }
+
+    /**
+     * Marks the records left over from the source after the copied ones as
+     * not in use, so that the rebuilt id generators end at the copied ones.
+     */
+    private void clearRecordsAfter( long relCount, long propCount )
+    {
+        RelationshipStore relStore = target.getRelationshipStore();
+        for ( long relId = relCount, highId = relStore.getHighId(); relId < highId; relId++ )
+        {
+            relStore.updateRecord( new RelationshipRecord( relId, -1, -1, -1 ) );
+        }
+        PropertyStore propStore = target.getPropertyStore();
+        for ( long propId = propCount, highId = propStore.getHighId(); propId < highId; propId++ )
+        {
+            propStore.updateRecord( new PropertyRecord( propId ) );
+        }
+    }
+
+    /**
+     * @return the locality of the relationship chains and the property
+     * chains of the store, in that order.
+     */
+    public static Locality[] measureLocality( NeoStore neoStore )
+    {
+        NodeStore nodeStore = neoStore.getNodeStore();
+        RelationshipStore relStore = neoStore.getRelationshipStore();
+        Locality relationships = new Locality( relStore.getRecordSize() );
+        Locality properties = new Locality( neoStore.getPropertyStore().getRecordSize() );
+        NodeRecordCursor nodes = nodeStore.newRecordCursor( SCAN_BATCH_SIZE );
+        RelationshipRecordCursor chain = relStore.newRecordCursor( 1 );
+        while ( nodes.next() )
+        {
+            long nodeId = nodes.getId();
+            measurePropertyChain( neoStore, nodes.getNextProp(), properties );
+            long firstRel = nodes.getNextRel();
+            if ( firstRel == NO_NEXT_RELATIONSHIP.intValue() )
+            {
+                continue;
+            }
+            if ( relStore.isGroupRecord( firstRel ) )
+            {
+                for ( long groupId = firstRel; groupId != NO_NEXT_RELATIONSHIP.intValue(); )
+                {
+                    RelationshipGroupRecord group = relStore.getGroupRecord( groupId );
+                    measureChain( neoStore, chain, nodeId, groupId, group.getFirstOut(), relationships, properties );
+                    measureChain( neoStore, chain, nodeId, groupId, group.getFirstIn(), relationships, properties );
+                    measureChain( neoStore, chain, nodeId, groupId, group.getFirstLoop(), relationships, properties );
+                    relationships.hop( groupId, group.getNext() );
+                    groupId = group.getNext();
+                }
+            }
+            else
+            {
+                measureChain( neoStore, chain, nodeId, NO_NEXT_RELATIONSHIP.intValue(), firstRel, relationships,
+                        properties );
+            }
+        }
+        return new Locality[] { relationships, properties };
+    }
+
+    private static void measureChain( NeoStore neoStore, RelationshipRecordCursor chain, long nodeId, long from,
+            long firstRel, Locality relationships, Locality properties )
+    {
+        for ( long relId = firstRel; relId != NO_NEXT_RELATIONSHIP.intValue(); )
+        {
+            relationships.hop( from, relId );
+            if ( !chain.moveTo( relId ) )
+            {
+                throw new InvalidRecordException( "RelationshipRecord[" + relId + "] not in use" );
+            }
+            // Relationships are measured from the node with the lowest id, as they are laid out
+            if ( Math.min( chain.getFirstNode(), chain.getSecondNode() ) == nodeId )
+            {
+                measurePropertyChain( neoStore, chain.getNextProp(), properties );
+            }
+            from = relId;
+            relId = chain.getFirstNode() == nodeId ? chain.getFirstNextRel() : chain.getSecondNextRel();
+        }
+    }
+
+    private static void measurePropertyChain( NeoStore neoStore, long firstProp, Locality properties )
+    {
+        PropertyStore propStore = neoStore.getPropertyStore();
+        for ( long propId = firstProp, from = NO_NEXT_PROPERTY.intValue(); propId != NO_NEXT_PROPERTY.intValue(); )
+        {
+            properties.hop( from, propId );
+            from = propId;
+            propId = propStore.getLightRecord( propId ).getNextProp();
+        }
+    }
+
+    /**
+     * The share of hops from one record to the next in chains of a store
+     * which are short enough not to require reading another page from disk.
+     */
+    public static class Locality
+    {
+        private final int recordSize;
+        private long hops;
+        private long sequentialHops;
+
+        Locality( int recordSize )
+        {
+            this.recordSize = recordSize;
+        }
+
+        void hop( long from, long to )
+        {
+            if ( from == -1 || to == -1 )
+            {
+                return;
+            }
+            hops++;
+            if ( Math.abs( to - from ) * recordSize < PAGE_SIZE )
+            {
+                sequentialHops++;
+            }
+        }
+
+        public long getHops()
+        {
+            return hops;
+        }
+
+        public long getSequentialHops()
+        {
+            return sequentialHops;
+        }
+
+        public double getSequentialRatio()
+        {
+            return hops == 0 ? 1.0 : (double) sequentialHops / hops;
+        }
+
+        @Override
+        public String toString()
+        {
+            return String.format( "%.1f%% of %d hops sequential", getSequentialRatio() * 100, hops );
+        }
+    }
+
+    public static class Report
+    {
+        private final Locality relationshipsBefore, relationshipsAfter;
+        private final Locality propertiesBefore, propertiesAfter;
+
+        Report( Locality relationshipsBefore, Locality relationshipsAfter, Locality propertiesBefore,
+                Locality propertiesAfter )
+        {
+            this.relationshipsBefore = relationshipsBefore;
+            this.relationshipsAfter = relationshipsAfter;
+            this.propertiesBefore = propertiesBefore;
+            this.propertiesAfter = propertiesAfter;
+        }
+
+        public Locality getRelationshipsBefore()
+        {
+            return relationshipsBefore;
+        }
+
+        public Locality getRelationshipsAfter()
+        {
+            return relationshipsAfter;
+        }
+
+        public Locality getPropertiesBefore()
+        {
+            return propertiesBefore;
+        }
+
+        public Locality getPropertiesAfter()
+        {
+            return propertiesAfter;
+        }
+
+        @Override
+        public String toString()
+        {
+            return "Relationship chains: " + relationshipsBefore + " -> " + relationshipsAfter +
+                    "\nProperty chains: " + propertiesBefore + " -> " + propertiesAfter;
+        }
+    }
+}
@@ -164,9 +164,9 @@ public class StoreFactory
 */
         NeoStore neoStore = newNeoStore( fileName );
         /*
-        *  created time | random long | backup version | tx id | store version | next prop
+        *  created time | random long | backup version | tx id | store version | next prop | dense nodes
         */
-        for ( int i = 0; i < 6; i++ ) neoStore.nextId();
+        for ( int i = 0; i < 7; i++ ) neoStore.nextId();
         neoStore.setCreationTime( storeId.getCreationTime() );
         neoStore.setRandomNumber( storeId.getRandomId() );
         neoStore.setVersion( 0 );
@@ -0,0 +1,102 @@
+/**
+ * Copyright (c) 2002-2012 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel.impl.nioneo.store;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Keeps strings stored as {@link PropertyType#DICTIONARY_STRING} in memory,
+ * mapping them to the id of the first record of their chain in the string
+ * store and back. Such chains are shared by all property blocks with the
+ * same value and are never freed, so an entry stays valid once it is known.
+ * <p>
+ * Entries are added when a chain is written to the store, i.e. at commit
+ * and recovery, and when a chain is read. So a transaction storing the same
+ * new string many times stores it once for each, and since nothing is read
+ * up front a value that hasn't been read after a restart may be stored again
+ * under a new id. Once the dictionary holds <CODE>maxEntries</CODE> strings it only
+ * serves the ones it has, and new strings are stored by themselves.
+ */
+class StringDictionary
+{
+    static final int MAX_STRING_LENGTH = 512;
+
+    private final int maxEntries;
+    private final ConcurrentMap<String,Long> ids = new ConcurrentHashMap<String,Long>();
+    private final ConcurrentMap<Long,String> strings = new ConcurrentHashMap<Long,String>();
+    private final AtomicInteger size = new AtomicInteger();
+
+    StringDictionary( int maxEntries )
+    {
+        this.maxEntries = maxEntries;
+    }
+
+    /**
+     * @return whether <CODE>string</CODE> should be stored as a
+     *         {@link PropertyType#DICTIONARY_STRING}.
+     */
+    boolean accepts( String string )
+    {
+        return maxEntries > 0 && string.length() <= MAX_STRING_LENGTH &&
+                ( size.get() < maxEntries || ids.containsKey( string ) );
+    }
+
+    /**
+     * @return the id of the chain holding <CODE>string</CODE> or
+     *         <CODE>-1</CODE> if it isn't known.
+     */
+    long idOf( String string )
+    {
+        Long id = ids.get( string );
+        return id != null ? id.longValue() : -1;
+    }
+
+    /**
+     * @return the string held by the chain starting at <CODE>id</CODE> or
+     *         <CODE>null</CODE> if it isn't known.
+     */
+    String stringOf( long id )
+    {
+        return strings.get( id );
+    }
+
+    boolean hasRoom()
+    {
+        return size.get() < maxEntries;
+    }
+
+    void put( long id, String string )
+    {
+        if ( !hasRoom() || strings.putIfAbsent( id, string ) != null )
+        {
+            return;
+        }
+        size.incrementAndGet();
+        // Two ids for the same string is fine, new values share the last one
+        ids.put( string, id );
+    }
+
+    int size()
+    {
+        return size.get();
+    }
+}
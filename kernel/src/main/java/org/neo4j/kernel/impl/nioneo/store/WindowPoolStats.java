@@ -39,10 +39,16 @@ public class WindowPoolStats
     private final int avgRefreshTime;
     private final int refreshCount;
     private final int avertedRefreshCount;
+
+    private final int optimisticReadCount;
+    private final int lockedReadCount;
+    private final int readAheadCount;
+    private final int acquireThroughput;
     
     public WindowPoolStats( String name, long memAvail, long memUsed, int windowCount,
             int windowSize, int hitCount, int missCount, int oomCount, int switchCount, int avgRefreshTime,
-            int refreshCount, int avertedRefreshCount )
+            int refreshCount, int avertedRefreshCount, int optimisticReadCount, int lockedReadCount,
+            int readAheadCount, int acquireThroughput )
     {
         this.name = extractName( name );
         this.memAvail = memAvail;
@@ -56,6 +62,10 @@ public class WindowPoolStats
         this.avgRefreshTime = avgRefreshTime;
         this.refreshCount = refreshCount;
         this.avertedRefreshCount = avertedRefreshCount;
+        this.optimisticReadCount = optimisticReadCount;
+        this.lockedReadCount = lockedReadCount;
+        this.readAheadCount = readAheadCount;
+        this.acquireThroughput = acquireThroughput;
     }
     
     private String extractName( String name )
@@ -122,6 +132,26 @@ public class WindowPoolStats
     {
         return avertedRefreshCount;
     }
+
+    public int getOptimisticReadCount()
+    {
+        return optimisticReadCount;
+    }
+
+    public int getLockedReadCount()
+    {
+        return lockedReadCount;
+    }
+
+    public int getReadAheadCount()
+    {
+        return readAheadCount;
+    }
+
+    public int getAcquireThroughput()
+    {
+        return acquireThroughput;
+    }
     
     @Override
     public String toString()
@@ -137,7 +167,11 @@ public class WindowPoolStats
                 "switchCount:" + switchCount + ", " +
                 "avgRefreshTime:" + avgRefreshTime + ", " +
                 "refreshCount:" + refreshCount + ", " +
-                "avertedRefreshCount:" + avertedRefreshCount +
+                "avertedRefreshCount:" + avertedRefreshCount + ", " +
+                "optimisticReadCount:" + optimisticReadCount + ", " +
+                "lockedReadCount:" + lockedReadCount + ", " +
+                "readAheadCount:" + readAheadCount + ", " +
+                "acquireThroughput:" + acquireThroughput +
                 "]";
     }
 }
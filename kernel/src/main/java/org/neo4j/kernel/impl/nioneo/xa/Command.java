@@ -38,6 +38,7 @@ import org.neo4j.kernel.impl.nioneo.store.PropertyRecord;
 import org.neo4j.kernel.impl.nioneo.store.PropertyStore;
 import org.neo4j.kernel.impl.nioneo.store.PropertyType;
 import org.neo4j.kernel.impl.nioneo.store.Record;
+import org.neo4j.kernel.impl.nioneo.store.RelationshipGroupRecord;
 import org.neo4j.kernel.impl.nioneo.store.RelationshipRecord;
 import org.neo4j.kernel.impl.nioneo.store.RelationshipStore;
 import org.neo4j.kernel.impl.nioneo.store.RelationshipTypeRecord;
@@ -287,6 +288,7 @@ public abstract class Command extends XaCommand
     private static final byte REL_TYPE_COMMAND = (byte) 4;
     private static final byte PROP_INDEX_COMMAND = (byte) 5;
     private static final byte NEOSTORE_COMMAND = (byte) 6;
+    private static final byte REL_GROUP_COMMAND = (byte) 7;
 
     abstract void removeFromCache( LockReleaser lockReleaser );
 
@@ -570,6 +572,121 @@ public abstract class Command extends XaCommand
         }
     }
     
+    static class RelationshipGroupCommand extends Command
+    {
+        private final RelationshipGroupRecord record;
+        private final RelationshipStore store;
+
+        RelationshipGroupCommand( RelationshipStore store, RelationshipGroupRecord record )
+        {
+            super( record.getId() );
+            this.record = record;
+            this.store = store;
+        }
+
+        @Override
+        public void accept( CommandRecordVisitor visitor )
+        {
+            visitor.visitRelationshipGroup( record );
+        }
+
+        @Override
+        void removeFromCache( LockReleaser lockReleaser )
+        {
+            lockReleaser.removeNodeFromCache( record.getOwningNode() );
+        }
+
+        @Override
+        boolean isCreated()
+        {
+            return record.isCreated();
+        }
+
+        @Override
+        boolean isDeleted()
+        {
+            return !record.inUse();
+        }
+
+        @Override
+        public void execute()
+        {
+            if ( isRecovered() )
+            {
+                logger.fine( this.toString() );
+                store.updateRecord( record, true );
+            }
+            else
+            {
+                store.updateRecord( record );
+            }
+        }
+
+        @Override
+        public String toString()
+        {
+            return record.toString();
+        }
+
+        @Override
+        public void writeToFile( LogBuffer buffer ) throws IOException
+        {
+            // The owning node is written for deleted groups as well, so that
+            // it can be removed from cache when the command is applied
+            buffer.put( REL_GROUP_COMMAND );
+            buffer.putLong( record.getId() );
+            buffer.put( record.inUse() ? Record.IN_USE.byteValue() : Record.NOT_IN_USE.byteValue() );
+            buffer.putInt( record.getType() ).putLong( record.getNext() ).putLong( record.getFirstOut() )
+                .putLong( record.getFirstIn() ).putLong( record.getFirstLoop() ).putLong( record.getOwningNode() )
+                .putLong( record.getOutCount() ).putLong( record.getInCount() );
+        }
+
+        public static Command readCommand( NeoStore neoStore,
+            ReadableByteChannel byteChannel, ByteBuffer buffer )
+            throws IOException
+        {
+            buffer.clear();
+            buffer.limit( 69 );
+            if ( byteChannel.read( buffer ) != buffer.limit() )
+            {
+                return null;
+            }
+            buffer.flip();
+            long id = buffer.getLong();
+            byte inUseFlag = buffer.get();
+            boolean inUse = false;
+            if ( inUseFlag == Record.IN_USE.byteValue() )
+            {
+                inUse = true;
+            }
+            else if ( inUseFlag != Record.NOT_IN_USE.byteValue() )
+            {
+                throw new IOException( "Illegal in use flag: " + inUseFlag );
+            }
+            RelationshipGroupRecord record = new RelationshipGroupRecord( id, buffer.getInt() );
+            record.setInUse( inUse );
+            record.setNext( buffer.getLong() );
+            record.setFirstOut( buffer.getLong() );
+            record.setFirstIn( buffer.getLong() );
+            record.setFirstLoop( buffer.getLong() );
+            record.setOwningNode( buffer.getLong() );
+            record.setOutCount( buffer.getLong() );
+            record.setInCount( buffer.getLong() );
+            return new RelationshipGroupCommand( neoStore == null ? null : neoStore.getRelationshipStore(),
+                record );
+        }
+
+        @Override
+        public boolean equals( Object o )
+        {
+            if ( !(o instanceof RelationshipGroupCommand) )
+            {
+                return false;
+            }
+            return getKey() == ((Command) o).getKey();
+        }
+    }
+
     static class NeoStoreCommand extends Command
     {
         private final NeoStoreRecord record;
@@ -842,6 +959,11 @@ public abstract class Command extends XaCommand
             return record.getRelId();
         }
 
+        PropertyRecord getRecord()
+        {
+            return record;
+        }
+
         @Override
         public String toString()
         {
@@ -1153,6 +1275,8 @@ public abstract class Command extends XaCommand
                     byteChannel, buffer );
             case NEOSTORE_COMMAND:
                 return NeoStoreCommand.readCommand( neoStore, byteChannel, buffer );
+            case REL_GROUP_COMMAND:
+                return RelationshipGroupCommand.readCommand( neoStore, byteChannel, buffer );
             case NONE: return null;
             default:
                 throw new IOException( "Unknown command type[" + commandType
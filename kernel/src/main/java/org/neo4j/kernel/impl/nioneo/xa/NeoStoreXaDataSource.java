@@ -31,6 +31,9 @@ import java.util.List;
 import java.util.Properties;
 import java.util.logging.Logger;
 import java.util.regex.Pattern;
+
+import javax.transaction.xa.XAException;
+
 import org.neo4j.graphdb.DependencyResolver;
 import org.neo4j.graphdb.Node;
 import org.neo4j.graphdb.Relationship;
@@ -399,6 +402,62 @@ public class NeoStoreXaDataSource extends LogBackedXaDataSource
             logger.fine( "Rebuild of id generators complete." );
         }
 
+        /**
+         * Merges runs of transactions that only change node, relationship and
+         * property records into one transaction each, see
+         * {@link WriteTransaction#mergeRecovered(WriteTransaction)}, so that
+         * records are written once per run, in order, and the last committed
+         * tx and id generators are updated once per run.
+         */
+        @Override
+        public void commitRecovered( List<XaTransaction> transactions ) throws XAException
+        {
+            WriteTransaction batch = null;
+            for ( XaTransaction transaction : transactions )
+            {
+                WriteTransaction writeTransaction = (WriteTransaction) transaction;
+                if ( batch != null && batch.mergeRecovered( writeTransaction ) )
+                {
+                    continue;
+                }
+                if ( batch != null )
+                {
+                    batch.commit();
+                }
+                batch = writeTransaction;
+            }
+            if ( batch != null )
+            {
+                batch.commit();
+            }
+        }
+
+        @Override
+        public void beginConcurrentRecovery()
+        {
+            neoStore.setConcurrentRecovery( true );
+        }
+
+        @Override
+        public void endConcurrentRecovery( long lastCommittedTx, boolean success )
+        {
+            try
+            {
+                if ( success )
+                {
+                    if ( lastCommittedTx > neoStore.getLastCommittedTx() )
+                    {
+                        neoStore.setLastCommittedTx( lastCommittedTx );
+                    }
+                    neoStore.updateIdGenerators();
+                }
+            }
+            finally
+            {
+                neoStore.setConcurrentRecovery( false );
+            }
+        }
+
         @Override
         public long getCurrentVersion()
         {
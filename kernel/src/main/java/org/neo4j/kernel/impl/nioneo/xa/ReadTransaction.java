@@ -31,6 +31,7 @@ import javax.transaction.Transaction;
 
 import org.neo4j.helpers.Pair;
 import org.neo4j.kernel.impl.core.PropertyIndex;
+import org.neo4j.kernel.impl.nioneo.store.DenseNodeChainPosition;
 import org.neo4j.kernel.impl.nioneo.store.InvalidRecordException;
 import org.neo4j.kernel.impl.nioneo.store.NameData;
 import org.neo4j.kernel.impl.nioneo.store.NeoStore;
@@ -43,8 +44,12 @@ import org.neo4j.kernel.impl.nioneo.store.PropertyIndexStore;
 import org.neo4j.kernel.impl.nioneo.store.PropertyRecord;
 import org.neo4j.kernel.impl.nioneo.store.PropertyStore;
 import org.neo4j.kernel.impl.nioneo.store.Record;
+import org.neo4j.kernel.impl.nioneo.store.RelationshipGroupRecord;
+import org.neo4j.kernel.impl.nioneo.store.RelationshipLoadingPosition;
+import org.neo4j.kernel.impl.nioneo.store.RelationshipChainReader;
 import org.neo4j.kernel.impl.nioneo.store.RelationshipRecord;
 import org.neo4j.kernel.impl.nioneo.store.RelationshipStore;
+import org.neo4j.kernel.impl.nioneo.store.SingleChainPosition;
 import org.neo4j.kernel.impl.persistence.NeoStoreTransaction;
 import org.neo4j.kernel.impl.transaction.xaframework.XaConnection;
 import org.neo4j.kernel.impl.util.ArrayMap;
@@ -86,6 +91,12 @@ class ReadTransaction implements NeoStoreTransaction
         return getNodeStore().loadLightNode( nodeId );
     }
 
+    @Override
+    public int nodesLoadLight( long fromId, NodeRecord[] records )
+    {
+        return getNodeStore().loadLightNodes( fromId, records );
+    }
+
     @Override
     public RelationshipRecord relLoadLight( long id )
     {
@@ -93,9 +104,44 @@ class ReadTransaction implements NeoStoreTransaction
     }
 
     @Override
-    public long getRelationshipChainPosition( long nodeId )
+    public int relsLoadLight( long fromId, RelationshipRecord[] records )
+    {
+        return getRelationshipStore().getLightRels( fromId, records );
+    }
+
+    @Override
+    public RelationshipLoadingPosition getRelationshipChainPosition( long nodeId )
     {
-        return getNodeStore().getRecord( nodeId ).getNextRel();
+        return getRelationshipChainPosition( getNodeStore().getRecord( nodeId ).getNextRel(),
+                getRelationshipStore() );
+    }
+
+    @Override
+    public int getRelationshipDegree( long nodeId, int[] types, DirectionWrapper direction )
+    {
+        return new RelationshipDegrees( getRelationshipStore() ).count( nodeId,
+                getNodeStore().getRecord( nodeId ).getNextRel(), types, direction );
+    }
+
+    static RelationshipLoadingPosition getRelationshipChainPosition( long firstRel, RelationshipStore relStore )
+    {
+        if ( firstRel == Record.NO_NEXT_RELATIONSHIP.intValue() )
+        {
+            return RelationshipLoadingPosition.EMPTY;
+        }
+        if ( !relStore.isGroupRecord( firstRel ) )
+        {
+            return new SingleChainPosition( firstRel );
+        }
+        // A dense node, its relationships are in the chains of its groups
+        List<RelationshipGroupRecord> groups = new ArrayList<RelationshipGroupRecord>();
+        for ( long groupId = firstRel; groupId != Record.NO_NEXT_RELATIONSHIP.intValue(); )
+        {
+            RelationshipGroupRecord group = relStore.getGroupRecord( groupId );
+            groups.add( group );
+            groupId = group.getNext();
+        }
+        return new DenseNodeChainPosition( groups );
     }
 
     @Override
@@ -116,58 +162,66 @@ class ReadTransaction implements NeoStoreTransaction
             new EnumMap<DirectionWrapper, Iterable<RelationshipRecord>>( DirectionWrapper.class );
         result.put( DirectionWrapper.OUTGOING, out );
         result.put( DirectionWrapper.INCOMING, in );
-        for ( int i = 0; i < grabSize &&
-            position != Record.NO_NEXT_RELATIONSHIP.intValue(); i++ )
+        RelationshipChainReader chainReader = relStore.newChainReader();
+        try
         {
-            RelationshipRecord relRecord = relStore.getChainRecord( position );
-            if ( relRecord == null )
-            {
-                // return what we got so far
-                return Pair.of( result, position );
-            }
-            long firstNode = relRecord.getFirstNode();
-            long secondNode = relRecord.getSecondNode();
-            if ( relRecord.inUse() )
+            for ( int i = 0; i < grabSize &&
+                position != Record.NO_NEXT_RELATIONSHIP.intValue(); i++ )
             {
-                if ( firstNode == secondNode )
+                RelationshipRecord relRecord = chainReader.getChainRecord( position );
+                if ( relRecord == null )
                 {
-                    if ( loop == null )
+                    // return what we got so far
+                    return Pair.of( result, position );
+                }
+                long firstNode = relRecord.getFirstNode();
+                long secondNode = relRecord.getSecondNode();
+                if ( relRecord.inUse() )
+                {
+                    if ( firstNode == secondNode )
+                    {
+                        if ( loop == null )
+                        {
+                            // This is done lazily because loops are probably quite
+                            // rarely encountered
+                            loop = new ArrayList<RelationshipRecord>();
+                            result.put( DirectionWrapper.BOTH, loop );
+                        }
+                        loop.add( relRecord );
+                    }
+                    else if ( firstNode == nodeId )
+                    {
+                        out.add( relRecord );
+                    }
+                    else if ( secondNode == nodeId )
                     {
-                        // This is done lazily because loops are probably quite
-                        // rarely encountered
-                        loop = new ArrayList<RelationshipRecord>();
-                        result.put( DirectionWrapper.BOTH, loop );
+                        in.add( relRecord );
                     }
-                    loop.add( relRecord );
                 }
-                else if ( firstNode == nodeId )
+                else
                 {
-                    out.add( relRecord );
+                    i--;
+                }
+
+                if ( firstNode == nodeId )
+                {
+                    position = relRecord.getFirstNextRel();
                 }
                 else if ( secondNode == nodeId )
                 {
-                    in.add( relRecord );
+                    position = relRecord.getSecondNextRel();
+                }
+                else
+                {
+                    throw new InvalidRecordException( "Node[" + nodeId +
+                        "] is neither firstNode[" + firstNode +
+                        "] nor secondNode[" + secondNode + "] for Relationship[" + relRecord.getId() + "]" );
                 }
             }
-            else
-            {
-                i--;
-            }
-
-            if ( firstNode == nodeId )
-            {
-                position = relRecord.getFirstNextRel();
-            }
-            else if ( secondNode == nodeId )
-            {
-                position = relRecord.getSecondNextRel();
-            }
-            else
-            {
-                throw new InvalidRecordException( "Node[" + nodeId +
-                    "] is neither firstNode[" + firstNode +
-                    "] nor secondNode[" + secondNode + "] for Relationship[" + relRecord.getId() + "]" );
-            }
+        }
+        finally
+        {
+            chainReader.close();
         }
         return Pair.of( result, position );
     }
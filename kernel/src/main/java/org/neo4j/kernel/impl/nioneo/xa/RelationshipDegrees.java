@@ -0,0 +1,165 @@
+/**
+ * Copyright (c) 2002-2012 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel.impl.nioneo.xa;
+
+import org.neo4j.kernel.impl.nioneo.store.InvalidRecordException;
+import org.neo4j.kernel.impl.nioneo.store.Record;
+import org.neo4j.kernel.impl.nioneo.store.RelationshipGroupRecord;
+import org.neo4j.kernel.impl.nioneo.store.RelationshipRecord;
+import org.neo4j.kernel.impl.nioneo.store.RelationshipStore;
+import org.neo4j.kernel.impl.util.RelIdArray.DirectionWrapper;
+
+/**
+ * Counts the relationships of a node straight from its records. The
+ * outgoing and incoming relationships of a dense node are counted by its
+ * {@link RelationshipGroupRecord groups}, so only loops are walked, whereas
+ * the chain of a node that isn't dense is walked without loading the
+ * relationships into the cache. Reads records from the store, override
+ * the getters to see records changed in a transaction.
+ */
+class RelationshipDegrees
+{
+    private final RelationshipStore relStore;
+
+    RelationshipDegrees( RelationshipStore relStore )
+    {
+        this.relStore = relStore;
+    }
+
+    /**
+     * @param types the ids of the relationship types to count, or
+     * {@code null} for all types.
+     * @return the number of relationships of the node, with the relationship
+     * chain or the relationship groups starting at {@code firstRel}, in that
+     * direction and of those types.
+     */
+    int count( long nodeId, long firstRel, int[] types, DirectionWrapper direction )
+    {
+        if ( firstRel == Record.NO_NEXT_RELATIONSHIP.intValue() )
+        {
+            return 0;
+        }
+        long count = isGroup( firstRel ) ? countInGroups( firstRel, types, direction ) :
+                countInChain( nodeId, firstRel, types, direction );
+        return (int) Math.min( count, Integer.MAX_VALUE );
+    }
+
+    private long countInGroups( long firstGroup, int[] types, DirectionWrapper direction )
+    {
+        long count = 0;
+        for ( long groupId = firstGroup; groupId != Record.NO_NEXT_RELATIONSHIP.intValue(); )
+        {
+            RelationshipGroupRecord group = getGroup( groupId );
+            if ( types == null || contains( types, group.getType() ) )
+            {
+                if ( direction != DirectionWrapper.INCOMING )
+                {
+                    count += group.getOutCount();
+                }
+                if ( direction != DirectionWrapper.OUTGOING )
+                {
+                    count += group.getInCount();
+                }
+                count += countLoops( group.getFirstLoop() );
+            }
+            groupId = group.getNext();
+        }
+        return count;
+    }
+
+    private long countLoops( long firstLoop )
+    {
+        long count = 0;
+        for ( long relId = firstLoop; relId != Record.NO_NEXT_RELATIONSHIP.intValue(); )
+        {
+            RelationshipRecord rel = getRelationship( relId );
+            if ( rel == null )
+            {
+                break;
+            }
+            if ( rel.inUse() )
+            {
+                count++;
+            }
+            relId = rel.getFirstNextRel();
+        }
+        return count;
+    }
+
+    private long countInChain( long nodeId, long firstRel, int[] types, DirectionWrapper direction )
+    {
+        long count = 0;
+        for ( long relId = firstRel; relId != Record.NO_NEXT_RELATIONSHIP.intValue(); )
+        {
+            RelationshipRecord rel = getRelationship( relId );
+            if ( rel == null )
+            {
+                break;
+            }
+            boolean outgoing = rel.getFirstNode() == nodeId;
+            boolean incoming = rel.getSecondNode() == nodeId;
+            if ( !outgoing && !incoming )
+            {
+                throw new InvalidRecordException( "Node[" + nodeId + "] is neither firstNode[" +
+                        rel.getFirstNode() + "] nor secondNode[" + rel.getSecondNode() +
+                        "] for Relationship[" + rel.getId() + "]" );
+            }
+            // A loop is both outgoing and incoming
+            if ( rel.inUse() && (types == null || contains( types, rel.getType() )) &&
+                    (direction == DirectionWrapper.BOTH || (direction == DirectionWrapper.OUTGOING ? outgoing : incoming)) )
+            {
+                count++;
+            }
+            relId = outgoing ? rel.getFirstNextRel() : rel.getSecondNextRel();
+        }
+        return count;
+    }
+
+    private static boolean contains( int[] array, int value )
+    {
+        for ( int candidate : array )
+        {
+            if ( candidate == value )
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    protected boolean isGroup( long id )
+    {
+        return relStore.isGroupRecord( id );
+    }
+
+    protected RelationshipGroupRecord getGroup( long id )
+    {
+        return relStore.getGroupRecord( id );
+    }
+
+    /**
+     * @return the relationship record, which may not be in use, or
+     * {@code null} if it's beyond the end of the store.
+     */
+    protected RelationshipRecord getRelationship( long id )
+    {
+        return relStore.getChainRecord( id );
+    }
+}
@@ -23,11 +23,14 @@ import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import javax.transaction.SystemException;
 import javax.transaction.Transaction;
@@ -56,6 +59,8 @@ import org.neo4j.kernel.impl.nioneo.store.PropertyRecord;
 import org.neo4j.kernel.impl.nioneo.store.PropertyStore;
 import org.neo4j.kernel.impl.nioneo.store.PropertyType;
 import org.neo4j.kernel.impl.nioneo.store.Record;
+import org.neo4j.kernel.impl.nioneo.store.RelationshipGroupRecord;
+import org.neo4j.kernel.impl.nioneo.store.RelationshipLoadingPosition;
 import org.neo4j.kernel.impl.nioneo.store.RelationshipRecord;
 import org.neo4j.kernel.impl.nioneo.store.RelationshipStore;
 import org.neo4j.kernel.impl.nioneo.store.RelationshipTypeRecord;
@@ -80,9 +85,16 @@ import static org.neo4j.kernel.impl.nioneo.store.PropertyStore.encodeString;
  */
 public class WriteTransaction extends XaTransaction implements NeoStoreTransaction
 {
+    /**
+     * The number of records in a property chain that are looked at for room
+     * when adding a property, before a new record is put first in the chain.
+     */
+    static final int PROPERTY_PACKING_PROBES = 4;
+
     private final Map<Long,NodeRecord> nodeRecords = new HashMap<Long,NodeRecord>();
     private final Map<Long,PropertyRecord> propertyRecords = new HashMap<Long,PropertyRecord>();
     private final Map<Long,RelationshipRecord> relRecords = new HashMap<Long,RelationshipRecord>();
+    private final Map<Long,RelationshipGroupRecord> relGroupRecords = new HashMap<Long,RelationshipGroupRecord>();
     private Map<Integer,RelationshipTypeRecord> relTypeRecords;
     private Map<Integer,PropertyIndexRecord> propIndexRecords;
     private NeoStoreRecord neoStoreRecord;
@@ -90,9 +102,20 @@ public class WriteTransaction extends XaTransaction implements NeoStoreTransacti
     private final ArrayList<Command.NodeCommand> nodeCommands = new ArrayList<Command.NodeCommand>();
     private final ArrayList<Command.PropertyCommand> propCommands = new ArrayList<Command.PropertyCommand>();
     private final ArrayList<Command.RelationshipCommand> relCommands = new ArrayList<Command.RelationshipCommand>();
+    private final ArrayList<Command.RelationshipGroupCommand> relGroupCommands =
+            new ArrayList<Command.RelationshipGroupCommand>();
     private ArrayList<Command.RelationshipTypeCommand> relTypeCommands;
     private ArrayList<Command.PropertyIndexCommand> propIndexCommands;
     private Command.NeoStoreCommand neoStoreCommand;
+    // Commands of recovered transactions merged into this one, see mergeRecovered
+    private Map<Long,Command> mergedCommands;
+    private Set<Long> mergedDynamicKeys;
+    private List<Command> supersededCommands;
+    // Lengths of relationship chains of nodes that aren't dense, as far as
+    // counted up to the dense node threshold
+    private final Map<Long,Integer> sparseChainLengths = new HashMap<Long,Integer>();
+    // Nodes made dense, whose cached relationship chain positions are stale
+    private final Set<Long> densifiedNodes = new HashSet<Long>();
 
     private final NeoStore neoStore;
     private boolean committed = false;
@@ -117,10 +140,11 @@ public class WriteTransaction extends XaTransaction implements NeoStoreTransacti
         if ( isRecovered() )
         {
             return nodeCommands.size() == 0 && propCommands.size() == 0 &&
-                relCommands.size() == 0 && relTypeCommands == null &&
-                propIndexCommands == null;
+                relCommands.size() == 0 && relGroupCommands.size() == 0 &&
+                relTypeCommands == null && propIndexCommands == null;
         }
         return nodeRecords.size() == 0 && relRecords.size() == 0 &&
+            relGroupRecords.size() == 0 &&
             propertyRecords.size() == 0 && relTypeRecords == null &&
             propIndexRecords == null;
     }
@@ -136,6 +160,7 @@ public class WriteTransaction extends XaTransaction implements NeoStoreTransacti
     {
         int noOfCommands = nodeRecords.size() +
                            relRecords.size() +
+                           relGroupRecords.size() +
                            propertyRecords.size() +
                            (propIndexRecords != null ? propIndexRecords.size() : 0) +
                            (relTypeRecords != null ? relTypeRecords.size() : 0);
@@ -196,6 +221,14 @@ public class WriteTransaction extends XaTransaction implements NeoStoreTransacti
             }
             commands.add( command );
         }
+        for ( RelationshipGroupRecord record : relGroupRecords.values() )
+        {
+            Command.RelationshipGroupCommand command =
+                new Command.RelationshipGroupCommand(
+                    neoStore.getRelationshipStore(), record );
+            relGroupCommands.add( command );
+            commands.add( command );
+        }
         if ( neoStoreRecord != null )
         {
             neoStoreCommand = new Command.NeoStoreCommand( neoStore, neoStoreRecord );
@@ -247,6 +280,10 @@ public class WriteTransaction extends XaTransaction implements NeoStoreTransacti
         {
             relCommands.add( (Command.RelationshipCommand) xaCommand );
         }
+        else if ( xaCommand instanceof Command.RelationshipGroupCommand )
+        {
+            relGroupCommands.add( (Command.RelationshipGroupCommand) xaCommand );
+        }
         else if ( xaCommand instanceof Command.PropertyCommand )
         {
             propCommands.add( (Command.PropertyCommand) xaCommand );
@@ -272,6 +309,151 @@ public class WriteTransaction extends XaTransaction implements NeoStoreTransacti
         }
     }
 
+    /**
+     * Returns the records changed by the injected commands, one key for each
+     * node, relationship, property and dynamic record. Transactions changing
+     * relationship types, property indexes or the neo store record are left
+     * to be committed on their own.
+     */
+    @Override
+    public Collection<?> getRecoveredChangeKeys()
+    {
+        if ( !hasOnlyRecordCommands() )
+        {
+            return null;
+        }
+        Collection<Long> keys = new ArrayList<Long>();
+        for ( Command.NodeCommand command : nodeCommands )
+        {
+            keys.add( changeKey( command.getKey(), NODE_KEY ) );
+        }
+        for ( Command.RelationshipCommand command : relCommands )
+        {
+            keys.add( changeKey( command.getKey(), RELATIONSHIP_KEY ) );
+        }
+        // Groups are records of the relationship store
+        for ( Command.RelationshipGroupCommand command : relGroupCommands )
+        {
+            keys.add( changeKey( command.getKey(), RELATIONSHIP_KEY ) );
+        }
+        for ( Command.PropertyCommand command : propCommands )
+        {
+            keys.add( changeKey( command.getKey(), PROPERTY_KEY ) );
+            keys.addAll( dynamicChangeKeys( command.getRecord() ) );
+        }
+        return keys;
+    }
+
+    private boolean hasOnlyRecordCommands()
+    {
+        return relTypeCommands == null && propIndexCommands == null && neoStoreCommand == null;
+    }
+
+    /**
+     * Merges the commands of {@code transaction}, a recovered transaction
+     * committed right after this one and any merged into it before, into this
+     * transaction so that they are all applied in one pass when this one is
+     * committed. A node or relationship record changed by more than one of
+     * them is only written in its latest version. A property record is
+     * written along with its dynamic records though, so a transaction
+     * changing a property or dynamic record that has already been merged, or
+     * anything but those records, isn't merged.
+     *
+     * @return {@code true} if merged, otherwise nothing has been changed.
+     */
+    boolean mergeRecovered( WriteTransaction transaction )
+    {
+        if ( !hasOnlyRecordCommands() || !transaction.hasOnlyRecordCommands() )
+        {
+            return false;
+        }
+        if ( mergedCommands == null )
+        {
+            mergedCommands = new HashMap<Long,Command>();
+            mergedDynamicKeys = new HashSet<Long>();
+            supersededCommands = new ArrayList<Command>();
+            moveCommandsToMerged( this );
+        }
+        for ( Command.PropertyCommand command : transaction.propCommands )
+        {
+            if ( mergedCommands.containsKey( changeKey( command.getKey(), PROPERTY_KEY ) ) ||
+                    !Collections.disjoint( mergedDynamicKeys, dynamicChangeKeys( command.getRecord() ) ) )
+            {
+                return false;
+            }
+        }
+        moveCommandsToMerged( transaction );
+        setCommitTxId( transaction.getCommitTxId() );
+        return true;
+    }
+
+    private void moveCommandsToMerged( WriteTransaction transaction )
+    {
+        for ( Command.NodeCommand command : transaction.nodeCommands )
+        {
+            addMergedCommand( changeKey( command.getKey(), NODE_KEY ), command );
+        }
+        for ( Command.RelationshipCommand command : transaction.relCommands )
+        {
+            addMergedCommand( changeKey( command.getKey(), RELATIONSHIP_KEY ), command );
+        }
+        for ( Command.RelationshipGroupCommand command : transaction.relGroupCommands )
+        {
+            addMergedCommand( changeKey( command.getKey(), RELATIONSHIP_KEY ), command );
+        }
+        for ( Command.PropertyCommand command : transaction.propCommands )
+        {
+            addMergedCommand( changeKey( command.getKey(), PROPERTY_KEY ), command );
+            mergedDynamicKeys.addAll( dynamicChangeKeys( command.getRecord() ) );
+        }
+        transaction.nodeCommands.clear();
+        transaction.relCommands.clear();
+        transaction.relGroupCommands.clear();
+        transaction.propCommands.clear();
+    }
+
+    private void addMergedCommand( Long key, Command command )
+    {
+        Command superseded = mergedCommands.put( key, command );
+        if ( superseded != null )
+        {
+            // Not written, but what it changed may still be cached
+            supersededCommands.add( superseded );
+        }
+    }
+
+    private static final int NODE_KEY = 0, RELATIONSHIP_KEY = 1, PROPERTY_KEY = 2,
+            STRING_KEY = 3, ARRAY_KEY = 4;
+
+    private static Long changeKey( long id, int store )
+    {
+        return Long.valueOf( (id << 3) | store );
+    }
+
+    private static Collection<Long> dynamicChangeKeys( PropertyRecord record )
+    {
+        Collection<Long> keys = new ArrayList<Long>();
+        for ( PropertyBlock block : record.getPropertyBlocks() )
+        {
+            for ( DynamicRecord valueRecord : block.getValueRecords() )
+            {
+                keys.add( dynamicChangeKey( valueRecord ) );
+            }
+        }
+        for ( DynamicRecord valueRecord : record.getDeletedRecords() )
+        {
+            keys.add( dynamicChangeKey( valueRecord ) );
+        }
+        return keys;
+    }
+
+    private static Long dynamicChangeKey( DynamicRecord record )
+    {
+        return changeKey( record.getId(),
+                record.getType() == PropertyType.ARRAY.intValue() ||
+                record.getType() == PropertyType.COMPRESSED.intValue() ? ARRAY_KEY : STRING_KEY );
+    }
+
     @Override
     public void doRollback() throws XAException
     {
@@ -316,6 +498,14 @@ public class WriteTransaction extends XaTransaction implements NeoStoreTransacti
                 }
                 removeRelationshipFromCache( record.getId() );
             }
+            for ( RelationshipGroupRecord record : relGroupRecords.values() )
+            {
+                if ( freeIds && record.isCreated() )
+                {
+                    getRelationshipStore().freeId( record.getId() );
+                }
+                removeNodeFromCache( record.getOwningNode() );
+            }
             if ( neoStoreRecord != null )
             {
                 removeGraphPropertiesFromCache();
@@ -354,12 +544,14 @@ public class WriteTransaction extends XaTransaction implements NeoStoreTransacti
                         {
                             if ( dynamicRecord.isCreated() )
                             {
-                                if ( dynamicRecord.getType() == PropertyType.STRING.intValue() )
+                                if ( dynamicRecord.getType() == PropertyType.STRING.intValue()
+                                     || dynamicRecord.getType() == PropertyType.DICTIONARY_STRING.intValue() )
                                 {
                                     getPropertyStore().freeStringBlockId(
                                             dynamicRecord.getId() );
                                 }
-                                else if ( dynamicRecord.getType() == PropertyType.ARRAY.intValue() )
+                                else if ( dynamicRecord.getType() == PropertyType.ARRAY.intValue()
+                                          || dynamicRecord.getType() == PropertyType.COMPRESSED.intValue() )
                                 {
                                     getPropertyStore().freeArrayBlockId(
                                             dynamicRecord.getId() );
@@ -427,6 +619,13 @@ public class WriteTransaction extends XaTransaction implements NeoStoreTransacti
         }
         if ( isRecovered() )
         {
+            if ( mergedCommands != null )
+            {
+                for ( Command command : mergedCommands.values() )
+                {
+                    injectCommand( command );
+                }
+            }
             applyCommit( true );
             return;
         }
@@ -440,6 +639,9 @@ public class WriteTransaction extends XaTransaction implements NeoStoreTransacti
 
     private void applyCommit( boolean isRecovered )
     {
+        // Committed along with other recovered transactions, which will update
+        // the last committed tx and id generators once all are committed.
+        boolean concurrentRecovery = isRecovered && neoStore.isInConcurrentRecovery();
         try
         {
             committed = true;
@@ -474,9 +676,10 @@ public class WriteTransaction extends XaTransaction implements NeoStoreTransacti
             // primitives
             java.util.Collections.sort( nodeCommands, sorter );
             java.util.Collections.sort( relCommands, sorter );
+            java.util.Collections.sort( relGroupCommands, sorter );
             java.util.Collections.sort( propCommands, sorter );
-            executeCreated( isRecovered, propCommands, relCommands, nodeCommands );
-            executeModified( isRecovered, propCommands, relCommands, nodeCommands );
+            executeCreated( isRecovered, propCommands, relCommands, relGroupCommands, nodeCommands );
+            executeModified( isRecovered, propCommands, relCommands, relGroupCommands, nodeCommands );
             if ( isRecovered )
             {
                 neoStore.setRecoveredStatus( true );
@@ -491,7 +694,7 @@ public class WriteTransaction extends XaTransaction implements NeoStoreTransacti
                         removeGraphPropertiesFromCache();
                     }
                 }
-                if ( isRecovered )
+                if ( isRecovered && !concurrentRecovery )
                 {
                     neoStore.setLastCommittedTx( getCommitTxId() );
                 }
@@ -503,14 +706,28 @@ public class WriteTransaction extends XaTransaction implements NeoStoreTransacti
                     neoStore.setRecoveredStatus( false );
                 }
             }
-            executeDeleted( isRecovered, propCommands, relCommands, nodeCommands );
+            executeDeleted( isRecovered, propCommands, relCommands, relGroupCommands, nodeCommands );
+            if ( supersededCommands != null )
+            {
+                for ( Command command : supersededCommands )
+                {
+                    command.removeFromCache( lockReleaser );
+                }
+            }
             if ( isRecovered )
             {
-                neoStore.updateIdGenerators();
+                if ( !concurrentRecovery )
+                {
+                    neoStore.updateIdGenerators();
+                }
             }
             else
             {
                 updateFirstRelationships();
+                for ( Long nodeId : densifiedNodes )
+                {
+                    removeNodeFromCache( nodeId );
+                }
                 lockReleaser.commitCows(); // updates the cached primitives
                 neoStore.setLastCommittedTx( getCommitTxId() );
             }
@@ -584,6 +801,7 @@ public class WriteTransaction extends XaTransaction implements NeoStoreTransacti
         nodeRecords.clear();
         propertyRecords.clear();
         relRecords.clear();
+        relGroupRecords.clear();
         relTypeRecords = null;
         propIndexRecords = null;
         neoStoreRecord = null;
@@ -592,8 +810,14 @@ public class WriteTransaction extends XaTransaction implements NeoStoreTransacti
         propCommands.clear();
         propIndexCommands = null;
         relCommands.clear();
+        relGroupCommands.clear();
         relTypeCommands = null;
         neoStoreCommand = null;
+        mergedCommands = null;
+        mergedDynamicKeys = null;
+        supersededCommands = null;
+        sparseChainLengths.clear();
+        densifiedNodes.clear();
     }
 
     private void removePropertyFromCache( PropertyCommand command )
@@ -665,6 +889,31 @@ public class WriteTransaction extends XaTransaction implements NeoStoreTransacti
         return null;
     }
 
+    @Override
+    public int nodesLoadLight( long fromId, NodeRecord[] records )
+    {
+        int count = getNodeStore().loadLightNodes( fromId, records );
+        for ( int i = 0; i < count; i++ )
+        {
+            NodeRecord nodeRecord = getNodeRecord( fromId + i );
+            if ( nodeRecord != null ) records[i] = nodeRecord;
+        }
+        return count;
+    }
+
+    @Override
+    public int relsLoadLight( long fromId, RelationshipRecord[] records )
+    {
+        int count = getRelationshipStore().getLightRels( fromId, records );
+        for ( int i = 0; i < count; i++ )
+        {
+            // if deleted in this tx still return it, like relLoadLight
+            RelationshipRecord relRecord = getRelationshipRecord( fromId + i );
+            if ( relRecord != null ) records[i] = relRecord;
+        }
+        return count;
+    }
+
     @Override
     public ArrayMap<Integer,PropertyData> nodeDelete( long nodeId )
     {
@@ -699,12 +948,45 @@ public class WriteTransaction extends XaTransaction implements NeoStoreTransacti
                 id + "] since it is already deleted." );
         }
         ArrayMap<Integer, PropertyData> propertyMap = getAndDeletePropertyChain( record );
+        uncount( record );
         disconnectRelationship( record );
         updateNodes( record );
         record.setInUse( false );
+        sparseChainLengths.remove( record.getFirstNode() );
+        sparseChainLengths.remove( record.getSecondNode() );
         return propertyMap;
     }
 
+    // Takes rel out of the counts of the groups of the nodes that are dense
+    private void uncount( RelationshipRecord rel )
+    {
+        if ( rel.getFirstNode() == rel.getSecondNode() )
+        {
+            // Loops aren't counted
+            return;
+        }
+        RelationshipGroupRecord group = getRelationshipGroupIfDense( rel.getFirstNode(), rel.getType() );
+        if ( group != null )
+        {
+            group.setOutCount( group.getOutCount() - 1 );
+        }
+        group = getRelationshipGroupIfDense( rel.getSecondNode(), rel.getType() );
+        if ( group != null )
+        {
+            group.setInCount( group.getInCount() - 1 );
+        }
+    }
+
+    private RelationshipGroupRecord getRelationshipGroupIfDense( long nodeId, int type )
+    {
+        NodeRecord node = getNodeRecord( nodeId );
+        if ( node == null )
+        {
+            node = getNodeStore().getRecord( nodeId );
+        }
+        return isDense( node ) ? getRelationshipGroup( node, type ) : null;
+    }
+
     private ArrayMap<Integer, PropertyData> getAndDeletePropertyChain(
             PrimitiveRecord primitive )
     {
@@ -884,14 +1166,53 @@ public class WriteTransaction extends XaTransaction implements NeoStoreTransacti
         lockReleaser.addLockToTransaction( lockableRel, LockType.WRITE );
     }
 
-    public long getRelationshipChainPosition( long nodeId )
+    public RelationshipLoadingPosition getRelationshipChainPosition( long nodeId )
     {
         NodeRecord nodeRecord = getNodeRecord( nodeId );
         if ( nodeRecord != null && nodeRecord.isCreated() )
         {
-            return Record.NO_NEXT_RELATIONSHIP.intValue();
+            return RelationshipLoadingPosition.EMPTY;
+        }
+        return ReadTransaction.getRelationshipChainPosition( getNodeStore().getRecord( nodeId ).getNextRel(),
+                getRelationshipStore() );
+    }
+
+    @Override
+    public int getRelationshipDegree( long nodeId, int[] types, DirectionWrapper direction )
+    {
+        NodeRecord nodeRecord = getNodeRecord( nodeId );
+        if ( nodeRecord == null )
+        {
+            nodeRecord = getNodeStore().getRecord( nodeId );
         }
-        return getNodeStore().getRecord( nodeId ).getNextRel();
+        // Sees the relationships and groups as changed by this transaction
+        RelationshipDegrees degrees = new RelationshipDegrees( getRelationshipStore() )
+        {
+            @Override
+            protected boolean isGroup( long id )
+            {
+                RelationshipGroupRecord group = relGroupRecords.get( id );
+                if ( group != null )
+                {
+                    return group.inUse();
+                }
+                return !relRecords.containsKey( id ) && super.isGroup( id );
+            }
+
+            @Override
+            protected RelationshipGroupRecord getGroup( long id )
+            {
+                return getOrLoadRelationshipGroup( id );
+            }
+
+            @Override
+            protected RelationshipRecord getRelationship( long id )
+            {
+                RelationshipRecord record = getRelationshipRecord( id );
+                return record != null ? record : super.getRelationship( id );
+            }
+        };
+        return degrees.count( nodeId, nodeRecord.getNextRel(), types, direction );
     }
 
     public Pair<Map<DirectionWrapper, Iterable<RelationshipRecord>>, Long> getMoreRelationships( long nodeId,
@@ -910,9 +1231,11 @@ public class WriteTransaction extends XaTransaction implements NeoStoreTransacti
                 firstNode = getNodeStore().getRecord( rel.getFirstNode() );
                 addNodeRecord( firstNode );
             }
-            firstNode.setNextRel( rel.getFirstNextRel() );
+            unlinkFirst( firstNode, rel, rel.getFirstNextRel() );
         }
-        if ( rel.getSecondPrevRel() == Record.NO_PREV_RELATIONSHIP.intValue() )
+        // A loop is first in the same chain on both sides
+        if ( rel.getSecondPrevRel() == Record.NO_PREV_RELATIONSHIP.intValue() &&
+            rel.getFirstNode() != rel.getSecondNode() )
         {
             NodeRecord secondNode = getNodeRecord( rel.getSecondNode() );
             if ( secondNode == null )
@@ -920,7 +1243,38 @@ public class WriteTransaction extends XaTransaction implements NeoStoreTransacti
                 secondNode = getNodeStore().getRecord( rel.getSecondNode() );
                 addNodeRecord( secondNode );
             }
-            secondNode.setNextRel( rel.getSecondNextRel() );
+            unlinkFirst( secondNode, rel, rel.getSecondNextRel() );
+        }
+    }
+
+    // rel, first in its chain of node, is deleted and the chain starts at next instead
+    private void unlinkFirst( NodeRecord node, RelationshipRecord rel, long next )
+    {
+        if ( !isDense( node ) )
+        {
+            node.setNextRel( next );
+            return;
+        }
+        RelationshipGroupRecord group = getRelationshipGroup( node, rel.getType() );
+        if ( group == null )
+        {
+            throw new InvalidRecordException( node + " has no group for " + rel );
+        }
+        if ( rel.getFirstNode() == rel.getSecondNode() )
+        {
+            group.setFirstLoop( next );
+        }
+        else if ( rel.getFirstNode() == node.getId() )
+        {
+            group.setFirstOut( next );
+        }
+        else
+        {
+            group.setFirstIn( next );
+        }
+        if ( group.isEmpty() )
+        {
+            removeRelationshipGroup( node, group );
         }
     }
 
@@ -991,8 +1345,9 @@ public class WriteTransaction extends XaTransaction implements NeoStoreTransacti
 
     public Object propertyGetValueOrNull( PropertyBlock block )
     {
-        return block.getType().getValue( block,
-                block.isLight() ? null : getPropertyStore() );
+        // Shared strings are light but can still be read, they're never deleted
+        return block.getType().getValue( block, block.isLight() &&
+                block.getType() != PropertyType.DICTIONARY_STRING ? null : getPropertyStore() );
     }
 
     @Override
@@ -1279,17 +1634,20 @@ public class WriteTransaction extends XaTransaction implements NeoStoreTransacti
         int newBlockSizeInBytes = block.getSize();
         /*
          * Here we could either iterate over the whole chain or just go for the first record
-         * which is the most likely to be the less full one. Currently we opt for the second
-         * to perform better.
+         * which is the most likely to be the less full one. We look at the first few
+         * records so that the small properties of a primitive stay packed in as few
+         * records as possible, which is what loading its properties pays for, but
+         * stop there so that adding to a long chain stays cheap.
          */
         PropertyRecord host = null;
-        long firstProp = primitive.getNextProp();
-        if ( firstProp != Record.NO_NEXT_PROPERTY.intValue() )
+        long nextProp = primitive.getNextProp();
+        for ( int probes = 0; probes < PROPERTY_PACKING_PROBES &&
+                nextProp != Record.NO_NEXT_PROPERTY.intValue(); probes++ )
         {
             // We do not store in map - might not have enough space
-            PropertyRecord propRecord = getPropertyRecord( firstProp, false,
+            PropertyRecord propRecord = getPropertyRecord( nextProp, false,
                     false );
-            assert propRecord.getPrevProp() == Record.NO_PREVIOUS_PROPERTY.intValue() : propRecord
+            assert probes > 0 || propRecord.getPrevProp() == Record.NO_PREVIOUS_PROPERTY.intValue() : propRecord
                                                                                         + " for "
                                                                                         + primitive;
             assert propRecord.inUse() : propRecord;
@@ -1300,11 +1658,13 @@ public class WriteTransaction extends XaTransaction implements NeoStoreTransacti
                 host = propRecord;
                 host.addPropertyBlock( block );
                 host.setChanged( primitive );
+                break;
             }
+            nextProp = propRecord.getNextProp();
         }
         if ( host == null )
         {
-            // First record in chain didn't fit, make new one
+            // None of the records looked at had room, make new one
             host = new PropertyRecord( getPropertyStore().nextId(), primitive );
             if ( primitive.getNextProp() != Record.NO_NEXT_PROPERTY.intValue() )
             {
@@ -1364,26 +1724,52 @@ public class WriteTransaction extends XaTransaction implements NeoStoreTransacti
     {
         assert firstNode.getNextRel() != rel.getId();
         assert secondNode.getNextRel() != rel.getId();
-        rel.setFirstNextRel( firstNode.getNextRel() );
-        rel.setSecondNextRel( secondNode.getNextRel() );
         connect( firstNode, rel );
-        connect( secondNode, rel );
-        firstNode.setNextRel( rel.getId() );
-        secondNode.setNextRel( rel.getId() );
+        // A loop is linked on both sides at once
+        if ( rel.getFirstNode() != rel.getSecondNode() )
+        {
+            connect( secondNode, rel );
+        }
     }
 
     private void connect( NodeRecord node, RelationshipRecord rel )
     {
-        if ( node.getNextRel() != Record.NO_NEXT_RELATIONSHIP.intValue() )
+        boolean dense = isDense( node );
+        if ( !dense && shouldBecomeDense( node ) )
         {
-            Relationship lockableRel = new LockableRelationship( node.getNextRel() );
-            getWriteLock( lockableRel );
-            RelationshipRecord nextRel = getRelationshipRecord( node.getNextRel() );
-            if ( nextRel == null )
-            {
-                nextRel = getRelationshipStore().getRecord( node.getNextRel() );
-                addRelationshipRecord( nextRel );
-            }
+            convertToDense( node );
+            dense = true;
+        }
+        if ( dense )
+        {
+            connectToGroup( node, rel );
+        }
+        else
+        {
+            node.setNextRel( link( node, rel, node.getNextRel() ) );
+        }
+    }
+
+    /**
+     * Puts rel first in the chain of node starting at firstInChain, which is
+     * the relationship chain of a node that isn't dense or one of the chains
+     * of a dense one.
+     *
+     * @return the id of rel, the new start of the chain.
+     */
+    private long link( NodeRecord node, RelationshipRecord rel, long firstInChain )
+    {
+        if ( rel.getFirstNode() == node.getId() )
+        {
+            rel.setFirstNextRel( firstInChain );
+        }
+        if ( rel.getSecondNode() == node.getId() )
+        {
+            rel.setSecondNextRel( firstInChain );
+        }
+        if ( firstInChain != Record.NO_NEXT_RELATIONSHIP.intValue() )
+        {
+            RelationshipRecord nextRel = getRelationshipRecordForChange( firstInChain );
             boolean changed = false;
             if ( nextRel.getFirstNode() == node.getId() )
             {
@@ -1400,6 +1786,178 @@ public class WriteTransaction extends XaTransaction implements NeoStoreTransacti
                 throw new InvalidRecordException( node + " dont match " + nextRel );
             }
         }
+        return rel.getId();
+    }
+
+    private RelationshipRecord getRelationshipRecordForChange( long relId )
+    {
+        Relationship lockableRel = new LockableRelationship( relId );
+        getWriteLock( lockableRel );
+        RelationshipRecord record = getRelationshipRecord( relId );
+        if ( record == null )
+        {
+            record = getRelationshipStore().getRecord( relId );
+            addRelationshipRecord( record );
+        }
+        return record;
+    }
+
+    private void connectToGroup( NodeRecord node, RelationshipRecord rel )
+    {
+        RelationshipGroupRecord group = getRelationshipGroup( node, rel.getType() );
+        if ( group == null )
+        {
+            group = createRelationshipGroup( node, rel.getType() );
+        }
+        if ( rel.getFirstNode() == rel.getSecondNode() )
+        {
+            group.setFirstLoop( link( node, rel, group.getFirstLoop() ) );
+        }
+        else if ( rel.getFirstNode() == node.getId() )
+        {
+            group.setFirstOut( link( node, rel, group.getFirstOut() ) );
+            group.setOutCount( group.getOutCount() + 1 );
+        }
+        else
+        {
+            group.setFirstIn( link( node, rel, group.getFirstIn() ) );
+            group.setInCount( group.getInCount() + 1 );
+        }
+    }
+
+    /**
+     * A node is dense if it points to a relationship group instead of to a
+     * relationship, see {@link RelationshipGroupRecord}.
+     */
+    private boolean isDense( NodeRecord node )
+    {
+        long firstRel = node.getNextRel();
+        if ( firstRel == Record.NO_NEXT_RELATIONSHIP.intValue() )
+        {
+            return false;
+        }
+        if ( relGroupRecords.containsKey( firstRel ) )
+        {
+            return true;
+        }
+        if ( relRecords.containsKey( firstRel ) )
+        {
+            return false;
+        }
+        return getRelationshipStore().isGroupRecord( firstRel );
+    }
+
+    private boolean shouldBecomeDense( NodeRecord node )
+    {
+        int threshold = neoStore.getDenseNodeThreshold();
+        if ( threshold <= 0 )
+        {
+            return false;
+        }
+        Integer length = sparseChainLengths.get( node.getId() );
+        if ( length == null )
+        {
+            // Only counted as far as needed to know whether or not to convert
+            length = 0;
+            for ( long relId = node.getNextRel(); relId != Record.NO_NEXT_RELATIONSHIP.intValue() &&
+                length < threshold; length++ )
+            {
+                RelationshipRecord rel = getRelationshipRecord( relId );
+                if ( rel == null )
+                {
+                    rel = getRelationshipStore().getRecord( relId );
+                }
+                relId = rel.getFirstNode() == node.getId() ? rel.getFirstNextRel() : rel.getSecondNextRel();
+            }
+        }
+        if ( length + 1 >= threshold )
+        {
+            return true;
+        }
+        sparseChainLengths.put( node.getId(), length + 1 );
+        return false;
+    }
+
+    /**
+     * Moves the relationships of node from its one chain into the chains of
+     * relationship groups, one for each type.
+     */
+    private void convertToDense( NodeRecord node )
+    {
+        List<RelationshipRecord> chain = new ArrayList<RelationshipRecord>();
+        for ( long relId = node.getNextRel(); relId != Record.NO_NEXT_RELATIONSHIP.intValue(); )
+        {
+            RelationshipRecord rel = getRelationshipRecordForChange( relId );
+            chain.add( rel );
+            relId = rel.getFirstNode() == node.getId() ? rel.getFirstNextRel() : rel.getSecondNextRel();
+        }
+        node.setNextRel( Record.NO_NEXT_RELATIONSHIP.intValue() );
+        // Each one is put first in its chain, so go backwards to keep the order
+        for ( int i = chain.size() - 1; i >= 0; i-- )
+        {
+            RelationshipRecord rel = chain.get( i );
+            if ( rel.getFirstNode() == node.getId() )
+            {
+                rel.setFirstPrevRel( Record.NO_PREV_RELATIONSHIP.intValue() );
+            }
+            if ( rel.getSecondNode() == node.getId() )
+            {
+                rel.setSecondPrevRel( Record.NO_PREV_RELATIONSHIP.intValue() );
+            }
+            connectToGroup( node, rel );
+        }
+        sparseChainLengths.remove( node.getId() );
+        densifiedNodes.add( node.getId() );
+    }
+
+    /**
+     * @return the group of the given type of a dense node, added to this
+     * transaction to be changed, or {@code null} if it has none.
+     */
+    private RelationshipGroupRecord getRelationshipGroup( NodeRecord node, int type )
+    {
+        for ( long groupId = node.getNextRel(); groupId != Record.NO_NEXT_RELATIONSHIP.intValue(); )
+        {
+            RelationshipGroupRecord group = getOrLoadRelationshipGroup( groupId );
+            if ( group.getType() == type )
+            {
+                addRelationshipGroupRecord( group );
+                return group;
+            }
+            groupId = group.getNext();
+        }
+        return null;
+    }
+
+    private RelationshipGroupRecord createRelationshipGroup( NodeRecord node, int type )
+    {
+        RelationshipGroupRecord group = new RelationshipGroupRecord( getRelationshipStore().nextId(), type );
+        group.setInUse( true );
+        group.setCreated();
+        group.setOwningNode( node.getId() );
+        group.setNext( node.getNextRel() );
+        node.setNextRel( group.getId() );
+        addRelationshipGroupRecord( group );
+        return group;
+    }
+
+    private void removeRelationshipGroup( NodeRecord node, RelationshipGroupRecord group )
+    {
+        if ( node.getNextRel() == group.getId() )
+        {
+            node.setNextRel( group.getNext() );
+        }
+        else
+        {
+            RelationshipGroupRecord previous = getOrLoadRelationshipGroup( node.getNextRel() );
+            while ( previous.getNext() != group.getId() )
+            {
+                previous = getOrLoadRelationshipGroup( previous.getNext() );
+            }
+            previous.setNext( group.getNext() );
+            addRelationshipGroupRecord( previous );
+        }
+        group.setInUse( false );
     }
 
     @Override
@@ -1530,6 +2088,21 @@ public class WriteTransaction extends XaTransaction implements NeoStoreTransacti
         return relRecords.get( relId );
     }
 
+    void addRelationshipGroupRecord( RelationshipGroupRecord record )
+    {
+        relGroupRecords.put( record.getId(), record );
+    }
+
+    private RelationshipGroupRecord getOrLoadRelationshipGroup( long groupId )
+    {
+        RelationshipGroupRecord record = relGroupRecords.get( groupId );
+        if ( record == null )
+        {
+            record = getRelationshipStore().getGroupRecord( groupId );
+        }
+        return record;
+    }
+
     void addPropertyRecord( PropertyRecord record )
     {
         propertyRecords.put( record.getId(), record );
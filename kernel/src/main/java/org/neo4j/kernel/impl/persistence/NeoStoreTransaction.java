@@ -29,6 +29,7 @@ import org.neo4j.kernel.impl.core.PropertyIndex;
 import org.neo4j.kernel.impl.nioneo.store.NameData;
 import org.neo4j.kernel.impl.nioneo.store.NodeRecord;
 import org.neo4j.kernel.impl.nioneo.store.PropertyData;
+import org.neo4j.kernel.impl.nioneo.store.RelationshipLoadingPosition;
 import org.neo4j.kernel.impl.nioneo.store.RelationshipRecord;
 import org.neo4j.kernel.impl.transaction.xaframework.XaConnection;
 import org.neo4j.kernel.impl.util.ArrayMap;
@@ -163,6 +164,17 @@ public interface NeoStoreTransaction
      */
     public NodeRecord nodeLoadLight( long id );
 
+    /**
+     * Loads the light nodes from the given id and on, as many as can be read
+     * in one go, but no more than fit in {@code records}.
+     *
+     * @param fromId The id of the first node to load.
+     * @param records The array to put the records in, {@code null} for nodes
+     *            that can't be found.
+     * @return The number of ids loaded, 0 if none could be read in one go.
+     */
+    public int nodesLoadLight( long fromId, NodeRecord[] records );
+
     /**
      * Attempts to load the value off the store forthe given PropertyData
      * object.
@@ -261,6 +273,17 @@ public interface NeoStoreTransaction
      */
     public RelationshipRecord relLoadLight( long id );
 
+    /**
+     * Loads the light relationships from the given id and on, as many as can
+     * be read in one go, but no more than fit in {@code records}.
+     *
+     * @param fromId The id of the first relationship to load.
+     * @param records The array to put the records in, {@code null} for
+     *            relationships that can't be found.
+     * @return The number of ids loaded, 0 if none could be read in one go.
+     */
+    public int relsLoadLight( long fromId, RelationshipRecord[] records );
+
     /**
      * Loads and returns all the available RelationshipTypes that are stored.
      *
@@ -285,7 +308,20 @@ public interface NeoStoreTransaction
      */
     public void createRelationshipType( int id, String name );
 
-    public long getRelationshipChainPosition( long nodeId );
+    /**
+     * @return where loading the relationships of the node continues from,
+     * one position in each relationship chain of the node.
+     */
+    public RelationshipLoadingPosition getRelationshipChainPosition( long nodeId );
+
+    /**
+     * @param types the ids of the relationship types to count, or
+     * {@code null} for all types.
+     * @return the number of relationships of the node in that direction and
+     * of those types, counted from the store and the changes made in this
+     * transaction without loading the relationships.
+     */
+    public int getRelationshipDegree( long nodeId, int[] types, DirectionWrapper direction );
 
     /*
      * List<Iterable<RelationshipRecord>> is a list with three items:
@@ -294,7 +330,8 @@ public interface NeoStoreTransaction
      * 2: loop relationships
      *
      * Long is the relationship chain position as it stands after this
-     * batch of relationships has been loaded.
+     * batch of relationships has been loaded. position is one of the positions
+     * of a RelationshipLoadingPosition and only that chain is followed.
      */
     public Pair<Map<DirectionWrapper, Iterable<RelationshipRecord>>, Long> getMoreRelationships(
             long nodeId, long position );
@@ -41,6 +41,7 @@ import org.neo4j.kernel.impl.core.TxEventSyncHookFactory;
 import org.neo4j.kernel.impl.nioneo.store.NameData;
 import org.neo4j.kernel.impl.nioneo.store.NodeRecord;
 import org.neo4j.kernel.impl.nioneo.store.PropertyData;
+import org.neo4j.kernel.impl.nioneo.store.RelationshipLoadingPosition;
 import org.neo4j.kernel.impl.nioneo.store.RelationshipRecord;
 import org.neo4j.kernel.impl.nioneo.xa.NioNeoDbPersistenceSource;
 import org.neo4j.kernel.impl.transaction.xaframework.XaConnection;
@@ -82,6 +83,11 @@ public class PersistenceManager
         return getReadOnlyResourceIfPossible().nodeLoadLight( id );
     }
 
+    public int loadLightNodes( long fromId, NodeRecord[] records )
+    {
+        return getReadOnlyResourceIfPossible().nodesLoadLight( fromId, records );
+    }
+
     public Object loadPropertyValue( PropertyData property )
     {
         return getReadOnlyResource().loadPropertyValue( property );
@@ -97,11 +103,16 @@ public class PersistenceManager
         return getReadOnlyResourceIfPossible().loadPropertyIndexes( maxCount );
     }
 
-    public long getRelationshipChainPosition( long nodeId )
+    public RelationshipLoadingPosition getRelationshipChainPosition( long nodeId )
     {
         return getReadOnlyResourceIfPossible().getRelationshipChainPosition( nodeId );
     }
 
+    public int getRelationshipDegree( long nodeId, int[] types, DirectionWrapper direction )
+    {
+        return getReadOnlyResourceIfPossible().getRelationshipDegree( nodeId, types, direction );
+    }
+
     public Pair<Map<DirectionWrapper, Iterable<RelationshipRecord>>, Long> getMoreRelationships(
             long nodeId, long position )
     {
@@ -124,6 +135,11 @@ public class PersistenceManager
         return getReadOnlyResourceIfPossible().relLoadLight( id );
     }
 
+    public int loadLightRelationships( long fromId, RelationshipRecord[] records )
+    {
+        return getReadOnlyResourceIfPossible().relsLoadLight( fromId, records );
+    }
+
     public NameData[] loadAllRelationshipTypes()
     {
         return getReadOnlyResourceIfPossible().loadRelationshipTypes();
@@ -25,6 +25,10 @@ import java.util.Arrays;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -489,6 +493,7 @@ class TransactionImpl implements Transaction
             // prepare
             status = Status.STATUS_PREPARING;
             LinkedList<Xid> preparedXids = new LinkedList<Xid>();
+            List<ResourceElement> toPrepare = new ArrayList<ResourceElement>();
             Iterator<ResourceElement> itr = resourceList.iterator();
             while ( itr.hasNext() )
             {
@@ -496,21 +501,7 @@ class TransactionImpl implements Transaction
                 if ( !preparedXids.contains( re.getXid() ) )
                 {
                     preparedXids.add( re.getXid() );
-                    int vote = re.getResource().prepare( re.getXid() );
-                    if ( vote == XAResource.XA_OK )
-                    {
-                        readOnly = false;
-                    }
-                    else if ( vote == XAResource.XA_RDONLY )
-                    {
-                        re.setStatus( RS_READONLY );
-                    }
-                    else
-                    {
-                        // rollback tx
-                        status = Status.STATUS_MARKED_ROLLBACK;
-                        return;
-                    }
+                    toPrepare.add( re );
                 }
                 else
                 {
@@ -518,6 +509,24 @@ class TransactionImpl implements Transaction
                     re.setStatus( RS_READONLY );
                 }
             }
+            int[] votes = invokeAll( toPrepare, ResourceOperation.PREPARE );
+            for ( int i = 0; i < votes.length; i++ )
+            {
+                if ( votes[i] == XAResource.XA_OK )
+                {
+                    readOnly = false;
+                }
+                else if ( votes[i] == XAResource.XA_RDONLY )
+                {
+                    toPrepare.get( i ).setStatus( RS_READONLY );
+                }
+                else
+                {
+                    // rollback tx
+                    status = Status.STATUS_MARKED_ROLLBACK;
+                    return;
+                }
+            }
             status = Status.STATUS_PREPARED;
         }
         // commit
@@ -541,18 +550,155 @@ class TransactionImpl implements Transaction
             }
         }
         status = Status.STATUS_COMMITTING;
+        List<ResourceElement> toCommit = new ArrayList<ResourceElement>();
         Iterator<ResourceElement> itr = resourceList.iterator();
         while ( itr.hasNext() )
         {
             ResourceElement re = itr.next();
             if ( re.getStatus() != RS_READONLY )
             {
-                re.getResource().commit( re.getXid(), onePhase );
+                toCommit.add( re );
             }
         }
+        invokeAll( toCommit, onePhase ? ResourceOperation.COMMIT_ONE_PHASE : ResourceOperation.COMMIT_TWO_PHASE );
         status = Status.STATUS_COMMITTED;
     }
 
+    /**
+     * Invokes {@code operation} on each of the {@code resources}. If the
+     * transaction manager has an executor for it, and there are more than
+     * one resource, all but the first resource are invoked concurrently by
+     * that executor. The first resource is always invoked by this thread,
+     * since it's typically the resource of the graph which may depend on
+     * state bound to it. All invocations have completed when this method
+     * returns, also if one of them fails.
+     *
+     * @return the result of each invocation, in the order of {@code resources}.
+     */
+    private int[] invokeAll( final List<ResourceElement> resources, final ResourceOperation operation )
+            throws XAException
+    {
+        int[] results = new int[resources.size()];
+        ExecutorService executor = txManager.getResourceExecutor();
+        if ( executor == null || resources.size() < 2 )
+        {
+            for ( int i = 0; i < results.length; i++ )
+            {
+                results[i] = operation.invoke( resources.get( i ) );
+            }
+            return results;
+        }
+
+        List<Future<Integer>> others = new ArrayList<Future<Integer>>( resources.size() - 1 );
+        for ( int i = 1; i < results.length; i++ )
+        {
+            final ResourceElement re = resources.get( i );
+            others.add( executor.submit( new Callable<Integer>()
+            {
+                @Override
+                public Integer call() throws Exception
+                {
+                    // Resources look up the transaction, e.g. for its force mode
+                    txManager.bindToResourceWorker( TransactionImpl.this );
+                    try
+                    {
+                        return operation.invoke( re );
+                    }
+                    finally
+                    {
+                        txManager.unbindFromResourceWorker();
+                    }
+                }
+            } ) );
+        }
+        Throwable failure = null;
+        try
+        {
+            results[0] = operation.invoke( resources.get( 0 ) );
+        }
+        catch ( Throwable t )
+        {
+            failure = t;
+        }
+        for ( int i = 0; i < others.size(); i++ )
+        {
+            try
+            {
+                results[i + 1] = awaitUninterruptibly( others.get( i ) );
+            }
+            catch ( ExecutionException e )
+            {
+                if ( failure == null )
+                {
+                    failure = e.getCause();
+                }
+            }
+        }
+        if ( failure != null )
+        {
+            throw Exceptions.launderedException( XAException.class, failure );
+        }
+        return results;
+    }
+
+    private static int awaitUninterruptibly( Future<Integer> future ) throws ExecutionException
+    {
+        boolean interrupted = false;
+        try
+        {
+            while ( true )
+            {
+                try
+                {
+                    return future.get();
+                }
+                catch ( InterruptedException e )
+                {
+                    interrupted = true;
+                }
+            }
+        }
+        finally
+        {
+            if ( interrupted )
+            {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private enum ResourceOperation
+    {
+        PREPARE
+        {
+            @Override
+            int invoke( ResourceElement re ) throws XAException
+            {
+                return re.getResource().prepare( re.getXid() );
+            }
+        },
+        COMMIT_ONE_PHASE
+        {
+            @Override
+            int invoke( ResourceElement re ) throws XAException
+            {
+                re.getResource().commit( re.getXid(), true );
+                return XAResource.XA_OK;
+            }
+        },
+        COMMIT_TWO_PHASE
+        {
+            @Override
+            int invoke( ResourceElement re ) throws XAException
+            {
+                re.getResource().commit( re.getXid(), false );
+                return XAResource.XA_OK;
+            }
+        };
+
+        abstract int invoke( ResourceElement re ) throws XAException;
+    }
+
     void doRollback() throws XAException
     {
         status = Status.STATUS_ROLLING_BACK;
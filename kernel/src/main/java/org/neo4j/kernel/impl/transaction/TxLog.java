@@ -21,6 +21,7 @@ package org.neo4j.kernel.impl.transaction;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
 import java.nio.channels.FileChannel;
 import java.util.ArrayList;
 import java.util.Collections;
@@ -42,7 +43,6 @@ import org.neo4j.kernel.impl.util.StringLogger;
 
 // TODO: fixed sized logs (pre-initialize them)
 // keep dangling records in memory for log switch
-// batch disk forces
 /**
  * This class is made public for testing purposes only, do not use.
  * <p>
@@ -63,6 +63,11 @@ public class TxLog
     private final FileSystemAbstraction fileSystem;
     private final StringLogger msgLog;
 
+    private long writtenCommitMarks; // guarded by this
+    private final Object forceLock = new Object();
+    private long forcedCommitMarks; // guarded by forceLock
+    private boolean forcing; // guarded by forceLock
+
     /**
      * Initializes a transaction log using <CODE>filename</CODE>. If the file
      * isn't empty the position will be set to size of file so new records will
@@ -181,7 +186,8 @@ public class TxLog
 
     /**
      * Writes a <CODE>MARK_COMMIT</CODE> record to the file and forces the
-     * file to disk.
+     * file to disk. Transactions marking as committing at the same time share
+     * one force, done by one of them while the others wait for it.
      * 
      * @param globalId
      *            The global id of the transaction
@@ -190,13 +196,78 @@ public class TxLog
      */
     // mark_committing(byte)|gid_length(byte)|globalId
     // forces
-    public synchronized void markAsCommitting( byte globalId[], ForceMode forceMode )
+    public void markAsCommitting( byte globalId[], ForceMode forceMode )
         throws IOException
     {
         assertNotNull( globalId, "global id" );
-        logBuffer.put( MARK_COMMIT ).put( (byte) globalId.length ).put( globalId );
-        forceMode.force( logBuffer );
-        recordCount++;
+        long mark;
+        synchronized ( this )
+        {
+            logBuffer.put( MARK_COMMIT ).put( (byte) globalId.length ).put( globalId );
+            recordCount++;
+            if ( forceMode != ForceMode.forced )
+            {
+                forceMode.force( logBuffer );
+                return;
+            }
+            logBuffer.writeOut();
+            mark = ++writtenCommitMarks;
+        }
+        awaitForced( mark );
+    }
+
+    private void awaitForced( long mark ) throws IOException
+    {
+        synchronized ( forceLock )
+        {
+            while ( forcedCommitMarks < mark && forcing )
+            {
+                try
+                {
+                    forceLock.wait();
+                }
+                catch ( InterruptedException e )
+                {
+                    Thread.interrupted();
+                }
+            }
+            if ( forcedCommitMarks >= mark )
+                return;
+            forcing = true;
+        }
+
+        long covered = 0;
+        boolean success = false;
+        try
+        {
+            FileChannel channel;
+            synchronized ( this )
+            {
+                channel = logBuffer.getFileChannel();
+                covered = writtenCommitMarks;
+            }
+            try
+            {
+                channel.force( false );
+            }
+            catch ( ClosedChannelException e )
+            {
+                // Closing the log forces it
+            }
+            success = true;
+        }
+        finally
+        {
+            synchronized ( forceLock )
+            {
+                forcing = false;
+                if ( success && covered > forcedCommitMarks )
+                {
+                    forcedCommitMarks = covered;
+                }
+                forceLock.notifyAll();
+            }
+        }
     }
 
     /**
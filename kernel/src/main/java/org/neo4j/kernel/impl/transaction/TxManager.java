@@ -28,6 +28,8 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -44,6 +46,7 @@ import javax.transaction.xa.XAResource;
 
 import org.neo4j.graphdb.TransactionFailureException;
 import org.neo4j.graphdb.event.ErrorState;
+import org.neo4j.helpers.DaemonThreadFactory;
 import org.neo4j.helpers.Exceptions;
 import org.neo4j.helpers.UTF8;
 import org.neo4j.kernel.impl.core.KernelPanicEventGenerator;
@@ -96,6 +99,10 @@ public class TxManager extends AbstractTransactionManager
     final TxHook finishHook;
     private XaDataSourceManager xaDataSourceManager;
     private final FileSystemAbstraction fileSystem;
+    private boolean concurrentTwoPhaseCommit;
+    private volatile ExecutorService resourceExecutor;
+    // Transactions of resources being prepared or committed by resourceExecutor
+    private final ThreadLocal<TransactionImpl> resourceWorkerTx = new ThreadLocal<TransactionImpl>();
 
     public TxManager( String txLogDir,
                       XaDataSourceManager xaDataSourceManager,
@@ -214,11 +221,58 @@ public class TxManager extends AbstractTransactionManager
                 "resolved to a consistent state." );
         }
         getTxLog().truncate();
+        if ( concurrentTwoPhaseCommit )
+        {
+            resourceExecutor = Executors.newCachedThreadPool( new DaemonThreadFactory( "Two phase commit" ) );
+        }
     }
 
     @Override
     public void stop()
     {
+        ExecutorService executor = resourceExecutor;
+        if ( executor != null )
+        {
+            resourceExecutor = null;
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * Makes transactions spanning more than one resource prepare and commit
+     * those resources concurrently, instead of one after the other. Takes
+     * effect when this transaction manager is started.
+     */
+    public void setConcurrentTwoPhaseCommit( boolean concurrentTwoPhaseCommit )
+    {
+        this.concurrentTwoPhaseCommit = concurrentTwoPhaseCommit;
+    }
+
+    /**
+     * @return the executor for preparing and committing resources
+     * concurrently, or {@code null} if they should be prepared and committed
+     * one after the other.
+     */
+    ExecutorService getResourceExecutor()
+    {
+        return resourceExecutor;
+    }
+
+    /**
+     * Makes {@code tx} the transaction of the current thread, as seen by the
+     * resources, while a resource of it is prepared or committed by the
+     * {@link #getResourceExecutor() resource executor}. The thread isn't
+     * associated with the transaction otherwise, i.e. it doesn't count as
+     * a thread in a transaction.
+     */
+    void bindToResourceWorker( TransactionImpl tx )
+    {
+        resourceWorkerTx.set( tx );
+    }
+
+    void unbindFromResourceWorker()
+    {
+        resourceWorkerTx.remove();
     }
 
     @Override
@@ -665,8 +719,7 @@ public class TxManager extends AbstractTransactionManager
     @Override
 	public int getStatus()
     {
-        Thread thread = Thread.currentThread();
-        TransactionImpl tx = txThreadMap.get( thread );
+        TransactionImpl tx = (TransactionImpl) getTransaction();
         if ( tx != null )
         {
             return tx.getStatus();
@@ -677,7 +730,8 @@ public class TxManager extends AbstractTransactionManager
     @Override
 	public Transaction getTransaction()
     {
-        return txThreadMap.get( Thread.currentThread() );
+        TransactionImpl tx = txThreadMap.get( Thread.currentThread() );
+        return tx != null ? tx : resourceWorkerTx.get();
     }
 
     @Override
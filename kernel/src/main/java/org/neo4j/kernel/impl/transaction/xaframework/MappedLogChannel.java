@@ -0,0 +1,251 @@
+/**
+ * Copyright (c) 2002-2012 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel.impl.transaction.xaframework;
+
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Reads a log file that isn't written to anymore, i.e. a rotated logical log,
+ * by memory mapping all of it. Reads are copied straight out of the mapped
+ * memory instead of going through the file channel and an intermediary heap
+ * buffer, and {@link #transferTo(long, long, WritableByteChannel)} is left to
+ * the file channel so that whole ranges of the log can be sent to a socket or
+ * another file without being copied into the JVM at all.
+ *
+ * The mapping is released when the channel is closed, rather than whenever
+ * the garbage collector gets to it, so that open logs don't hold on to
+ * address space and pruned logs can be deleted on platforms that don't allow
+ * deleting mapped files. JVMs that don't let it be released early still
+ * release it when it's garbage collected.
+ *
+ * The only supported operations are the reading ones, read(ByteBuffer),
+ * read(ByteBuffer, long), position(), position(long), size(), transferTo
+ * and map - the rest throw UnsupportedOperationException.
+ */
+class MappedLogChannel extends FileChannel
+{
+    private final FileChannel fileChannel;
+    private final MappedByteBuffer mappedBuffer;
+
+    /**
+     * Maps all of {@code fileChannel}, which must not be appended to from
+     * here on, and takes its position as the position of this channel.
+     */
+    MappedLogChannel( FileChannel fileChannel ) throws IOException
+    {
+        this.fileChannel = fileChannel;
+        long size = fileChannel.size();
+        if ( size > Integer.MAX_VALUE )
+        {
+            throw new IOException( "Log of size " + size + " is too big to be mapped" );
+        }
+        this.mappedBuffer = fileChannel.map( MapMode.READ_ONLY, 0, size );
+        this.mappedBuffer.position( (int) Math.min( fileChannel.position(), size ) );
+    }
+
+    @Override
+    public synchronized int read( ByteBuffer dst ) throws IOException
+    {
+        ensureOpen();
+        int result = copy( mappedBuffer, dst );
+        return result == 0 && dst.hasRemaining() ? -1 : result;
+    }
+
+    @Override
+    public synchronized int read( ByteBuffer dst, long position ) throws IOException
+    {
+        ensureOpen();
+        if ( position >= mappedBuffer.limit() )
+        {
+            return -1;
+        }
+        ByteBuffer source = mappedBuffer.duplicate();
+        source.position( (int) position );
+        return copy( source, dst );
+    }
+
+    // Reading from the mapping after it's released would crash the JVM
+    private void ensureOpen() throws ClosedChannelException
+    {
+        if ( !isOpen() )
+        {
+            throw new ClosedChannelException();
+        }
+    }
+
+    private static int copy( ByteBuffer source, ByteBuffer dst )
+    {
+        int count = Math.min( source.remaining(), dst.remaining() );
+        if ( count < source.remaining() )
+        {
+            ByteBuffer slice = source.slice();
+            slice.limit( count );
+            dst.put( slice );
+            source.position( source.position() + count );
+        }
+        else
+        {
+            dst.put( source );
+        }
+        return count;
+    }
+
+    @Override
+    public long read( ByteBuffer[] dsts, int offset, int length ) throws IOException
+    {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public int write( ByteBuffer src ) throws IOException
+    {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public long write( ByteBuffer[] srcs, int offset, int length ) throws IOException
+    {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public long position() throws IOException
+    {
+        return mappedBuffer.position();
+    }
+
+    @Override
+    public FileChannel position( long newPosition ) throws IOException
+    {
+        mappedBuffer.position( (int) Math.min( newPosition, mappedBuffer.limit() ) );
+        return this;
+    }
+
+    @Override
+    public long size() throws IOException
+    {
+        return mappedBuffer.limit();
+    }
+
+    @Override
+    public FileChannel truncate( long size ) throws IOException
+    {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void force( boolean metaData ) throws IOException
+    {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public long transferTo( long position, long count, WritableByteChannel target ) throws IOException
+    {
+        count = Math.min( count, mappedBuffer.limit() - position );
+        return count <= 0 ? 0 : fileChannel.transferTo( position, count, target );
+    }
+
+    @Override
+    public long transferFrom( ReadableByteChannel src, long position, long count ) throws IOException
+    {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public int write( ByteBuffer src, long position ) throws IOException
+    {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public MappedByteBuffer map( MapMode mode, long position, long size ) throws IOException
+    {
+        return fileChannel.map( mode, position, size );
+    }
+
+    @Override
+    public FileLock lock( long position, long size, boolean shared ) throws IOException
+    {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public FileLock tryLock( long position, long size, boolean shared ) throws IOException
+    {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    protected synchronized void implCloseChannel() throws IOException
+    {
+        try
+        {
+            unmap( mappedBuffer );
+        }
+        finally
+        {
+            fileChannel.close();
+        }
+    }
+
+    /*
+     * There's no public API for releasing a mapping, so this goes through
+     * Unsafe.invokeCleaner on newer JVMs and the buffer's cleaner on older
+     * ones. If neither is there it's left to the garbage collector.
+     */
+    private static void unmap( MappedByteBuffer buffer )
+    {
+        try
+        {
+            Class<?> unsafeClass = Class.forName( "sun.misc.Unsafe" );
+            Method invokeCleaner = unsafeClass.getMethod( "invokeCleaner", ByteBuffer.class );
+            Field theUnsafe = unsafeClass.getDeclaredField( "theUnsafe" );
+            theUnsafe.setAccessible( true );
+            invokeCleaner.invoke( theUnsafe.get( null ), buffer );
+            return;
+        }
+        catch ( Exception e )
+        {   // Not a JVM with Unsafe.invokeCleaner, try the cleaner of the buffer
+        }
+        try
+        {
+            Method cleanerMethod = buffer.getClass().getMethod( "cleaner" );
+            cleanerMethod.setAccessible( true );
+            Object cleaner = cleanerMethod.invoke( buffer );
+            if ( cleaner != null )
+            {
+                cleaner.getClass().getMethod( "clean" ).invoke( cleaner );
+            }
+        }
+        catch ( Exception e )
+        {   // Left to the garbage collector
+        }
+    }
+}
@@ -22,6 +22,7 @@ package org.neo4j.kernel.impl.transaction.xaframework;
 import java.io.File;
 import java.io.IOException;
 import java.nio.channels.ReadableByteChannel;
+import java.util.List;
 
 import org.neo4j.helpers.Pair;
 import org.neo4j.helpers.collection.ClosableIterable;
@@ -248,6 +249,23 @@ public abstract class XaDataSource
         getXaContainer().getResourceManager().applyCommittedTransaction( transaction, txId );
     }
 
+    /**
+     * Applies a contiguous run of committed transactions, as extracted from
+     * the logical log of another data source, in one go. They are all written
+     * to the logical log before any of them is committed, and the data source
+     * gets to commit them together, see
+     * {@link XaTransactionFactory#commitRecovered(List)}. Transactions already
+     * committed here are skipped.
+     *
+     * @param transactions pairs of tx id and transaction, in tx id order.
+     * @throws IOException if the transactions don't follow the last committed
+     *             transaction or fail to be applied.
+     */
+    public void applyCommittedTransactions( List<Pair<Long,ReadableByteChannel>> transactions ) throws IOException
+    {
+        getXaContainer().getResourceManager().applyCommittedTransactions( transactions );
+    }
+
     public long applyPreparedTransaction( ReadableByteChannel transaction ) throws IOException
     {
         return getXaContainer().getResourceManager().applyPreparedTransaction( transaction );
@@ -39,6 +39,10 @@ public class XaFactory
     public static abstract class Configuration
     {
         public static final GraphDatabaseSetting.BooleanSetting intercept_deserialized_transactions = GraphDatabaseSettings.intercept_deserialized_transactions;
+        public static final GraphDatabaseSetting.BooleanSetting group_commit = GraphDatabaseSettings.group_commit;
+        public static final GraphDatabaseSetting.TimeSpanSetting group_commit_max_wait = GraphDatabaseSettings.group_commit_max_wait;
+        public static final GraphDatabaseSetting.IntegerSetting recovery_threads = GraphDatabaseSettings.recovery_threads;
+        public static final GraphDatabaseSetting.BooleanSetting use_memory_mapped_buffers = GraphDatabaseSettings.use_memory_mapped_buffers;
     }
     
     private Config config;
@@ -89,6 +93,16 @@ public class XaFactory
             log = new XaLogicalLog( logicalLog, rm, cf, tf, logBufferFactory, fileSystemAbstraction, stringLogger, pruneStrategy );
         }
 
+        if ( config.getBoolean( Configuration.group_commit ) )
+        {
+            log.setGroupCommit( true, config.get( Configuration.group_commit_max_wait ) );
+        }
+        if ( config.isSet( Configuration.recovery_threads ) )
+        {
+            log.setRecoveryThreads( config.getInteger( Configuration.recovery_threads ) );
+        }
+        log.setMemoryMapRotatedLogs( config.getBoolean( Configuration.use_memory_mapped_buffers ) );
+
         // TODO These setters should be removed somehow
         rm.setLogicalLog( log );
         tf.setLogicalLog( log );
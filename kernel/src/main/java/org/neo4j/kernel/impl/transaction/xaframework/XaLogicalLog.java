@@ -28,12 +28,23 @@ import static org.neo4j.kernel.impl.transaction.xaframework.XaLogicalLogTokens.L
 import java.io.File;
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
 import java.nio.channels.FileChannel;
 import java.nio.channels.ReadableByteChannel;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.regex.Pattern;
@@ -41,6 +52,7 @@ import java.util.regex.Pattern;
 import javax.transaction.xa.XAException;
 import javax.transaction.xa.Xid;
 
+import org.neo4j.helpers.DaemonThreadFactory;
 import org.neo4j.helpers.Exceptions;
 import org.neo4j.helpers.Pair;
 import org.neo4j.kernel.impl.nioneo.store.FileSystemAbstraction;
@@ -112,6 +124,23 @@ public class XaLogicalLog implements LogLoader
     private final LogPruneStrategy pruneStrategy;
     private final XaLogicalLogFiles logFiles;
 
+    private static final int RECOVERY_READ_AHEAD = 1000;
+    private static final int RECOVERY_BATCH_SIZE = 100;
+    private int recoveryThreads = 1;
+    private boolean mapRotatedLogs = false;
+    // Set while applying a batch of transactions, see applyTransactions
+    private AppliedTransactionBatch appliedBatch;
+
+    // Group commit, see setGroupCommit(boolean, long)
+    private volatile boolean groupCommit;
+    private volatile long groupCommitMaxWait;
+    private long appendedCommits; // guarded by this
+    private final Object forceLock = new Object();
+    private long forcedCommits; // the rest guarded by forceLock
+    private boolean forcing;
+    private long groupForces;
+    private long largestGroupCommit;
+
     public XaLogicalLog( String fileName, XaResourceManager xaRm, XaCommandFactory cf,
             XaTransactionFactory xaTf, LogBufferFactory logBufferFactory, FileSystemAbstraction fileSystem,
             StringLogger stringLogger, LogPruneStrategy pruneStrategy )
@@ -328,8 +357,16 @@ public class XaLogicalLog implements LogLoader
         }
     }
 
+    /**
+     * Writes the commit entry for a transaction committed in one phase.
+     *
+     * @return {@code 0} if the commit entry has been taken care of according
+     * to {@code forceMode}, or otherwise, when doing group commit, a ticket to
+     * pass into {@link #awaitForced(long)} before the commit may be considered
+     * durable.
+     */
     // [TX_1P_COMMIT][identifier]
-    public synchronized void commitOnePhase( int identifier, long txId, ForceMode forceMode )
+    public synchronized long commitOnePhase( int identifier, long txId, ForceMode forceMode )
         throws XAException
     {
         LogEntry.Start startEntry = xidIdentMap.get( identifier );
@@ -339,7 +376,7 @@ public class XaLogicalLog implements LogLoader
         {
             cacheTxStartPosition( txId, startEntry );
             LogIoUtils.writeCommit( false, writeBuffer, identifier, txId, System.currentTimeMillis() );
-            forceMode.force( writeBuffer );
+            return forceOrAppendCommit( forceMode );
         }
         catch ( IOException e )
         {
@@ -403,8 +440,13 @@ public class XaLogicalLog implements LogLoader
 //        fileChannel.force( false );
     }
 
+    /**
+     * Writes the commit entry for a transaction committed in two phases.
+     *
+     * @return same as for {@link #commitOnePhase(int, long, ForceMode)}.
+     */
     // [TX_2P_COMMIT][identifier]
-    public synchronized void commitTwoPhase( int identifier, long txId, ForceMode forceMode )
+    public synchronized long commitTwoPhase( int identifier, long txId, ForceMode forceMode )
         throws XAException
     {
         LogEntry.Start startEntry = xidIdentMap.get( identifier );
@@ -414,7 +456,7 @@ public class XaLogicalLog implements LogLoader
         {
             cacheTxStartPosition( txId, startEntry );
             LogIoUtils.writeCommit( true, writeBuffer, identifier, txId, System.currentTimeMillis() );
-            forceMode.force( writeBuffer );
+            return forceOrAppendCommit( forceMode );
         }
         catch ( IOException e )
         {
@@ -422,6 +464,103 @@ public class XaLogicalLog implements LogLoader
         }
     }
 
+    private long forceOrAppendCommit( ForceMode forceMode ) throws IOException
+    {
+        if ( groupCommit && forceMode == ForceMode.forced )
+        {
+            // Leave the forcing to awaitForced, where it can be shared with
+            // other transactions committing at the same time.
+            writeBuffer.writeOut();
+            return ++appendedCommits;
+        }
+        forceMode.force( writeBuffer );
+        return 0;
+    }
+
+    /**
+     * Waits for the commit entry, for which {@code ticket} was handed out, to
+     * be forced to disk. If no other thread is forcing the log right now this
+     * thread forces it, covering the commit entries of all transactions
+     * that have written theirs so far. Otherwise it waits for that force to
+     * complete and, unless it covered this ticket, possibly does the next one.
+     *
+     * @param ticket the ticket returned from {@link #commitOnePhase(int, long, ForceMode)}
+     * or {@link #commitTwoPhase(int, long, ForceMode)}.
+     * @throws IOException if the log couldn't be forced.
+     */
+    public void awaitForced( long ticket ) throws IOException
+    {
+        if ( ticket == 0 )
+            return;
+        synchronized ( forceLock )
+        {
+            while ( forcedCommits < ticket && forcing )
+            {
+                try
+                {
+                    forceLock.wait();
+                }
+                catch ( InterruptedException e )
+                {
+                    Thread.interrupted();
+                }
+            }
+            if ( forcedCommits >= ticket )
+                return;
+            forcing = true;
+        }
+
+        long covered = 0;
+        boolean success = false;
+        try
+        {
+            long maxWait = groupCommitMaxWait;
+            if ( maxWait > 0 )
+            {
+                // Give other transactions a chance to get their commit entries
+                // into this force.
+                try
+                {
+                    Thread.sleep( maxWait );
+                }
+                catch ( InterruptedException e )
+                {
+                    Thread.interrupted();
+                }
+            }
+            FileChannel channel;
+            synchronized ( this )
+            {
+                channel = writeBuffer.getFileChannel();
+                covered = appendedCommits;
+            }
+            try
+            {
+                channel.force( false );
+            }
+            catch ( ClosedChannelException e )
+            {
+                // The log has been rotated or closed since we got the channel,
+                // both of which force it before closing it.
+            }
+            success = true;
+        }
+        finally
+        {
+            synchronized ( forceLock )
+            {
+                forcing = false;
+                if ( success && covered > forcedCommits )
+                {
+                    largestGroupCommit = max( largestGroupCommit, covered - forcedCommits );
+                    forcedCommits = covered;
+                    groupForces++;
+                }
+                forceLock.notifyAll();
+            }
+        }
+    }
+
     // [COMMAND][identifier][COMMAND_DATA]
     public synchronized void writeCommand( XaCommand command, int identifier )
         throws IOException
@@ -786,13 +925,25 @@ public class XaLogicalLog implements LogLoader
                 " with committed tx=" + lastCommittedTx, true );
         long logEntriesFound = 0;
         long lastEntryPos = fileChannel.position();
+        RecoveryProgress progress = new RecoveryProgress( logFileName, fileChannel.size() );
         fileChannel = new BufferedFileChannel( fileChannel );
-        LogEntry entry;
-        while ( (entry = readEntry()) != null )
+        if ( recoveryThreads > 1 )
         {
-            applyEntry( entry );
-            logEntriesFound++;
-            lastEntryPos = fileChannel.position();
+            ConcurrentRecovery recovery = new ConcurrentRecovery( progress );
+            recovery.run();
+            logEntriesFound = recovery.entriesFound;
+            lastEntryPos = recovery.lastEntryPos;
+        }
+        else
+        {
+            LogEntry entry;
+            while ( (entry = readEntry()) != null )
+            {
+                applyEntry( entry );
+                logEntriesFound++;
+                lastEntryPos = fileChannel.position();
+                progress.update( lastEntryPos );
+            }
         }
         // make sure we overwrite any broken records
         fileChannel = ((BufferedFileChannel)fileChannel).getSource();
@@ -846,6 +997,261 @@ public class XaLogicalLog implements LogLoader
         recoveredTxMap.clear();
     }
 
+    /**
+     * Logs how far recovery of a log file has come, each time another tenth of
+     * the file has been recovered.
+     */
+    private class RecoveryProgress
+    {
+        private final String logFileName;
+        private final long size;
+        private int reportedTenths;
+
+        RecoveryProgress( String logFileName, long size )
+        {
+            this.logFileName = logFileName;
+            this.size = size;
+        }
+
+        void update( long position )
+        {
+            int tenths = size == 0 ? 10 : (int) (position * 10 / size);
+            if ( tenths > reportedTenths )
+            {
+                reportedTenths = tenths;
+                msgLog.logMessage( "Recovery of [" + logFileName + "] " + (tenths * 10) + "% done, " +
+                        recoveredTxCount + " transactions recovered", true );
+            }
+        }
+    }
+
+    /**
+     * Recovery where log entries are read by a separate thread, while this
+     * thread applies them. Consecutive one phase commits of transactions
+     * that don't change any of the same records (see
+     * {@link XaTransaction#getRecoveredChangeKeys()}) are gathered and
+     * committed concurrently by {@link #recoveryThreads} threads. Any other
+     * entry which may depend on those transactions having been committed,
+     * i.e. all but start and command entries of other transactions, first
+     * has them committed.
+     */
+    private class ConcurrentRecovery
+    {
+        private final Object endOfLog = new Object();
+        private final BlockingQueue<Object> entries = new ArrayBlockingQueue<Object>( RECOVERY_READ_AHEAD );
+        // Set when no more entries are taken, the reader isn't interrupted since that closes the channel
+        private volatile boolean stopped;
+        private final RecoveryProgress progress;
+        private long entriesFound;
+        private long lastEntryPos;
+
+        // The batch of one phase commits waiting to be committed concurrently
+        private final List<LogEntry.OnePhaseCommit> commits = new ArrayList<LogEntry.OnePhaseCommit>();
+        private final List<Xid> xids = new ArrayList<Xid>();
+        private final Set<Integer> identifiers = new HashSet<Integer>();
+        private final Set<Object> changeKeys = new HashSet<Object>();
+        private final List<LogEntry.Done> doneEntries = new ArrayList<LogEntry.Done>();
+        private ExecutorService executor;
+
+        ConcurrentRecovery( RecoveryProgress progress ) throws IOException
+        {
+            this.progress = progress;
+            this.lastEntryPos = fileChannel.position();
+        }
+
+        void run() throws IOException
+        {
+            Thread reader = new Thread( "Logical log recovery reader" )
+            {
+                @Override
+                public void run()
+                {
+                    try
+                    {
+                        LogEntry entry;
+                        while ( (entry = readEntry()) != null )
+                        {
+                            if ( !handOver( Pair.of( entry, fileChannel.position() ) ) )
+                            {
+                                return;
+                            }
+                        }
+                        handOver( endOfLog );
+                    }
+                    catch ( Throwable t )
+                    {
+                        // The applying thread waits for it, also if the queue is full
+                        handOver( t );
+                    }
+                }
+            };
+            reader.setDaemon( true );
+            executor = Executors.newFixedThreadPool( recoveryThreads, new DaemonThreadFactory( "Logical log recovery" ) );
+            reader.start();
+            try
+            {
+                Object item;
+                while ( (item = take()) != endOfLog )
+                {
+                    if ( item instanceof Throwable )
+                    {
+                        throw Exceptions.launderedException( IOException.class, (Throwable) item );
+                    }
+                    @SuppressWarnings( "unchecked" )
+                    Pair<LogEntry, Long> entry = (Pair<LogEntry, Long>) item;
+                    apply( entry.first() );
+                    entriesFound++;
+                    lastEntryPos = entry.other();
+                    progress.update( lastEntryPos );
+                }
+                commitBatch();
+            }
+            finally
+            {
+                stopped = true;
+                executor.shutdown();
+            }
+            try
+            {
+                // Leave the channel to this thread
+                reader.join();
+            }
+            catch ( InterruptedException e )
+            {
+                Thread.interrupted();
+            }
+        }
+
+        /**
+         * Waits for room for {@code item}, until the applying thread stops
+         * taking entries.
+         *
+         * @return whether {@code item} was handed over.
+         */
+        private boolean handOver( Object item )
+        {
+            try
+            {
+                while ( !stopped )
+                {
+                    if ( entries.offer( item, 100, TimeUnit.MILLISECONDS ) )
+                    {
+                        return true;
+                    }
+                }
+            }
+            catch ( InterruptedException e )
+            {
+                // Only this class uses the reader thread, it isn't interrupted
+            }
+            return false;
+        }
+
+        private Object take() throws IOException
+        {
+            try
+            {
+                return entries.take();
+            }
+            catch ( InterruptedException e )
+            {
+                throw Exceptions.withCause( new IOException( "Interrupted while recovering" ), e );
+            }
+        }
+
+        private void apply( LogEntry entry ) throws IOException
+        {
+            boolean inBatch = identifiers.contains( entry.getIdentifier() );
+            if ( entry instanceof LogEntry.OnePhaseCommit )
+            {
+                addToBatch( (LogEntry.OnePhaseCommit) entry );
+                return;
+            }
+            if ( entry instanceof LogEntry.Done && inBatch )
+            {
+                doneEntries.add( (LogEntry.Done) entry );
+                return;
+            }
+            if ( inBatch || !(entry instanceof LogEntry.Start || entry instanceof LogEntry.Command) )
+            {
+                commitBatch();
+            }
+            applyEntry( entry );
+        }
+
+        private void addToBatch( LogEntry.OnePhaseCommit commit ) throws IOException
+        {
+            int identifier = commit.getIdentifier();
+            LogEntry.Start startEntry = xidIdentMap.get( identifier );
+            if ( startEntry == null )
+            {
+                throw new IOException( "Unknown xid for identifier " + identifier );
+            }
+            Xid xid = startEntry.getXid();
+            Collection<?> keys;
+            try
+            {
+                keys = xaRm.getXaTransaction( xid ).getRecoveredChangeKeys();
+            }
+            catch ( XAException e )
+            {
+                throw new IOException( e );
+            }
+            if ( keys == null )
+            {
+                commitBatch();
+                applyOnePhaseCommitEntry( commit );
+                return;
+            }
+            if ( commits.size() >= RECOVERY_BATCH_SIZE || !Collections.disjoint( changeKeys, keys ) )
+            {
+                commitBatch();
+            }
+            try
+            {
+                xaRm.getXaTransaction( xid ).setCommitTxId( commit.getTxId() );
+            }
+            catch ( XAException e )
+            {
+                throw new IOException( e );
+            }
+            cacheTxStartPosition( commit.getTxId(), startEntry );
+            commits.add( commit );
+            xids.add( xid );
+            identifiers.add( identifier );
+            changeKeys.addAll( keys );
+        }
+
+        private void commitBatch() throws IOException
+        {
+            if ( commits.isEmpty() )
+            {
+                return;
+            }
+            try
+            {
+                xaRm.injectOnePhaseCommits( xids, executor );
+            }
+            catch ( XAException e )
+            {
+                throw new IOException( e );
+            }
+            for ( LogEntry.OnePhaseCommit commit : commits )
+            {
+                registerRecoveredTransaction( commit.getTxId() );
+            }
+            for ( LogEntry.Done done : doneEntries )
+            {
+                applyDoneEntry( done );
+            }
+            commits.clear();
+            xids.clear();
+            identifiers.clear();
+            changeKeys.clear();
+            doneEntries.clear();
+        }
+    }
+
     // for testing, do not use!
     void reset()
     {
@@ -908,6 +1314,21 @@ public class XaLogicalLog implements LogLoader
         }
         FileChannel channel = fileSystem.open( name, "r" );
         channel.position( position );
+        if ( mapRotatedLogs && version < logVersion )
+        {
+            try
+            {
+                return new MappedLogChannel( channel );
+            }
+            catch ( IOException e )
+            {
+                // Not possible to map this file, read it the usual way instead
+            }
+            catch ( UnsupportedOperationException e )
+            {
+                // Not possible to map this file, read it the usual way instead
+            }
+        }
         return new BufferedFileChannel( channel );
     }
 
@@ -1195,6 +1616,14 @@ public class XaLogicalLog implements LogLoader
                     applyEntry( entry );
                     LogIoUtils.writeLogEntry( entry, writeBuffer );
                 }
+                else if ( appliedBatch != null )
+                {
+                    LogIoUtils.writeLogEntry( entry, writeBuffer );
+                    if ( !appliedBatch.hold( entry ) )
+                    {
+                        applyEntry( entry );
+                    }
+                }
                 else
                 {
                     LogIoUtils.writeLogEntry( entry, writeBuffer );
@@ -1302,6 +1731,39 @@ public class XaLogicalLog implements LogLoader
     public synchronized void applyTransaction( ReadableByteChannel byteChannel )
         throws IOException
     {
+        applyTransactionEntries( byteChannel );
+        checkLogRotation();
+    }
+
+    /**
+     * Applies a number of transactions, like {@link #applyTransaction(ReadableByteChannel)},
+     * except that the one phase commits among them are held back until all
+     * transactions have been written to the log. They are then committed
+     * together through {@link XaTransactionFactory#commitRecovered(List)}.
+     */
+    public synchronized void applyTransactions( List<ReadableByteChannel> byteChannels )
+        throws IOException
+    {
+        appliedBatch = new AppliedTransactionBatch();
+        try
+        {
+            for ( ReadableByteChannel byteChannel : byteChannels )
+            {
+                applyTransactionEntries( byteChannel );
+            }
+        }
+        finally
+        {
+            AppliedTransactionBatch batch = appliedBatch;
+            appliedBatch = null;
+            batch.commit();
+        }
+        checkLogRotation();
+    }
+
+    private void applyTransactionEntries( ReadableByteChannel byteChannel )
+        throws IOException
+    {
 //        System.out.println( "applyFullTx#start @ pos: " + writeBuffer.getFileChannelPosition() );
         long logEntriesFound = 0;
         scanIsComplete = false;
@@ -1345,7 +1807,89 @@ public class XaLogicalLog implements LogLoader
         startEntry.setStartPosition( startEntryPosition );
         cacheTxStartPosition( logApplier.getCommitEntry().getTxId(), startEntry );
 //        System.out.println( "applyFullTx#end @ pos: " + writeBuffer.getFileChannelPosition() );
-        checkLogRotation();
+    }
+
+    /**
+     * The one phase commits held back while {@link #applyTransactions(List)}
+     * writes transactions to the log, and the done entries following them.
+     */
+    private class AppliedTransactionBatch
+    {
+        private final List<LogEntry.OnePhaseCommit> commits = new ArrayList<LogEntry.OnePhaseCommit>();
+        private final List<Xid> xids = new ArrayList<Xid>();
+        private final Set<Integer> identifiers = new HashSet<Integer>();
+        private final List<LogEntry.Done> doneEntries = new ArrayList<LogEntry.Done>();
+
+        /**
+         * @return {@code true} if {@code entry}, which has just been written
+         * to the log, is to be applied when the batch is committed instead of
+         * right away.
+         */
+        boolean hold( LogEntry entry ) throws IOException
+        {
+            if ( entry instanceof LogEntry.OnePhaseCommit )
+            {
+                LogEntry.Start startEntry = xidIdentMap.get( entry.getIdentifier() );
+                if ( startEntry == null )
+                {
+                    throw new IOException( "Unknown xid for identifier " + entry.getIdentifier() );
+                }
+                LogEntry.OnePhaseCommit commit = (LogEntry.OnePhaseCommit) entry;
+                try
+                {
+                    xaRm.getXaTransaction( startEntry.getXid() ).setCommitTxId( commit.getTxId() );
+                }
+                catch ( XAException e )
+                {
+                    throw new IOException( e );
+                }
+                commits.add( commit );
+                xids.add( startEntry.getXid() );
+                identifiers.add( entry.getIdentifier() );
+                return true;
+            }
+            if ( entry instanceof LogEntry.Done && identifiers.contains( entry.getIdentifier() ) )
+            {
+                doneEntries.add( (LogEntry.Done) entry );
+                return true;
+            }
+            if ( entry instanceof LogEntry.Commit )
+            {
+                // Must be committed in order, after the ones held back
+                commit();
+            }
+            return false;
+        }
+
+        void commit() throws IOException
+        {
+            // Commit entries must be written out before being applied
+            writeBuffer.writeOut();
+            if ( commits.isEmpty() )
+            {
+                return;
+            }
+            try
+            {
+                xaRm.injectOnePhaseCommits( xids );
+            }
+            catch ( XAException e )
+            {
+                throw new IOException( e );
+            }
+            for ( LogEntry.OnePhaseCommit commit : commits )
+            {
+                registerRecoveredTransaction( commit.getTxId() );
+            }
+            for ( LogEntry.Done done : doneEntries )
+            {
+                applyDoneEntry( done );
+            }
+            commits.clear();
+            xids.clear();
+            identifiers.clear();
+            doneEntries.clear();
+        }
     }
 
     /**
@@ -1572,6 +2116,78 @@ public class XaLogicalLog implements LogLoader
         currentLog = c;
     }
 
+    /**
+     * Enables or disables group commit, where transactions committing with
+     * {@link ForceMode#forced} at the same time share one force of the log
+     * instead of each forcing it, see {@link #awaitForced(long)}.
+     *
+     * @param enabled whether or not to do group commit.
+     * @param maxWait milliseconds a thread about to force the log waits for
+     * other transactions to join in on that force.
+     */
+    public void setGroupCommit( boolean enabled, long maxWait )
+    {
+        this.groupCommitMaxWait = maxWait;
+        this.groupCommit = enabled;
+    }
+
+    public boolean isGroupCommit()
+    {
+        return groupCommit;
+    }
+
+    /**
+     * @return the number of forces done for group commit.
+     */
+    public long getGroupCommitForceCount()
+    {
+        synchronized ( forceLock )
+        {
+            return groupForces;
+        }
+    }
+
+    /**
+     * @return the number of commits that have been forced by group commit.
+     */
+    public long getGroupCommitCount()
+    {
+        synchronized ( forceLock )
+        {
+            return forcedCommits;
+        }
+    }
+
+    /**
+     * @return the largest number of commits covered by a single force.
+     */
+    public long getLargestGroupCommit()
+    {
+        synchronized ( forceLock )
+        {
+            return largestGroupCommit;
+        }
+    }
+
+    /**
+     * Sets the number of threads to commit recovered transactions with, if
+     * this log needs recovery when it's opened. With more than one thread,
+     * log entries are also read by a separate thread during recovery.
+     */
+    public void setRecoveryThreads( int recoveryThreads )
+    {
+        this.recoveryThreads = recoveryThreads;
+    }
+
+    /**
+     * Makes log versions that have been rotated away be read through memory
+     * mappings of their files, e.g. when extracting transactions from them.
+     */
+    public void setMemoryMapRotatedLogs( boolean mapRotatedLogs )
+    {
+        this.mapRotatedLogs = mapRotatedLogs;
+    }
+
     public void setAutoRotateLogs( boolean autoRotate )
     {
         this.autoRotate = autoRotate;
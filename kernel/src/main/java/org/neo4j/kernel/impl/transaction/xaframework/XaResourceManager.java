@@ -31,12 +31,18 @@ import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 import java.util.logging.Logger;
 
 import javax.transaction.xa.XAException;
 import javax.transaction.xa.XAResource;
 import javax.transaction.xa.Xid;
 
+import org.neo4j.helpers.Exceptions;
+import org.neo4j.helpers.Pair;
 import org.neo4j.kernel.impl.transaction.AbstractTransactionManager;
 import org.neo4j.kernel.impl.transaction.xaframework.LogEntry.Start;
 import org.neo4j.kernel.impl.util.ArrayMap;
@@ -60,6 +66,10 @@ public class XaResourceManager
     private StringLogger msgLog;
     private final AbstractTransactionManager transactionManager;
     private final RecoveryVerifier recoveryVerifier;
+    // Order of committing transactions waiting for a group commit, guarded by this
+    private long nextCommitSequence;
+    private long nextApplySequence;
+    private long lastPendingTxId;
 
     public XaResourceManager( XaDataSource dataSource, XaTransactionFactory tf,
             TxIdGenerator txIdGenerator, AbstractTransactionManager transactionManager,
@@ -387,6 +397,90 @@ public class XaResourceManager
         xaTransaction.commit();
     }
 
+    // called from XaLogicalLog when applying a batch of transactions, see XaTransactionFactory#commitRecovered
+    synchronized void injectOnePhaseCommits( List<Xid> xids ) throws XAException
+    {
+        tf.commitRecovered( markOnePhaseCommitsStarted( xids ) );
+    }
+
+    // called from XaResource internal recovery, see XaTransaction#getRecoveredChangeKeys
+    void injectOnePhaseCommits( List<Xid> xids, ExecutorService executor ) throws XAException
+    {
+        List<XaTransaction> transactions = markOnePhaseCommitsStarted( xids );
+        long lastCommittedTx = -1;
+        for ( XaTransaction xaTransaction : transactions )
+        {
+            lastCommittedTx = Math.max( lastCommittedTx, xaTransaction.getCommitTxId() );
+        }
+
+        List<Future<Object>> commits = new ArrayList<Future<Object>>( transactions.size() );
+        boolean success = false;
+        tf.beginConcurrentRecovery();
+        try
+        {
+            for ( final XaTransaction xaTransaction : transactions )
+            {
+                commits.add( executor.submit( new Callable<Object>()
+                {
+                    @Override
+                    public Object call() throws XAException
+                    {
+                        xaTransaction.commit();
+                        return null;
+                    }
+                } ) );
+            }
+            Throwable failure = null;
+            for ( Future<Object> commit : commits )
+            {
+                try
+                {
+                    commit.get();
+                }
+                catch ( ExecutionException e )
+                {
+                    if ( failure == null )
+                    {
+                        failure = e.getCause();
+                    }
+                }
+                catch ( InterruptedException e )
+                {
+                    throw Exceptions.withCause( new XAException( "Interrupted while committing "
+                            + "recovered transactions" ), e );
+                }
+            }
+            if ( failure != null )
+            {
+                throw Exceptions.launderedException( XAException.class, failure );
+            }
+            success = true;
+        }
+        finally
+        {
+            tf.endConcurrentRecovery( lastCommittedTx, success );
+        }
+    }
+
+    private synchronized List<XaTransaction> markOnePhaseCommitsStarted( List<Xid> xids ) throws XAException
+    {
+        List<XaTransaction> transactions = new ArrayList<XaTransaction>( xids.size() );
+        for ( Xid xid : xids )
+        {
+            XidStatus status = xidMap.get( xid );
+            if ( status == null )
+            {
+                throw new XAException( "Unknown xid[" + xid + "]" );
+            }
+            TransactionStatus txStatus = status.getTransactionStatus();
+            txOrderMap.put( xid, nextTxOrder++ );
+            txStatus.markAsPrepared();
+            txStatus.markCommitStarted();
+            transactions.add( txStatus.getTransaction() );
+        }
+        return transactions;
+    }
+
     synchronized void injectTwoPhaseCommit( Xid xid ) throws XAException
     {
         XidStatus status = xidMap.get( xid );
@@ -418,7 +512,10 @@ public class XaResourceManager
         throws XAException
     {
         XaTransaction xaTransaction;
+        TransactionStatus txStatus;
         boolean isReadOnly;
+        long forceTicket = 0;
+        long applySequence = -1;
         
         synchronized ( this )
         {
@@ -427,7 +524,7 @@ public class XaResourceManager
             {
                 throw new XAException( "Unknown xid[" + xid + "]" );
             }
-            TransactionStatus txStatus = status.getTransactionStatus();
+            txStatus = status.getTransactionStatus();
             xaTransaction = txStatus.getTransaction();
             checkStartWritten( txStatus, xaTransaction );
             isReadOnly = xaTransaction.isReadOnly();
@@ -440,10 +537,8 @@ public class XaResourceManager
                     {
                         xaTransaction.prepare();
     
-                        long txId = txIdGenerator.generate( dataSource,
-                                xaTransaction.getIdentifier() );
-                        xaTransaction.setCommitTxId( txId );
-                        log.commitOnePhase( xaTransaction.getIdentifier(),
+                        xaTransaction.setCommitTxId( generateTxId( xaTransaction ) );
+                        forceTicket = log.commitOnePhase( xaTransaction.getIdentifier(),
                                 xaTransaction.getCommitTxId(), getForceMode() );
                     }
                 }
@@ -453,50 +548,66 @@ public class XaResourceManager
                 throw new XAException( "Transaction not prepared or "
                     + "(marked as) rolledbacked" );
             }
-            if ( !isReadOnly )
+            if ( !isReadOnly && !xaTransaction.isRecovered() && !onePhase )
             {
-                if ( !xaTransaction.isRecovered() )
-                {
-                    if ( !onePhase )
-                    {
-                        long txId = txIdGenerator.generate( dataSource,
-                                xaTransaction.getIdentifier() );
-                        xaTransaction.setCommitTxId( txId );
-                        log.commitTwoPhase( xaTransaction.getIdentifier(),
-                                xaTransaction.getCommitTxId(), getForceMode() );
-                    }
-                }
-                txStatus.markCommitStarted();
-                if ( xaTransaction.isRecovered() && xaTransaction.getCommitTxId() == -1 )
-                {
-                    boolean previousRecoveredValue = dataSource.setRecovered( true );
-                    try
-                    {
-                        xaTransaction.setCommitTxId( dataSource.getLastCommittedTxId() + 1 );
-                    }
-                    finally
-                    {
-                        dataSource.setRecovered( previousRecoveredValue );
-                    }
-                }
-                xaTransaction.commit();
+                xaTransaction.setCommitTxId( generateTxId( xaTransaction ) );
+                forceTicket = log.commitTwoPhase( xaTransaction.getIdentifier(),
+                        xaTransaction.getCommitTxId(), getForceMode() );
             }
-            if ( !xaTransaction.isRecovered() )
+            
+            if ( forceTicket == 0 && nextApplySequence == nextCommitSequence )
             {
-                log.done( xaTransaction.getIdentifier() );
+                // The commit entry is where it should be and no transaction
+                // ahead of this one is waiting for a group commit force
+                completeCommit( xid, xaTransaction, txStatus, isReadOnly, onePhase );
             }
-            else if ( !log.scanIsComplete() || recoveredTxCount > 0 )
+            else
             {
-                int identifier = xaTransaction.getIdentifier();
-                Start startEntry = log.getStartEntry( identifier );
-                recoveredTransactions.add( new TransactionInfo( identifier, onePhase,
-                        xaTransaction.getCommitTxId(), startEntry.getMasterId(), startEntry.getChecksum() ) );
+                // Transactions must be applied in the order they got their
+                // tx ids, also when their forces complete in another order
+                applySequence = nextCommitSequence++;
+                lastPendingTxId = xaTransaction.getCommitTxId();
             }
-            xidMap.remove( xid );
-            if ( xaTransaction.isRecovered() )
+        }
+        
+        if ( applySequence != -1 )
+        {
+            IOException forceFailure = null;
+            try
             {
-                recoveredTxCount--;
-                checkIfRecoveryComplete();
+                log.awaitForced( forceTicket );
+            }
+            catch ( IOException e )
+            {
+                forceFailure = e;
+            }
+            synchronized ( this )
+            {
+                try
+                {
+                    while ( nextApplySequence != applySequence )
+                    {
+                        try
+                        {
+                            wait();
+                        }
+                        catch ( InterruptedException e )
+                        {
+                            Thread.interrupted();
+                        }
+                    }
+                    if ( forceFailure != null )
+                    {
+                        throw Exceptions.withCause( new XAException( "Logical log unable to force commit of ["
+                                + xaTransaction.getIdentifier() + "]" ), forceFailure );
+                    }
+                    completeCommit( xid, xaTransaction, txStatus, isReadOnly, onePhase );
+                }
+                finally
+                {
+                    nextApplySequence++;
+                    notifyAll();
+                }
             }
         }
         
@@ -505,6 +616,59 @@ public class XaResourceManager
         return xaTransaction;
     }
 
+    // Called while holding the monitor of this resource manager
+    private long generateTxId( XaTransaction xaTransaction )
+    {
+        long txId = txIdGenerator.generate( dataSource, xaTransaction.getIdentifier() );
+        if ( nextApplySequence != nextCommitSequence && txId <= lastPendingTxId )
+        {
+            // Generators typically base the id on the last applied transaction,
+            // which doesn't include those waiting for a group commit force
+            txId = lastPendingTxId + 1;
+        }
+        return txId;
+    }
+
+    // Called while holding the monitor of this resource manager
+    private void completeCommit( Xid xid, XaTransaction xaTransaction, TransactionStatus txStatus,
+            boolean isReadOnly, boolean onePhase ) throws XAException
+    {
+        if ( !isReadOnly )
+        {
+            txStatus.markCommitStarted();
+            if ( xaTransaction.isRecovered() && xaTransaction.getCommitTxId() == -1 )
+            {
+                boolean previousRecoveredValue = dataSource.setRecovered( true );
+                try
+                {
+                    xaTransaction.setCommitTxId( dataSource.getLastCommittedTxId() + 1 );
+                }
+                finally
+                {
+                    dataSource.setRecovered( previousRecoveredValue );
+                }
+            }
+            xaTransaction.commit();
+        }
+        if ( !xaTransaction.isRecovered() )
+        {
+            log.done( xaTransaction.getIdentifier() );
+        }
+        else if ( !log.scanIsComplete() || recoveredTxCount > 0 )
+        {
+            int identifier = xaTransaction.getIdentifier();
+            Start startEntry = log.getStartEntry( identifier );
+            recoveredTransactions.add( new TransactionInfo( identifier, onePhase,
+                    xaTransaction.getCommitTxId(), startEntry.getMasterId(), startEntry.getChecksum() ) );
+        }
+        xidMap.remove( xid );
+        if ( xaTransaction.isRecovered() )
+        {
+            recoveredTxCount--;
+            checkIfRecoveryComplete();
+        }
+    }
+
     private ForceMode getForceMode()
     {
         return transactionManager.getForceMode();
@@ -702,7 +866,8 @@ public class XaResourceManager
                     
                     if ( !recoveredTx.isOnePhase() )
                     {
-                        log.commitTwoPhase( recoveredTx.getIdentifier(), recoveredTx.getTxId(), ForceMode.forced );
+                        log.awaitForced( log.commitTwoPhase( recoveredTx.getIdentifier(),
+                                recoveredTx.getTxId(), ForceMode.forced ) );
                     }
                     log.doneInternal( recoveredTx.getIdentifier() );
                 }
@@ -765,6 +930,37 @@ public class XaResourceManager
         }
     }
 
+    /**
+     * Applies a contiguous run of committed transactions in one go, see
+     * {@link XaDataSource#applyCommittedTransactions(List)}. Transactions
+     * already committed here are skipped.
+     */
+    public synchronized void applyCommittedTransactions(
+            List<Pair<Long,ReadableByteChannel>> transactions ) throws IOException
+    {
+        long expectedTxId = dataSource.getLastCommittedTxId() + 1;
+        List<ReadableByteChannel> toApply = new ArrayList<ReadableByteChannel>( transactions.size() );
+        for ( Pair<Long,ReadableByteChannel> transaction : transactions )
+        {
+            long txId = transaction.first();
+            if ( txId < expectedTxId && toApply.isEmpty() )
+            {
+                continue;
+            }
+            if ( txId != expectedTxId )
+            {
+                throw new IOException( "Tried to apply transaction with txId=" + txId +
+                        " but expected txId=" + expectedTxId );
+            }
+            toApply.add( transaction.other() );
+            expectedTxId++;
+        }
+        if ( !toApply.isEmpty() )
+        {
+            log.applyTransactions( toApply );
+        }
+    }
+
     public synchronized long applyPreparedTransaction(
             ReadableByteChannel transaction ) throws IOException
     {
@@ -20,6 +20,7 @@
 package org.neo4j.kernel.impl.transaction.xaframework;
 
 import java.io.IOException;
+import java.util.Collection;
 
 import javax.transaction.xa.XAException;
 
@@ -260,6 +261,24 @@ public abstract class XaTransaction
         doAddCommand( command );
     }
 
+    /**
+     * Used during recovery to find recovered transactions that can be
+     * committed concurrently. Two transactions returning keys where none are
+     * equal may be committed concurrently, in between calls to
+     * {@link XaTransactionFactory#beginConcurrentRecovery()} and
+     * {@link XaTransactionFactory#endConcurrentRecovery(long, boolean)}.
+     * This implementation returns {@code null}, meaning that this transaction
+     * must be committed on its own, so override if the transaction can tell
+     * which records its commands change.
+     * 
+     * @return keys of the records the injected commands change, or
+     *         {@code null} if unknown.
+     */
+    public Collection<?> getRecoveredChangeKeys()
+    {
+        return null;
+    }
+
     /**
      * Rollbacks the transaction, calls {@link #doRollback}.
      * 
@@ -19,6 +19,9 @@
  */
 package org.neo4j.kernel.impl.transaction.xaframework;
 
+import java.util.List;
+
+import javax.transaction.xa.XAException;
 
 /**
  * Factory for creating {@link XaTransaction XaTransactions} used during
@@ -60,6 +63,44 @@ public abstract class XaTransactionFactory
     {
     }
 
+    /**
+     * Called during recovery before a number of recovered transactions are
+     * committed concurrently, see {@link XaTransaction#getRecoveredChangeKeys()}.
+     * This implementation does nothing so override if committing transactions
+     * concurrently requires some preparation.
+     */
+    public void beginConcurrentRecovery()
+    {
+    }
+
+    /**
+     * Called during recovery after a number of recovered transactions have
+     * been committed concurrently.
+     * 
+     * @param lastCommittedTx the highest tx id among the transactions.
+     * @param success {@code false} if any of the transactions failed to commit.
+     */
+    public void endConcurrentRecovery( long lastCommittedTx, boolean success )
+    {
+    }
+
+    /**
+     * Commits recovered transactions, i.e. transactions injected from a
+     * logical log, in the given order. This implementation commits them one
+     * by one so override if a number of transactions can be committed more
+     * efficiently together.
+     *
+     * @param transactions the transactions to commit, in commit order.
+     * @throws XAException if a transaction fails to commit.
+     */
+    public void commitRecovered( List<XaTransaction> transactions ) throws XAException
+    {
+        for ( XaTransaction transaction : transactions )
+        {
+            transaction.commit();
+        }
+    }
+
     public abstract long getCurrentVersion();
     
     public abstract long getAndSetNewVersion();
@@ -0,0 +1,284 @@
+/**
+ * Copyright (c) 2002-2012 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel.impl.util;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A thread safe map from primitive {@code long} keys to object values,
+ * implemented as segmented open addressing hash tables. Lookups take no locks
+ * and, contrary to a {@link java.util.concurrent.ConcurrentHashMap} keyed by
+ * {@link Long}, neither lookups nor updates of existing keys allocate any objects.
+ * <p>
+ * A slot, once assigned a key, keeps that key until the table is rehashed.
+ * Removing a key only clears the value of its slot, which means that a reader
+ * which has found the slot of a key will never see the value of another key.
+ * Removed slots are reclaimed when the table gets rehashed.
+ * 
+ * Keys must not be negative, which is fine for entity ids.
+ *
+ * @param <V> value type
+ */
+public class ConcurrentLongObjectMap<V>
+{
+    private static final long EMPTY = -1;
+    private static final int DEFAULT_CAPACITY = 16;
+
+    private final Segment<V>[] segments;
+    private final int segmentShift;
+
+    public ConcurrentLongObjectMap()
+    {
+        this( 16 );
+    }
+
+    public ConcurrentLongObjectMap( int concurrencyLevel )
+    {
+        int segmentCount = 1;
+        int bits = 0;
+        while ( segmentCount < concurrencyLevel )
+        {
+            segmentCount <<= 1;
+            bits++;
+        }
+        this.segments = newSegments( segmentCount );
+        this.segmentShift = 32 - bits;
+        for ( int i = 0; i < segmentCount; i++ )
+        {
+            segments[i] = new Segment<V>();
+        }
+    }
+
+    public V get( long key )
+    {
+        int hash = hash( key );
+        return segmentFor( hash ).get( key, hash );
+    }
+
+    /**
+     * @return the previous value for {@code key}, or {@code null} if there was none.
+     */
+    public V put( long key, V value )
+    {
+        if ( key < 0 || value == null )
+        {
+            throw new IllegalArgumentException( "key=" + key + ", value=" + value );
+        }
+        int hash = hash( key );
+        return segmentFor( hash ).put( key, hash, value );
+    }
+
+    /**
+     * @return the removed value for {@code key}, or {@code null} if there was none.
+     */
+    public V remove( long key )
+    {
+        int hash = hash( key );
+        return segmentFor( hash ).remove( key, hash, null );
+    }
+
+    /**
+     * Removes {@code key} only if it's currently mapped to {@code value}.
+     * @return whether or not {@code key} was removed.
+     */
+    public boolean remove( long key, V value )
+    {
+        int hash = hash( key );
+        return segmentFor( hash ).remove( key, hash, value ) != null;
+    }
+
+    public int size()
+    {
+        int size = 0;
+        for ( Segment<V> segment : segments )
+        {
+            size += segment.size;
+        }
+        return size;
+    }
+
+    public void clear()
+    {
+        for ( Segment<V> segment : segments )
+        {
+            segment.clear();
+        }
+    }
+
+    private Segment<V> segmentFor( int hash )
+    {
+        return segmentShift == 32 ? segments[0] : segments[hash >>> segmentShift];
+    }
+
+    private static int hash( long key )
+    {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) ( h ^ ( h >>> 32 ) );
+    }
+
+    private static class Table<V>
+    {
+        final AtomicLongArray keys;
+        final AtomicReferenceArray<V> values;
+        final int mask;
+
+        Table( int capacity )
+        {
+            keys = new AtomicLongArray( capacity );
+            values = new AtomicReferenceArray<V>( capacity );
+            mask = capacity - 1;
+            for ( int i = 0; i < capacity; i++ )
+            {
+                keys.set( i, EMPTY );
+            }
+        }
+
+        int capacity()
+        {
+            return mask + 1;
+        }
+    }
+
+    @SuppressWarnings( { "unchecked", "rawtypes" } )
+    private static <V> Segment<V>[] newSegments( int count )
+    {
+        return new Segment[count];
+    }
+
+    private static class Segment<V>
+    {
+        private volatile Table<V> table = new Table<V>( DEFAULT_CAPACITY );
+        // Both only modified under synchronization
+        private volatile int size;
+        private int usedSlots;
+
+        V get( long key, int hash )
+        {
+            Table<V> table = this.table;
+            for ( int i = hash & table.mask; ; i = ( i + 1 ) & table.mask )
+            {
+                long candidate = table.keys.get( i );
+                if ( candidate == key )
+                {
+                    return table.values.get( i );
+                }
+                if ( candidate == EMPTY )
+                {
+                    return null;
+                }
+            }
+        }
+
+        synchronized V put( long key, int hash, V value )
+        {
+            if ( ( usedSlots + 1 ) * 4L > table.capacity() * 3L )
+            {
+                rehash();
+            }
+            Table<V> table = this.table;
+            for ( int i = hash & table.mask; ; i = ( i + 1 ) & table.mask )
+            {
+                long candidate = table.keys.get( i );
+                if ( candidate == key )
+                {
+                    V previous = table.values.getAndSet( i, value );
+                    if ( previous == null )
+                    {
+                        size++;
+                    }
+                    return previous;
+                }
+                if ( candidate == EMPTY )
+                {
+                    table.keys.set( i, key );
+                    table.values.set( i, value );
+                    usedSlots++;
+                    size++;
+                    return null;
+                }
+            }
+        }
+
+        synchronized V remove( long key, int hash, V expected )
+        {
+            Table<V> table = this.table;
+            for ( int i = hash & table.mask; ; i = ( i + 1 ) & table.mask )
+            {
+                long candidate = table.keys.get( i );
+                if ( candidate == key )
+                {
+                    V previous = table.values.get( i );
+                    if ( previous == null || ( expected != null && previous != expected ) )
+                    {
+                        return null;
+                    }
+                    table.values.set( i, null );
+                    size--;
+                    return previous;
+                }
+                if ( candidate == EMPTY )
+                {
+                    return null;
+                }
+            }
+        }
+
+        synchronized void clear()
+        {
+            table = new Table<V>( DEFAULT_CAPACITY );
+            size = 0;
+            usedSlots = 0;
+        }
+
+        // Precondition: called under synchronization
+        private void rehash()
+        {
+            Table<V> oldTable = this.table;
+            int capacity = oldTable.capacity();
+            // Only grow if live entries take up a big part of the table, otherwise
+            // a rehash into a table of the same size is enough to get rid of removed slots
+            if ( size * 2L >= capacity )
+            {
+                capacity *= 2;
+            }
+            Table<V> newTable = new Table<V>( capacity );
+            int used = 0;
+            for ( int i = 0; i < oldTable.capacity(); i++ )
+            {
+                V value = oldTable.values.get( i );
+                if ( value != null )
+                {
+                    long key = oldTable.keys.get( i );
+                    int slot = hash( key ) & newTable.mask;
+                    while ( newTable.keys.get( slot ) != EMPTY )
+                    {
+                        slot = ( slot + 1 ) & newTable.mask;
+                    }
+                    newTable.keys.set( slot, key );
+                    newTable.values.set( slot, value );
+                    used++;
+                }
+            }
+            this.table = newTable;
+            this.usedSlots = used;
+        }
+    }
+}
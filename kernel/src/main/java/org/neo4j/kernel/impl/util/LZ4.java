@@ -0,0 +1,216 @@
+/**
+ * Copyright (c) 2002-2012 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel.impl.util;
+
+/**
+ * Byte array compression in the style of the LZ4 block format: a sequence
+ * of literal runs, each followed by a back reference of at least
+ * {@link #MIN_MATCH} bytes into the last 64k of output. Matches are found
+ * through a single hash table lookup per position, which makes compression
+ * fast rather than tight, and decompression is little more than copying.
+ * <p>
+ * The compressed form doesn't hold the uncompressed length, it has to be
+ * kept by the caller and handed to {@link #decompress(byte[], int, int, int)}.
+ */
+public final class LZ4
+{
+    static final int MIN_MATCH = 4;
+    private static final int HASH_BITS = 12;
+    private static final int MAX_OFFSET = 0xFFFF;
+    // The last literals are never part of a match, as in LZ4
+    private static final int LAST_LITERALS = 5;
+    private static final int RUN_MASK = 0xF;
+
+    private LZ4()
+    {
+    }
+
+    /**
+     * @return the most bytes {@link #compress(byte[])} can return for a
+     *         source of <CODE>length</CODE> bytes.
+     */
+    public static int maxCompressedLength( int length )
+    {
+        return length + length/255 + 16;
+    }
+
+    public static byte[] compress( byte[] source )
+    {
+        byte[] target = new byte[maxCompressedLength( source.length )];
+        int[] table = new int[1 << HASH_BITS];
+        int targetOffset = 0;
+        int anchor = 0;
+        int position = 0;
+        int matchLimit = source.length - LAST_LITERALS;
+        while ( position + MIN_MATCH <= matchLimit )
+        {
+            int sequence = readInt( source, position );
+            int hash = hash( sequence );
+            // Table entries are stored plus one, so that zero means empty
+            int candidate = table[hash] - 1;
+            table[hash] = position + 1;
+            if ( candidate < 0 || position - candidate > MAX_OFFSET || readInt( source, candidate ) != sequence )
+            {
+                position++;
+                continue;
+            }
+            int matchLength = MIN_MATCH;
+            while ( position + matchLength < matchLimit &&
+                    source[candidate + matchLength] == source[position + matchLength] )
+            {
+                matchLength++;
+            }
+            targetOffset = writeSequence( source, anchor, position - anchor, target, targetOffset,
+                    position - candidate, matchLength );
+            position += matchLength;
+            anchor = position;
+        }
+        targetOffset = writeLiterals( source, anchor, source.length - anchor, target, targetOffset, 0 );
+        byte[] result = new byte[targetOffset];
+        System.arraycopy( target, 0, result, 0, targetOffset );
+        return result;
+    }
+
+    /**
+     * @param source the compressed bytes.
+     * @param offset where the compressed bytes start in <CODE>source</CODE>.
+     * @param length the number of compressed bytes.
+     * @param uncompressedLength the length of the array that was compressed.
+     * @return the array that was compressed.
+     * @throws IllegalArgumentException if <CODE>source</CODE> isn't a valid
+     *             compressed form of <CODE>uncompressedLength</CODE> bytes.
+     */
+    public static byte[] decompress( byte[] source, int offset, int length, int uncompressedLength )
+    {
+        byte[] target = new byte[uncompressedLength];
+        int sourceOffset = offset;
+        int sourceEnd = offset + length;
+        int targetOffset = 0;
+        try
+        {
+            while ( true )
+            {
+                int token = source[sourceOffset++] & 0xFF;
+                int literalLength = token >>> 4;
+                if ( literalLength == RUN_MASK )
+                {
+                    int lengthByte;
+                    do
+                    {
+                        lengthByte = source[sourceOffset++] & 0xFF;
+                        literalLength += lengthByte;
+                    }
+                    while ( lengthByte == 0xFF );
+                }
+                System.arraycopy( source, sourceOffset, target, targetOffset, literalLength );
+                sourceOffset += literalLength;
+                targetOffset += literalLength;
+                if ( sourceOffset == sourceEnd )
+                {
+                    break;
+                }
+
+                int matchOffset = (source[sourceOffset] & 0xFF) | ((source[sourceOffset + 1] & 0xFF) << 8);
+                sourceOffset += 2;
+                int matchLength = token & RUN_MASK;
+                if ( matchLength == RUN_MASK )
+                {
+                    int lengthByte;
+                    do
+                    {
+                        lengthByte = source[sourceOffset++] & 0xFF;
+                        matchLength += lengthByte;
+                    }
+                    while ( lengthByte == 0xFF );
+                }
+                matchLength += MIN_MATCH;
+                int matchStart = targetOffset - matchOffset;
+                if ( matchOffset == 0 || matchStart < 0 )
+                {
+                    throw new IllegalArgumentException( "Invalid match offset " + matchOffset + " at " + targetOffset );
+                }
+                // Byte by byte, the match may overlap what it produces
+                for ( int i = 0; i < matchLength; i++ )
+                {
+                    target[targetOffset++] = target[matchStart + i];
+                }
+            }
+        }
+        catch ( ArrayIndexOutOfBoundsException e )
+        {
+            throw new IllegalArgumentException( "Compressed data doesn't decompress into " + uncompressedLength +
+                    " bytes", e );
+        }
+        if ( targetOffset != uncompressedLength )
+        {
+            throw new IllegalArgumentException( "Decompressed " + targetOffset + " bytes, expected " +
+                    uncompressedLength );
+        }
+        return target;
+    }
+
+    private static int writeSequence( byte[] source, int literalStart, int literalLength, byte[] target,
+            int targetOffset, int matchOffset, int matchLength )
+    {
+        targetOffset = writeLiterals( source, literalStart, literalLength, target, targetOffset,
+                Math.min( matchLength - MIN_MATCH, RUN_MASK ) );
+        target[targetOffset++] = (byte) matchOffset;
+        target[targetOffset++] = (byte) (matchOffset >>> 8);
+        if ( matchLength - MIN_MATCH >= RUN_MASK )
+        {
+            targetOffset = writeLength( matchLength - MIN_MATCH - RUN_MASK, target, targetOffset );
+        }
+        return targetOffset;
+    }
+
+    private static int writeLiterals( byte[] source, int literalStart, int literalLength, byte[] target,
+            int targetOffset, int matchToken )
+    {
+        target[targetOffset++] = (byte) ((Math.min( literalLength, RUN_MASK ) << 4) | matchToken);
+        if ( literalLength >= RUN_MASK )
+        {
+            targetOffset = writeLength( literalLength - RUN_MASK, target, targetOffset );
+        }
+        System.arraycopy( source, literalStart, target, targetOffset, literalLength );
+        return targetOffset + literalLength;
+    }
+
+    private static int writeLength( int length, byte[] target, int targetOffset )
+    {
+        while ( length >= 0xFF )
+        {
+            target[targetOffset++] = (byte) 0xFF;
+            length -= 0xFF;
+        }
+        target[targetOffset++] = (byte) length;
+        return targetOffset;
+    }
+
+    private static int readInt( byte[] source, int offset )
+    {
+        return (source[offset] & 0xFF) | ((source[offset + 1] & 0xFF) << 8) |
+                ((source[offset + 2] & 0xFF) << 16) | ((source[offset + 3] & 0xFF) << 24);
+    }
+
+    private static int hash( int sequence )
+    {
+        return (sequence * -1640531535) >>> (32 - HASH_BITS);
+    }
+}
@@ -0,0 +1,177 @@
+/**
+ * Copyright (c) 2002-2012 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel.impl.util;
+
+import static org.neo4j.kernel.impl.cache.SizeOfs.withArrayOverhead;
+import static org.neo4j.kernel.impl.cache.SizeOfs.withObjectOverhead;
+import static org.neo4j.kernel.impl.cache.SizeOfs.withReference;
+
+import org.neo4j.kernel.impl.cache.SizeOf;
+
+/**
+ * An immutable, frame-of-reference compressed version of the int ids in a
+ * {@link RelIdArray.IdBlock}. The ids are split into frames of
+ * {@link #FRAME_SIZE} ids where each frame stores its smallest id and the
+ * offsets from it in as few bits as the largest offset needs. Ids of a node's
+ * relationships tend to lie close together so that typically a third or less
+ * of the int array is needed. Any id can still be decoded in constant time.
+ */
+final class PackedIds implements SizeOf
+{
+    private static final int FRAME_SHIFT = 6;
+    static final int FRAME_SIZE = 1 << FRAME_SHIFT;
+    private static final int FRAME_MASK = FRAME_SIZE-1;
+    
+    private final int length;
+    // Per frame: the lowest id (unsigned), the number of bits per offset and
+    // the index of the first word of the frame. A full frame is FRAME_SIZE
+    // offsets of bits bits, i.e. exactly bits words long.
+    private final int[] bases;
+    private final byte[] bits;
+    private final int[] wordOffsets;
+    private final long[] words;
+    
+    private PackedIds( int length, int[] bases, byte[] bits, int[] wordOffsets, long[] words )
+    {
+        this.length = length;
+        this.bases = bases;
+        this.bits = bits;
+        this.wordOffsets = wordOffsets;
+        this.words = words;
+    }
+    
+    /**
+     * @param ids ids in the {@link RelIdArray.IdBlock} layout, i.e. the length
+     * in the first element followed by the ids.
+     * @return the packed version of the ids.
+     */
+    static PackedIds pack( int[] ids )
+    {
+        int length = ids[0];
+        int frames = (length+FRAME_MASK) >>> FRAME_SHIFT;
+        int[] bases = new int[frames];
+        byte[] bits = new byte[frames];
+        int[] wordOffsets = new int[frames];
+        int wordCount = 0;
+        for ( int frame = 0; frame < frames; frame++ )
+        {
+            int start = (frame << FRAME_SHIFT) + 1;
+            int end = Math.min( start+FRAME_SIZE, length+1 );
+            long min = unsigned( ids[start] ), max = min;
+            for ( int i = start+1; i < end; i++ )
+            {
+                long id = unsigned( ids[i] );
+                min = Math.min( min, id );
+                max = Math.max( max, id );
+            }
+            int frameBits = 64-Long.numberOfLeadingZeros( max-min );
+            bases[frame] = (int) min;
+            bits[frame] = (byte) frameBits;
+            wordOffsets[frame] = wordCount;
+            wordCount += (int) (((long) (end-start)*frameBits+63) >>> 6);
+        }
+        
+        long[] words = new long[wordCount];
+        for ( int frame = 0; frame < frames; frame++ )
+        {
+            int frameBits = bits[frame];
+            if ( frameBits == 0 )
+            {
+                continue;
+            }
+            int start = (frame << FRAME_SHIFT) + 1;
+            int end = Math.min( start+FRAME_SIZE, length+1 );
+            long base = unsigned( bases[frame] );
+            long bitPosition = (long) wordOffsets[frame] << 6;
+            for ( int i = start; i < end; i++, bitPosition += frameBits )
+            {
+                long offset = unsigned( ids[i] )-base;
+                int word = (int) (bitPosition >>> 6);
+                int shift = (int) (bitPosition & 63);
+                words[word] |= offset << shift;
+                if ( shift+frameBits > 64 )
+                {
+                    words[word+1] |= offset >>> (64-shift);
+                }
+            }
+        }
+        return new PackedIds( length, bases, bits, wordOffsets, words );
+    }
+    
+    int length()
+    {
+        return length;
+    }
+    
+    int get( int index )
+    {
+        int frame = index >>> FRAME_SHIFT;
+        int frameBits = bits[frame];
+        if ( frameBits == 0 )
+        {
+            return bases[frame];
+        }
+        int bitPosition = (index & FRAME_MASK)*frameBits;
+        int word = wordOffsets[frame] + (bitPosition >>> 6);
+        int shift = bitPosition & 63;
+        long offset = words[word] >>> shift;
+        if ( shift+frameBits > 64 )
+        {
+            offset |= words[word+1] << (64-shift);
+        }
+        return (int) (unsigned( bases[frame] ) + (offset & ((1L << frameBits)-1)));
+    }
+    
+    /**
+     * Decodes {@code count} ids into {@code target}, starting at {@code offset}.
+     */
+    void copyTo( int[] target, int offset, int count )
+    {
+        for ( int i = 0; i < count; i++ )
+        {
+            target[offset+i] = get( i );
+        }
+    }
+    
+    /**
+     * @return the ids in the {@link RelIdArray.IdBlock} layout with
+     * {@code slack} extra elements at the end.
+     */
+    int[] unpack( int slack )
+    {
+        int[] ids = new int[length+1+slack];
+        ids[0] = length;
+        copyTo( ids, 1, length );
+        return ids;
+    }
+    
+    public int size()
+    {
+        return withObjectOverhead( 4 + withReference( withArrayOverhead( 4*bases.length ) ) +
+                withReference( withArrayOverhead( bits.length ) ) +
+                withReference( withArrayOverhead( 4*wordOffsets.length ) ) +
+                withReference( withArrayOverhead( 8*words.length ) ) );
+    }
+    
+    private static long unsigned( int id )
+    {
+        return id&0xFFFFFFFFL;
+    }
+}
@@ -269,7 +269,19 @@ public class RelIdArray implements SizeOf
     {
         return direction.iterator( this );
     }
-    
+
+    /**
+     * Returns an iterator over only the ids which were added with exactly
+     * {@code direction}, i.e. loops aren't included when iterating
+     * {@link DirectionWrapper#OUTGOING} or {@link DirectionWrapper#INCOMING}
+     * and {@link DirectionWrapper#BOTH} iterates over the loops only.
+     * Used when the contents of an array needs to be copied verbatim.
+     */
+    public RelIdIterator exclusiveIterator( DirectionWrapper direction )
+    {
+        return new RelIdIteratorImpl( this, new DirectionWrapper[] { direction } );
+    }
+
     public RelIdArray newSimilarInstance()
     {
         return new RelIdArray( type );
@@ -381,6 +393,12 @@ public class RelIdArray implements SizeOf
         // First element is the actual length w/o the slack
         private int[] ids = new int[3];
         
+        // Set instead of ids for blocks which have been packed by shrink().
+        // Packed ids are never modified, so they can be shared between copies.
+        // Any modification unpacks them into ids first, hence volatile so that
+        // a concurrent reader seeing null here also sees the unpacked ids.
+        private volatile PackedIds packed;
+        
         /**
          * @return a copy of itself. The copy is also shrunk so that there's no
          * slack in the id array.
@@ -388,7 +406,15 @@ public class RelIdArray implements SizeOf
         IdBlock copy()
         {
             IdBlock copy = copyInstance();
-            int length = length();
+            PackedIds packed = this.packed;
+            if ( packed != null )
+            {
+                copy.ids = null;
+                copy.packed = packed;
+                return copy;
+            }
+            int[] ids = this.ids;
+            int length = ids[0];
             copy.ids = new int[length+1];
             System.arraycopy( ids, 0, copy.ids, 0, length+1 );
             return copy;
@@ -396,16 +422,72 @@ public class RelIdArray implements SizeOf
         
         public int size()
         {
-            return withObjectOverhead( withReference( withArrayOverhead( 4*ids.length ) ) );
+            PackedIds packed = this.packed;
+            return packed != null ? withObjectOverhead( withReference( withReference( packed.size() ) ) ) :
+                    withObjectOverhead( withReference( withReference( withArrayOverhead( 4*ids.length ) ) ) );
         }
         
         /**
-         * @return a shrunk version of itself. It returns itself if there is
-         * no need to shrink it or a {@link #copy()} if there is slack in the array.
+         * @return a shrunk version of itself, including any previous blocks.
+         * It returns itself if there is no need to shrink it or a copy if there
+         * is slack in the array. Blocks with at least {@link PackedIds#FRAME_SIZE}
+         * ids get their ids packed if that makes them smaller.
          */
         IdBlock shrink()
         {
-            return length() == ids.length-1 ? this : copy();
+            IdBlock prev = getPrev();
+            IdBlock shrunkPrev = prev != null ? prev.shrink() : null;
+            if ( packed != null && shrunkPrev == prev )
+            {
+                return this;
+            }
+            
+            PackedIds packedIds = packed;
+            int length = length();
+            if ( packedIds == null && length >= PackedIds.FRAME_SIZE )
+            {
+                packedIds = PackedIds.pack( ids );
+                if ( packedIds.size() >= withArrayOverhead( 4*(length+1) ) )
+                {
+                    packedIds = null;
+                }
+            }
+            if ( packedIds == null && length == ids.length-1 && shrunkPrev == prev )
+            {
+                return this;
+            }
+            
+            IdBlock shrunk = copyInstance();
+            if ( packedIds != null )
+            {
+                shrunk.ids = null;
+                shrunk.packed = packedIds;
+            }
+            else
+            {
+                shrunk.ids = new int[length+1];
+                System.arraycopy( ids, 0, shrunk.ids, 0, length+1 );
+            }
+            if ( shrunkPrev != null )
+            {
+                shrunk.setPrev( shrunkPrev );
+            }
+            return shrunk;
+        }
+        
+        /**
+         * @return the plain id array, unpacking the ids first if they are packed.
+         * Only to be used by operations modifying this block.
+         */
+        private int[] ids()
+        {
+            PackedIds packed = this.packed;
+            if ( packed != null )
+            {
+                ids = packed.unpack( 0 );
+                this.packed = null;
+            }
+            return ids;
         }
         
         /**
@@ -415,7 +497,8 @@ public class RelIdArray implements SizeOf
         
         int length()
         {
-            return ids[0];
+            PackedIds packed = this.packed;
+            return packed != null ? packed.length() : ids[0];
         }
 
         IdBlock getPrev()
@@ -437,7 +520,8 @@ public class RelIdArray implements SizeOf
         
         int ensureSpace( int delta )
         {
-            int length = length();
+            int[] ids = ids();
+            int length = ids[0];
             int newLength = length+delta;
             if ( newLength >= ids.length-1 )
             {
@@ -448,7 +532,7 @@ public class RelIdArray implements SizeOf
                 }
                 int[] newIds = new int[calculatedLength];
                 System.arraycopy( ids, 0, newIds, 0, length+1 );
-                ids = newIds;
+                this.ids = newIds;
             }
             return length;
         }
@@ -457,14 +541,23 @@ public class RelIdArray implements SizeOf
         {
             int otherBlockLength = block.length();
             int length = ensureSpace( otherBlockLength+1 );
-            System.arraycopy( block.ids, 1, ids, length+1, otherBlockLength );
+            PackedIds otherPacked = block.packed;
+            if ( otherPacked != null )
+            {
+                otherPacked.copyTo( ids, length+1, otherBlockLength );
+            }
+            else
+            {
+                System.arraycopy( block.ids, 1, ids, length+1, otherBlockLength );
+            }
             ids[0] = otherBlockLength+length;
         }
         
         long get( int index )
         {
             assert index >= 0 && index < length();
-            return transform( ids[index+1] );
+            PackedIds packed = this.packed;
+            return transform( packed != null ? packed.get( index ) : ids[index+1] );
         }
         
         abstract long transform( int id );
@@ -472,7 +565,12 @@ public class RelIdArray implements SizeOf
         void set( long id, int index )
         {
             // Assume same high bits
-            ids[index+1] = (int) id;
+            ids()[index+1] = (int) id;
+        }
+        
+        void decrementLength()
+        {
+            ids()[0]--;
         }
         
         abstract long getHighBits();
@@ -491,6 +589,7 @@ public class RelIdArray implements SizeOf
         {
             IdBlock highBlock = new HighIdBlock( 0 );
             highBlock.ids = ((IdBlock)this).ids;
+            highBlock.packed = ((IdBlock)this).packed;
             return highBlock;
         }
 
@@ -863,7 +962,7 @@ public class RelIdArray implements SizeOf
                 for ( int j = block.length() - 1; j >= state.relativePosition; j--)
                 {
                     long backValue = block.get( j );
-                    block.ids[0] = block.ids[0]-1;
+                    block.decrementLength();
                     if ( !excluded.contains( backValue) )
                     {
                         block.set( backValue, state.relativePosition-1 );
@@ -873,7 +972,7 @@ public class RelIdArray implements SizeOf
                 }
                 if ( !swapSuccessful ) // all elements from pos in remove
                 {
-                    block.ids[0] = block.ids[0]-1;
+                    block.decrementLength();
                 }
             }
         }
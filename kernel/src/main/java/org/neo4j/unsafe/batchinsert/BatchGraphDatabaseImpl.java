@@ -41,6 +41,7 @@ import org.neo4j.graphdb.Traverser.Order;
 import org.neo4j.graphdb.event.KernelEventHandler;
 import org.neo4j.graphdb.event.TransactionEventHandler;
 import org.neo4j.graphdb.index.IndexManager;
+import org.neo4j.helpers.collection.IteratorUtil;
 import org.neo4j.kernel.PlaceboTransaction;
 import org.neo4j.kernel.impl.cache.LruCache;
 import org.neo4j.kernel.impl.nioneo.store.InvalidRecordException;
@@ -369,6 +370,38 @@ class BatchGraphDatabaseImpl implements GraphDatabaseService
             return newRelIterator( dir, new RelationshipType[] { type } ).hasNext();
         }
 
+        @Override
+        public int getDegree()
+        {
+            return IteratorUtil.count( (Iterator<Relationship>) newRelIterator( Direction.BOTH, null ) );
+        }
+
+        @Override
+        public int getDegree( RelationshipType... types )
+        {
+            return getDegree( Direction.BOTH, types );
+        }
+
+        /*
+         * Counted here rather than with the direction given to RelIterator,
+         * since a loop counts in either direction and no types means any type.
+         */
+        @Override
+        public int getDegree( Direction direction, RelationshipType... types )
+        {
+            int count = 0;
+            for ( Relationship rel : newRelIterator( Direction.BOTH, types.length > 0 ? types : null ) )
+            {
+                if ( direction == Direction.BOTH
+                     || ( direction == Direction.OUTGOING && rel.getStartNode().getId() == id )
+                     || ( direction == Direction.INCOMING && rel.getEndNode().getId() == id ) )
+                {
+                    count++;
+                }
+            }
+            return count;
+        }
+
         /* Tentative expansion API
         public Expansion<Relationship> expandAll()
         {
@@ -21,12 +21,15 @@ package org.neo4j.unsafe.batchinsert;
 
 import java.io.File;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.TreeMap;
 import org.neo4j.graphdb.GraphDatabaseService;
 import org.neo4j.graphdb.NotFoundException;
 import org.neo4j.graphdb.RelationshipType;
@@ -58,6 +61,7 @@ import org.neo4j.kernel.impl.nioneo.store.PropertyRecord;
 import org.neo4j.kernel.impl.nioneo.store.PropertyStore;
 import org.neo4j.kernel.impl.nioneo.store.PropertyType;
 import org.neo4j.kernel.impl.nioneo.store.Record;
+import org.neo4j.kernel.impl.nioneo.store.RelationshipGroupRecord;
 import org.neo4j.kernel.impl.nioneo.store.RelationshipRecord;
 import org.neo4j.kernel.impl.nioneo.store.RelationshipStore;
 import org.neo4j.kernel.impl.nioneo.store.RelationshipTypeRecord;
@@ -86,6 +90,9 @@ public class BatchInserterImpl implements BatchInserter
 
     private final StringLogger msgLog;
 
+    // Relationships not written yet, null unless they are buffered
+    private final RelationshipBuffer relationshipBuffer;
+
     BatchInserterImpl( String storeDir )
     {
         this( storeDir, new HashMap<String, String>() );
@@ -126,6 +133,8 @@ public class BatchInserterImpl implements BatchInserter
         NameData[] types = getRelationshipTypeStore().getNames( Integer.MAX_VALUE );
         typeHolder = new RelationshipTypeHolder( types );
         indexStore = new IndexStore( storeDir, fileSystem );
+        int bufferSize = config.get( GraphDatabaseSettings.batch_relationship_buffer_size );
+        relationshipBuffer = bufferSize > 0 ? new RelationshipBuffer( bufferSize ) : null;
     }
 
     private Map<String,String> getDefaultParams()
@@ -452,6 +461,10 @@ public class BatchInserterImpl implements BatchInserter
     public long createRelationship( long node1, long node2, RelationshipType
         type, Map<String,Object> properties )
     {
+        if ( relationshipBuffer != null )
+        {
+            return bufferRelationship( node1, node2, type, properties );
+        }
         NodeRecord firstNode = getNodeRecord( node1 );
         NodeRecord secondNode = getNodeRecord( node2 );
         int typeId = typeHolder.getTypeId( type.name() );
@@ -471,24 +484,266 @@ public class BatchInserterImpl implements BatchInserter
         return id;
     }
 
+    private long bufferRelationship( long node1, long node2, RelationshipType type, Map<String,Object> properties )
+    {
+        // Checked here, since failing when flushed leaves no way to tell which relationship was wrong
+        checkNodeInUse( node1 );
+        checkNodeInUse( node2 );
+        int typeId = getOrCreateRelationshipTypeId( type.name() );
+        long id = getRelationshipStore().nextId();
+        relationshipBuffer.add( id, node1, node2, typeId, createPropertyChain( properties ) );
+        if ( relationshipBuffer.isFull() )
+        {
+            flushRelationships();
+        }
+        return id;
+    }
+
+    /**
+     * Writes the buffered relationships. They are put first in the chains
+     * of their nodes in the order they were created, same as if written one
+     * by one, but all pointers are set up in memory going through the nodes
+     * in id order before anything is written. So the node store is read and
+     * written in one sweep and the relationship store written in another,
+     * both in id order, instead of updating the previous first relationship
+     * of both nodes for every relationship. What remains is one update of
+     * the previous first relationship per node, also in id order, and
+     * relationships of dense nodes, which are put in the chains of their
+     * groups one by one. The buffer is empty afterwards, also if writing
+     * fails.
+     */
+    private void flushRelationships()
+    {
+        if ( relationshipBuffer == null || relationshipBuffer.isEmpty() )
+        {
+            return;
+        }
+        try
+        {
+            writeRelationships( relationshipBuffer );
+        }
+        finally
+        {
+            relationshipBuffer.clear();
+        }
+    }
+
+    private void writeRelationships( RelationshipBuffer buffer )
+    {
+        RelationshipRecord[] records = new RelationshipRecord[buffer.size()];
+        for ( int i = 0; i < records.length; i++ )
+        {
+            RelationshipRecord record = new RelationshipRecord( buffer.getId( i ), buffer.getFirstNode( i ),
+                    buffer.getSecondNode( i ), buffer.getType( i ) );
+            record.setInUse( true );
+            record.setCreated();
+            record.setNextProp( buffer.getNextProp( i ) );
+            records[i] = record;
+        }
+
+        // Each node with its buffered relationships, linked from the oldest
+        List<NodeRecord> nodes = new ArrayList<NodeRecord>();
+        Map<Long, RelationshipRecord> previousFirsts = new TreeMap<Long, RelationshipRecord>();
+        List<NodeRecord> denseNodes = new ArrayList<NodeRecord>();
+        List<long[]> denseNodeSides = new ArrayList<long[]>();
+        long[] sides = buffer.sortedSides();
+        for ( int start = 0; start < sides.length; )
+        {
+            long nodeId = RelationshipBuffer.nodeOf( sides[start] );
+            int end = start;
+            while ( end < sides.length && RelationshipBuffer.nodeOf( sides[end] ) == nodeId )
+            {
+                end++;
+            }
+            NodeRecord node = getNodeRecord( nodeId );
+            long firstRel = node.getNextRel();
+            if ( firstRel != Record.NO_NEXT_RELATIONSHIP.intValue() &&
+                    getRelationshipStore().isGroupRecord( firstRel ) )
+            {
+                denseNodes.add( node );
+                denseNodeSides.add( Arrays.copyOfRange( sides, start, end ) );
+                start = end;
+                continue;
+            }
+            RelationshipRecord previous = null;
+            for ( int i = start; i < end; i++ )
+            {
+                RelationshipRecord record = records[RelationshipBuffer.indexOf( sides[i] )];
+                if ( previous == null )
+                {
+                    setNextRel( nodeId, record, firstRel );
+                    if ( firstRel != Record.NO_NEXT_RELATIONSHIP.intValue() )
+                    {
+                        // Shared by both nodes if it was the first relationship of both
+                        RelationshipRecord previousFirst = previousFirsts.get( firstRel );
+                        if ( previousFirst == null )
+                        {
+                            previousFirst = getRelationshipStore().getRecord( firstRel );
+                            previousFirsts.put( firstRel, previousFirst );
+                        }
+                        setPrevRel( nodeId, previousFirst, record.getId() );
+                    }
+                }
+                else
+                {
+                    setNextRel( nodeId, record, previous.getId() );
+                    setPrevRel( nodeId, previous, record.getId() );
+                }
+                previous = record;
+            }
+            node.setNextRel( previous.getId() );
+            nodes.add( node );
+            start = end;
+        }
+
+        for ( NodeRecord node : nodes )
+        {
+            getNodeStore().updateRecord( node );
+        }
+        Arrays.sort( records, new Comparator<RelationshipRecord>()
+        {
+            @Override
+            public int compare( RelationshipRecord o1, RelationshipRecord o2 )
+            {
+                return o1.getId() < o2.getId() ? -1 : o1.getId() == o2.getId() ? 0 : 1;
+            }
+        } );
+        for ( RelationshipRecord record : records )
+        {
+            getRelationshipStore().updateRecord( record );
+        }
+        // Relationships already written that now have new ones before them
+        for ( RelationshipRecord record : previousFirsts.values() )
+        {
+            getRelationshipStore().updateRecord( record );
+        }
+
+        for ( int i = 0; i < denseNodes.size(); i++ )
+        {
+            NodeRecord node = denseNodes.get( i );
+            for ( long side : denseNodeSides.get( i ) )
+            {
+                RelationshipRecord record = getRelationshipStore().getRecord(
+                        buffer.getId( RelationshipBuffer.indexOf( side ) ) );
+                connectToGroup( node, record );
+                getRelationshipStore().updateRecord( record );
+            }
+            getNodeStore().updateRecord( node );
+        }
+    }
+
+    private static void setNextRel( long nodeId, RelationshipRecord rel, long nextRel )
+    {
+        if ( rel.getFirstNode() == nodeId )
+        {
+            rel.setFirstNextRel( nextRel );
+        }
+        if ( rel.getSecondNode() == nodeId )
+        {
+            rel.setSecondNextRel( nextRel );
+        }
+    }
+
+    private static void setPrevRel( long nodeId, RelationshipRecord rel, long prevRel )
+    {
+        if ( rel.getFirstNode() == nodeId )
+        {
+            rel.setFirstPrevRel( prevRel );
+        }
+        if ( rel.getSecondNode() == nodeId )
+        {
+            rel.setSecondPrevRel( prevRel );
+        }
+    }
+
     private void connectRelationship( NodeRecord firstNode,
             NodeRecord secondNode, RelationshipRecord rel )
     {
         assert firstNode.getNextRel() != rel.getId();
         assert secondNode.getNextRel() != rel.getId();
-        rel.setFirstNextRel( firstNode.getNextRel() );
-        rel.setSecondNextRel( secondNode.getNextRel() );
         connect( firstNode, rel );
-        connect( secondNode, rel );
-        firstNode.setNextRel(rel.getId());
-        secondNode.setNextRel(rel.getId());
+        if ( rel.getFirstNode() != rel.getSecondNode() )
+        {
+            connect( secondNode, rel );
+        }
+        else
+        {
+            // A loop is linked on both sides at once, both records are of the same node
+            secondNode.setNextRel( firstNode.getNextRel() );
+        }
     }
 
+    /*
+     * Nodes aren't made dense here, but relationships of nodes that are
+     * already dense are put in the chains of their relationship groups.
+     */
     private void connect( NodeRecord node, RelationshipRecord rel )
     {
-        if ( node.getNextRel() != Record.NO_NEXT_RELATIONSHIP.intValue() )
+        long firstRel = node.getNextRel();
+        if ( firstRel != Record.NO_NEXT_RELATIONSHIP.intValue() &&
+                getRelationshipStore().isGroupRecord( firstRel ) )
+        {
+            connectToGroup( node, rel );
+        }
+        else
+        {
+            node.setNextRel( link( node, rel, firstRel ) );
+        }
+    }
+
+    private void connectToGroup( NodeRecord node, RelationshipRecord rel )
+    {
+        RelationshipGroupRecord group = null;
+        for ( long groupId = node.getNextRel(); groupId != Record.NO_NEXT_RELATIONSHIP.intValue(); )
+        {
+            RelationshipGroupRecord candidate = getRelationshipStore().getGroupRecord( groupId );
+            if ( candidate.getType() == rel.getType() )
+            {
+                group = candidate;
+                break;
+            }
+            groupId = candidate.getNext();
+        }
+        if ( group == null )
+        {
+            group = new RelationshipGroupRecord( getRelationshipStore().nextId(), rel.getType() );
+            group.setInUse( true );
+            group.setCreated();
+            group.setOwningNode( node.getId() );
+            group.setNext( node.getNextRel() );
+            node.setNextRel( group.getId() );
+        }
+        if ( rel.getFirstNode() == rel.getSecondNode() )
+        {
+            group.setFirstLoop( link( node, rel, group.getFirstLoop() ) );
+        }
+        else if ( rel.getFirstNode() == node.getId() )
         {
-            RelationshipRecord nextRel = getRelationshipStore().getRecord( node.getNextRel() );
+            group.setFirstOut( link( node, rel, group.getFirstOut() ) );
+            group.setOutCount( group.getOutCount() + 1 );
+        }
+        else
+        {
+            group.setFirstIn( link( node, rel, group.getFirstIn() ) );
+            group.setInCount( group.getInCount() + 1 );
+        }
+        getRelationshipStore().updateRecord( group );
+    }
+
+    // Puts rel first in the chain of node starting at firstInChain and returns its id
+    private long link( NodeRecord node, RelationshipRecord rel, long firstInChain )
+    {
+        if ( rel.getFirstNode() == node.getId() )
+        {
+            rel.setFirstNextRel( firstInChain );
+        }
+        if ( rel.getSecondNode() == node.getId() )
+        {
+            rel.setSecondNextRel( firstInChain );
+        }
+        if ( firstInChain != Record.NO_NEXT_RELATIONSHIP.intValue() )
+        {
+            RelationshipRecord nextRel = getRelationshipStore().getRecord( firstInChain );
             boolean changed = false;
             if ( nextRel.getFirstNode() == node.getId() )
             {
@@ -506,6 +761,31 @@ public class BatchInserterImpl implements BatchInserter
             }
             getRelationshipStore().updateRecord( nextRel );
         }
+        return rel.getId();
+    }
+
+    /**
+     * @return the first relationship of each relationship chain of the node,
+     * which is one chain unless the node is dense.
+     */
+    private List<Long> getRelationshipChains( NodeRecord node )
+    {
+        long firstRel = node.getNextRel();
+        if ( firstRel == Record.NO_NEXT_RELATIONSHIP.intValue() ||
+                !getRelationshipStore().isGroupRecord( firstRel ) )
+        {
+            return Collections.singletonList( firstRel );
+        }
+        List<Long> chains = new ArrayList<Long>();
+        for ( long groupId = firstRel; groupId != Record.NO_NEXT_RELATIONSHIP.intValue(); )
+        {
+            RelationshipGroupRecord group = getRelationshipStore().getGroupRecord( groupId );
+            chains.add( group.getFirstOut() );
+            chains.add( group.getFirstIn() );
+            chains.add( group.getFirstLoop() );
+            groupId = group.getNext();
+        }
+        return chains;
     }
 
     @Override
@@ -570,28 +850,32 @@ public class BatchInserterImpl implements BatchInserter
     @Override
     public Iterable<Long> getRelationshipIds( long nodeId )
     {
+        flushRelationships();
         NodeRecord nodeRecord = getNodeRecord(nodeId);
-        long nextRel = nodeRecord.getNextRel();
         List<Long> ids = new ArrayList<Long>();
-        while ( nextRel != Record.NO_NEXT_RELATIONSHIP.intValue() )
+        for ( long firstRel : getRelationshipChains( nodeRecord ) )
         {
-            RelationshipRecord relRecord = getRelationshipRecord( nextRel );
-            ids.add( relRecord.getId() );
-            long firstNode = relRecord.getFirstNode();
-            long secondNode = relRecord.getSecondNode();
-            if ( firstNode == nodeId )
+            long nextRel = firstRel;
+            while ( nextRel != Record.NO_NEXT_RELATIONSHIP.intValue() )
             {
-                nextRel = relRecord.getFirstNextRel();
-            }
-            else if ( secondNode == nodeId )
-            {
-                nextRel = relRecord.getSecondNextRel();
-            }
-            else
-            {
-                throw new InvalidRecordException( "Node[" + nodeId +
-                    "] not part of firstNode[" + firstNode +
-                    "] or secondNode[" + secondNode + "]" );
+                RelationshipRecord relRecord = getRelationshipRecord( nextRel );
+                ids.add( relRecord.getId() );
+                long firstNode = relRecord.getFirstNode();
+                long secondNode = relRecord.getSecondNode();
+                if ( firstNode == nodeId )
+                {
+                    nextRel = relRecord.getFirstNextRel();
+                }
+                else if ( secondNode == nodeId )
+                {
+                    nextRel = relRecord.getSecondNextRel();
+                }
+                else
+                {
+                    throw new InvalidRecordException( "Node[" + nodeId +
+                        "] not part of firstNode[" + firstNode +
+                        "] or secondNode[" + secondNode + "]" );
+                }
             }
         }
         return ids;
@@ -600,31 +884,35 @@ public class BatchInserterImpl implements BatchInserter
     @Override
     public Iterable<BatchRelationship> getRelationships( long nodeId )
     {
+        flushRelationships();
         NodeRecord nodeRecord = getNodeRecord(nodeId);
-        long nextRel = nodeRecord.getNextRel();
         List<BatchRelationship> rels = new ArrayList<BatchRelationship>();
-        while ( nextRel != Record.NO_NEXT_RELATIONSHIP.intValue() )
-        {
-            RelationshipRecord relRecord = getRelationshipRecord( nextRel );
-            RelationshipType type = new RelationshipTypeImpl(
-                typeHolder.getName( relRecord.getType() ) );
-            rels.add( new BatchRelationship( relRecord.getId(),
-                relRecord.getFirstNode(), relRecord.getSecondNode(), type ) );
-            long firstNode = relRecord.getFirstNode();
-            long secondNode = relRecord.getSecondNode();
-            if ( firstNode == nodeId )
-            {
-                nextRel = relRecord.getFirstNextRel();
-            }
-            else if ( secondNode == nodeId )
-            {
-                nextRel = relRecord.getSecondNextRel();
-            }
-            else
+        for ( long firstRel : getRelationshipChains( nodeRecord ) )
+        {
+            long nextRel = firstRel;
+            while ( nextRel != Record.NO_NEXT_RELATIONSHIP.intValue() )
             {
-                throw new InvalidRecordException( "Node[" + nodeId +
-                    "] not part of firstNode[" + firstNode +
-                    "] or secondNode[" + secondNode + "]" );
+                RelationshipRecord relRecord = getRelationshipRecord( nextRel );
+                RelationshipType type = new RelationshipTypeImpl(
+                    typeHolder.getName( relRecord.getType() ) );
+                rels.add( new BatchRelationship( relRecord.getId(),
+                    relRecord.getFirstNode(), relRecord.getSecondNode(), type ) );
+                long firstNode = relRecord.getFirstNode();
+                long secondNode = relRecord.getSecondNode();
+                if ( firstNode == nodeId )
+                {
+                    nextRel = relRecord.getFirstNextRel();
+                }
+                else if ( secondNode == nodeId )
+                {
+                    nextRel = relRecord.getSecondNextRel();
+                }
+                else
+                {
+                    throw new InvalidRecordException( "Node[" + nodeId +
+                        "] not part of firstNode[" + firstNode +
+                        "] or secondNode[" + secondNode + "]" );
+                }
             }
         }
         return rels;
@@ -632,33 +920,37 @@ public class BatchInserterImpl implements BatchInserter
 
     public Iterable<SimpleRelationship> getSimpleRelationships( long nodeId )
     {
+        flushRelationships();
         NodeRecord nodeRecord = getNodeRecord( nodeId );
-        long nextRel = nodeRecord.getNextRel();
         List<SimpleRelationship> rels = new ArrayList<SimpleRelationship>();
-        while ( nextRel != Record.NO_NEXT_RELATIONSHIP.intValue() )
+        for ( long firstRel : getRelationshipChains( nodeRecord ) )
         {
-            RelationshipRecord relRecord = getRelationshipRecord( nextRel );
-            RelationshipType type = new RelationshipTypeImpl(
-                    typeHolder.getName( relRecord.getType() ) );
-            rels.add( new SimpleRelationship( relRecord.getId(),
-                    relRecord.getFirstNode(), relRecord.getSecondNode(), type ) );
-            long firstNode = relRecord.getFirstNode();
-            long secondNode = relRecord.getSecondNode();
-            if ( firstNode == nodeId )
-            {
-                nextRel = relRecord.getFirstNextRel();
-            }
-            else if ( secondNode == nodeId )
-            {
-                nextRel = relRecord.getSecondNextRel();
-            }
-            else
+            long nextRel = firstRel;
+            while ( nextRel != Record.NO_NEXT_RELATIONSHIP.intValue() )
             {
-                throw new InvalidRecordException( "Node[" + nodeId
-                                                  + "] not part of firstNode["
-                                                  + firstNode
-                                                  + "] or secondNode["
-                                                  + secondNode + "]" );
+                RelationshipRecord relRecord = getRelationshipRecord( nextRel );
+                RelationshipType type = new RelationshipTypeImpl(
+                        typeHolder.getName( relRecord.getType() ) );
+                rels.add( new SimpleRelationship( relRecord.getId(),
+                        relRecord.getFirstNode(), relRecord.getSecondNode(), type ) );
+                long firstNode = relRecord.getFirstNode();
+                long secondNode = relRecord.getSecondNode();
+                if ( firstNode == nodeId )
+                {
+                    nextRel = relRecord.getFirstNextRel();
+                }
+                else if ( secondNode == nodeId )
+                {
+                    nextRel = relRecord.getSecondNextRel();
+                }
+                else
+                {
+                    throw new InvalidRecordException( "Node[" + nodeId
+                                                      + "] not part of firstNode["
+                                                      + firstNode
+                                                      + "] or secondNode["
+                                                      + secondNode + "]" );
+                }
             }
         }
         return rels;
@@ -697,7 +989,14 @@ public class BatchInserterImpl implements BatchInserter
     @Override
     public void shutdown()
     {
-        neoStore.close();
+        try
+        {
+            flushRelationships();
+        }
+        finally
+        {
+            neoStore.close();
+        }
         msgLog.logMessage( Thread.currentThread() + " Clean shutdown on BatchInserter(" + this + ")", true );
         msgLog.close();
     }
@@ -730,22 +1029,37 @@ public class BatchInserterImpl implements BatchInserter
         {
             return Record.NO_NEXT_PROPERTY.intValue();
         }
+        PropertyBlock[] blocks = new PropertyBlock[properties.size()];
+        int i = 0;
+        for ( Entry<String,Object> entry : properties.entrySet() )
+        {
+            PropertyBlock block = new PropertyBlock();
+            getPropertyStore().encodeValue( block, getOrCreatePropertyKeyId( entry.getKey() ), entry.getValue() );
+            blocks[i++] = block;
+        }
+        return createPropertyChain( blocks );
+    }
+
+    /**
+     * Packs already encoded blocks into new property records, in the order
+     * given, and writes them.
+     *
+     * @return the id of the first property record of the chain.
+     */
+    long createPropertyChain( PropertyBlock[] blocks )
+    {
+        if ( blocks == null || blocks.length == 0 )
+        {
+            return Record.NO_NEXT_PROPERTY.intValue();
+        }
         PropertyStore propStore = getPropertyStore();
         List<PropertyRecord> propRecords = new ArrayList<PropertyRecord>();
         PropertyRecord currentRecord = new PropertyRecord( propStore.nextId() );
         currentRecord.setInUse( true );
         currentRecord.setCreated();
         propRecords.add( currentRecord );
-        for ( Entry<String,Object> entry : properties.entrySet() )
+        for ( PropertyBlock block : blocks )
         {
-            int keyId = indexHolder.getKeyId( entry.getKey() );
-            if ( keyId == -1 )
-            {
-                keyId = createNewPropertyIndex( entry.getKey() );
-            }
-
-            PropertyBlock block = new PropertyBlock();
-            propStore.encodeValue( block, keyId, entry.getValue() );
             if ( currentRecord.size() + block.getSize() > PropertyType.getPayloadSize() )
             {
                 // Here it means the current block is done for
@@ -831,6 +1145,18 @@ public class BatchInserterImpl implements BatchInserter
         return properties;
     }
 
+    int getOrCreatePropertyKeyId( String stringKey )
+    {
+        int keyId = indexHolder.getKeyId( stringKey );
+        return keyId != -1 ? keyId : createNewPropertyIndex( stringKey );
+    }
+
+    int getOrCreateRelationshipTypeId( String name )
+    {
+        int typeId = typeHolder.getTypeId( name );
+        return typeId != -1 ? typeId : createNewRelationshipType( name );
+    }
+
     private int createNewPropertyIndex( String stringKey )
     {
         PropertyIndexStore idxStore = getPropertyIndexStore();
@@ -870,12 +1196,12 @@ public class BatchInserterImpl implements BatchInserter
         return id;
     }
 
-    private NodeStore getNodeStore()
+    NodeStore getNodeStore()
     {
         return neoStore.getNodeStore();
     }
 
-    private PropertyStore getPropertyStore()
+    PropertyStore getPropertyStore()
     {
         return neoStore.getPropertyStore();
     }
@@ -885,7 +1211,7 @@ public class BatchInserterImpl implements BatchInserter
         return getPropertyStore().getIndexStore();
     }
 
-    private RelationshipStore getRelationshipStore()
+    RelationshipStore getRelationshipStore()
     {
         return neoStore.getRelationshipStore();
     }
@@ -896,16 +1222,31 @@ public class BatchInserterImpl implements BatchInserter
     }
 
     private NodeRecord getNodeRecord( long id )
+    {
+        checkNodeId( id );
+        return getNodeStore().getRecord(id);
+    }
+
+    private void checkNodeId( long id )
     {
         if ( id < 0 || id >= getNodeStore().getHighId() )
         {
             throw new NotFoundException( "id=" + id );
         }
-        return getNodeStore().getRecord(id);
+    }
+
+    private void checkNodeInUse( long id )
+    {
+        checkNodeId( id );
+        if ( getNodeStore().loadLightNode( id ) == null )
+        {
+            throw new NotFoundException( "id=" + id );
+        }
     }
 
     private RelationshipRecord getRelationshipRecord( long id )
     {
+        flushRelationships();
         if ( id < 0 || id >= getRelationshipStore().getHighId() )
         {
             throw new NotFoundException( "id=" + id );
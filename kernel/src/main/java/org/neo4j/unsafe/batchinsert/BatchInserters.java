@@ -19,6 +19,7 @@
  */
 package org.neo4j.unsafe.batchinsert;
 
+import java.util.HashMap;
 import java.util.Map;
 
 import org.neo4j.graphdb.GraphDatabaseService;
@@ -84,4 +85,30 @@ public final class BatchInserters
     {
         return new BatchGraphDatabaseImpl( storeDir, config );
     }
+
+    /**
+     * Get a {@link ParallelBatchImporter} given a store directory, which
+     * encodes properties with as many threads as there are processors.
+     *
+     * @param storeDir the store directory
+     * @return a new {@link ParallelBatchImporter}
+     */
+    public static ParallelBatchImporter importer( String storeDir )
+    {
+        return importer( storeDir, new HashMap<String,String>() );
+    }
+
+    /**
+     * Get a {@link ParallelBatchImporter} given a store directory, which
+     * encodes properties with as many threads as there are processors.
+     *
+     * @param storeDir the store directory
+     * @param config configuration settings to use
+     * @return a new {@link ParallelBatchImporter}
+     */
+    public static ParallelBatchImporter importer( String storeDir, Map<String,String> config )
+    {
+        return new ParallelBatchImporter( new BatchInserterImpl( storeDir, config ),
+                Runtime.getRuntime().availableProcessors() );
+    }
 }
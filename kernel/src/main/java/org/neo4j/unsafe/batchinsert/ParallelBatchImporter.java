@@ -0,0 +1,473 @@
+/**
+ * Copyright (c) 2002-2012 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.unsafe.batchinsert;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.neo4j.kernel.impl.nioneo.store.NodeRecord;
+import org.neo4j.kernel.impl.nioneo.store.NodeStore;
+import org.neo4j.kernel.impl.nioneo.store.PropertyBlock;
+import org.neo4j.kernel.impl.nioneo.store.PropertyStore;
+import org.neo4j.kernel.impl.nioneo.store.Record;
+import org.neo4j.kernel.impl.nioneo.store.RelationshipRecord;
+import org.neo4j.kernel.impl.nioneo.store.RelationshipStore;
+
+/**
+ * Imports all nodes and relationships of a graph at once, in stages over the
+ * whole input rather than one entity at a time like {@link BatchInserter}.
+ * <ol>
+ * <li>Nodes are given consecutive ids in input order. Their properties are
+ * encoded by a pool of threads, while a single writer thread writes the
+ * property records of each batch of nodes in order.</li>
+ * <li>Relationships are given consecutive ids and have their properties
+ * encoded the same way. The writer links each one in front of the chains of
+ * its nodes, so every relationship record is written once, in id order,
+ * and nothing already written is touched.</li>
+ * <li>The node records are written in id order, pointing to the chain
+ * heads.</li>
+ * <li>The pointers back to later relationships in the chains are filled in
+ * by one sweep over the new relationships in descending id order.</li>
+ * </ol>
+ * Relationships can only connect nodes of the same import, which they refer
+ * to by their position in the node input. Like {@link BatchInserter} the
+ * importer doesn't make nodes dense. It keeps two longs per imported node
+ * in memory during an import.
+ * <p>
+ * An importer isn't thread safe and {@link #shutdown()} must be invoked
+ * when done with it.
+ */
+public class ParallelBatchImporter
+{
+    static final int BATCH_SIZE = 10000;
+    // Batches read ahead of the writer, per encoding thread
+    private static final int PENDING_BATCHES_PER_THREAD = 2;
+
+    private final BatchInserterImpl inserter;
+    private final int threads;
+
+    private long firstNodeId;
+    private long nodeCount;
+    private long firstRelationshipId;
+    private long relationshipCount;
+    // The first property record of each node, reused for the chain sweep
+    private LongArray nodeProperties;
+    // The first relationship in the chain of each node
+    private LongArray chainHeads;
+
+    ParallelBatchImporter( BatchInserterImpl inserter, int threads )
+    {
+        if ( threads < 1 )
+        {
+            throw new IllegalArgumentException( "threads=" + threads );
+        }
+        this.inserter = inserter;
+        this.threads = threads;
+    }
+
+    /**
+     * Imports <CODE>nodes</CODE>, given as their properties, and the
+     * <CODE>relationships</CODE> between them. Each iterable is iterated
+     * once, so they can stream the input from somewhere else.
+     *
+     * @param nodes the properties of each node, in the order of the ids
+     *            they should get.
+     * @param relationships the relationships between the imported nodes.
+     * @return the id of the first imported node, the following nodes have
+     *         the ids following it.
+     * @throws IllegalArgumentException if a relationship refers to a node
+     *             outside of the node input.
+     */
+    public long doImport( Iterable<Map<String,Object>> nodes, Iterable<ImportRelationship> relationships )
+    {
+        ExecutorService encoders = Executors.newFixedThreadPool( threads );
+        ExecutorService writer = Executors.newSingleThreadExecutor();
+        try
+        {
+            nodeProperties = new LongArray( Record.NO_NEXT_PROPERTY.intValue() );
+            chainHeads = new LongArray( Record.NO_NEXT_RELATIONSHIP.intValue() );
+            importNodeProperties( nodes.iterator(), new Pipeline( encoders, writer ) );
+            importRelationships( relationships.iterator(), new Pipeline( encoders, writer ) );
+            writeNodes();
+            linkRelationships();
+            return firstNodeId;
+        }
+        finally
+        {
+            encoders.shutdownNow();
+            writer.shutdownNow();
+            nodeProperties = null;
+            chainHeads = null;
+        }
+    }
+
+    private void importNodeProperties( Iterator<Map<String,Object>> nodes, Pipeline pipeline )
+    {
+        NodeStore nodeStore = inserter.getNodeStore();
+        firstNodeId = nodeStore.getHighId();
+        nodeCount = 0;
+        while ( nodes.hasNext() )
+        {
+            NodeBatch batch = new NodeBatch( nodeCount );
+            while ( batch.size < BATCH_SIZE && nodes.hasNext() )
+            {
+                batch.add( nodes.next() );
+            }
+            nodeCount += batch.size;
+            pipeline.submit( batch );
+        }
+        pipeline.finish();
+        // The node records themselves are written once the chains are known
+        nodeStore.setHighId( firstNodeId + nodeCount );
+    }
+
+    private void importRelationships( Iterator<ImportRelationship> relationships, Pipeline pipeline )
+    {
+        firstRelationshipId = inserter.getRelationshipStore().getHighId();
+        relationshipCount = 0;
+        while ( relationships.hasNext() )
+        {
+            RelationshipBatch batch = new RelationshipBatch( firstRelationshipId + relationshipCount );
+            while ( batch.size < BATCH_SIZE && relationships.hasNext() )
+            {
+                batch.add( relationships.next() );
+            }
+            relationshipCount += batch.size;
+            pipeline.submit( batch );
+        }
+        pipeline.finish();
+    }
+
+    private void writeNodes()
+    {
+        NodeStore nodeStore = inserter.getNodeStore();
+        for ( long position = 0; position < nodeCount; position++ )
+        {
+            NodeRecord record = new NodeRecord( firstNodeId + position, chainHeads.get( position ),
+                    nodeProperties.get( position ) );
+            record.setInUse( true );
+            record.setCreated();
+            nodeStore.updateRecord( record );
+        }
+    }
+
+    /*
+     * Going from the last relationship to the first, the one seen last for a
+     * node is the one after the current one in its chain.
+     */
+    private void linkRelationships()
+    {
+        RelationshipStore relStore = inserter.getRelationshipStore();
+        LongArray laterRelationships = nodeProperties;
+        laterRelationships.fill( Record.NO_PREV_RELATIONSHIP.intValue() );
+        for ( long id = firstRelationshipId + relationshipCount - 1; id >= firstRelationshipId; id-- )
+        {
+            RelationshipRecord record = relStore.getRecord( id );
+            long firstPosition = record.getFirstNode() - firstNodeId;
+            long secondPosition = record.getSecondNode() - firstNodeId;
+            record.setFirstPrevRel( laterRelationships.get( firstPosition ) );
+            record.setSecondPrevRel( laterRelationships.get( secondPosition ) );
+            laterRelationships.set( firstPosition, id );
+            laterRelationships.set( secondPosition, id );
+            if ( record.getFirstPrevRel() != Record.NO_PREV_RELATIONSHIP.intValue() ||
+                 record.getSecondPrevRel() != Record.NO_PREV_RELATIONSHIP.intValue() )
+            {
+                relStore.updateRecord( record );
+            }
+        }
+    }
+
+    /**
+     * Stops the importer and closes the store.
+     */
+    public void shutdown()
+    {
+        inserter.shutdown();
+    }
+
+    @Override
+    public String toString()
+    {
+        return "ParallelBatchImporter[" + inserter.getStoreDir() + "]";
+    }
+
+    /**
+     * Hands batches to the encoding threads and then to the writer thread
+     * in the order they were submitted, with a bounded number of batches
+     * in between.
+     */
+    private class Pipeline
+    {
+        private final ExecutorService encoders;
+        private final ExecutorService writer;
+        private final LinkedList<Future<Void>> pending = new LinkedList<Future<Void>>();
+
+        Pipeline( ExecutorService encoders, ExecutorService writer )
+        {
+            this.encoders = encoders;
+            this.writer = writer;
+        }
+
+        void submit( final Batch batch )
+        {
+            final Future<Batch> encoded = encoders.submit( new Callable<Batch>()
+            {
+                @Override
+                public Batch call()
+                {
+                    batch.encode( inserter.getPropertyStore() );
+                    return batch;
+                }
+            } );
+            pending.add( writer.submit( new Callable<Void>()
+            {
+                @Override
+                public Void call() throws Exception
+                {
+                    encoded.get().write();
+                    return null;
+                }
+            } ) );
+            while ( pending.size() > threads * PENDING_BATCHES_PER_THREAD )
+            {
+                await( pending.removeFirst() );
+            }
+        }
+
+        void finish()
+        {
+            while ( !pending.isEmpty() )
+            {
+                await( pending.removeFirst() );
+            }
+        }
+
+        private void await( Future<Void> future )
+        {
+            try
+            {
+                future.get();
+            }
+            catch ( InterruptedException e )
+            {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException( e );
+            }
+            catch ( ExecutionException e )
+            {
+                Throwable cause = e.getCause();
+                while ( cause instanceof ExecutionException )
+                {
+                    cause = cause.getCause();
+                }
+                if ( cause instanceof RuntimeException )
+                {
+                    throw (RuntimeException) cause;
+                }
+                if ( cause instanceof Error )
+                {
+                    throw (Error) cause;
+                }
+                throw new RuntimeException( cause );
+            }
+        }
+    }
+
+    /**
+     * Entities read from the input with their property keys resolved, which
+     * is done by the reading thread since it may create new keys.
+     */
+    private abstract class Batch
+    {
+        final int[][] keys = new int[BATCH_SIZE][];
+        final Object[][] values = new Object[BATCH_SIZE][];
+        final PropertyBlock[][] blocks = new PropertyBlock[BATCH_SIZE][];
+        int size;
+
+        void addProperties( Map<String,Object> properties )
+        {
+            int count = properties == null ? 0 : properties.size();
+            int[] entityKeys = new int[count];
+            Object[] entityValues = new Object[count];
+            if ( count > 0 )
+            {
+                int i = 0;
+                for ( Entry<String,Object> property : properties.entrySet() )
+                {
+                    entityKeys[i] = inserter.getOrCreatePropertyKeyId( property.getKey() );
+                    entityValues[i++] = property.getValue();
+                }
+            }
+            keys[size] = entityKeys;
+            values[size] = entityValues;
+        }
+
+        void encode( PropertyStore propStore )
+        {
+            for ( int entity = 0; entity < size; entity++ )
+            {
+                PropertyBlock[] entityBlocks = new PropertyBlock[keys[entity].length];
+                for ( int i = 0; i < entityBlocks.length; i++ )
+                {
+                    entityBlocks[i] = new PropertyBlock();
+                    propStore.encodeValue( entityBlocks[i], keys[entity][i], values[entity][i] );
+                }
+                blocks[entity] = entityBlocks;
+                values[entity] = null;
+            }
+        }
+
+        abstract void write();
+    }
+
+    private class NodeBatch extends Batch
+    {
+        private final long firstPosition;
+
+        NodeBatch( long firstPosition )
+        {
+            this.firstPosition = firstPosition;
+        }
+
+        void add( Map<String,Object> properties )
+        {
+            addProperties( properties );
+            size++;
+        }
+
+        @Override
+        void write()
+        {
+            for ( int i = 0; i < size; i++ )
+            {
+                nodeProperties.set( firstPosition + i, inserter.createPropertyChain( blocks[i] ) );
+            }
+        }
+    }
+
+    private class RelationshipBatch extends Batch
+    {
+        private final long firstId;
+        private final long[] startNodes = new long[BATCH_SIZE];
+        private final long[] endNodes = new long[BATCH_SIZE];
+        private final int[] types = new int[BATCH_SIZE];
+
+        RelationshipBatch( long firstId )
+        {
+            this.firstId = firstId;
+        }
+
+        void add( ImportRelationship relationship )
+        {
+            startNodes[size] = checkedNode( relationship.getStartNode() );
+            endNodes[size] = checkedNode( relationship.getEndNode() );
+            types[size] = inserter.getOrCreateRelationshipTypeId( relationship.getType().name() );
+            addProperties( relationship.getProperties() );
+            size++;
+        }
+
+        private long checkedNode( long position )
+        {
+            if ( position < 0 || position >= nodeCount )
+            {
+                throw new IllegalArgumentException( "Node " + position + " not among the " + nodeCount +
+                        " imported nodes" );
+            }
+            return position;
+        }
+
+        @Override
+        void write()
+        {
+            RelationshipStore relStore = inserter.getRelationshipStore();
+            relStore.setHighId( firstId + size );
+            for ( int i = 0; i < size; i++ )
+            {
+                long id = firstId + i;
+                RelationshipRecord record = new RelationshipRecord( id, firstNodeId + startNodes[i],
+                        firstNodeId + endNodes[i], types[i] );
+                record.setInUse( true );
+                record.setCreated();
+                // Put first in both chains, for a loop both are the same chain
+                record.setFirstNextRel( chainHeads.get( startNodes[i] ) );
+                record.setSecondNextRel( chainHeads.get( endNodes[i] ) );
+                chainHeads.set( startNodes[i], id );
+                chainHeads.set( endNodes[i], id );
+                record.setNextProp( inserter.createPropertyChain( blocks[i] ) );
+                relStore.updateRecord( record );
+            }
+        }
+    }
+
+    /**
+     * A long per node, in chunks so that it can grow without copying and
+     * hold more than an array can.
+     */
+    private static class LongArray
+    {
+        private static final int CHUNK_BITS = 20;
+        private static final int CHUNK_MASK = (1 << CHUNK_BITS) - 1;
+
+        private final List<long[]> chunks = new ArrayList<long[]>();
+        private long defaultValue;
+
+        LongArray( long defaultValue )
+        {
+            this.defaultValue = defaultValue;
+        }
+
+        long get( long index )
+        {
+            int chunk = (int) (index >>> CHUNK_BITS);
+            return chunk < chunks.size() ? chunks.get( chunk )[(int) (index & CHUNK_MASK)] : defaultValue;
+        }
+
+        void set( long index, long value )
+        {
+            int chunk = (int) (index >>> CHUNK_BITS);
+            while ( chunks.size() <= chunk )
+            {
+                long[] newChunk = new long[1 << CHUNK_BITS];
+                Arrays.fill( newChunk, defaultValue );
+                chunks.add( newChunk );
+            }
+            chunks.get( chunk )[(int) (index & CHUNK_MASK)] = value;
+        }
+
+        void fill( long value )
+        {
+            defaultValue = value;
+            for ( long[] chunk : chunks )
+            {
+                Arrays.fill( chunk, value );
+            }
+        }
+    }
+}
@@ -0,0 +1,153 @@
+/**
+ * Copyright (c) 2002-2012 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.unsafe.batchinsert;
+
+import java.util.Arrays;
+
+/**
+ * Relationships created by a {@link BatchInserterImpl} that aren't written
+ * yet, in the order they were created. The arrays grow as needed, up to the
+ * capacity.
+ */
+class RelationshipBuffer
+{
+    private static final int SIDE_INDEX_BITS = 24;
+    static final int MAX_CAPACITY = 1 << SIDE_INDEX_BITS;
+    private static final int INITIAL_LENGTH = 1024;
+
+    private final int capacity;
+    private long[] ids = new long[0];
+    private long[] firstNodes = new long[0];
+    private long[] secondNodes = new long[0];
+    private int[] types = new int[0];
+    private long[] nextProps = new long[0];
+    private int size;
+
+    RelationshipBuffer( int capacity )
+    {
+        if ( capacity < 1 || capacity > MAX_CAPACITY )
+        {
+            throw new IllegalArgumentException( "capacity=" + capacity );
+        }
+        this.capacity = capacity;
+    }
+
+    void add( long id, long firstNode, long secondNode, int type, long nextProp )
+    {
+        if ( size == ids.length )
+        {
+            int length = Math.min( Math.max( INITIAL_LENGTH, size * 2 ), capacity );
+            ids = Arrays.copyOf( ids, length );
+            firstNodes = Arrays.copyOf( firstNodes, length );
+            secondNodes = Arrays.copyOf( secondNodes, length );
+            types = Arrays.copyOf( types, length );
+            nextProps = Arrays.copyOf( nextProps, length );
+        }
+        ids[size] = id;
+        firstNodes[size] = firstNode;
+        secondNodes[size] = secondNode;
+        types[size] = type;
+        nextProps[size] = nextProp;
+        size++;
+    }
+
+    int size()
+    {
+        return size;
+    }
+
+    boolean isEmpty()
+    {
+        return size == 0;
+    }
+
+    boolean isFull()
+    {
+        return size == capacity;
+    }
+
+    long getId( int index )
+    {
+        return ids[index];
+    }
+
+    long getFirstNode( int index )
+    {
+        return firstNodes[index];
+    }
+
+    long getSecondNode( int index )
+    {
+        return secondNodes[index];
+    }
+
+    int getType( int index )
+    {
+        return types[index];
+    }
+
+    long getNextProp( int index )
+    {
+        return nextProps[index];
+    }
+
+    /**
+     * @return each relationship once for every node it has, a loop only
+     *         once, as the node id shifted up with the index of the
+     *         relationship in the lower bits. Sorted, so the relationships
+     *         of a node follow each other in the order they were created.
+     */
+    long[] sortedSides()
+    {
+        long[] sides = new long[size * 2];
+        int count = 0;
+        for ( int i = 0; i < size; i++ )
+        {
+            sides[count++] = side( firstNodes[i], i );
+            if ( secondNodes[i] != firstNodes[i] )
+            {
+                sides[count++] = side( secondNodes[i], i );
+            }
+        }
+        sides = Arrays.copyOf( sides, count );
+        Arrays.sort( sides );
+        return sides;
+    }
+
+    static long nodeOf( long side )
+    {
+        return side >>> SIDE_INDEX_BITS;
+    }
+
+    static int indexOf( long side )
+    {
+        return (int) (side & (MAX_CAPACITY - 1));
+    }
+
+    private static long side( long node, int index )
+    {
+        return (node << SIDE_INDEX_BITS) | index;
+    }
+
+    void clear()
+    {
+        size = 0;
+    }
+}
@@ -86,6 +86,22 @@ public class TestCacheTypes extends AbstractNeo4jTestCase
         db.shutdown();
     }
     
+    @Test
+    public void testSegmentedCache()
+    {
+        GraphDatabaseAPI db = newDb( SegmentedCacheProvider.NAME );
+        assertEquals( SegmentedCacheProvider.NAME, db.getNodeManager().getCacheType().getName() );
+        db.shutdown();
+    }
+
+    @Test
+    public void testOffHeapCache()
+    {
+        GraphDatabaseAPI db = newDb( OffHeapCacheProvider.NAME );
+        assertEquals( OffHeapCacheProvider.NAME, db.getNodeManager().getCacheType().getName() );
+        db.shutdown();
+    }
+
     @Test
     public void testInvalidCache()
     {
@@ -0,0 +1,257 @@
+/**
+ * Copyright (c) 2002-2012 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel.impl.cache;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.nio.ByteBuffer;
+
+import org.junit.Test;
+import org.neo4j.kernel.impl.util.StringLogger;
+
+public class TestOffHeapCache
+{
+    private static final int SLOT_SIZE = 64;
+
+    @Test
+    public void testCreate()
+    {
+        try
+        {
+            newCache( 0 );
+            fail( "Illegal size should throw exception" );
+        }
+        catch ( IllegalArgumentException e )
+        { // good
+        }
+        try
+        {
+            new OffHeapCache<Entity>( "TestCache", new EntitySerializerImpl(), 1024, 8, StringLogger.DEV_NULL );
+            fail( "Slot size smaller than header should throw exception" );
+        }
+        catch ( IllegalArgumentException e )
+        { // good
+        }
+    }
+
+    @Test
+    public void getReturnsCopyOfPutEntity()
+    {
+        OffHeapCache<Entity> cache = newCache( 100 );
+        Entity entity = new Entity( 1, bytes( 10 ) );
+        cache.put( entity );
+
+        Entity read = cache.get( 1 );
+        assertNotNull( read );
+        assertNotSame( entity, read );
+        assertArrayEquals( entity.data, read.data );
+        assertNull( cache.get( 2 ) );
+        assertEquals( 1, cache.hitCount() );
+        assertEquals( 1, cache.missCount() );
+        assertEquals( 1, cache.size() );
+    }
+
+    @Test
+    public void entitiesCanSpanSeveralSlots()
+    {
+        OffHeapCache<Entity> cache = newCache( 100 );
+        for ( int i = 0; i < 10; i++ )
+        {
+            cache.put( new Entity( i, bytes( i * 50 ) ) );
+        }
+        for ( int i = 0; i < 10; i++ )
+        {
+            assertArrayEquals( bytes( i * 50 ), cache.get( i ).data );
+        }
+    }
+
+    @Test
+    public void evictsWhenFull()
+    {
+        OffHeapCache<Entity> cache = newCache( 10 );
+        for ( int i = 0; i < 100; i++ )
+        {
+            cache.put( new Entity( i, bytes( 10 ) ) );
+        }
+        assertEquals( 10, cache.size() );
+        int found = 0;
+        for ( int i = 0; i < 100; i++ )
+        {
+            if ( cache.get( i ) != null )
+            {
+                found++;
+            }
+        }
+        assertEquals( 10, found );
+        assertNotNull( cache.get( 99 ) );
+    }
+
+    @Test
+    public void referencedEntitiesSurviveEviction()
+    {
+        OffHeapCache<Entity> cache = newCache( 4 );
+        for ( int i = 0; i < 4; i++ )
+        {
+            cache.put( new Entity( i, bytes( 10 ) ) );
+        }
+        // First sweep clears all reference bits and evicts the first one
+        cache.put( new Entity( 4, bytes( 10 ) ) );
+        assertNull( cache.get( 0 ) );
+        assertNotNull( cache.get( 1 ) );
+        cache.put( new Entity( 5, bytes( 10 ) ) );
+        assertNotNull( cache.get( 1 ) );
+        assertNull( cache.get( 2 ) );
+    }
+
+    @Test
+    public void tooLargeEntityIsNotCached()
+    {
+        OffHeapCache<Entity> cache = newCache( 2 );
+        cache.put( new Entity( 1, bytes( 10 ) ) );
+        cache.put( new Entity( 2, bytes( SLOT_SIZE * 3 ) ) );
+        assertNull( cache.get( 2 ) );
+        assertNotNull( cache.get( 1 ) );
+    }
+
+    @Test
+    public void updateSizeWritesBackChanges()
+    {
+        OffHeapCache<Entity> cache = newCache( 100 );
+        cache.put( new Entity( 1, bytes( 10 ) ) );
+        Entity entity = cache.get( 1 );
+        entity.data = bytes( 200 );
+        cache.updateSize( entity, entity.size() );
+        assertArrayEquals( bytes( 200 ), cache.get( 1 ).data );
+    }
+
+    @Test
+    public void staleUpdateEvictsEntity()
+    {
+        OffHeapCache<Entity> cache = newCache( 100 );
+        cache.put( new Entity( 1, bytes( 10 ) ) );
+        Entity first = cache.get( 1 );
+        Entity second = cache.get( 1 );
+        second.data = bytes( 20 );
+        cache.updateSize( second, second.size() );
+        first.data = bytes( 30 );
+        cache.updateSize( first, first.size() );
+        assertNull( cache.get( 1 ) );
+    }
+
+    @Test
+    public void removeAndClear()
+    {
+        OffHeapCache<Entity> cache = newCache( 200 );
+        for ( int i = 0; i < 50; i++ )
+        {
+            cache.put( new Entity( i, bytes( 100 ) ) );
+        }
+        assertArrayEquals( bytes( 100 ), cache.remove( 10 ).data );
+        assertNull( cache.remove( 10 ) );
+        assertNull( cache.get( 10 ) );
+        assertEquals( 49, cache.size() );
+        for ( int i = 0; i < 50; i++ )
+        {
+            assertTrue( i == 10 || cache.get( i ) != null );
+        }
+        cache.clear();
+        assertEquals( 0, cache.size() );
+        assertNull( cache.get( 11 ) );
+        cache.put( new Entity( 11, bytes( 5 ) ) );
+        assertArrayEquals( bytes( 5 ), cache.get( 11 ).data );
+    }
+
+    private OffHeapCache<Entity> newCache( int slots )
+    {
+        return new OffHeapCache<Entity>( "TestCache", new EntitySerializerImpl(), slots * SLOT_SIZE, SLOT_SIZE,
+                StringLogger.DEV_NULL );
+    }
+
+    private static byte[] bytes( int length )
+    {
+        byte[] bytes = new byte[length];
+        for ( int i = 0; i < length; i++ )
+        {
+            bytes[i] = (byte) (i + length);
+        }
+        return bytes;
+    }
+
+    private static class Entity implements EntityWithSize
+    {
+        private final long id;
+        private byte[] data;
+        private int registeredSize;
+
+        Entity( long id, byte[] data )
+        {
+            this.id = id;
+            this.data = data;
+        }
+
+        @Override
+        public int size()
+        {
+            return SizeOfs.withObjectOverhead( 8 + SizeOfs.withReference( SizeOfs.withArrayOverhead( data.length ) ) );
+        }
+
+        @Override
+        public long getId()
+        {
+            return id;
+        }
+
+        @Override
+        public void setRegisteredSize( int size )
+        {
+            this.registeredSize = size;
+        }
+
+        @Override
+        public int getRegisteredSize()
+        {
+            return registeredSize;
+        }
+    }
+
+    private static class EntitySerializerImpl implements EntitySerializer<Entity>
+    {
+        @Override
+        public void write( Entity entity, ByteBuffer target )
+        {
+            target.putInt( entity.data.length );
+            target.put( entity.data );
+        }
+
+        @Override
+        public Entity read( long id, ByteBuffer source )
+        {
+            byte[] data = new byte[source.getInt()];
+            source.get( data );
+            return new Entity( id, data );
+        }
+    }
+}
@@ -0,0 +1,211 @@
+/**
+ * Copyright (c) 2002-2012 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel.impl.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+import org.neo4j.kernel.impl.util.StringLogger;
+
+public class TestSegmentedCache
+{
+    @Test
+    public void testCreate()
+    {
+        try
+        {
+            new SegmentedCache<Entity>( "TestCache", 0, 1, StringLogger.DEV_NULL );
+            fail( "Illegal maxSize should throw exception" );
+        }
+        catch ( IllegalArgumentException e )
+        { // good
+        }
+        try
+        {
+            new SegmentedCache<Entity>( "TestCache", 100, 0, StringLogger.DEV_NULL );
+            fail( "Illegal concurrency level should throw exception" );
+        }
+        catch ( IllegalArgumentException e )
+        { // good
+        }
+    }
+
+    @Test
+    public void putGetRemove()
+    {
+        SegmentedCache<Entity> cache = new SegmentedCache<Entity>( "TestCache", 100000, 4, StringLogger.DEV_NULL );
+        List<Entity> entities = new ArrayList<Entity>();
+        for ( int i = 0; i < 1000; i++ )
+        {
+            Entity entity = new Entity( i, 10 );
+            entities.add( entity );
+            cache.put( entity );
+        }
+        assertEquals( 1000, cache.size() );
+        for ( Entity entity : entities )
+        {
+            assertSame( entity, cache.get( entity.getId() ) );
+        }
+        assertNull( cache.get( 1000 ) );
+        assertEquals( 1000, cache.hitCount() );
+        assertEquals( 1, cache.missCount() );
+
+        assertSame( entities.get( 10 ), cache.remove( 10 ) );
+        assertNull( cache.remove( 10 ) );
+        assertNull( cache.get( 10 ) );
+        assertEquals( 999, cache.size() );
+        cache.clear();
+        assertEquals( 0, cache.size() );
+        assertNull( cache.get( 11 ) );
+    }
+
+    @Test
+    public void evictsWhenGrowingBiggerThanMaxSize()
+    {
+        SegmentedCache<Entity> cache = new SegmentedCache<Entity>( "TestCache", 1000, 1, StringLogger.DEV_NULL );
+        for ( int i = 0; i < 1000; i++ )
+        {
+            cache.put( new Entity( i, 10 ) );
+        }
+        assertTrue( cache.size() <= 100 );
+        assertNotNull( cache.get( 999 ) );
+    }
+
+    @Test
+    public void updatedSizeCanCauseEviction()
+    {
+        SegmentedCache<Entity> cache = new SegmentedCache<Entity>( "TestCache", 100, 1, StringLogger.DEV_NULL );
+        Entity first = new Entity( 1, 10 );
+        Entity second = new Entity( 2, 10 );
+        cache.put( first );
+        cache.put( second );
+        cache.get( 1 );
+        cache.get( 2 );
+        assertEquals( 2, cache.size() );
+
+        second.size = 95;
+        cache.updateSize( second, second.size );
+        assertEquals( 1, cache.size() );
+    }
+
+    @Test
+    public void concurrentReadersAndWriters() throws Exception
+    {
+        final SegmentedCache<Entity> cache = new SegmentedCache<Entity>( "TestCache", 10000, 8, StringLogger.DEV_NULL );
+        final CountDownLatch start = new CountDownLatch( 1 );
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        List<Thread> threads = new ArrayList<Thread>();
+        for ( int t = 0; t < 8; t++ )
+        {
+            final int offset = t;
+            threads.add( new Thread()
+            {
+                @Override
+                public void run()
+                {
+                    try
+                    {
+                        start.await();
+                        for ( int i = 0; i < 20000; i++ )
+                        {
+                            long id = ( i * 8 + offset ) % 5000;
+                            Entity entity = cache.get( id );
+                            if ( entity == null )
+                            {
+                                cache.put( new Entity( id, 10 ) );
+                            }
+                            else if ( entity.getId() != id )
+                            {
+                                throw new AssertionError( "Got " + entity.getId() + " for " + id );
+                            }
+                            if ( i % 100 == 0 )
+                            {
+                                cache.remove( id );
+                            }
+                        }
+                    }
+                    catch ( Throwable e )
+                    {
+                        failure.set( e );
+                    }
+                }
+            } );
+        }
+        for ( Thread thread : threads )
+        {
+            thread.start();
+        }
+        start.countDown();
+        for ( Thread thread : threads )
+        {
+            thread.join();
+        }
+        assertNull( failure.get() );
+        assertEquals( 8 * 20000, cache.hitCount() + cache.missCount() );
+        assertTrue( cache.size() <= 1000 );
+    }
+
+    private static class Entity implements EntityWithSize
+    {
+        private final long id;
+        private int size;
+        private int registeredSize;
+
+        Entity( long id, int size )
+        {
+            this.id = id;
+            this.size = size;
+        }
+
+        @Override
+        public int size()
+        {
+            return size;
+        }
+
+        @Override
+        public long getId()
+        {
+            return id;
+        }
+
+        @Override
+        public void setRegisteredSize( int size )
+        {
+            this.registeredSize = size;
+        }
+
+        @Override
+        public int getRegisteredSize()
+        {
+            return registeredSize;
+        }
+    }
+}
@@ -0,0 +1,307 @@
+/**
+ * Copyright (c) 2002-2012 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel.impl.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.neo4j.graphdb.Direction.BOTH;
+import static org.neo4j.graphdb.Direction.INCOMING;
+import static org.neo4j.graphdb.Direction.OUTGOING;
+import static org.neo4j.helpers.collection.IteratorUtil.count;
+import static org.neo4j.helpers.collection.MapUtil.stringMap;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.neo4j.graphdb.DynamicRelationshipType;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.RelationshipType;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.kernel.EmbeddedGraphDatabase;
+import org.neo4j.kernel.impl.nioneo.store.DenseNodeChainPosition;
+import org.neo4j.kernel.impl.nioneo.store.RelationshipStore;
+import org.neo4j.kernel.impl.util.RelIdArray.DirectionWrapper;
+import org.neo4j.test.ImpermanentGraphDatabase;
+import org.neo4j.test.TargetDirectory;
+
+public class TestDenseNodes
+{
+    private static final int THRESHOLD = 10;
+    private static final RelationshipType A = DynamicRelationshipType.withName( "A" );
+    private static final RelationshipType B = DynamicRelationshipType.withName( "B" );
+    private EmbeddedGraphDatabase db;
+
+    @Before
+    public void doBefore() throws Exception
+    {
+        db = new ImpermanentGraphDatabase( stringMap( "dense_node_threshold", String.valueOf( THRESHOLD ),
+                "relationship_grab_size", String.valueOf( THRESHOLD ) ) );
+    }
+
+    @After
+    public void doAfter() throws Exception
+    {
+        db.shutdown();
+    }
+
+    private RelationshipStore relationshipStore()
+    {
+        return db.getXaDataSourceManager().getNeoStoreDataSource().getNeoStore().getRelationshipStore();
+    }
+
+    private void clearCache()
+    {
+        db.getNodeManager().clearCache();
+    }
+
+    private Node createHub()
+    {
+        Transaction tx = db.beginTx();
+        Node hub = db.createNode();
+        // Stays below the threshold in the first transaction, is made dense in the second
+        for ( int i = 0; i < THRESHOLD / 2; i++ )
+        {
+            hub.createRelationshipTo( db.createNode(), A );
+        }
+        tx.success();
+        tx.finish();
+
+        tx = db.beginTx();
+        for ( int i = THRESHOLD / 2; i < 30; i++ )
+        {
+            hub.createRelationshipTo( db.createNode(), A );
+        }
+        for ( int i = 0; i < 20; i++ )
+        {
+            db.createNode().createRelationshipTo( hub, B );
+        }
+        for ( int i = 0; i < 5; i++ )
+        {
+            hub.createRelationshipTo( db.createNode(), B );
+        }
+        for ( int i = 0; i < 3; i++ )
+        {
+            hub.createRelationshipTo( hub, A );
+        }
+        tx.success();
+        tx.finish();
+        return hub;
+    }
+
+    private void assertRelationshipCounts( Node hub, int aOut, int aIn, int aLoops, int bOut, int bIn )
+    {
+        assertEquals( aOut + aLoops, count( hub.getRelationships( A, OUTGOING ) ) );
+        assertEquals( aIn + aLoops, count( hub.getRelationships( A, INCOMING ) ) );
+        assertEquals( aOut + aIn + aLoops, count( hub.getRelationships( A, BOTH ) ) );
+        assertEquals( bOut, count( hub.getRelationships( B, OUTGOING ) ) );
+        assertEquals( bIn, count( hub.getRelationships( B, INCOMING ) ) );
+        assertEquals( aOut + aIn + aLoops + bOut + bIn, count( hub.getRelationships() ) );
+    }
+
+    private void assertDegrees( Node node, int aOut, int aIn, int aLoops, int bOut, int bIn )
+    {
+        assertEquals( aOut + aLoops, node.getDegree( OUTGOING, A ) );
+        assertEquals( aIn + aLoops, node.getDegree( INCOMING, A ) );
+        assertEquals( aOut + aIn + aLoops, node.getDegree( A ) );
+        assertEquals( bOut, node.getDegree( OUTGOING, B ) );
+        assertEquals( bIn, node.getDegree( INCOMING, B ) );
+        assertEquals( aOut + aLoops + bOut, node.getDegree( OUTGOING ) );
+        assertEquals( aOut + aIn + aLoops + bOut + bIn, node.getDegree() );
+    }
+
+    @Test
+    public void shouldGetRelationshipsOfDenseNodeByTypeAndDirection() throws Exception
+    {
+        Node hub = createHub();
+        assertRelationshipCounts( hub, 30, 0, 3, 5, 20 );
+        clearCache();
+        assertRelationshipCounts( hub, 30, 0, 3, 5, 20 );
+    }
+
+    @Test
+    public void shouldOnlyLoadTheChainsAskedFor() throws Exception
+    {
+        Node hub = createHub();
+        clearCache();
+
+        assertEquals( 20, count( hub.getRelationships( B, INCOMING ) ) );
+        assertTrue( hub.hasRelationship( B, OUTGOING ) );
+        NodeImpl hubImpl = db.getNodeManager().getNodeIfCached( hub.getId() );
+        assertTrue( hubImpl.getRelChainPosition() instanceof DenseNodeChainPosition );
+        assertTrue( hubImpl.hasMoreRelationshipsToLoad( db.getNodeManager(), DirectionWrapper.OUTGOING,
+                new RelationshipType[] { A } ) );
+        assertFalse( hubImpl.hasMoreRelationshipsToLoad( db.getNodeManager(), DirectionWrapper.INCOMING,
+                new RelationshipType[] { B } ) );
+    }
+
+    @Test
+    public void shouldAddToAndDeleteFromDenseNode() throws Exception
+    {
+        Node hub = createHub();
+        Transaction tx = db.beginTx();
+        hub.createRelationshipTo( db.createNode(), B );
+        db.createNode().createRelationshipTo( hub, A );
+        int deleted = 0;
+        for ( Relationship relationship : hub.getRelationships( B, INCOMING ) )
+        {
+            if ( deleted++ < 10 )
+            {
+                relationship.delete();
+            }
+        }
+        tx.success();
+        tx.finish();
+        assertRelationshipCounts( hub, 30, 1, 3, 6, 10 );
+        clearCache();
+        assertRelationshipCounts( hub, 30, 1, 3, 6, 10 );
+    }
+
+    @Test
+    public void shouldCountRelationshipsOfDenseNodeWithoutLoadingThem() throws Exception
+    {
+        Node hub = createHub();
+        clearCache();
+
+        assertDegrees( hub, 30, 0, 3, 5, 20 );
+        assertEquals( 0, hub.getDegree( DynamicRelationshipType.withName( "C" ) ) );
+        assertNull( db.getNodeManager().getNodeIfCached( hub.getId() ).getRelationshipIds() );
+
+        // Counted from what's loaded once all of them are
+        assertRelationshipCounts( hub, 30, 0, 3, 5, 20 );
+        assertDegrees( hub, 30, 0, 3, 5, 20 );
+    }
+
+    @Test
+    public void shouldOnlyHaveCheapDegreeWhenDenseOrCached() throws Exception
+    {
+        Node hub = createHub();
+        Node sparse = hub.getRelationships( B, INCOMING ).iterator().next().getStartNode();
+        clearCache();
+        NodeManager nodeManager = db.getNodeManager();
+
+        assertTrue( nodeManager.hasCheapDegree( hub, OUTGOING, A ) );
+        assertTrue( nodeManager.hasCheapDegree( hub, BOTH ) );
+        assertFalse( nodeManager.hasCheapDegree( sparse, BOTH ) );
+        assertFalse( nodeManager.hasCheapDegree( sparse, OUTGOING, B ) );
+
+        count( sparse.getRelationships() );
+        assertTrue( nodeManager.hasCheapDegree( sparse, BOTH ) );
+        assertTrue( nodeManager.hasCheapDegree( sparse, OUTGOING, B ) );
+    }
+
+    @Test
+    public void shouldCountRelationshipsChangedInTransaction() throws Exception
+    {
+        Node hub = createHub();
+        Node sparse = hub.getRelationships( B, INCOMING ).iterator().next().getStartNode();
+        clearCache();
+
+        Transaction tx = db.beginTx();
+        int deleted = 0;
+        for ( Relationship relationship : hub.getRelationships( A, OUTGOING ) )
+        {
+            if ( !relationship.getStartNode().equals( relationship.getEndNode() ) && deleted++ < 10 )
+            {
+                relationship.delete();
+            }
+        }
+        hub.createRelationshipTo( sparse, A );
+        hub.createRelationshipTo( db.createNode(), B );
+        assertDegrees( hub, 21, 0, 3, 6, 20 );
+        assertEquals( 2, sparse.getDegree() );
+        assertEquals( 1, sparse.getDegree( INCOMING ) );
+        assertEquals( 1, sparse.getDegree( OUTGOING, B ) );
+        tx.success();
+        tx.finish();
+
+        assertDegrees( hub, 21, 0, 3, 6, 20 );
+        clearCache();
+        assertDegrees( hub, 21, 0, 3, 6, 20 );
+        assertEquals( 2, sparse.getDegree() );
+        assertEquals( 0, sparse.getDegree( OUTGOING, A ) );
+    }
+
+    @Test
+    public void shouldOnlyLookForGroupsOnceThereAreDenseNodes() throws Exception
+    {
+        assertFalse( relationshipStore().mayHaveGroupRecords() );
+        createHub();
+        assertTrue( relationshipStore().mayHaveGroupRecords() );
+    }
+
+    @Test
+    public void shouldKeepUsingDenseNodesWhenReopenedWithoutThreshold() throws Exception
+    {
+        db.shutdown();
+        String storeDir = TargetDirectory.forTest( TestDenseNodes.class ).directory( "reopened", true ).getAbsolutePath();
+        db = new EmbeddedGraphDatabase( storeDir, stringMap( "dense_node_threshold", String.valueOf( THRESHOLD ) ) );
+        long hubId = createHub().getId();
+        db.shutdown();
+
+        db = new EmbeddedGraphDatabase( storeDir );
+        Node hub = db.getNodeById( hubId );
+        assertTrue( relationshipStore().mayHaveGroupRecords() );
+        Transaction tx = db.beginTx();
+        hub.getRelationships( A, OUTGOING ).iterator().next().delete();
+        hub.createRelationshipTo( db.createNode(), B );
+        db.createNode().createRelationshipTo( hub, B );
+        tx.success();
+        tx.finish();
+        clearCache();
+        assertDegrees( hub, 29, 0, 3, 6, 21 );
+        assertRelationshipCounts( hub, 29, 0, 3, 6, 21 );
+
+        // A store that never had dense nodes doesn't look for them
+        db.shutdown();
+        storeDir = TargetDirectory.forTest( TestDenseNodes.class ).directory( "sparse", true ).getAbsolutePath();
+        db = new EmbeddedGraphDatabase( storeDir );
+        db.shutdown();
+        db = new EmbeddedGraphDatabase( storeDir );
+        assertFalse( relationshipStore().mayHaveGroupRecords() );
+    }
+
+    @Test
+    public void shouldDeleteDenseNodeAfterItsRelationships() throws Exception
+    {
+        Node hub = createHub();
+        clearCache();
+        Transaction tx = db.beginTx();
+        for ( Relationship relationship : hub.getRelationships( A, OUTGOING ) )
+        {
+            relationship.delete();
+        }
+        tx.success();
+        tx.finish();
+        clearCache();
+        assertRelationshipCounts( hub, 0, 0, 0, 5, 20 );
+
+        tx = db.beginTx();
+        for ( Relationship relationship : hub.getRelationships() )
+        {
+            relationship.delete();
+        }
+        hub.delete();
+        tx.success();
+        tx.finish();
+    }
+}
@@ -24,11 +24,14 @@ import static org.hamcrest.CoreMatchers.nullValue;
 import static org.hamcrest.core.IsNot.not;
 import static org.junit.Assert.*;
 import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyLong;
 import static org.mockito.Mockito.*;
 
 import org.junit.Test;
 import org.neo4j.graphdb.NotFoundException;
+import org.neo4j.graphdb.RelationshipType;
 import org.neo4j.kernel.impl.nioneo.store.InvalidRecordException;
+import org.neo4j.kernel.impl.nioneo.store.SingleChainPosition;
 import org.neo4j.kernel.impl.util.RelIdArray;
 
 public class TestOperationsOnDeletedRelationships
@@ -45,7 +48,10 @@ public class TestOperationsOnDeletedRelationships
         Throwable exceptionCaught = null;
 
         // Given something tries to load relationships, throw InvalidRecordException
-        when( nodeManager.getMoreRelationships( any( NodeImpl.class ) ) ).thenThrow( new InvalidRecordException( "LURING!" ) );
+        when( nodeManager.getRelationshipChainPosition( any( NodeImpl.class ) ) ).thenReturn(
+                new SingleChainPosition( 0l ) );
+        when( nodeManager.getMoreRelationships( any( NodeImpl.class ), anyLong() ) ).thenThrow(
+                new InvalidRecordException( "LURING!" ) );
 
         // When
         try {
@@ -69,17 +75,17 @@ public class TestOperationsOnDeletedRelationships
         Throwable exceptionCaught = null;
 
         // This makes fromNode think there are more relationships to be loaded
-        fromNode.setRelChainPosition( 1337l );
+        fromNode.setRelChainPosition( new SingleChainPosition( 1337l ) );
 
         // This makes nodeManager pretend that relationships have been deleted
-        when( nodeManager.getMoreRelationships( any( NodeImpl.class ) ) ).thenThrow( new InvalidRecordException(
-                "LURING!" ) );
+        when( nodeManager.getMoreRelationships( any( NodeImpl.class ), anyLong() ) ).thenThrow(
+                new InvalidRecordException( "LURING!" ) );
 
 
         // When
         try
         {
-           fromNode.getMoreRelationships( nodeManager );
+           fromNode.getMoreRelationships( nodeManager, RelIdArray.DirectionWrapper.BOTH, new RelationshipType[0] );
         } catch(Throwable e)
         {
             exceptionCaught = e;
@@ -32,6 +32,7 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Random;
 
 import org.junit.Test;
 import org.neo4j.kernel.impl.util.RelIdArray;
@@ -143,6 +144,59 @@ public class TestRelIdArray
                 0L, 1L, justOverIntMax, justOverIntMax+1 ) ), new HashSet<Long>( asList( all ) ) );
     }
     
+    @Test
+    public void shouldPackLargeBlocksWhenShrinking() throws Exception
+    {
+        RelIdArray array = new RelIdArray( "KNOWS" );
+        List<Long> expected = new ArrayList<Long>();
+        Random random = new Random( 12345 );
+        long id = (long) Math.pow( 2, 32 )-50000;
+        for ( int i = 0; i < 1000; i++ )
+        {
+            // Mostly ascending, but with the odd jump back and one large gap
+            id = i == 500 ? id+(long) Math.pow( 2, 31 ) : id+random.nextInt( 100 )-5;
+            array.add( id, OUTGOING );
+            expected.add( id );
+        }
+        int sizeBefore = array.size();
+        List<Long> idsBefore = asList( array );
+        
+        RelIdArray shrunk = array.shrink();
+        assertTrue( "Expected " + shrunk.size() + " to be much less than " + sizeBefore,
+                shrunk.size() < sizeBefore/2 );
+        assertEquals( idsBefore, asList( shrunk ) );
+        assertEquals( new HashSet<Long>( expected ), new HashSet<Long>( idsBefore ) );
+    }
+    
+    @Test
+    public void shouldModifyPackedBlocks() throws Exception
+    {
+        RelIdArray array = new RelIdArray( null );
+        List<Long> expected = new ArrayList<Long>();
+        for ( long id = 0; id < 300; id++ )
+        {
+            array.add( id*3, INCOMING );
+            expected.add( id*3 );
+        }
+        RelIdArray shrunk = array.shrink();
+        
+        RelIdArray add = new RelIdArray( null );
+        add.add( 5000, INCOMING );
+        Collection<Long> remove = new HashSet<Long>( Arrays.asList( 0L, 3L, 600L ) );
+        List<Long> allIds = asList( RelIdArray.from( shrunk, add, remove ) );
+        Collections.sort( allIds );
+        List<Long> expectedAfterChange = new ArrayList<Long>( expected );
+        expectedAfterChange.removeAll( remove );
+        expectedAfterChange.add( 5000L );
+        assertEquals( expectedAfterChange, allIds );
+        // Removing shouldn't affect the packed source
+        assertEquals( expected, asList( shrunk ) );
+        
+        shrunk.add( 6000, INCOMING );
+        expected.add( 6000L );
+        assertEquals( expected, asList( shrunk ) );
+    }
+    
     private List<Long> asList( RelIdArray ids )
     {
         List<Long> result = new ArrayList<Long>();
@@ -30,7 +30,10 @@ import org.neo4j.test.ResourceCollection;
 import org.neo4j.test.TargetDirectory;
 
 import static java.nio.channels.FileChannel.MapMode.READ_WRITE;
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
 public class MappedPersistenceWindowTest
@@ -120,4 +123,113 @@ public class MappedPersistenceWindowTest
         // then
         assertTrue( wasClosed );
     }
+
+    @Test
+    public void shouldNotCloseWindowWithOptimisticReader() throws Exception
+    {
+        // given
+        String filename = new File( directory.directory(), "mapped.file" ).getAbsolutePath();
+        RandomAccessFile file = resources.add( new RandomAccessFile( filename, "rw" ) );
+        MappedPersistenceWindow window = new MappedPersistenceWindow( 0, 8, 16, file.getChannel(), READ_WRITE );
+
+        window.markAsInUse();
+        MappedPersistenceWindow.ReadView view = window.startOptimisticRead();
+        assertNotNull( view );
+
+        // when
+        boolean wasClosed = window.writeOutAndCloseIfFree( false );
+
+        // then
+        assertFalse( wasClosed );
+        view.release();
+        assertTrue( window.writeOutAndCloseIfFree( false ) );
+    }
+
+    @Test
+    public void shouldNotReadOptimisticallyFromLockedWindow() throws Exception
+    {
+        // given
+        String filename = new File( directory.directory(), "mapped.file" ).getAbsolutePath();
+        RandomAccessFile file = resources.add( new RandomAccessFile( filename, "rw" ) );
+        MappedPersistenceWindow window = new MappedPersistenceWindow( 0, 8, 16, file.getChannel(), READ_WRITE );
+        window.markAsInUse();
+        window.lock( OperationType.WRITE );
+
+        // when
+        window.markAsInUse();
+        MappedPersistenceWindow.ReadView view = window.startOptimisticRead();
+
+        // then
+        assertNull( view );
+    }
+
+    @Test
+    public void optimisticReadersShouldHaveBufferPositionsOfTheirOwn() throws Exception
+    {
+        // given
+        String filename = new File( directory.directory(), "mapped.file" ).getAbsolutePath();
+        RandomAccessFile file = resources.add( new RandomAccessFile( filename, "rw" ) );
+        MappedPersistenceWindow window = new MappedPersistenceWindow( 0, 8, 16, file.getChannel(), READ_WRITE );
+        window.markAsInUse();
+        window.lock( OperationType.WRITE );
+        window.getOffsettedBuffer( 0 ).putLong( 10 );
+        window.getOffsettedBuffer( 1 ).putLong( 11 );
+        window.unLock();
+
+        // when
+        window.markAsInUse();
+        window.markAsInUse();
+        MappedPersistenceWindow.ReadView first = window.startOptimisticRead();
+        MappedPersistenceWindow.ReadView second = window.startOptimisticRead();
+        Buffer firstBuffer = first.getOffsettedBuffer( 0 );
+        Buffer secondBuffer = second.getOffsettedBuffer( 1 );
+
+        // then
+        assertEquals( 10, firstBuffer.getLong() );
+        assertEquals( 11, secondBuffer.getLong() );
+        first.release();
+        second.release();
+    }
+
+    @Test( timeout = 10000 )
+    public void optimisticReaderShouldBeAbleToLockTheWindowItReads() throws Exception
+    {
+        // given
+        String filename = new File( directory.directory(), "mapped.file" ).getAbsolutePath();
+        RandomAccessFile file = resources.add( new RandomAccessFile( filename, "rw" ) );
+        MappedPersistenceWindow window = new MappedPersistenceWindow( 0, 8, 16, file.getChannel(), READ_WRITE );
+        window.markAsInUse();
+        MappedPersistenceWindow.ReadView view = window.startOptimisticRead();
+
+        // when
+        window.markAsInUse();
+        window.lock( OperationType.WRITE );
+        window.getOffsettedBuffer( 0 ).putLong( 10 );
+        window.unLock();
+
+        // then
+        assertEquals( 10, view.getOffsettedBuffer( 0 ).getLong() );
+        view.release();
+        assertTrue( window.writeOutAndCloseIfFree( false ) );
+    }
+
+    @Test
+    public void readViewShouldLeaveForcingAndClosingToItsWindow() throws Exception
+    {
+        // given
+        String filename = new File( directory.directory(), "mapped.file" ).getAbsolutePath();
+        RandomAccessFile file = resources.add( new RandomAccessFile( filename, "rw" ) );
+        MappedPersistenceWindow window = new MappedPersistenceWindow( 0, 8, 16, file.getChannel(), READ_WRITE );
+        window.markAsInUse();
+        MappedPersistenceWindow.ReadView view = window.startOptimisticRead();
+
+        // when
+        view.force();
+        view.close();
+
+        // then
+        assertFalse( window.writeOutAndCloseIfFree( false ) );
+        view.release();
+        assertTrue( window.writeOutAndCloseIfFree( false ) );
+    }
 }
@@ -22,6 +22,7 @@ package org.neo4j.kernel.impl.nioneo.store;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 import static org.neo4j.helpers.Exceptions.launderedException;
 
@@ -123,6 +124,54 @@ public class PersistenceWindowPoolTest
         otherThread.shutdown();
     }
 
+    @Test
+    public void shouldReadAheadRecordsWhereThereIsNoWindow() throws Exception
+    {
+        // given
+        PersistenceWindowPool pool = newPoolWithRecords( "readahead", 100 );
+
+        // when
+        PersistenceWindow window = pool.readAhead( 50, 40, 60 );
+
+        // then
+        assertEquals( 40, window.position() );
+        assertEquals( 20, window.size() );
+        assertEquals( 55, window.getOffsettedBuffer( 55 ).getLong() );
+        pool.release( window );
+        pool.close();
+    }
+
+    @Test
+    public void shouldNotReadAheadRecordsInUseOrBeyondTheFile() throws Exception
+    {
+        // given
+        PersistenceWindowPool pool = newPoolWithRecords( "readaheadinuse", 100 );
+        PersistenceWindow row = pool.acquire( 45, OperationType.WRITE );
+
+        // when
+        PersistenceWindow window = pool.readAhead( 90, 90, 120 );
+        PersistenceWindow windowAfterRow = pool.readAhead( 50, 40, 60 );
+
+        // then
+        assertEquals( 10, window.size() );
+        assertEquals( 46, windowAfterRow.position() );
+        assertEquals( 14, windowAfterRow.size() );
+        assertNull( pool.readAhead( 45, 40, 60 ) );
+        pool.release( row );
+        pool.close();
+    }
+
+    private PersistenceWindowPool newPoolWithRecords( String name, int records ) throws Exception
+    {
+        String filename = new File( directory.directory(), name ).getAbsolutePath();
+        RandomAccessFile file = resources.add( new RandomAccessFile( filename, "rw" ) );
+        for ( long i = 0; i < records; i++ )
+        {
+            file.writeLong( i );
+        }
+        return new PersistenceWindowPool( "test.store", 8, file.getChannel(), 0, false, false );
+    }
+
     private void writeBufferContents( final int blockSize, final PersistenceWindow t1Row )
     {
         Buffer buffer = t1Row.getBuffer();
@@ -0,0 +1,189 @@
+/**
+ * Copyright (c) 2002-2012 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel.impl.nioneo.store;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.neo4j.helpers.collection.IteratorUtil.count;
+import static org.neo4j.helpers.collection.MapUtil.stringMap;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.After;
+import org.junit.Test;
+import org.neo4j.graphdb.DynamicRelationshipType;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.RelationshipType;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.test.ImpermanentGraphDatabase;
+import org.neo4j.tooling.GlobalGraphOperations;
+
+public class TestBulkRecordReads
+{
+    private static final RelationshipType KNOWS = DynamicRelationshipType.withName( "KNOWS" );
+    private ImpermanentGraphDatabase db;
+
+    @After
+    public void doAfter() throws Exception
+    {
+        db.shutdown();
+    }
+
+    @Test
+    public void shouldReadUnmappedRecordsInOneGo() throws Exception
+    {
+        db = new ImpermanentGraphDatabase( stringMap( "neostore.nodestore.db.mapped_memory", "0M" ) );
+        Set<Long> deleted = createNodesAndDeleteEveryThird( 100 );
+        NodeStore nodeStore = neoStore().getNodeStore();
+        int readAheadsBefore = nodeStore.getWindowPoolStats().getReadAheadCount();
+
+        NodeRecord[] records = new NodeRecord[50];
+        int count = nodeStore.loadLightNodes( 1, records );
+        assertTrue( "Only read " + count + " records", count > 1 && count <= records.length );
+        assertEquals( readAheadsBefore + 1, nodeStore.getWindowPoolStats().getReadAheadCount() );
+        for ( int i = 0; i < count; i++ )
+        {
+            long id = 1 + i;
+            if ( deleted.contains( id ) )
+            {
+                assertNull( records[i] );
+            }
+            else
+            {
+                assertEquals( id, records[i].getId() );
+            }
+        }
+        assertEquals( 0, nodeStore.loadLightNodes( nodeStore.getHighId() + 1, records ) );
+    }
+
+    @Test
+    public void shouldReadMappedRecordsInOneGo() throws Exception
+    {
+        db = new ImpermanentGraphDatabase();
+        Node node = createNodeWithRelationships( 20 );
+        RelationshipStore relStore = neoStore().getRelationshipStore();
+
+        RelationshipRecord[] records = new RelationshipRecord[10];
+        assertEquals( 10, relStore.getLightRels( 0, records ) );
+        for ( RelationshipRecord record : records )
+        {
+            assertNotNull( record );
+            assertEquals( node.getId(), record.getFirstNode() );
+        }
+    }
+
+    @Test
+    public void shouldScanAllNodesAndRelationshipsWithoutMapping() throws Exception
+    {
+        db = new ImpermanentGraphDatabase( stringMap( "neostore.nodestore.db.mapped_memory", "0M",
+                "neostore.relationshipstore.db.mapped_memory", "0M" ) );
+        shouldScanAllNodesAndRelationships();
+    }
+
+    @Test
+    public void shouldScanAllNodesAndRelationshipsWithMapping() throws Exception
+    {
+        db = new ImpermanentGraphDatabase();
+        shouldScanAllNodesAndRelationships();
+    }
+
+    private void shouldScanAllNodesAndRelationships()
+    {
+        // The reference node as well
+        Set<Long> deleted = createNodesAndDeleteEveryThird( 1000 );
+        createNodeWithRelationships( 600 );
+        GlobalGraphOperations operations = GlobalGraphOperations.at( db );
+        int nodes = 1 + 1000 - deleted.size() + 1 + 600;
+        for ( Node node : operations.getAllNodes() )
+        {
+            assertTrue( node.getId() + " was deleted", !deleted.contains( node.getId() ) );
+        }
+        assertEquals( nodes, count( operations.getAllNodes() ) );
+        assertEquals( 600, count( operations.getAllRelationships() ) );
+
+        // Changes in the current transaction are seen too
+        Transaction tx = db.beginTx();
+        try
+        {
+            db.createNode().createRelationshipTo( db.createNode(), KNOWS );
+            assertEquals( nodes + 2, count( operations.getAllNodes() ) );
+            assertEquals( 601, count( operations.getAllRelationships() ) );
+        }
+        finally
+        {
+            tx.finish();
+        }
+
+        db.getNodeManager().clearCache();
+        assertEquals( nodes, count( operations.getAllNodes() ) );
+        assertEquals( 600, count( operations.getAllRelationships() ) );
+        for ( Relationship relationship : operations.getAllRelationships() )
+        {
+            assertEquals( KNOWS.name(), relationship.getType().name() );
+        }
+    }
+
+    private Set<Long> createNodesAndDeleteEveryThird( int count )
+    {
+        Transaction tx = db.beginTx();
+        Set<Long> deleted = new HashSet<Long>();
+        for ( int i = 0; i < count; i++ )
+        {
+            Node node = db.createNode();
+            if ( i % 3 == 0 )
+            {
+                deleted.add( node.getId() );
+            }
+        }
+        tx.success();
+        tx.finish();
+
+        tx = db.beginTx();
+        for ( long id : deleted )
+        {
+            db.getNodeById( id ).delete();
+        }
+        tx.success();
+        tx.finish();
+        return deleted;
+    }
+
+    private Node createNodeWithRelationships( int count )
+    {
+        Transaction tx = db.beginTx();
+        Node node = db.createNode();
+        for ( int i = 0; i < count; i++ )
+        {
+            node.createRelationshipTo( db.createNode(), KNOWS );
+        }
+        tx.success();
+        tx.finish();
+        return node;
+    }
+
+    private NeoStore neoStore()
+    {
+        return db.getXaDataSourceManager().getNeoStoreDataSource().getNeoStore();
+    }
+}
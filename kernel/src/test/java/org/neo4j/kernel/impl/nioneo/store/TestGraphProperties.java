@@ -256,7 +256,7 @@ public class TestGraphProperties
         tx.finish();
         db.shutdown();
         
-        removeLastNeoStoreRecord( storeDir );
+        removeLastNeoStoreRecords( storeDir );
         
         db = (GraphDatabaseAPI) new GraphDatabaseFactory().newEmbeddedDatabase( storeDir );
         PropertyContainer properties = db.getNodeManager().getGraphProperties();
@@ -275,13 +275,14 @@ public class TestGraphProperties
         db.shutdown();
     }
 
-    private void removeLastNeoStoreRecord( String storeDir ) throws IOException
+    private void removeLastNeoStoreRecords( String storeDir ) throws IOException
     {
-        // Remove the last record, next startup will look like as if we're upgrading an old store
+        // Remove the "next prop" record and the "dense nodes" one after it, next startup
+        // will look like as if we're upgrading an old store
         File neoStoreFile = new File( storeDir, NeoStore.DEFAULT_NAME );
         RandomAccessFile raFile = new RandomAccessFile( neoStoreFile, "rw" );
         FileChannel channel = raFile.getChannel();
-        channel.position( NeoStore.RECORD_SIZE*6/*position of "next prop"*/ );
+        channel.position( NeoStore.RECORD_SIZE*7/*after "dense nodes"*/ );
         int trail = (int) (channel.size()-channel.position());
         ByteBuffer trailBuffer = null;
         if ( trail > 0 )
@@ -309,7 +310,7 @@ public class TestGraphProperties
 
         assertEquals( 0, new ProcessStreamHandler( process, true ).waitForResult() );
 
-        removeLastNeoStoreRecord( storeDir );
+        removeLastNeoStoreRecords( storeDir );
         GraphDatabaseAPI db = (GraphDatabaseAPI) new GraphDatabaseFactory().newEmbeddedDatabase( storeDir );
         PropertyContainer properties = db.getNodeManager().getGraphProperties();
         assertFalse( properties.getPropertyKeys().iterator().hasNext() ); 
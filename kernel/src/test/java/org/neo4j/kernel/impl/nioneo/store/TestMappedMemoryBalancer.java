@@ -0,0 +1,128 @@
+/**
+ * Copyright (c) 2002-2012 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel.impl.nioneo.store;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.neo4j.kernel.impl.util.StringLogger;
+import org.neo4j.test.ResourceCollection;
+import org.neo4j.test.TargetDirectory;
+
+public class TestMappedMemoryBalancer
+{
+    private static final int BLOCK_SIZE = 8;
+    // Large enough that even the quarter sized file is split into bricks of several blocks
+    private static final long FILE_SIZE = BLOCK_SIZE * 100000;
+    private static final long TOTAL_MEMORY = FILE_SIZE;
+
+    private static final TargetDirectory target = TargetDirectory.forTest( TestMappedMemoryBalancer.class );
+    @Rule
+    public final TargetDirectory.TestDirectory directory = target.testDirectory();
+    @Rule
+    public final ResourceCollection resources = new ResourceCollection();
+
+    @Test
+    public void shouldDivideMemoryAccordingToFileSizesAtStart() throws Exception
+    {
+        // given
+        PersistenceWindowPool big = newPool( "big", FILE_SIZE );
+        PersistenceWindowPool small = newPool( "small", FILE_SIZE / 4 );
+        MappedMemoryBalancer balancer = newBalancer( big, small );
+
+        // when
+        balancer.start();
+
+        // then
+        assertTrue( big.getAvailableMemory() > small.getAvailableMemory() );
+        assertTotalWithinBudget( big, small );
+        assertEquals( 1, balancer.getRecentDecisions().size() );
+    }
+
+    @Test
+    public void shouldMoveMemoryOverToPoolWithMisses() throws Exception
+    {
+        // given
+        PersistenceWindowPool busy = newPool( "busy", FILE_SIZE );
+        PersistenceWindowPool idle = newPool( "idle", FILE_SIZE );
+        MappedMemoryBalancer balancer = newBalancer( busy, idle );
+        balancer.start();
+        long busyMemoryBefore = busy.getAvailableMemory();
+        long idleMemoryBefore = idle.getAvailableMemory();
+
+        // when
+        for ( int i = 0; i < 1000; i++ )
+            busy.release( busy.acquire( i, OperationType.READ ) );
+        balancer.rebalance();
+
+        // then
+        assertTrue( busy.getAvailableMemory() > busyMemoryBefore );
+        assertTrue( idle.getAvailableMemory() < idleMemoryBefore );
+        assertTotalWithinBudget( busy, idle );
+        assertEquals( 1, balancer.getRebalanceCount() );
+    }
+
+    @Test
+    public void shouldNotRebalanceWithoutMisses() throws Exception
+    {
+        // given
+        PersistenceWindowPool first = newPool( "first", FILE_SIZE );
+        PersistenceWindowPool second = newPool( "second", FILE_SIZE );
+        MappedMemoryBalancer balancer = newBalancer( first, second );
+        balancer.start();
+        long firstMemoryBefore = first.getAvailableMemory();
+
+        // when
+        balancer.rebalance();
+
+        // then
+        assertEquals( firstMemoryBefore, first.getAvailableMemory() );
+        assertEquals( 0, balancer.getRebalanceCount() );
+    }
+
+    private void assertTotalWithinBudget( PersistenceWindowPool... pools )
+    {
+        long total = 0;
+        for ( PersistenceWindowPool pool : pools )
+            total += pool.getAvailableMemory();
+        assertTrue( "Total " + total + " exceeds " + TOTAL_MEMORY, total <= TOTAL_MEMORY );
+    }
+
+    private MappedMemoryBalancer newBalancer( PersistenceWindowPool... pools )
+    {
+        MappedMemoryBalancer balancer = new MappedMemoryBalancer( TOTAL_MEMORY, 0, StringLogger.DEV_NULL );
+        for ( PersistenceWindowPool pool : pools )
+            balancer.register( pool );
+        return balancer;
+    }
+
+    private PersistenceWindowPool newPool( String name, long fileSize ) throws Exception
+    {
+        String filename = new File( directory.directory(), name ).getAbsolutePath();
+        RandomAccessFile file = resources.add( new RandomAccessFile( filename, "rw" ) );
+        file.setLength( fileSize );
+        return new PersistenceWindowPool( name, BLOCK_SIZE, file.getChannel(), fileSize / 2, true, false );
+    }
+}
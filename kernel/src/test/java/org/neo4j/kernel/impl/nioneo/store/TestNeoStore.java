@@ -373,7 +373,8 @@ public class TestNeoStore extends AbstractNeo4jTestCase
 
     private AtomicLong getPosition( NeoStoreXaConnection xaCon, long node )
     {
-        return new AtomicLong( xaCon.getWriteTransaction().getRelationshipChainPosition( node ) );
+        return new AtomicLong( xaCon.getWriteTransaction().getRelationshipChainPosition( node ).position(
+                DirectionWrapper.BOTH, null ) );
     }
 
     @SuppressWarnings( "unchecked" )
@@ -25,7 +25,6 @@ import java.util.Arrays;
 import java.util.List;
 
 import org.junit.Assume;
-import org.junit.Ignore;
 import org.junit.Test;
 import org.neo4j.graphdb.DynamicRelationshipType;
 import org.neo4j.graphdb.Node;
@@ -523,7 +522,6 @@ public class TestPropertyBlocks extends AbstractNeo4jTestCase
     }
 
     @Test
-    @Ignore( "Assumes space to put a block is searched along the whole chain - that is not the case currently" )
     public void testAdditionsHappenAtTheFirstRecordWhenFits()
     {
         Node node = getGraphDb().createNode();
@@ -611,7 +609,6 @@ public class TestPropertyBlocks extends AbstractNeo4jTestCase
     }
 
     @Test
-    @Ignore( "Assumes space to put a block is searched along the whole chain - that is not the case currently" )
     public void testPackingAndOverflowingValueChangeInMiddleRecord()
     {
         Node node = getGraphDb().createNode();
@@ -0,0 +1,188 @@
+/**
+ * Copyright (c) 2002-2012 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel.impl.nioneo.store;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.neo4j.helpers.collection.MapUtil.stringMap;
+
+import org.junit.After;
+import org.junit.Test;
+import org.neo4j.graphdb.DynamicRelationshipType;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.RelationshipType;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.test.ImpermanentGraphDatabase;
+
+public class TestRecordCursors
+{
+    private static final RelationshipType KNOWS = DynamicRelationshipType.withName( "KNOWS" );
+    private ImpermanentGraphDatabase db;
+
+    @After
+    public void doAfter() throws Exception
+    {
+        db.shutdown();
+    }
+
+    @Test
+    public void shouldReadSameNodesAsRecordsWithoutMapping() throws Exception
+    {
+        db = new ImpermanentGraphDatabase( stringMap( "neostore.nodestore.db.mapped_memory", "0M" ) );
+        shouldReadSameNodesAsRecords();
+    }
+
+    @Test
+    public void shouldReadSameNodesAsRecordsWithMapping() throws Exception
+    {
+        db = new ImpermanentGraphDatabase();
+        shouldReadSameNodesAsRecords();
+    }
+
+    private void shouldReadSameNodesAsRecords()
+    {
+        createGraph();
+        NodeStore nodeStore = neoStore().getNodeStore();
+        NodeRecordCursor cursor = nodeStore.newRecordCursor( 16 );
+        int count = 0;
+        for ( long id = 0; id < nodeStore.getHighId(); id++ )
+        {
+            NodeRecord record = nodeStore.forceGetRecord( id );
+            if ( !record.inUse() )
+            {
+                assertFalse( cursor.moveTo( id ) );
+                continue;
+            }
+            assertTrue( cursor.next() );
+            assertEquals( id, cursor.getId() );
+            assertEquals( record.getNextRel(), cursor.getNextRel() );
+            assertEquals( record.getNextProp(), cursor.getNextProp() );
+            count++;
+        }
+        assertFalse( cursor.next() );
+        assertTrue( count > 100 );
+
+        cursor.reset();
+        assertTrue( cursor.next() );
+        assertEquals( 0, cursor.getId() );
+    }
+
+    @Test
+    public void shouldReadSameRelationshipsAsRecordsWithoutMapping() throws Exception
+    {
+        db = new ImpermanentGraphDatabase( stringMap( "neostore.relationshipstore.db.mapped_memory", "0M",
+                "dense_node_threshold", "10" ) );
+        shouldReadSameRelationshipsAsRecords();
+    }
+
+    @Test
+    public void shouldReadSameRelationshipsAsRecordsWithMapping() throws Exception
+    {
+        db = new ImpermanentGraphDatabase( stringMap( "dense_node_threshold", "10" ) );
+        shouldReadSameRelationshipsAsRecords();
+    }
+
+    private void shouldReadSameRelationshipsAsRecords()
+    {
+        createGraph();
+        RelationshipStore relStore = neoStore().getRelationshipStore();
+        RelationshipRecordCursor cursor = relStore.newRecordCursor( 16 );
+        int count = 0;
+        for ( long id = 0; id < relStore.getHighId(); id++ )
+        {
+            RelationshipRecord record = relStore.getLightRel( id );
+            if ( record == null )
+            {
+                // Relationship groups of the dense node as well
+                assertFalse( cursor.moveTo( id ) );
+                continue;
+            }
+            assertTrue( cursor.next() );
+            assertEquals( id, cursor.getId() );
+            assertEquals( record.getFirstNode(), cursor.getFirstNode() );
+            assertEquals( record.getSecondNode(), cursor.getSecondNode() );
+            assertEquals( record.getType(), cursor.getType() );
+            assertEquals( record.getFirstPrevRel(), cursor.getFirstPrevRel() );
+            assertEquals( record.getFirstNextRel(), cursor.getFirstNextRel() );
+            assertEquals( record.getSecondPrevRel(), cursor.getSecondPrevRel() );
+            assertEquals( record.getSecondNextRel(), cursor.getSecondNextRel() );
+            assertEquals( record.getNextProp(), cursor.getNextProp() );
+            count++;
+        }
+        assertFalse( cursor.next() );
+        assertTrue( count > 100 );
+    }
+
+    @Test
+    public void shouldSeeChangesWhenMovedToRecord() throws Exception
+    {
+        db = new ImpermanentGraphDatabase();
+        Transaction tx = db.beginTx();
+        Node node = db.createNode();
+        tx.success();
+        tx.finish();
+        NodeRecordCursor cursor = neoStore().getNodeStore().newRecordCursor( 16 );
+        assertTrue( cursor.moveTo( node.getId() ) );
+        assertEquals( Record.NO_NEXT_RELATIONSHIP.intValue(), cursor.getNextRel() );
+
+        tx = db.beginTx();
+        Relationship relationship = node.createRelationshipTo( db.createNode(), KNOWS );
+        tx.success();
+        tx.finish();
+        assertTrue( cursor.moveTo( node.getId() ) );
+        assertEquals( relationship.getId(), cursor.getNextRel() );
+
+        tx = db.beginTx();
+        relationship.delete();
+        node.delete();
+        tx.success();
+        tx.finish();
+        assertFalse( cursor.moveTo( node.getId() ) );
+        assertFalse( cursor.moveTo( neoStore().getNodeStore().getHighId() + 10 ) );
+    }
+
+    private void createGraph()
+    {
+        Transaction tx = db.beginTx();
+        Node hub = db.createNode();
+        for ( int i = 0; i < 200; i++ )
+        {
+            Node node = db.createNode();
+            node.setProperty( "name", "node " + i );
+            Relationship relationship = i % 2 == 0 ? hub.createRelationshipTo( node, KNOWS ) :
+                    node.createRelationshipTo( hub, KNOWS );
+            relationship.setProperty( "since", i );
+            if ( i % 7 == 0 )
+            {
+                node.delete();
+                relationship.delete();
+            }
+        }
+        tx.success();
+        tx.finish();
+    }
+
+    private NeoStore neoStore()
+    {
+        return db.getXaDataSourceManager().getNeoStoreDataSource().getNeoStore();
+    }
+}
@@ -0,0 +1,112 @@
+/**
+ * Copyright (c) 2002-2012 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel.impl.nioneo.store;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.neo4j.helpers.collection.IteratorUtil.count;
+import static org.neo4j.helpers.collection.MapUtil.stringMap;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.neo4j.graphdb.DynamicRelationshipType;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.RelationshipType;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.test.ImpermanentGraphDatabase;
+
+public class TestRelationshipChainReader
+{
+    private static final RelationshipType KNOWS = DynamicRelationshipType.withName( "KNOWS" );
+    private ImpermanentGraphDatabase db;
+
+    @Before
+    public void doBefore() throws Exception
+    {
+        // No memory mapping, so that all chains are read ahead
+        db = new ImpermanentGraphDatabase( stringMap( "neostore.relationshipstore.db.mapped_memory", "0M",
+                "relationship_chain_read_ahead", "16" ) );
+    }
+
+    @After
+    public void doAfter() throws Exception
+    {
+        db.shutdown();
+    }
+
+    @Test
+    public void shouldReadChainsAheadWhereTheStoreIsntMapped() throws Exception
+    {
+        Node first = createNodeWithRelationships( 200 );
+        Node second = createNodeWithRelationships( 200 );
+        int readAheadsBefore = relationshipStore().getWindowPoolStats().getReadAheadCount();
+
+        db.getNodeManager().clearCache();
+        assertEquals( 200, count( first.getRelationships() ) );
+        assertEquals( 200, count( second.getRelationships() ) );
+
+        int readAheads = relationshipStore().getWindowPoolStats().getReadAheadCount() - readAheadsBefore;
+        assertTrue( "Expected about 400/16 reads, but got " + readAheads, readAheads > 0 && readAheads < 50 );
+    }
+
+    @Test
+    public void shouldSeeChangesMadeAfterReadingAhead() throws Exception
+    {
+        Node node = createNodeWithRelationships( 100 );
+        db.getNodeManager().clearCache();
+        assertEquals( 100, count( node.getRelationships() ) );
+
+        Transaction tx = db.beginTx();
+        int deleted = 0;
+        for ( Relationship relationship : node.getRelationships() )
+        {
+            if ( relationship.getId() % 3 == 0 )
+            {
+                relationship.delete();
+                deleted++;
+            }
+        }
+        tx.success();
+        tx.finish();
+
+        db.getNodeManager().clearCache();
+        assertEquals( 100 - deleted, count( node.getRelationships() ) );
+    }
+
+    private Node createNodeWithRelationships( int count )
+    {
+        Transaction tx = db.beginTx();
+        Node node = db.createNode();
+        for ( int i = 0; i < count; i++ )
+        {
+            node.createRelationshipTo( db.createNode(), KNOWS );
+        }
+        tx.success();
+        tx.finish();
+        return node;
+    }
+
+    private RelationshipStore relationshipStore()
+    {
+        return db.getXaDataSourceManager().getNeoStoreDataSource().getNeoStore().getRelationshipStore();
+    }
+}
@@ -0,0 +1,191 @@
+/**
+ * Copyright (c) 2002-2012 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel.impl.nioneo.store;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.neo4j.helpers.collection.IteratorUtil.count;
+import static org.neo4j.helpers.collection.MapUtil.stringMap;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+import org.neo4j.graphdb.Direction;
+import org.neo4j.graphdb.DynamicRelationshipType;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.RelationshipType;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.kernel.EmbeddedGraphDatabase;
+import org.neo4j.kernel.GraphDatabaseAPI;
+import org.neo4j.test.TargetDirectory;
+
+public class TestStoreDefragmenter
+{
+    private static final RelationshipType A = DynamicRelationshipType.withName( "A" );
+    private static final RelationshipType B = DynamicRelationshipType.withName( "B" );
+    private static final int NODES = 100;
+
+    private final TargetDirectory target = TargetDirectory.forTest( getClass() );
+
+    @Test
+    public void shouldLayOutChainsContiguouslyAndKeepTheGraph() throws Exception
+    {
+        File source = target.directory( "source", true );
+        File defragmented = target.directory( "defragmented", true );
+        TargetDirectory.recursiveDelete( defragmented );
+        createFragmentedGraph( source.getAbsolutePath() );
+
+        StoreDefragmenter.Report report = new StoreDefragmenter( source.getAbsolutePath(),
+                defragmented.getAbsolutePath() ).defragment();
+
+        assertTrue( report.toString(), report.getRelationshipsAfter().getSequentialRatio() >
+                report.getRelationshipsBefore().getSequentialRatio() );
+        assertTrue( report.toString(), report.getPropertiesAfter().getSequentialRatio() >
+                report.getPropertiesBefore().getSequentialRatio() );
+        assertEquals( report.getRelationshipsBefore().getHops(), report.getRelationshipsAfter().getHops() );
+        assertEquals( report.getPropertiesBefore().getHops(), report.getPropertiesAfter().getHops() );
+        assertSameGraph( source.getAbsolutePath(), defragmented.getAbsolutePath() );
+    }
+
+    @Test
+    public void shouldNotDefragmentIntoExistingDirectory() throws Exception
+    {
+        File source = target.directory( "existing-source", true );
+        createFragmentedGraph( source.getAbsolutePath() );
+        try
+        {
+            new StoreDefragmenter( source.getAbsolutePath(), target.directory( "existing", true ).getAbsolutePath() )
+                    .defragment();
+            fail( "Shouldn't defragment into a directory that already exists" );
+        }
+        catch ( IllegalStateException e )
+        {   // Good
+        }
+    }
+
+    /**
+     * Creates relationships and properties round-robin between nodes, so that
+     * the records of each chain are spread over the stores, and deletes some
+     * to leave holes. Every fifth node is dense.
+     */
+    private void createFragmentedGraph( String storeDir )
+    {
+        GraphDatabaseService db = new EmbeddedGraphDatabase( storeDir, stringMap( "dense_node_threshold", "20" ) );
+        try
+        {
+            Transaction tx = db.beginTx();
+            List<Node> nodes = new ArrayList<Node>();
+            for ( int i = 0; i < NODES; i++ )
+            {
+                nodes.add( db.createNode() );
+            }
+            for ( int round = 0; round < 30; round++ )
+            {
+                for ( int i = 0; i < NODES; i++ )
+                {
+                    Node node = nodes.get( i );
+                    if ( round % 10 == 0 )
+                    {
+                        node.setProperty( "key" + round, "value " + round + " of " + i );
+                    }
+                    if ( i % 5 == 0 || round < 10 )
+                    {
+                        Relationship relationship = node.createRelationshipTo(
+                                nodes.get( (i * 7 + round) % NODES ), round % 2 == 0 ? A : B );
+                        relationship.setProperty( "round", round );
+                    }
+                }
+            }
+            tx.success();
+            tx.finish();
+
+            tx = db.beginTx();
+            for ( Relationship relationship : db.getNodeById( 1 ).getRelationships() )
+            {
+                relationship.delete();
+            }
+            for ( Node node : nodes )
+            {
+                node.removeProperty( "key10" );
+            }
+            tx.success();
+            tx.finish();
+        }
+        finally
+        {
+            db.shutdown();
+        }
+    }
+
+    private void assertSameGraph( String sourceDir, String defragmentedDir )
+    {
+        GraphDatabaseAPI source = new EmbeddedGraphDatabase( sourceDir );
+        GraphDatabaseAPI defragmented = new EmbeddedGraphDatabase( defragmentedDir );
+        try
+        {
+            for ( Node sourceNode : source.getAllNodes() )
+            {
+                Node node = defragmented.getNodeById( sourceNode.getId() );
+                assertEquals( propertiesOf( sourceNode ), propertiesOf( node ) );
+                for ( Direction direction : Direction.values() )
+                {
+                    assertEquals( count( sourceNode.getRelationships( direction ) ),
+                            count( node.getRelationships( direction ) ) );
+                    assertEquals( relationshipsOf( sourceNode, direction ), relationshipsOf( node, direction ) );
+                }
+            }
+            assertEquals( count( source.getAllNodes() ), count( defragmented.getAllNodes() ) );
+        }
+        finally
+        {
+            source.shutdown();
+            defragmented.shutdown();
+        }
+    }
+
+    private List<String> propertiesOf( Node node )
+    {
+        List<String> properties = new ArrayList<String>();
+        for ( String key : node.getPropertyKeys() )
+        {
+            properties.add( key + "=" + node.getProperty( key ) );
+        }
+        Collections.sort( properties );
+        return properties;
+    }
+
+    private List<String> relationshipsOf( Node node, Direction direction )
+    {
+        List<String> relationships = new ArrayList<String>();
+        for ( Relationship relationship : node.getRelationships( direction ) )
+        {
+            relationships.add( relationship.getStartNode().getId() + "-" + relationship.getType().name() + "->" +
+                    relationship.getEndNode().getId() + " " + relationship.getProperty( "round" ) );
+        }
+        Collections.sort( relationships );
+        return relationships;
+    }
+}
@@ -0,0 +1,219 @@
+/**
+ * Copyright (c) 2002-2012 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel.impl.nioneo.store;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.neo4j.helpers.collection.MapUtil.stringMap;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Test;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.kernel.EmbeddedGraphDatabase;
+import org.neo4j.kernel.GraphDatabaseAPI;
+import org.neo4j.test.ImpermanentGraphDatabase;
+import org.neo4j.test.TargetDirectory;
+
+public class TestStringDictionary
+{
+    private static final String STATUS = "awaiting approval from the regional office, see the attached notes";
+    private GraphDatabaseAPI db;
+
+    @After
+    public void doAfter() throws Exception
+    {
+        db.shutdown();
+    }
+
+    @Test
+    public void shouldStoreRepeatedStringsOnce() throws Exception
+    {
+        db = new ImpermanentGraphDatabase( stringMap( "string_dictionary_size", "100" ) );
+        long stringRecordsBefore = stringRecordsInUse();
+        List<Node> nodes = createNodesWithStatus( 1, STATUS );
+        long stringRecordsForOne = stringRecordsInUse() - stringRecordsBefore;
+        assertEquals( 1, dictionary().size() );
+
+        List<Node> moreNodes = createNodesWithStatus( 50, STATUS );
+        assertEquals( stringRecordsBefore + stringRecordsForOne, stringRecordsInUse() );
+        assertEquals( 1, dictionary().size() );
+
+        db.getNodeManager().clearCache();
+        for ( Node node : nodes ) assertEquals( STATUS, node.getProperty( "status" ) );
+        for ( Node node : moreNodes ) assertEquals( STATUS, node.getProperty( "status" ) );
+    }
+
+    @Test
+    public void shouldStoreEachStringByItselfWithoutDictionary() throws Exception
+    {
+        db = new ImpermanentGraphDatabase();
+        long stringRecordsBefore = stringRecordsInUse();
+        List<Node> nodes = createNodesWithStatus( 10, STATUS );
+        // The status fits in one record
+        assertEquals( stringRecordsBefore + 10, stringRecordsInUse() );
+        assertEquals( 0, dictionary().size() );
+
+        db.getNodeManager().clearCache();
+        for ( Node node : nodes ) assertEquals( STATUS, node.getProperty( "status" ) );
+    }
+
+    @Test
+    public void shouldKeepSharedStringWhenPropertiesAreRemoved() throws Exception
+    {
+        db = new ImpermanentGraphDatabase( stringMap( "string_dictionary_size", "100" ) );
+        createNodesWithStatus( 1, STATUS );
+        long stringRecords = stringRecordsInUse();
+        List<Node> nodes = createNodesWithStatus( 3, STATUS );
+
+        Transaction tx = db.beginTx();
+        nodes.get( 0 ).removeProperty( "status" );
+        nodes.get( 1 ).setProperty( "status", STATUS + " again" );
+        nodes.get( 2 ).delete();
+        tx.success();
+        tx.finish();
+
+        db.getNodeManager().clearCache();
+        assertFalse( nodes.get( 0 ).hasProperty( "status" ) );
+        assertEquals( STATUS + " again", nodes.get( 1 ).getProperty( "status" ) );
+        assertEquals( STATUS, createNodesWithStatus( 1, STATUS ).get( 0 ).getProperty( "status" ) );
+        assertEquals( 2, dictionary().size() );
+        assertEquals( stringRecords + 1, stringRecordsInUse() );
+    }
+
+    @Test
+    public void shouldShareStringsOnlyOnceCommitted() throws Exception
+    {
+        db = new ImpermanentGraphDatabase( stringMap( "string_dictionary_size", "100" ) );
+        long stringRecordsBefore = stringRecordsInUse();
+        List<Node> nodes = createNodesWithStatus( 2, STATUS );
+        assertEquals( stringRecordsBefore + 2, stringRecordsInUse() );
+        assertEquals( 2, dictionary().size() );
+
+        db.getNodeManager().clearCache();
+        for ( Node node : nodes ) assertEquals( STATUS, node.getProperty( "status" ) );
+        createNodesWithStatus( 2, STATUS );
+        assertEquals( stringRecordsBefore + 2, stringRecordsInUse() );
+    }
+
+    @Test
+    public void shouldNotShareStringsOfRolledBackTransactions() throws Exception
+    {
+        db = new ImpermanentGraphDatabase( stringMap( "string_dictionary_size", "100" ) );
+        long stringRecordsBefore = stringRecordsInUse();
+        Transaction tx = db.beginTx();
+        Node node = db.createNode();
+        node.setProperty( "status", STATUS );
+        assertEquals( STATUS, node.getProperty( "status" ) );
+        tx.failure();
+        tx.finish();
+        assertEquals( 0, dictionary().size() );
+        assertEquals( stringRecordsBefore, stringRecordsInUse() );
+
+        node = createNodesWithStatus( 1, STATUS ).get( 0 );
+        db.getNodeManager().clearCache();
+        assertEquals( STATUS, node.getProperty( "status" ) );
+        assertEquals( 1, dictionary().size() );
+    }
+
+    @Test
+    public void shouldFreeStringCreatedAndRemovedInSameTransaction() throws Exception
+    {
+        db = new ImpermanentGraphDatabase( stringMap( "string_dictionary_size", "100" ) );
+        long stringRecordsBefore = stringRecordsInUse();
+        Transaction tx = db.beginTx();
+        Node node = db.createNode();
+        node.setProperty( "status", STATUS );
+        node.removeProperty( "status" );
+        tx.success();
+        tx.finish();
+        assertEquals( 0, dictionary().size() );
+        assertEquals( stringRecordsBefore, stringRecordsInUse() );
+    }
+
+    @Test
+    public void shouldStoreNewStringsByThemselvesWhenDictionaryIsFull() throws Exception
+    {
+        db = new ImpermanentGraphDatabase( stringMap( "string_dictionary_size", "2" ) );
+        createNodesWithStatus( 1, STATUS + " 1" );
+        createNodesWithStatus( 1, STATUS + " 2" );
+        long stringRecordsBefore = stringRecordsInUse();
+        List<Node> nodes = createNodesWithStatus( 2, STATUS + " 3" );
+        long stringRecordsForTwo = stringRecordsInUse() - stringRecordsBefore;
+        createNodesWithStatus( 2, STATUS + " 2" );
+        assertEquals( stringRecordsBefore + stringRecordsForTwo, stringRecordsInUse() );
+        assertEquals( 2, dictionary().size() );
+
+        db.getNodeManager().clearCache();
+        for ( Node node : nodes ) assertEquals( STATUS + " 3", node.getProperty( "status" ) );
+    }
+
+    @Test
+    public void shouldReadSharedStringsAfterRestart() throws Exception
+    {
+        File storeDir = TargetDirectory.forTest( getClass() ).directory( "restart", true );
+        db = new EmbeddedGraphDatabase( storeDir.getAbsolutePath(), stringMap( "string_dictionary_size", "100" ) );
+        createNodesWithStatus( 1, STATUS );
+        List<Node> nodes = createNodesWithStatus( 10, STATUS );
+        db.shutdown();
+
+        db = new EmbeddedGraphDatabase( storeDir.getAbsolutePath(), stringMap( "string_dictionary_size", "100" ) );
+        assertEquals( 0, dictionary().size() );
+        for ( Node node : nodes ) assertEquals( STATUS, db.getNodeById( node.getId() ).getProperty( "status" ) );
+        assertEquals( 1, dictionary().size() );
+        long stringRecords = stringRecordsInUse();
+        createNodesWithStatus( 10, STATUS );
+        assertEquals( stringRecords, stringRecordsInUse() );
+    }
+
+    private List<Node> createNodesWithStatus( int count, String status )
+    {
+        List<Node> nodes = new ArrayList<Node>();
+        Transaction tx = db.beginTx();
+        for ( int i = 0; i < count; i++ )
+        {
+            Node node = db.createNode();
+            node.setProperty( "status", status );
+            nodes.add( node );
+        }
+        tx.success();
+        tx.finish();
+        return nodes;
+    }
+
+    private long stringRecordsInUse()
+    {
+        return propertyStore().getStringStore().getNumberOfIdsInUse();
+    }
+
+    private StringDictionary dictionary()
+    {
+        return propertyStore().getStringDictionary();
+    }
+
+    private PropertyStore propertyStore()
+    {
+        return db.getXaDataSourceManager().getNeoStoreDataSource().getNeoStore().getPropertyStore();
+    }
+}
@@ -0,0 +1,188 @@
+/**
+ * Copyright (c) 2002-2012 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel.impl.nioneo.store;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.neo4j.helpers.collection.MapUtil.stringMap;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Test;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.kernel.EmbeddedGraphDatabase;
+import org.neo4j.kernel.GraphDatabaseAPI;
+import org.neo4j.test.ImpermanentGraphDatabase;
+import org.neo4j.test.TargetDirectory;
+
+public class TestValueCompression
+{
+    private GraphDatabaseAPI db;
+
+    @After
+    public void doAfter() throws Exception
+    {
+        db.shutdown();
+    }
+
+    @Test
+    public void shouldStoreLongTextCompressed() throws Exception
+    {
+        db = new ImpermanentGraphDatabase( stringMap( "value_compression_threshold", "100" ) );
+        String text = text( 5000 );
+        long stringRecordsBefore = stringStore().getNumberOfIdsInUse();
+        long arrayRecordsBefore = arrayStore().getNumberOfIdsInUse();
+        Node node = createNodeWith( text );
+
+        assertEquals( PropertyType.COMPRESSED, typeOf( node ) );
+        assertEquals( stringRecordsBefore, stringStore().getNumberOfIdsInUse() );
+        long compressedRecords = arrayStore().getNumberOfIdsInUse() - arrayRecordsBefore;
+        assertTrue( compressedRecords + " records", compressedRecords < 5000 / 120 / 2 );
+        db.getNodeManager().clearCache();
+        assertEquals( text, node.getProperty( "value" ) );
+    }
+
+    @Test
+    public void shouldStoreArraysCompressed() throws Exception
+    {
+        db = new ImpermanentGraphDatabase( stringMap( "value_compression_threshold", "100" ) );
+        long[] timeseries = new long[2000];
+        for ( int i = 0; i < timeseries.length; i++ ) timeseries[i] = 1000000000000L + (i % 60) * 1000;
+        String[] words = text( 3000 ).split( " " );
+        Node numbers = createNodeWith( timeseries );
+        Node strings = createNodeWith( words );
+
+        assertEquals( PropertyType.COMPRESSED, typeOf( numbers ) );
+        assertEquals( PropertyType.COMPRESSED, typeOf( strings ) );
+        db.getNodeManager().clearCache();
+        assertTrue( Arrays.equals( timeseries, (long[]) numbers.getProperty( "value" ) ) );
+        assertTrue( Arrays.equals( words, (String[]) strings.getProperty( "value" ) ) );
+    }
+
+    @Test
+    public void shouldStoreIncompressibleValuesAsTheyAre() throws Exception
+    {
+        db = new ImpermanentGraphDatabase( stringMap( "value_compression_threshold", "100" ) );
+        byte[] random = new byte[1000];
+        new Random( 42 ).nextBytes( random );
+        Node node = createNodeWith( random );
+        Node shortText = createNodeWith( text( 90 ) );
+
+        assertEquals( PropertyType.ARRAY, typeOf( node ) );
+        assertEquals( PropertyType.STRING, typeOf( shortText ) );
+        db.getNodeManager().clearCache();
+        assertTrue( Arrays.equals( random, (byte[]) node.getProperty( "value" ) ) );
+    }
+
+    @Test
+    public void shouldNotCompressByDefault() throws Exception
+    {
+        db = new ImpermanentGraphDatabase();
+        Node node = createNodeWith( text( 5000 ) );
+        assertEquals( PropertyType.STRING, typeOf( node ) );
+    }
+
+    @Test
+    public void shouldFreeRecordsOfRemovedAndRolledBackValues() throws Exception
+    {
+        db = new ImpermanentGraphDatabase( stringMap( "value_compression_threshold", "100" ) );
+        long arrayRecordsBefore = arrayStore().getNumberOfIdsInUse();
+        Node node = createNodeWith( text( 5000 ) );
+        assertTrue( arrayStore().getNumberOfIdsInUse() > arrayRecordsBefore );
+
+        Transaction tx = db.beginTx();
+        node.setProperty( "value", 10 );
+        tx.success();
+        tx.finish();
+        assertEquals( arrayRecordsBefore, arrayStore().getNumberOfIdsInUse() );
+        db.getNodeManager().clearCache();
+        assertEquals( 10, node.getProperty( "value" ) );
+
+        tx = db.beginTx();
+        db.createNode().setProperty( "value", text( 5000 ) );
+        tx.failure();
+        tx.finish();
+        assertEquals( arrayRecordsBefore, arrayStore().getNumberOfIdsInUse() );
+
+        node = createNodeWith( text( 5000 ) );
+        tx = db.beginTx();
+        node.delete();
+        tx.success();
+        tx.finish();
+        assertEquals( arrayRecordsBefore, arrayStore().getNumberOfIdsInUse() );
+    }
+
+    @Test
+    public void shouldReadCompressedValuesAfterRestart() throws Exception
+    {
+        File storeDir = TargetDirectory.forTest( getClass() ).directory( "restart", true );
+        db = new EmbeddedGraphDatabase( storeDir.getAbsolutePath(), stringMap( "value_compression_threshold", "100" ) );
+        String text = text( 5000 );
+        Node node = createNodeWith( text );
+        db.shutdown();
+
+        // Reading doesn't need compression to be enabled
+        db = new EmbeddedGraphDatabase( storeDir.getAbsolutePath() );
+        assertEquals( text, db.getNodeById( node.getId() ).getProperty( "value" ) );
+    }
+
+    private String text( int length )
+    {
+        String[] words = { "graph", "node", "relationship", "property", "store", "record", "chain", "index" };
+        Random random = new Random( length );
+        StringBuilder text = new StringBuilder();
+        while ( text.length() < length )
+        {
+            text.append( words[random.nextInt( words.length )] ).append( ' ' );
+        }
+        return text.substring( 0, length );
+    }
+
+    private Node createNodeWith( Object value )
+    {
+        Transaction tx = db.beginTx();
+        Node node = db.createNode();
+        node.setProperty( "value", value );
+        tx.success();
+        tx.finish();
+        return node;
+    }
+
+    private PropertyType typeOf( Node node )
+    {
+        NeoStore neoStore = db.getXaDataSourceManager().getNeoStoreDataSource().getNeoStore();
+        long firstProp = neoStore.getNodeStore().getRecord( node.getId() ).getNextProp();
+        return neoStore.getPropertyStore().getLightRecord( firstProp ).getPropertyBlocks().get( 0 ).getType();
+    }
+
+    private DynamicStringStore stringStore()
+    {
+        return db.getXaDataSourceManager().getNeoStoreDataSource().getNeoStore().getPropertyStore().getStringStore();
+    }
+
+    private DynamicArrayStore arrayStore()
+    {
+        return db.getXaDataSourceManager().getNeoStoreDataSource().getNeoStore().getPropertyStore().getArrayStore();
+    }
+}
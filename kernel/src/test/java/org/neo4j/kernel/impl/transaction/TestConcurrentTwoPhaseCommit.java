@@ -0,0 +1,108 @@
+/**
+ * Copyright (c) 2002-2012 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel.impl.transaction;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.neo4j.helpers.collection.MapUtil.stringMap;
+
+import javax.transaction.TransactionManager;
+import javax.transaction.xa.Xid;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.kernel.impl.transaction.xaframework.ForceMode;
+import org.neo4j.kernel.impl.transaction.xaframework.XaResource;
+import org.neo4j.test.ImpermanentGraphDatabase;
+
+public class TestConcurrentTwoPhaseCommit
+{
+    private ImpermanentGraphDatabase db;
+
+    @Before
+    public void doBefore() throws Exception
+    {
+        db = new ImpermanentGraphDatabase( stringMap( "concurrent_two_phase_commit", "true" ) );
+    }
+
+    @After
+    public void doAfter() throws Exception
+    {
+        db.shutdown();
+    }
+
+    @Test
+    public void resourcesCommittedConcurrentlySeeTheirTransaction() throws Exception
+    {
+        TransactionManager tm = db.getTxManager();
+        TransactionSeeingResource resource = new TransactionSeeingResource( (AbstractTransactionManager) tm );
+        Transaction tx = db.beginTx();
+        Node node = db.createNode();
+        tm.getTransaction().enlistResource( resource );
+        tx.success();
+        tx.finish();
+
+        assertEquals( node, db.getNodeById( node.getId() ) );
+        assertNotSame( Thread.currentThread(), resource.committer );
+        assertEquals( ForceMode.forced, resource.forceMode );
+        assertEquals( null, tm.getTransaction() );
+    }
+
+    /**
+     * Looks up the force mode of its transaction when committed, the way
+     * the resources of data sources do.
+     */
+    private static class TransactionSeeingResource extends FakeXAResource implements XaResource
+    {
+        private byte[] branchId = { 9, 9, 9 };
+        private final AbstractTransactionManager tm;
+        private volatile Thread committer;
+        private volatile ForceMode forceMode;
+
+        TransactionSeeingResource( AbstractTransactionManager tm )
+        {
+            super( "transaction seeing" );
+            this.tm = tm;
+        }
+
+        @Override
+        public void commit( Xid xid, boolean onePhase )
+        {
+            committer = Thread.currentThread();
+            forceMode = tm.getForceMode();
+            super.commit( xid, onePhase );
+        }
+
+        @Override
+        public void setBranchId( byte[] branchId )
+        {
+            this.branchId = branchId;
+        }
+
+        @Override
+        public byte[] getBranchId()
+        {
+            return branchId;
+        }
+    }
+}
@@ -193,4 +193,70 @@ public class TestTxLog
     {
         // TODO
     }
+
+    @Test
+    public void testConcurrentMarkAsCommitting() throws Exception
+    {
+        File file = new File( txFile() );
+        if ( file.exists() )
+        {
+            file.delete();
+        }
+        try
+        {
+            final TxLog txLog = new TxLog( txFile(), new DefaultFileSystemAbstraction(), StringLogger.DEV_NULL );
+            final int threads = 8;
+            Thread[] committers = new Thread[threads];
+            final List<Throwable> failures = new ArrayList<Throwable>();
+            for ( int i = 0; i < threads; i++ )
+            {
+                final byte globalId[] = new byte[] { (byte) i };
+                committers[i] = new Thread()
+                {
+                    @Override
+                    public void run()
+                    {
+                        try
+                        {
+                            txLog.txStart( globalId );
+                            txLog.markAsCommitting( globalId, ForceMode.forced );
+                        }
+                        catch ( Throwable t )
+                        {
+                            synchronized ( failures )
+                            {
+                                failures.add( t );
+                            }
+                        }
+                    }
+                };
+                committers[i].start();
+            }
+            for ( Thread committer : committers )
+            {
+                committer.join();
+            }
+            assertTrue( failures.toString(), failures.isEmpty() );
+            assertEquals( threads * 2, txLog.getRecordCount() );
+            txLog.close();
+
+            TxLog reopened = new TxLog( txFile(), new DefaultFileSystemAbstraction(), StringLogger.DEV_NULL );
+            List<?> lists[] = getRecordLists( reopened.getDanglingRecords() );
+            assertEquals( threads, lists.length );
+            for ( List<?> records : lists )
+            {
+                assertEquals( 2, records.size() );
+                assertEquals( TxLog.MARK_COMMIT, ((TxLog.Record) records.get( 1 )).getType() );
+            }
+            reopened.close();
+        }
+        finally
+        {
+            file = new File( txFile() );
+            if ( file.exists() )
+            {
+                file.delete();
+            }
+        }
+    }
 }
\ No newline at end of file
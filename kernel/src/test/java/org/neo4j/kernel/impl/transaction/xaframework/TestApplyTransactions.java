@@ -20,11 +20,20 @@
 package org.neo4j.kernel.impl.transaction.xaframework;
 
 import static org.junit.Assert.assertEquals;
+import static org.neo4j.graphdb.DynamicRelationshipType.withName;
+import static org.neo4j.helpers.collection.IteratorUtil.count;
 
 import java.io.File;
+import java.nio.channels.ReadableByteChannel;
+import java.util.ArrayList;
+import java.util.List;
 
 import org.junit.Test;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Relationship;
 import org.neo4j.graphdb.Transaction;
+import org.neo4j.helpers.Pair;
 import org.neo4j.kernel.EmbeddedGraphDatabase;
 import org.neo4j.kernel.configuration.Config;
 import org.neo4j.test.ProcessStreamHandler;
@@ -55,6 +64,84 @@ public class TestApplyTransactions
         assertEquals( latestTxId, extractedTxId );
     }
 
+    @Test
+    public void transactionsAppliedInBatchShouldEndUpAsOnOrigin() throws Exception
+    {
+        File baseStoreDir = TargetDirectory.forTest( TestApplyTransactions.class ).directory(
+                "transactionsAppliedInBatchShouldEndUpAsOnOrigin", true );
+        EmbeddedGraphDatabase origin = new EmbeddedGraphDatabase( new File( baseStoreDir, "origin" ).getAbsolutePath() );
+        EmbeddedGraphDatabase dest = new EmbeddedGraphDatabase( new File( baseStoreDir, "destination" ).getAbsolutePath() );
+        try
+        {
+            Node hub = createNode( origin, "hub" );
+            for ( int i = 0; i < 100; i++ )
+            {
+                // All of them change the hub node, the merged batch must end up with its latest version
+                Transaction tx = origin.beginTx();
+                Node node = origin.createNode();
+                node.setProperty( "name", "node " + i );
+                node.createRelationshipTo( hub, withName( "TYPE" + (i % 10) ) );
+                if ( i % 7 == 0 )
+                {
+                    hub.setProperty( "counter", i );
+                }
+                tx.success();
+                tx.finish();
+            }
+
+            XaDataSource originNeoDataSource = origin.getXaDataSourceManager().getXaDataSource(
+                    Config.DEFAULT_DATA_SOURCE_NAME );
+            XaDataSource destNeoDataSource = dest.getXaDataSourceManager().getXaDataSource(
+                    Config.DEFAULT_DATA_SOURCE_NAME );
+            long firstTxId = destNeoDataSource.getLastCommittedTxId() + 1;
+            long lastTxId = originNeoDataSource.getLastCommittedTxId();
+            LogExtractor extractor = originNeoDataSource.getLogExtractor( firstTxId, lastTxId );
+            List<Pair<Long,ReadableByteChannel>> transactions = new ArrayList<Pair<Long,ReadableByteChannel>>();
+            try
+            {
+                for ( long txId = firstTxId; txId <= lastTxId; txId++ )
+                {
+                    InMemoryLogBuffer buffer = new InMemoryLogBuffer();
+                    assertEquals( txId, extractor.extractNext( buffer ) );
+                    transactions.add( Pair.<Long,ReadableByteChannel>of( txId, buffer ) );
+                }
+            }
+            finally
+            {
+                extractor.close();
+            }
+            destNeoDataSource.applyCommittedTransactions( transactions );
+
+            assertEquals( lastTxId, destNeoDataSource.getLastCommittedTxId() );
+            Node destHub = dest.getNodeById( hub.getId() );
+            assertEquals( "hub", destHub.getProperty( "name" ) );
+            assertEquals( 98, destHub.getProperty( "counter" ) );
+            assertEquals( 100, count( destHub.getRelationships() ) );
+            for ( Relationship relationship : hub.getRelationships() )
+            {
+                Relationship destRelationship = dest.getRelationshipById( relationship.getId() );
+                assertEquals( relationship.getType().name(), destRelationship.getType().name() );
+                assertEquals( relationship.getStartNode().getProperty( "name" ),
+                        destRelationship.getStartNode().getProperty( "name" ) );
+            }
+        }
+        finally
+        {
+            origin.shutdown();
+            dest.shutdown();
+        }
+    }
+
+    private Node createNode( GraphDatabaseService db, String name )
+    {
+        Transaction tx = db.beginTx();
+        Node node = db.createNode();
+        node.setProperty( "name", name );
+        tx.success();
+        tx.finish();
+        return node;
+    }
+
     public static void main( String[] args ) throws Exception
     {
         /*
@@ -0,0 +1,189 @@
+/**
+ * Copyright (c) 2002-2012 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel.impl.transaction.xaframework;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+import static org.neo4j.graphdb.DynamicRelationshipType.withName;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.graphdb.factory.GraphDatabaseFactory;
+import org.neo4j.graphdb.factory.GraphDatabaseSettings;
+import org.neo4j.kernel.impl.util.DumpLogicalLog;
+import org.neo4j.kernel.impl.util.FileUtils;
+import org.neo4j.test.ProcessStreamHandler;
+import org.neo4j.test.TargetDirectory;
+import org.neo4j.tooling.GlobalGraphOperations;
+
+public class TestConcurrentRecovery
+{
+    private static final TargetDirectory target = TargetDirectory.forTest( TestConcurrentRecovery.class );
+
+    @Test
+    public void concurrentRecoveryShouldEndUpWithSameGraphAsSerialRecovery() throws Exception
+    {
+        File unclean = target.directory( "unclean", true );
+        produceUncleanStore( unclean );
+        File serial = target.directory( "serial", true );
+        File concurrent = target.directory( "concurrent", true );
+        FileUtils.copyRecursively( unclean, serial );
+        FileUtils.copyRecursively( unclean, concurrent );
+
+        String serialGraph = recoverAndDescribe( serial, 1 );
+        String concurrentGraph = recoverAndDescribe( concurrent, 4 );
+
+        assertEquals( serialGraph, concurrentGraph );
+    }
+
+    @Test( timeout = 300000 )
+    public void concurrentRecoveryShouldFailRatherThanHangOnBrokenEntry() throws Exception
+    {
+        File storeDir = target.directory( "broken", true );
+        produceUncleanStore( storeDir );
+        // Late in the log, so the reader is likely to have filled its read-ahead when it gets there
+        breakEntry( new File( storeDir, "nioneo_logical.log.1" ), 0.9f );
+
+        try
+        {
+            recoverAndDescribe( storeDir, 4 );
+            fail( "Shouldn't recover a log with a broken entry" );
+        }
+        catch ( Exception e )
+        {   // Good
+        }
+    }
+
+    private void breakEntry( File log, float at ) throws Exception
+    {
+        RandomAccessFile file = new RandomAccessFile( log, "rw" );
+        try
+        {
+            FileChannel channel = file.getChannel();
+            ByteBuffer buffer = ByteBuffer.allocate( 100 * 1000 );
+            LogIoUtils.readLogHeader( buffer, channel, true );
+            DumpLogicalLog.CommandFactory commandFactory = new DumpLogicalLog.CommandFactory();
+            List<Long> positions = new ArrayList<Long>();
+            for ( long position = channel.position(); LogIoUtils.readEntry( buffer, channel, commandFactory ) != null;
+                    position = channel.position() )
+            {
+                positions.add( position );
+            }
+            channel.position( positions.get( (int) (positions.size() * at) ) );
+            // An entry type there is none of
+            channel.write( ByteBuffer.wrap( new byte[] { 127 } ) );
+        }
+        finally
+        {
+            file.close();
+        }
+    }
+
+    private String recoverAndDescribe( File storeDir, int recoveryThreads )
+    {
+        GraphDatabaseService db = new GraphDatabaseFactory().newEmbeddedDatabaseBuilder( storeDir.getAbsolutePath() )
+                .setConfig( GraphDatabaseSettings.recovery_threads, "" + recoveryThreads ).newGraphDatabase();
+        try
+        {
+            StringBuilder description = new StringBuilder();
+            for ( Node node : GlobalGraphOperations.at( db ).getAllNodes() )
+            {
+                description.append( node.getId() );
+                for ( String key : node.getPropertyKeys() )
+                {
+                    description.append( " " ).append( key ).append( "=" ).append( describe( node.getProperty( key ) ) );
+                }
+                description.append( "\n" );
+            }
+            for ( Relationship relationship : GlobalGraphOperations.at( db ).getAllRelationships() )
+            {
+                description.append( relationship.getStartNode().getId() ).append( "->" )
+                        .append( relationship.getEndNode().getId() ).append( "\n" );
+            }
+
+            // The store must be usable after recovery as well
+            Transaction tx = db.beginTx();
+            db.createNode();
+            tx.success();
+            tx.finish();
+            return description.toString();
+        }
+        finally
+        {
+            db.shutdown();
+        }
+    }
+
+    private String describe( Object value )
+    {
+        return value instanceof long[] ? Arrays.toString( (long[]) value ) : value.toString();
+    }
+
+    private void produceUncleanStore( File storeDir ) throws Exception
+    {
+        Process process = Runtime.getRuntime().exec( new String[] { "java", "-cp",
+                System.getProperty( "java.class.path" ), getClass().getName(), storeDir.getAbsolutePath() } );
+        assertEquals( 0, new ProcessStreamHandler( process, true ).waitForResult() );
+    }
+
+    public static void main( String[] args )
+    {
+        GraphDatabaseService db = new GraphDatabaseFactory().newEmbeddedDatabase( args[0] );
+        Random random = new Random( 42 );
+        List<Node> nodes = new ArrayList<Node>();
+        for ( int i = 0; i < 1000; i++ )
+        {
+            Transaction tx = db.beginTx();
+            Node node = db.createNode();
+            node.setProperty( "name", "A name long enough to need a dynamic record, number " + i );
+            node.setProperty( "values", new long[] { i, random.nextLong(), random.nextLong() } );
+            if ( !nodes.isEmpty() && random.nextInt( 3 ) == 0 )
+            {
+                node.createRelationshipTo( nodes.get( random.nextInt( nodes.size() ) ), withName( "KNOWS" ) );
+            }
+            if ( nodes.size() > 10 && random.nextInt( 10 ) == 0 )
+            {
+                Node deleted = nodes.remove( random.nextInt( nodes.size() ) );
+                for ( Relationship relationship : deleted.getRelationships() )
+                {
+                    relationship.delete();
+                }
+                deleted.delete();
+            }
+            tx.success();
+            tx.finish();
+            nodes.add( node );
+        }
+        // Exit without shutting down to leave the store in need of recovery
+        System.exit( 0 );
+    }
+}
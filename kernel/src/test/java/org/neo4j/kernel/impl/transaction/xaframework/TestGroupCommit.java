@@ -0,0 +1,154 @@
+/**
+ * Copyright (c) 2002-2012 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel.impl.transaction.xaframework;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Test;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.graphdb.factory.GraphDatabaseFactory;
+import org.neo4j.graphdb.factory.GraphDatabaseSetting;
+import org.neo4j.graphdb.factory.GraphDatabaseSettings;
+import org.neo4j.kernel.GraphDatabaseAPI;
+import org.neo4j.test.ProcessStreamHandler;
+import org.neo4j.test.TargetDirectory;
+import org.neo4j.tooling.GlobalGraphOperations;
+
+public class TestGroupCommit
+{
+    private static final TargetDirectory target = TargetDirectory.forTest( TestGroupCommit.class );
+    private static final int THREADS = 8;
+    private static final int TRANSACTIONS_PER_THREAD = 100;
+    private static final int TRANSACTIONS = THREADS * TRANSACTIONS_PER_THREAD;
+
+    @Test
+    public void concurrentTransactionsShouldShareForcesAndAllBeDurable() throws Exception
+    {
+        File storeDir = target.directory( "clean", true );
+        GraphDatabaseAPI db = newGroupCommitDatabase( storeDir );
+        XaLogicalLog log;
+        try
+        {
+            commitConcurrently( db );
+            log = db.getXaDataSourceManager().getNeoStoreDataSource().getXaContainer().getLogicalLog();
+        }
+        finally
+        {
+            db.shutdown();
+        }
+
+        assertEquals( TRANSACTIONS, log.getGroupCommitCount() );
+        // The threads commit at the same time, so forces must have been shared
+        assertTrue( "Forced " + log.getGroupCommitForceCount() + " times for " + TRANSACTIONS + " transactions",
+                log.getGroupCommitForceCount() < TRANSACTIONS );
+        assertTrue( log.getLargestGroupCommit() > 1 );
+        assertNodeCount( storeDir );
+    }
+
+    @Test
+    public void groupCommittedTransactionsShouldBeRecoveredAfterCrash() throws Exception
+    {
+        File storeDir = target.directory( "unclean", true );
+        Process process = Runtime.getRuntime().exec( new String[] { "java", "-cp",
+                System.getProperty( "java.class.path" ), getClass().getName(), storeDir.getAbsolutePath() } );
+        assertEquals( 0, new ProcessStreamHandler( process, true ).waitForResult() );
+
+        assertNodeCount( storeDir );
+    }
+
+    public static void main( String[] args ) throws Exception
+    {
+        commitConcurrently( newGroupCommitDatabase( new File( args[0] ) ) );
+        // Exit without shutting down to leave the store in need of recovery
+        System.exit( 0 );
+    }
+
+    private static GraphDatabaseAPI newGroupCommitDatabase( File storeDir )
+    {
+        return (GraphDatabaseAPI) new GraphDatabaseFactory().newEmbeddedDatabaseBuilder( storeDir.getAbsolutePath() ).
+            setConfig( GraphDatabaseSettings.group_commit, GraphDatabaseSetting.TRUE ).
+            setConfig( GraphDatabaseSettings.group_commit_max_wait, "10ms" ).newGraphDatabase();
+    }
+
+    private static void commitConcurrently( final GraphDatabaseService db ) throws Exception
+    {
+        ExecutorService executor = Executors.newFixedThreadPool( THREADS );
+        final CountDownLatch startSignal = new CountDownLatch( 1 );
+        List<Future<Object>> futures = new ArrayList<Future<Object>>();
+        for ( int i = 0; i < THREADS; i++ )
+        {
+            futures.add( executor.submit( new Callable<Object>()
+            {
+                @Override
+                public Object call() throws Exception
+                {
+                    startSignal.await();
+                    for ( int i = 0; i < TRANSACTIONS_PER_THREAD; i++ )
+                    {
+                        Transaction tx = db.beginTx();
+                        try
+                        {
+                            db.createNode().setProperty( "number", i );
+                            tx.success();
+                        }
+                        finally
+                        {
+                            tx.finish();
+                        }
+                    }
+                    return null;
+                }
+            } ) );
+        }
+        startSignal.countDown();
+        for ( Future<Object> future : futures )
+            future.get();
+        executor.shutdown();
+    }
+
+    private void assertNodeCount( File storeDir )
+    {
+        GraphDatabaseService db = new GraphDatabaseFactory().newEmbeddedDatabase( storeDir.getAbsolutePath() );
+        try
+        {
+            int nodes = 0;
+            for ( Node node : GlobalGraphOperations.at( db ).getAllNodes() )
+                nodes++;
+            // Plus the reference node
+            assertEquals( TRANSACTIONS + 1, nodes );
+        }
+        finally
+        {
+            db.shutdown();
+        }
+    }
+}
@@ -0,0 +1,166 @@
+/**
+ * Copyright (c) 2002-2012 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel.impl.transaction.xaframework;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TestMappedLogChannel
+{
+    private File testFileObject;
+    private RandomAccessFile testRAFile;
+    private File targetFileObject;
+    private RandomAccessFile targetRAFile;
+
+    @Before
+    public void createFiles() throws Exception
+    {
+        File testDirectory = new File( "target" + File.separator + "var" );
+        if ( !testDirectory.exists() )
+        {
+            testDirectory.mkdirs();
+        }
+        testFileObject = new File( testDirectory, "mappedLogChannelTest" );
+        testRAFile = new RandomAccessFile( testFileObject, "rw" );
+        targetFileObject = new File( testDirectory, "mappedLogChannelTarget" );
+        targetRAFile = new RandomAccessFile( targetFileObject, "rw" );
+        targetRAFile.setLength( 0 );
+    }
+
+    @After
+    public void deleteFiles() throws Exception
+    {
+        testRAFile.close();
+        testFileObject.delete();
+        targetRAFile.close();
+        targetFileObject.delete();
+    }
+
+    @Test
+    public void shouldReadFromPositionOfFileChannel() throws Exception
+    {
+        FileChannel channel = createFromData( 1, 2, 3, 4 );
+        assertEquals( 16, channel.size() );
+        assertEquals( 4, channel.position() );
+
+        ByteBuffer readBuffer = ByteBuffer.allocate( 8 );
+        assertEquals( 8, channel.read( readBuffer ) );
+        assertEquals( 12, channel.position() );
+        readBuffer.flip();
+        assertEquals( 2, readBuffer.getInt() );
+        assertEquals( 3, readBuffer.getInt() );
+    }
+
+    @Test
+    public void shouldReadWithoutChangingPosition() throws Exception
+    {
+        FileChannel channel = createFromData( 1, 2, 3, 4 );
+
+        ByteBuffer readBuffer = ByteBuffer.allocate( 8 );
+        assertEquals( 8, channel.read( readBuffer, 8 ) );
+        assertEquals( 4, channel.position() );
+        readBuffer.flip();
+        assertEquals( 3, readBuffer.getInt() );
+        assertEquals( 4, readBuffer.getInt() );
+    }
+
+    @Test
+    public void shouldReadAtBoundaries() throws Exception
+    {
+        FileChannel channel = createFromData( 1, 2, 3, 4 );
+        channel.position( 8 );
+
+        ByteBuffer readBuffer = ByteBuffer.allocate( 12 );
+        assertEquals( 8, channel.read( readBuffer ) );
+        assertEquals( 16, channel.position() );
+        readBuffer.flip();
+        assertEquals( 3, readBuffer.getInt() );
+        assertEquals( 4, readBuffer.getInt() );
+
+        readBuffer.clear();
+        assertEquals( -1, channel.read( readBuffer ) );
+    }
+
+    @Test
+    public void shouldTransferToOtherChannel() throws Exception
+    {
+        FileChannel channel = createFromData( 1, 2, 3, 4 );
+
+        assertEquals( 12, channel.transferTo( 4, 100, targetRAFile.getChannel() ) );
+        assertEquals( 4, channel.position() );
+        assertEquals( 0, channel.transferTo( 16, 100, targetRAFile.getChannel() ) );
+
+        ByteBuffer readBuffer = ByteBuffer.allocate( 12 );
+        targetRAFile.getChannel().read( readBuffer, 0 );
+        readBuffer.flip();
+        assertEquals( 2, readBuffer.getInt() );
+        assertEquals( 3, readBuffer.getInt() );
+        assertEquals( 4, readBuffer.getInt() );
+    }
+
+    @Test
+    public void shouldNotReadAfterClose() throws Exception
+    {
+        FileChannel channel = createFromData( 1, 2, 3, 4 );
+        channel.close();
+
+        try
+        {
+            channel.read( ByteBuffer.allocate( 4 ) );
+            fail( "Shouldn't be able to read from a closed channel" );
+        }
+        catch ( ClosedChannelException e )
+        {   // Good
+        }
+        try
+        {
+            channel.read( ByteBuffer.allocate( 4 ), 0 );
+            fail( "Shouldn't be able to read from a closed channel" );
+        }
+        catch ( ClosedChannelException e )
+        {   // Good
+        }
+    }
+
+    private FileChannel createFromData( int... data ) throws IOException
+    {
+        FileChannel channel = testRAFile.getChannel();
+        ByteBuffer buffer = ByteBuffer.allocate( data.length * 4 );
+        for ( int datum : data )
+        {
+            buffer.putInt( datum );
+        }
+        buffer.flip();
+        channel.write( buffer );
+        channel.position( 4 );
+        return new MappedLogChannel( channel );
+    }
+}
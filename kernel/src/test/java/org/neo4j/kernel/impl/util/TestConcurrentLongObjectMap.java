@@ -0,0 +1,94 @@
+/**
+ * Copyright (c) 2002-2012 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel.impl.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class TestConcurrentLongObjectMap
+{
+    @Test
+    public void putGetRemove() throws Exception
+    {
+        ConcurrentLongObjectMap<String> map = new ConcurrentLongObjectMap<String>();
+        assertNull( map.put( 0, "0" ) );
+        assertNull( map.put( 1L << 40, "big" ) );
+        assertEquals( "0", map.put( 0, "zero" ) );
+        assertEquals( "zero", map.get( 0 ) );
+        assertEquals( "big", map.get( 1L << 40 ) );
+        assertNull( map.get( 2 ) );
+        assertEquals( 2, map.size() );
+
+        assertEquals( "zero", map.remove( 0 ) );
+        assertNull( map.remove( 0 ) );
+        assertNull( map.get( 0 ) );
+        assertEquals( 1, map.size() );
+
+        map.clear();
+        assertEquals( 0, map.size() );
+        assertNull( map.get( 1L << 40 ) );
+    }
+
+    @Test
+    public void conditionalRemove() throws Exception
+    {
+        ConcurrentLongObjectMap<String> map = new ConcurrentLongObjectMap<String>();
+        String value = new String( "value" );
+        map.put( 10, value );
+        assertFalse( map.remove( 10, new String( "value" ) ) );
+        assertEquals( value, map.get( 10 ) );
+        assertTrue( map.remove( 10, value ) );
+        assertNull( map.get( 10 ) );
+    }
+
+    @Test
+    public void behavesLikeAMapThroughRehashes() throws Exception
+    {
+        ConcurrentLongObjectMap<Long> map = new ConcurrentLongObjectMap<Long>( 4 );
+        Map<Long, Long> expected = new HashMap<Long, Long>();
+        Random random = new Random( 1234 );
+        for ( int i = 0; i < 100000; i++ )
+        {
+            long key = random.nextInt( 5000 );
+            if ( random.nextInt( 3 ) == 0 )
+            {
+                assertEquals( expected.remove( key ), map.remove( key ) );
+            }
+            else
+            {
+                Long value = Long.valueOf( i );
+                assertEquals( expected.put( key, value ), map.put( key, value ) );
+            }
+        }
+        assertEquals( expected.size(), map.size() );
+        for ( long key = 0; key < 5000; key++ )
+        {
+            assertEquals( expected.get( key ), map.get( key ) );
+        }
+    }
+}
@@ -0,0 +1,117 @@
+/**
+ * Copyright (c) 2002-2012 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel.impl.util;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Random;
+
+import org.junit.Test;
+import org.neo4j.helpers.UTF8;
+
+public class TestLZ4
+{
+    @Test
+    public void shouldCompressRepetitiveData() throws Exception
+    {
+        StringBuilder text = new StringBuilder();
+        for ( int i = 0; i < 200; i++ )
+        {
+            text.append( "the quick brown fox jumps over the lazy dog " ).append( i % 7 ).append( ' ' );
+        }
+        byte[] source = UTF8.encode( text.toString() );
+        byte[] compressed = assertRoundTrip( source );
+        assertTrue( compressed.length + " of " + source.length, compressed.length < source.length / 10 );
+    }
+
+    @Test
+    public void shouldRoundTripRandomData() throws Exception
+    {
+        Random random = new Random( 1234 );
+        for ( int length : new int[] { 0, 1, 4, 5, 12, 13, 15, 16, 255, 270, 4096, 70000 } )
+        {
+            byte[] source = new byte[length];
+            random.nextBytes( source );
+            byte[] compressed = assertRoundTrip( source );
+            assertTrue( compressed.length <= LZ4.maxCompressedLength( length ) );
+        }
+    }
+
+    @Test
+    public void shouldRoundTripLongRunsAndDistantMatches() throws Exception
+    {
+        byte[] source = new byte[200000];
+        Random random = new Random( 5678 );
+        byte[] chunk = new byte[100];
+        random.nextBytes( chunk );
+        for ( int i = 0; i < source.length; i++ )
+        {
+            // Runs of one byte, random stretches and chunks repeated far apart
+            int region = (i / 1000) % 3;
+            source[i] = region == 0 ? (byte) 7 : region == 1 ? (byte) random.nextInt() : chunk[i % chunk.length];
+        }
+        assertRoundTrip( source );
+    }
+
+    @Test
+    public void shouldRoundTripArrayAtOffset() throws Exception
+    {
+        byte[] source = UTF8.encode( "abcabcabcabcabcabcabcabcabcabcabcabc" );
+        byte[] compressed = LZ4.compress( source );
+        byte[] withHeader = new byte[compressed.length + 3];
+        System.arraycopy( compressed, 0, withHeader, 3, compressed.length );
+        assertArrayEquals( source, LZ4.decompress( withHeader, 3, compressed.length, source.length ) );
+    }
+
+    @Test
+    public void shouldFailOnWrongUncompressedLength() throws Exception
+    {
+        byte[] source = UTF8.encode( "abcabcabcabcabcabcabcabcabcabcabcabc" );
+        byte[] compressed = LZ4.compress( source );
+        try
+        {
+            LZ4.decompress( compressed, 0, compressed.length, source.length - 1 );
+            fail( "Should not decompress into a too short array" );
+        }
+        catch ( IllegalArgumentException e )
+        {   // Good
+        }
+        try
+        {
+            LZ4.decompress( compressed, 0, compressed.length, source.length + 1 );
+            fail( "Should not decompress into a too long array" );
+        }
+        catch ( IllegalArgumentException e )
+        {   // Good
+        }
+    }
+
+    private byte[] assertRoundTrip( byte[] source )
+    {
+        byte[] compressed = LZ4.compress( source );
+        byte[] decompressed = LZ4.decompress( compressed, 0, compressed.length, source.length );
+        assertEquals( source.length, decompressed.length );
+        assertArrayEquals( source, decompressed );
+        return compressed;
+    }
+}
@@ -403,6 +403,44 @@ public class TestBatchInsert
         gds.shutdown();
     }
 
+    @Test
+    public void degreeWithoutTypesShouldCountAllTypes()
+    {
+        BatchInserter graphDb = newBatchInserter();
+        BatchGraphDatabaseImpl gds = new BatchGraphDatabaseImpl( graphDb );
+        long node = graphDb.createNode( null );
+        long other = graphDb.createNode( null );
+        graphDb.createRelationship( node, other, RelTypes.REL_TYPE1, null );
+        graphDb.createRelationship( other, node, RelTypes.REL_TYPE2, null );
+        Node batchNode = gds.getNodeById( node );
+        assertEquals( 2, batchNode.getDegree() );
+        assertEquals( 2, batchNode.getDegree( new RelationshipType[0] ) );
+        assertEquals( 1, batchNode.getDegree( Direction.OUTGOING ) );
+        assertEquals( 1, batchNode.getDegree( Direction.INCOMING ) );
+        assertEquals( 2, batchNode.getDegree( Direction.BOTH ) );
+        assertEquals( 1, batchNode.getDegree( RelTypes.REL_TYPE2 ) );
+        assertEquals( 0, batchNode.getDegree( Direction.OUTGOING, RelTypes.REL_TYPE2 ) );
+        gds.shutdown();
+    }
+
+    @Test
+    public void degreeShouldCountLoopsInEitherDirection()
+    {
+        BatchInserter graphDb = newBatchInserter();
+        BatchGraphDatabaseImpl gds = new BatchGraphDatabaseImpl( graphDb );
+        long node = graphDb.createNode( null );
+        long other = graphDb.createNode( null );
+        graphDb.createRelationship( node, node, RelTypes.REL_TYPE1, null );
+        graphDb.createRelationship( node, other, RelTypes.REL_TYPE1, null );
+        Node batchNode = gds.getNodeById( node );
+        assertEquals( 2, batchNode.getDegree() );
+        assertEquals( 2, batchNode.getDegree( Direction.OUTGOING ) );
+        assertEquals( 1, batchNode.getDegree( Direction.INCOMING ) );
+        assertEquals( 1, batchNode.getDegree( Direction.INCOMING, RelTypes.REL_TYPE1 ) );
+        assertEquals( 2, batchNode.getDegree( Direction.BOTH, RelTypes.REL_TYPE1 ) );
+        gds.shutdown();
+    }
+
     @Test
     public void makeSureLoopsCanBeCreated()
     {
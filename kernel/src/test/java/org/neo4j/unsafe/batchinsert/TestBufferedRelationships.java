@@ -0,0 +1,261 @@
+/**
+ * Copyright (c) 2002-2012 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.unsafe.batchinsert;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.neo4j.helpers.collection.IteratorUtil.asCollection;
+import static org.neo4j.helpers.collection.IteratorUtil.count;
+import static org.neo4j.helpers.collection.MapUtil.map;
+import static org.neo4j.helpers.collection.MapUtil.stringMap;
+
+import java.util.Arrays;
+import java.util.Map;
+
+import org.junit.Test;
+import org.neo4j.graphdb.Direction;
+import org.neo4j.graphdb.DynamicRelationshipType;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.NotFoundException;
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.RelationshipType;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.kernel.EmbeddedGraphDatabase;
+import org.neo4j.kernel.impl.nioneo.store.NodeRecord;
+import org.neo4j.test.TargetDirectory;
+
+public class TestBufferedRelationships
+{
+    private static final RelationshipType[] TYPES = {
+        DynamicRelationshipType.withName( "KNOWS" ), DynamicRelationshipType.withName( "LIKES" ) };
+    private static final int NODES = 200;
+    private static final int BUFFER_SIZE = 97;
+
+    private final TargetDirectory target = TargetDirectory.forTest( getClass() );
+
+    @Test
+    public void shouldLinkChainsTheSameAsWithoutBuffering() throws Exception
+    {
+        String plainDir = target.directory( "plain", true ).getAbsolutePath();
+        String bufferedDir = target.directory( "buffered", true ).getAbsolutePath();
+        BatchInserterImpl plain = new BatchInserterImpl( plainDir );
+        BatchInserterImpl buffered = new BatchInserterImpl( bufferedDir, bufferSize( BUFFER_SIZE ) );
+        for ( BatchInserterImpl inserter : new BatchInserterImpl[] { plain, buffered } )
+        {
+            createGraph( inserter );
+        }
+        for ( long node = 0; node < NODES; node++ )
+        {
+            assertEquals( "node " + node, asCollection( plain.getRelationshipIds( node ) ),
+                    asCollection( buffered.getRelationshipIds( node ) ) );
+        }
+        plain.shutdown();
+        buffered.shutdown();
+
+        EmbeddedGraphDatabase db = new EmbeddedGraphDatabase( bufferedDir );
+        try
+        {
+            assertChainsIntactAfterDeletions( db );
+        }
+        finally
+        {
+            db.shutdown();
+        }
+    }
+
+    @Test
+    public void shouldSeeBufferedRelationshipsWhenReading() throws Exception
+    {
+        BatchInserterImpl inserter = new BatchInserterImpl( target.directory( "read", true ).getAbsolutePath(),
+                bufferSize( BUFFER_SIZE ) );
+        try
+        {
+            long first = inserter.createNode( null );
+            long second = inserter.createNode( null );
+            long relationship = inserter.createRelationship( first, second, TYPES[0], map( "since", 2012 ) );
+            assertEquals( 1, count( inserter.getRelationships( first ) ) );
+            assertEquals( second, inserter.getRelationshipById( relationship ).getEndNode() );
+
+            long loop = inserter.createRelationship( second, second, TYPES[1], null );
+            assertEquals( 2012, inserter.getRelationshipProperties( relationship ).get( "since" ) );
+            assertEquals( Arrays.asList( loop, relationship ), asCollection( inserter.getRelationshipIds( second ) ) );
+        }
+        finally
+        {
+            inserter.shutdown();
+        }
+    }
+
+    @Test
+    public void shouldRefuseBufferedRelationshipsToNodesNotInUse() throws Exception
+    {
+        String storeDir = target.directory( "unused", true ).getAbsolutePath();
+        BatchInserterImpl inserter = new BatchInserterImpl( storeDir, bufferSize( BUFFER_SIZE ) );
+        long first = inserter.createNode( null );
+        long last = first + 10;
+        inserter.createNode( last, null );
+        try
+        {
+            inserter.createRelationship( first, first + 5, TYPES[0], null );
+            fail( "Shouldn't be able to create a relationship to a node not in use" );
+        }
+        catch ( NotFoundException e )
+        {   // Good
+        }
+        long relationship = inserter.createRelationship( first, last, TYPES[0], null );
+        inserter.shutdown();
+
+        EmbeddedGraphDatabase db = new EmbeddedGraphDatabase( storeDir );
+        try
+        {
+            assertEquals( relationship, db.getNodeById( first ).getSingleRelationship( TYPES[0],
+                    Direction.OUTGOING ).getId() );
+            assertEquals( 1, count( db.getNodeById( last ).getRelationships() ) );
+        }
+        finally
+        {
+            db.shutdown();
+        }
+    }
+
+    @Test
+    public void shouldAddBufferedRelationshipsToDenseNodes() throws Exception
+    {
+        String storeDir = target.directory( "dense", true ).getAbsolutePath();
+        EmbeddedGraphDatabase db = new EmbeddedGraphDatabase( storeDir, stringMap( "dense_node_threshold", "10" ) );
+        long hubId;
+        try
+        {
+            Transaction tx = db.beginTx();
+            Node hub = db.createNode();
+            hub.createRelationshipTo( db.createNode(), TYPES[0] );
+            tx.success();
+            tx.finish();
+            tx = db.beginTx();
+            for ( int i = 0; i < 10; i++ )
+            {
+                hub.createRelationshipTo( db.createNode(), TYPES[0] );
+            }
+            tx.success();
+            tx.finish();
+            hubId = hub.getId();
+        }
+        finally
+        {
+            db.shutdown();
+        }
+
+        BatchInserterImpl inserter = new BatchInserterImpl( storeDir, bufferSize( BUFFER_SIZE ) );
+        NodeRecord hubRecord = inserter.getNodeStore().getRecord( hubId );
+        assertTrue( inserter.getRelationshipStore().isGroupRecord( hubRecord.getNextRel() ) );
+        for ( int i = 0; i < 30; i++ )
+        {
+            long other = inserter.createNode( null );
+            if ( i % 3 == 0 )
+            {
+                inserter.createRelationship( other, hubId, TYPES[0], null );
+            }
+            else
+            {
+                inserter.createRelationship( hubId, other, TYPES[i % 3 - 1], null );
+            }
+        }
+        inserter.createRelationship( hubId, hubId, TYPES[1], null );
+        inserter.shutdown();
+
+        db = new EmbeddedGraphDatabase( storeDir, stringMap( "dense_node_threshold", "10" ) );
+        try
+        {
+            Node hub = db.getNodeById( hubId );
+            assertEquals( 11 + 10, count( hub.getRelationships( TYPES[0], Direction.OUTGOING ) ) );
+            assertEquals( 10, count( hub.getRelationships( TYPES[0], Direction.INCOMING ) ) );
+            assertEquals( 10 + 1, count( hub.getRelationships( TYPES[1] ) ) );
+            for ( Relationship relationship : hub.getRelationships( TYPES[0], Direction.INCOMING ) )
+            {
+                assertEquals( 1, count( relationship.getStartNode().getRelationships() ) );
+            }
+        }
+        finally
+        {
+            db.shutdown();
+        }
+    }
+
+    private static Map<String,String> bufferSize( int size )
+    {
+        return stringMap( "batch_relationship_buffer_size", String.valueOf( size ) );
+    }
+
+    /*
+     * Half of the relationships are created before the nodes have any, so
+     * that buffered ones are put in front of relationships already written.
+     */
+    private static void createGraph( BatchInserter inserter )
+    {
+        for ( int i = 0; i < NODES; i++ )
+        {
+            inserter.createNode( map( "name", "node " + i ) );
+        }
+        for ( int i = 0; i < NODES * 4; i++ )
+        {
+            long start = (i * 7) % NODES;
+            long end = i % 11 == 0 ? start : i % 3 == 0 ? 0 : (i * 13 + 5) % NODES;
+            inserter.createRelationship( start, end, TYPES[i % TYPES.length], map( "index", i ) );
+            if ( i == NODES * 2 )
+            {
+                inserter.getRelationshipIds( 0 );
+            }
+        }
+    }
+
+    private static void assertChainsIntactAfterDeletions( EmbeddedGraphDatabase db )
+    {
+        int total = 0;
+        for ( long node = 0; node < NODES; node++ )
+        {
+            total += count( db.getNodeById( node ).getRelationships( Direction.OUTGOING ) );
+        }
+        Transaction tx = db.beginTx();
+        int deleted = 0;
+        for ( long node = 0; node < NODES; node += 3 )
+        {
+            for ( Relationship relationship : db.getNodeById( node ).getRelationships( Direction.OUTGOING ) )
+            {
+                if ( ((Integer) relationship.getProperty( "index" )) % 2 == 0 )
+                {
+                    relationship.delete();
+                    deleted++;
+                }
+            }
+        }
+        tx.success();
+        tx.finish();
+        db.getNodeManager().clearCache();
+
+        int left = 0;
+        for ( long node = 0; node < NODES; node++ )
+        {
+            left += count( db.getNodeById( node ).getRelationships( Direction.OUTGOING ) );
+        }
+        assertTrue( deleted > 0 );
+        assertEquals( total - deleted, left );
+    }
+}
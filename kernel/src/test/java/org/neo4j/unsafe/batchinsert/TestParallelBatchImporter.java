@@ -0,0 +1,280 @@
+/**
+ * Copyright (c) 2002-2012 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.unsafe.batchinsert;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.fail;
+import static org.neo4j.helpers.collection.MapUtil.map;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.neo4j.graphdb.Direction;
+import org.neo4j.graphdb.DynamicRelationshipType;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.RelationshipType;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.kernel.EmbeddedGraphDatabase;
+import org.neo4j.test.TargetDirectory;
+
+public class TestParallelBatchImporter
+{
+    private static final RelationshipType[] TYPES = {
+        DynamicRelationshipType.withName( "KNOWS" ), DynamicRelationshipType.withName( "LIKES" ),
+        DynamicRelationshipType.withName( "OWES" ) };
+    private static final int NODES = ParallelBatchImporter.BATCH_SIZE * 2 + 500;
+
+    private String storeDir;
+
+    @Before
+    public void doBefore() throws Exception
+    {
+        storeDir = TargetDirectory.forTest( getClass() ).graphDbDir( true ).getAbsolutePath();
+    }
+
+    @Test
+    public void shouldImportNodesAndRelationships() throws Exception
+    {
+        List<ImportRelationship> relationships = relationships( NODES * 3 );
+        ParallelBatchImporter importer = new ParallelBatchImporter( new BatchInserterImpl( storeDir ), 3 );
+        long firstNodeId = importer.doImport( nodes( NODES ), relationships );
+        importer.shutdown();
+
+        int[] degrees = new int[NODES];
+        for ( ImportRelationship relationship : relationships )
+        {
+            degrees[(int) relationship.getStartNode()]++;
+            if ( relationship.getEndNode() != relationship.getStartNode() )
+            {
+                degrees[(int) relationship.getEndNode()]++;
+            }
+        }
+        EmbeddedGraphDatabase db = new EmbeddedGraphDatabase( storeDir );
+        try
+        {
+            for ( int i = 0; i < NODES; i++ )
+            {
+                Node node = db.getNodeById( firstNodeId + i );
+                assertEquals( "node " + i, node.getProperty( "name" ) );
+                assertEquals( i, node.getProperty( "number" ) );
+                if ( i % 10 == 0 )
+                {
+                    assertEquals( longString( i ), node.getProperty( "description" ) );
+                    assertArrayEquals( new long[] { i, i * 1000000000000L }, (long[]) node.getProperty( "numbers" ) );
+                }
+                else
+                {
+                    assertFalse( node.hasProperty( "description" ) );
+                }
+                int degree = 0;
+                for ( Relationship relationship : node.getRelationships() )
+                {
+                    assertEquals( relationship, db.getRelationshipById( relationship.getId() ) );
+                    degree++;
+                }
+                assertEquals( "degree of node " + i, degrees[i], degree );
+            }
+            for ( int i = 0; i < relationships.size(); i += 101 )
+            {
+                ImportRelationship expected = relationships.get( i );
+                Relationship relationship = findRelationship( db.getNodeById( firstNodeId + expected.getStartNode() ),
+                        firstNodeId + expected.getEndNode(), i );
+                assertEquals( expected.getType().name(), relationship.getType().name() );
+            }
+        }
+        finally
+        {
+            db.shutdown();
+        }
+    }
+
+    @Test
+    public void shouldKeepChainsIntactWhenRelationshipsAreDeletedAfterImport() throws Exception
+    {
+        List<ImportRelationship> relationships = relationships( NODES );
+        ParallelBatchImporter importer = new ParallelBatchImporter( new BatchInserterImpl( storeDir ), 2 );
+        long firstNodeId = importer.doImport( nodes( NODES ), relationships );
+        importer.shutdown();
+
+        EmbeddedGraphDatabase db = new EmbeddedGraphDatabase( storeDir );
+        try
+        {
+            Transaction tx = db.beginTx();
+            int deleted = 0;
+            for ( Relationship relationship : db.getNodeById( firstNodeId ).getRelationships() )
+            {
+                relationship.delete();
+                deleted++;
+            }
+            for ( int i = 0; i < relationships.size(); i += 7 )
+            {
+                ImportRelationship toDelete = relationships.get( i );
+                if ( toDelete.getStartNode() != 0 && toDelete.getEndNode() != 0 )
+                {
+                    findRelationship( db.getNodeById( firstNodeId + toDelete.getStartNode() ),
+                            firstNodeId + toDelete.getEndNode(), i ).delete();
+                    deleted++;
+                }
+            }
+            tx.success();
+            tx.finish();
+            db.getNodeManager().clearCache();
+
+            int count = 0;
+            for ( int i = 0; i < NODES; i++ )
+            {
+                for ( Relationship relationship : db.getNodeById( firstNodeId + i ).getRelationships() )
+                {
+                    if ( relationship.getStartNode().getId() == firstNodeId + i )
+                    {
+                        count++;
+                    }
+                }
+            }
+            assertEquals( relationships.size() - deleted, count );
+        }
+        finally
+        {
+            db.shutdown();
+        }
+    }
+
+    @Test
+    public void shouldImportAfterExistingNodes() throws Exception
+    {
+        BatchInserter inserter = BatchInserters.inserter( storeDir );
+        long existing = inserter.createNode( map( "name", "existing" ) );
+        inserter.shutdown();
+
+        ParallelBatchImporter importer = new ParallelBatchImporter( new BatchInserterImpl( storeDir ), 2 );
+        long firstNodeId = importer.doImport( nodes( 3 ), Collections.singletonList(
+                new ImportRelationship( 0, 2, TYPES[0], map( "since", 2012 ) ) ) );
+        importer.shutdown();
+        assertEquals( existing + 1, firstNodeId );
+
+        EmbeddedGraphDatabase db = new EmbeddedGraphDatabase( storeDir );
+        try
+        {
+            assertEquals( "existing", db.getNodeById( existing ).getProperty( "name" ) );
+            Relationship relationship = db.getNodeById( firstNodeId ).getSingleRelationship( TYPES[0],
+                    Direction.OUTGOING );
+            assertEquals( firstNodeId + 2, relationship.getEndNode().getId() );
+            assertEquals( 2012, relationship.getProperty( "since" ) );
+        }
+        finally
+        {
+            db.shutdown();
+        }
+    }
+
+    @Test
+    public void shouldNotImportRelationshipsToNodesOutsideTheInput() throws Exception
+    {
+        ParallelBatchImporter importer = new ParallelBatchImporter( new BatchInserterImpl( storeDir ), 2 );
+        try
+        {
+            importer.doImport( nodes( 3 ), Collections.singletonList(
+                    new ImportRelationship( 0, 3, TYPES[0], null ) ) );
+            fail( "Should not import a relationship to node 3 of 3" );
+        }
+        catch ( IllegalArgumentException e )
+        {   // Good
+        }
+        finally
+        {
+            importer.shutdown();
+        }
+    }
+
+    private Relationship findRelationship( Node startNode, long endNodeId, int index )
+    {
+        for ( Relationship relationship : startNode.getRelationships( Direction.OUTGOING ) )
+        {
+            if ( relationship.getEndNode().getId() == endNodeId &&
+                 Integer.valueOf( index ).equals( relationship.getProperty( "index", null ) ) )
+            {
+                return relationship;
+            }
+        }
+        throw new AssertionError( "No relationship " + index + " from " + startNode + " to " + endNodeId );
+    }
+
+    private static List<Map<String,Object>> nodes( int count )
+    {
+        List<Map<String,Object>> nodes = new ArrayList<Map<String,Object>>();
+        for ( int i = 0; i < count; i++ )
+        {
+            Map<String,Object> properties = map( "name", "node " + i, "number", i );
+            if ( i % 10 == 0 )
+            {
+                properties.put( "description", longString( i ) );
+                properties.put( "numbers", new long[] { i, i * 1000000000000L } );
+            }
+            nodes.add( properties );
+        }
+        return nodes;
+    }
+
+    private static String longString( int i )
+    {
+        StringBuilder builder = new StringBuilder();
+        for ( int j = 0; j < 20; j++ )
+        {
+            builder.append( "description of node " ).append( i ).append( ", " );
+        }
+        return builder.toString();
+    }
+
+    /*
+     * Every node has a relationship to the next one, node 0 is a hub and
+     * some nodes have loops.
+     */
+    private static List<ImportRelationship> relationships( int count )
+    {
+        List<ImportRelationship> relationships = new ArrayList<ImportRelationship>();
+        for ( int i = 0; i < count; i++ )
+        {
+            long start = i % NODES;
+            long end;
+            if ( i % 13 == 0 )
+            {
+                end = start;
+            }
+            else if ( i % 5 == 0 )
+            {
+                end = 0;
+            }
+            else
+            {
+                end = (start + 1 + i / NODES) % NODES;
+            }
+            relationships.add( new ImportRelationship( start, end, TYPES[i % TYPES.length],
+                    map( "index", i ) ) );
+        }
+        return relationships;
+    }
+}
@@ -22,19 +22,78 @@ package org.neo4j.index.impl.lucene;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
+import java.util.NavigableMap;
 import java.util.Set;
+import java.util.TreeMap;
 
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.BooleanQuery;
 import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.NumericRangeQuery;
+import org.apache.lucene.search.PrefixQuery;
 import org.apache.lucene.search.Query;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.search.TermRangeQuery;
 import org.neo4j.index.lucene.QueryContext;
 import org.neo4j.index.lucene.ValueContext;
 
+/**
+ * Transaction state kept as postings, i.e. the ids for each value of each
+ * key. The values of a key are kept sorted, strings in the order of
+ * {@link String#compareTo(String)} and numbers in the order they have as
+ * {@link org.apache.lucene.document.NumericField}s of their type, so that
+ * term, prefix and range queries, and boolean combinations of them, can be
+ * answered from the postings directly if the values are indexed as they are.
+ * Other queries turn this data into a {@link FullTxData}, which builds an
+ * in-memory Lucene index for the rest of the transaction.
+ */
 public class ExactTxData extends TxData
 {
-    private Map<String, Map<Object, Set<Object>>> data;
+    private static final int STRING = 1;
+    private static final int INT = 2;
+    private static final int LONG = 3;
+    private static final int FLOAT = 4;
+    private static final int DOUBLE = 5;
+
+    private static final Comparator<Object> VALUE_ORDER = new Comparator<Object>()
+    {
+        public int compare( Object value1, Object value2 )
+        {
+            int kind = kindOf( value1 );
+            int difference = kind - kindOf( value2 );
+            if ( difference != 0 )
+            {
+                return difference;
+            }
+
+            switch ( kind )
+            {
+            case 0:
+                return 0;
+            case STRING:
+                return ((String) value1).compareTo( (String) value2 );
+            case INT:
+                return compareLongs( ((Number) value1).intValue(), ((Number) value2).intValue() );
+            case LONG:
+                return compareLongs( ((Number) value1).longValue(), ((Number) value2).longValue() );
+            case FLOAT:
+                return Float.compare( ((Number) value1).floatValue(), ((Number) value2).floatValue() );
+            default:
+                return Double.compare( ((Number) value1).doubleValue(), ((Number) value2).doubleValue() );
+            }
+        }
+
+        private int compareLongs( long value1, long value2 )
+        {
+            return value1 < value2 ? -1 : (value1 == value2 ? 0 : 1);
+        }
+    };
+
+    private Map<String, NavigableMap<Object, Set<Object>>> data;
     private boolean hasOrphans;
 
     ExactTxData( LuceneIndex index )
@@ -42,6 +101,36 @@ public class ExactTxData extends TxData
         super( index );
     }
 
+    /**
+     * Numbers are kinds of their own the way
+     * {@link IndexType#instantiateField(String, Object, org.apache.lucene.document.Field.Index)}
+     * indexes them, i.e. anything that isn't a long, float or double is an int.
+     */
+    private static int kindOf( Object value )
+    {
+        if ( value == null )
+        {
+            return 0;
+        }
+        else if ( value instanceof String )
+        {
+            return STRING;
+        }
+        else if ( value instanceof Long )
+        {
+            return LONG;
+        }
+        else if ( value instanceof Float )
+        {
+            return FLOAT;
+        }
+        else if ( value instanceof Double )
+        {
+            return DOUBLE;
+        }
+        return INT;
+    }
+
     @Override
     void add( TxDataHolder holder, Object entityId, String key, Object value )
     {
@@ -69,13 +158,13 @@ public class ExactTxData extends TxData
         return ids;
     }
 
-    private Map<Object, Set<Object>> keyMap( String key, boolean create )
+    private NavigableMap<Object, Set<Object>> keyMap( String key, boolean create )
     {
         if ( data == null )
         {
             if ( create )
             {
-                data = new HashMap<String, Map<Object,Set<Object>>>();
+                data = new HashMap<String, NavigableMap<Object,Set<Object>>>();
             }
             else
             {
@@ -83,10 +172,10 @@ public class ExactTxData extends TxData
             }
         }
 
-        Map<Object, Set<Object>> inner = data.get( key );
+        NavigableMap<Object, Set<Object>> inner = data.get( key );
         if ( inner == null && create )
         {
-            inner = new HashMap<Object, Set<Object>>();
+            inner = new TreeMap<Object, Set<Object>>( VALUE_ORDER );
             data.put( key, inner );
             if ( key == null )
             {
@@ -101,7 +190,7 @@ public class ExactTxData extends TxData
         FullTxData data = new FullTxData( index );
         if ( this.data != null )
         {
-            for ( Map.Entry<String, Map<Object, Set<Object>>> entry : this.data.entrySet() )
+            for ( Map.Entry<String, NavigableMap<Object, Set<Object>>> entry : this.data.entrySet() )
             {
                 String key = entry.getKey();
                 for ( Map.Entry<Object, Set<Object>> valueEntry : entry.getValue().entrySet() )
@@ -125,9 +214,10 @@ public class ExactTxData extends TxData
     @Override
     Collection<Long> query( TxDataHolder holder, Query query, QueryContext contextOrNull )
     {
-        if ( contextOrNull != null && contextOrNull.getTradeCorrectnessForSpeed() )
+        Collection<Long> ids = queryWithoutSearcher( query, contextOrNull );
+        if ( ids != null )
         {
-            return Collections.<Long>emptyList();
+            return ids;
         }
 
         TxData fullTxData = toFullTxData();
@@ -135,6 +225,203 @@ public class ExactTxData extends TxData
         return fullTxData.query( holder, query, contextOrNull );
     }
 
+    @Override
+    Collection<Long> queryWithoutSearcher( Query query, QueryContext contextOrNull )
+    {
+        if ( contextOrNull != null && contextOrNull.getTradeCorrectnessForSpeed() )
+        {
+            return Collections.<Long>emptyList();
+        }
+        if ( !index.type.indexesValuesAsTerms() )
+        {
+            return null;
+        }
+
+        Set<Long> ids = match( query );
+        if ( ids != null && hasOrphans )
+        {
+            // Entities removed from the index as a whole match any query,
+            // the same way as in FullTxData
+            addLongs( ids, idCollection( null, null, false ) );
+        }
+        return ids;
+    }
+
+    /**
+     * @return the ids matching {@code query}, or {@code null} if it can't be
+     * matched against the postings.
+     */
+    private Set<Long> match( Query query )
+    {
+        if ( query instanceof BooleanQuery )
+        {
+            return matchBoolean( (BooleanQuery) query );
+        }
+
+        String key = null;
+        Collection<Set<Object>> postings = null;
+        if ( query instanceof TermQuery )
+        {
+            key = ((TermQuery) query).getTerm().field();
+            Set<Object> ids = idCollection( key, ((TermQuery) query).getTerm().text(), false );
+            postings = ids != null ? Collections.singleton( ids ) : Collections.<Set<Object>>emptySet();
+        }
+        else if ( query instanceof PrefixQuery )
+        {
+            key = ((PrefixQuery) query).getPrefix().field();
+            postings = prefixPostings( key, ((PrefixQuery) query).getPrefix().text() );
+        }
+        else if ( query instanceof TermRangeQuery )
+        {
+            TermRangeQuery range = (TermRangeQuery) query;
+            if ( range.getCollator() != null )
+            {
+                return null;
+            }
+            key = range.getField();
+            postings = rangePostings( key, range.getLowerTerm(), range.includesLower(),
+                    range.getUpperTerm(), range.includesUpper(), STRING );
+        }
+        else if ( query instanceof NumericRangeQuery )
+        {
+            NumericRangeQuery<?> range = (NumericRangeQuery<?>) query;
+            Number bound = range.getMin() != null ? range.getMin() : range.getMax();
+            if ( bound == null )
+            {
+                return null;
+            }
+            key = range.getField();
+            postings = rangePostings( key, range.getMin(), range.includesMin(),
+                    range.getMax(), range.includesMax(), kindOf( bound ) );
+        }
+
+        if ( postings == null || LuceneIndex.FORBIDDEN_KEYS.contains( key ) )
+        {
+            return null;
+        }
+        Set<Long> result = new HashSet<Long>();
+        for ( Set<Object> ids : postings )
+        {
+            addLongs( result, ids );
+        }
+        if ( hasOrphans )
+        {
+            addLongs( result, idCollection( key, null, false ) );
+        }
+        return result;
+    }
+
+    private Set<Long> matchBoolean( BooleanQuery query )
+    {
+        if ( query.getMinimumNumberShouldMatch() > 0 )
+        {
+            return null;
+        }
+
+        Set<Long> required = null;
+        Set<Long> optional = new HashSet<Long>();
+        Set<Long> prohibited = new HashSet<Long>();
+        for ( BooleanClause clause : query.clauses() )
+        {
+            Set<Long> ids = match( clause.getQuery() );
+            if ( ids == null )
+            {
+                return null;
+            }
+            switch ( clause.getOccur() )
+            {
+            case MUST:
+                if ( required == null )
+                {
+                    required = ids;
+                }
+                else
+                {
+                    required.retainAll( ids );
+                }
+                break;
+            case MUST_NOT:
+                prohibited.addAll( ids );
+                break;
+            default:
+                optional.addAll( ids );
+                break;
+            }
+        }
+        Set<Long> result = required != null ? required : optional;
+        result.removeAll( prohibited );
+        return result;
+    }
+
+    private Collection<Set<Object>> prefixPostings( String key, String prefix )
+    {
+        NavigableMap<Object, Set<Object>> keyMap = keyMap( key, false );
+        if ( keyMap == null )
+        {
+            return Collections.emptySet();
+        }
+
+        Collection<Set<Object>> postings = new ArrayList<Set<Object>>();
+        for ( Map.Entry<Object, Set<Object>> entry : keyMap.tailMap( prefix, true ).entrySet() )
+        {
+            Object value = entry.getKey();
+            if ( !(value instanceof String) || !((String) value).startsWith( prefix ) )
+            {
+                break;
+            }
+            postings.add( entry.getValue() );
+        }
+        return postings;
+    }
+
+    /**
+     * Missing bounds are the ends of the values of {@code kind}, since
+     * strings and the different kinds of numbers never match each other's
+     * range queries.
+     */
+    private Collection<Set<Object>> rangePostings( String key, Object lower, boolean includeLower,
+            Object upper, boolean includeUpper, int kind )
+    {
+        NavigableMap<Object, Set<Object>> keyMap = keyMap( key, false );
+        if ( keyMap == null )
+        {
+            return Collections.emptySet();
+        }
+
+        NavigableMap<Object, Set<Object>> range = keyMap;
+        if ( lower != null && upper != null )
+        {
+            if ( VALUE_ORDER.compare( lower, upper ) > 0 )
+            {
+                return Collections.emptySet();
+            }
+            range = keyMap.subMap( lower, includeLower, upper, includeUpper );
+        }
+        else if ( lower != null )
+        {
+            range = keyMap.tailMap( lower, includeLower );
+        }
+        else if ( upper != null )
+        {
+            range = keyMap.headMap( upper, includeUpper );
+        }
+
+        Collection<Set<Object>> postings = new ArrayList<Set<Object>>();
+        for ( Map.Entry<Object, Set<Object>> entry : range.entrySet() )
+        {
+            int valueKind = kindOf( entry.getKey() );
+            if ( valueKind == kind )
+            {
+                postings.add( entry.getValue() );
+            }
+            else if ( valueKind > kind )
+            {
+                break;
+            }
+        }
+        return postings;
+    }
+
     @Override
     void remove( TxDataHolder holder, Object entityId, String key, Object value )
     {
@@ -205,6 +492,14 @@ public class ExactTxData extends TxData
             return longs;
         }
     }
+
+    private void addLongs( Set<Long> target, Set<Object> ids )
+    {
+        if ( ids != null )
+        {
+            target.addAll( toLongs( ids ) );
+        }
+    }
     
     @Override
     IndexSearcher asSearcher( TxDataHolder holder, QueryContext context )
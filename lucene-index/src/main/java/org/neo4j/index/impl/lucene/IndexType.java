@@ -95,6 +95,12 @@ abstract class IndexType
             }
         }
 
+        @Override
+        boolean indexesValuesAsTerms()
+        {
+            return true;
+        }
+
         @Override
         public String toString()
         {
@@ -280,6 +286,15 @@ abstract class IndexType
     {
         return new ExactTxData( index );
     }
+
+    /**
+     * @return whether each value is indexed as a single term equal to the
+     * value itself, so that queries can be matched against the values.
+     */
+    boolean indexesValuesAsTerms()
+    {
+        return false;
+    }
     
     Query query( String keyOrNull, Object value, QueryContext contextOrNull )
     {
@@ -27,8 +27,14 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.lucene.document.Document;
 import org.apache.lucene.document.Fieldable;
@@ -41,14 +47,26 @@ import org.apache.lucene.search.Query;
 import org.apache.lucene.search.TopDocs;
 import org.neo4j.graphdb.index.BatchInserterIndex;
 import org.neo4j.graphdb.index.IndexHits;
+import org.neo4j.helpers.DaemonThreadFactory;
 import org.neo4j.helpers.Pair;
 import org.neo4j.index.lucene.ValueContext;
-import org.neo4j.kernel.impl.cache.LruCache;
 import org.neo4j.kernel.impl.util.IoPrimitiveUtils;
 
+/**
+ * Documents are built on the calling thread. With more than one indexing
+ * thread they are then added to the one {@link IndexWriter} by a pool of
+ * threads, which analyze and invert their documents concurrently in the
+ * writer's thread states. The writer still flushes the buffered documents
+ * of all thread states together into shared segments. All writes for an
+ * entity go through the same thread, so they are applied in the order they
+ * were made.
+ */
 class LuceneBatchInserterIndex implements BatchInserterIndex,
         org.neo4j.unsafe.batchinsert.BatchInserterIndex
 {
+    // Writes waiting for each indexing thread before adding more blocks
+    private static final int PENDING_WRITES_PER_THREAD = 1000;
+
     private final IndexIdentifier identifier;
     private final IndexType type;
     
@@ -56,18 +74,63 @@ class LuceneBatchInserterIndex implements BatchInserterIndex,
     private boolean writerModified;
     private IndexSearcher searcher;
     private final boolean createdNow;
-    private Map<String, LruCache<String, Collection<Long>>> cache;
+    private Map<String, OffHeapIdCache> cache;
     private int updateCount;
     private int commitBatchSize = 500000;
+    // Only entities up to this one can be in an index created now
+    private long highestAddedId = -1;
+    // Null if documents are written by the calling thread
+    private final ThreadPoolExecutor[] indexingThreads;
+    private volatile Throwable writeFailure;
 
     LuceneBatchInserterIndex( String dbStoreDir,
             IndexIdentifier identifier, Map<String, String> config )
     {
+        this( dbStoreDir, identifier, config, 1 );
+    }
+
+    LuceneBatchInserterIndex( String dbStoreDir,
+            IndexIdentifier identifier, Map<String, String> config, int threads )
+    {
+        if ( threads < 1 )
+        {
+            throw new IllegalArgumentException( "threads=" + threads );
+        }
         Pair<String, Boolean> storeDir = LuceneDataSource.getStoreDir( dbStoreDir );
         this.createdNow = !LuceneDataSource.getFileDirectory( storeDir.first(), identifier ).exists();
         this.identifier = identifier;
         this.type = IndexType.getIndexType( identifier, config );
-        this.writer = instantiateWriter( storeDir.first() );
+        this.writer = instantiateWriter( storeDir.first(), threads );
+        this.indexingThreads = threads > 1 ? newIndexingThreads( threads ) : null;
+    }
+
+    private ThreadPoolExecutor[] newIndexingThreads( int threads )
+    {
+        ThreadPoolExecutor[] result = new ThreadPoolExecutor[threads];
+        for ( int i = 0; i < threads; i++ )
+        {
+            result[i] = new ThreadPoolExecutor( 1, 1, 0, TimeUnit.SECONDS,
+                    new ArrayBlockingQueue<Runnable>( PENDING_WRITES_PER_THREAD ),
+                    new DaemonThreadFactory( "Batch indexing " + identifier.indexName ),
+                    new RejectedExecutionHandler()
+                    {
+                        @Override
+                        public void rejectedExecution( Runnable write, ThreadPoolExecutor executor )
+                        {
+                            // Running it here instead could reorder the writes of an entity
+                            try
+                            {
+                                executor.getQueue().put( write );
+                            }
+                            catch ( InterruptedException e )
+                            {
+                                Thread.currentThread().interrupt();
+                                throw new RejectedExecutionException( e );
+                            }
+                        }
+                    } );
+        }
+        return result;
     }
     
     /**
@@ -93,7 +156,8 @@ class LuceneBatchInserterIndex implements BatchInserterIndex,
                 Object value = entry.getValue();
                 addSingleProperty(entityId, document, key, value);
             }
-            writer.addDocument( document );
+            addDocument( entityId, document );
+            highestAddedId = Math.max( highestAddedId, entityId );
             if ( ++updateCount == commitBatchSize )
             {
                 writer.commit();
@@ -106,6 +170,114 @@ class LuceneBatchInserterIndex implements BatchInserterIndex,
         }
     }
 
+    private void addDocument( long entityId, final Document document ) throws IOException
+    {
+        if ( indexingThreads == null )
+        {
+            writer.addDocument( document );
+            return;
+        }
+        write( entityId, new Write()
+        {
+            @Override
+            void write() throws IOException
+            {
+                writer.addDocument( document );
+            }
+        } );
+    }
+
+    private void deleteDocuments( long entityId ) throws IOException
+    {
+        final Query query = type.idTermQuery( entityId );
+        if ( indexingThreads == null )
+        {
+            writer.deleteDocuments( query );
+            return;
+        }
+        write( entityId, new Write()
+        {
+            @Override
+            void write() throws IOException
+            {
+                writer.deleteDocuments( query );
+            }
+        } );
+    }
+
+    private void write( long entityId, Write write )
+    {
+        checkWriteFailure();
+        indexingThreads[(int) (entityId % indexingThreads.length)].execute( write );
+    }
+
+    private void checkWriteFailure()
+    {
+        Throwable failure = writeFailure;
+        if ( failure != null )
+        {
+            throw new RuntimeException( "Indexing failed", failure );
+        }
+    }
+
+    /**
+     * Waits for all writes made so far to be done by the indexing threads.
+     */
+    private void awaitWrites()
+    {
+        if ( indexingThreads == null )
+        {
+            return;
+        }
+        for ( ThreadPoolExecutor thread : indexingThreads )
+        {
+            FutureTask<Void> marker = new FutureTask<Void>( new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                }
+            }, null );
+            thread.execute( marker );
+            try
+            {
+                marker.get();
+            }
+            catch ( InterruptedException e )
+            {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException( e );
+            }
+            catch ( ExecutionException e )
+            {
+                throw new RuntimeException( e.getCause() );
+            }
+        }
+        checkWriteFailure();
+    }
+
+    private abstract class Write implements Runnable
+    {
+        @Override
+        public void run()
+        {
+            if ( writeFailure != null )
+            {
+                return;
+            }
+            try
+            {
+                write();
+            }
+            catch ( Throwable e )
+            {
+                writeFailure = e;
+            }
+        }
+
+        abstract void write() throws IOException;
+    }
+
     private void addSingleProperty( long entityId, Document document, String key, Object value ) {
         for ( Object oneValue : IoPrimitiveUtils.asArray(value) )
         {
@@ -129,17 +301,10 @@ class LuceneBatchInserterIndex implements BatchInserterIndex,
             return;
         }
         
-        String valueAsString = value.toString();
-        LruCache<String, Collection<Long>> cache = this.cache.get( key );
+        OffHeapIdCache cache = this.cache.get( key );
         if ( cache != null )
         {
-            Collection<Long> ids = cache.get( valueAsString );
-            if ( ids == null )
-            {
-                ids = new HashSet<Long>();
-                cache.put( valueAsString, ids );
-            }
-            ids.add( entityId );
+            cache.add( value.toString(), entityId );
         }
     }
     
@@ -150,11 +315,10 @@ class LuceneBatchInserterIndex implements BatchInserterIndex,
             return;
         }
         
-        String valueAsString = value.toString();
-        LruCache<String, Collection<Long>> cache = this.cache.get( key );
+        OffHeapIdCache cache = this.cache.get( key );
         if ( cache != null )
         {
-            cache.put( valueAsString, ids );
+            cache.put( value.toString(), ids );
         }
     }
 
@@ -165,11 +329,10 @@ class LuceneBatchInserterIndex implements BatchInserterIndex,
             return null;
         }
         
-        String valueAsString = value.toString();
-        LruCache<String, Collection<Long>> cache = this.cache.get( key );
+        OffHeapIdCache cache = this.cache.get( key );
         if ( cache != null )
         {
-            Collection<Long> ids = cache.get( valueAsString );
+            Collection<Long> ids = cache.get( value.toString() );
             if ( ids != null )
             {
                 return new ConstantScoreIterator<Long>( ids, Float.NaN );
@@ -183,8 +346,15 @@ class LuceneBatchInserterIndex implements BatchInserterIndex,
     {
         try
         {
-            removeFromCache( entityId );
-            writer.deleteDocuments( type.idTermQuery( entityId ) );
+            // An entity after all those added to an index created now can't be in it
+            if ( !createdNow || entityId <= highestAddedId )
+            {
+                if ( this.cache != null )
+                {
+                    removeFromCache( entityId );
+                }
+                deleteDocuments( entityId );
+            }
             add( entityId, properties );
         }
         catch ( IOException e )
@@ -217,24 +387,21 @@ class LuceneBatchInserterIndex implements BatchInserterIndex,
             return;
         }
         
-        String valueAsString = value.toString();
-        LruCache<String, Collection<Long>> cache = this.cache.get( key );
+        OffHeapIdCache cache = this.cache.get( key );
         if ( cache != null )
         {
-            Collection<Long> ids = cache.get( valueAsString );
-            if ( ids != null )
-            {
-                ids.remove( entityId );
-            }
+            cache.remove( value.toString(), entityId );
         }
     }
 
-    private IndexWriter instantiateWriter( String directory )
+    private IndexWriter instantiateWriter( String directory, int threads )
     {
         try
         {
             IndexWriterConfig writerConfig = new IndexWriterConfig( LUCENE_VERSION, type.analyzer );
             writerConfig.setRAMBufferSizeMB( determineGoodBufferSize( writerConfig.getRAMBufferSizeMB() ) );
+            // So that indexing threads don't wait for each other's thread state
+            writerConfig.setMaxThreadStates( Math.max( threads, writerConfig.getMaxThreadStates() ) );
             IndexWriter writer = new IndexWriter( getDirectory( directory, identifier ), writerConfig );
             return writer;
         }
@@ -374,13 +541,41 @@ class LuceneBatchInserterIndex implements BatchInserterIndex,
 
     public void shutdown()
     {
-        closeSearcher();
-        closeWriter();
+        try
+        {
+            awaitWrites();
+        }
+        finally
+        {
+            if ( indexingThreads != null )
+            {
+                for ( ThreadPoolExecutor thread : indexingThreads )
+                {
+                    thread.shutdown();
+                }
+            }
+            closeSearcher();
+            closeWriter();
+            closeCache();
+        }
+    }
+
+    private void closeCache()
+    {
+        if ( this.cache != null )
+        {
+            for ( OffHeapIdCache cache : this.cache.values() )
+            {
+                cache.close();
+            }
+            this.cache = null;
+        }
     }
     
     @Override
     public void flush()
     {
+        awaitWrites();
         writerModified = true;
 //        try
 //        {
@@ -392,21 +587,29 @@ class LuceneBatchInserterIndex implements BatchInserterIndex,
 //        }
     }
     
+    /**
+     * The cache is kept outside of the heap, <CODE>size</CODE> is the number
+     * of value and id pairs it can hold. Values indexed for many entities
+     * aren't cached, see {@link OffHeapIdCache}. It takes up to 96 bytes
+     * per pair plus the values from direct memory, so
+     * <CODE>-XX:MaxDirectMemorySize</CODE> may have to be raised for large
+     * caches. Values that don't fit are looked up in the index instead.
+     */
     @Override
     public void setCacheCapacity( String key, int size )
     {
         if ( this.cache == null )
         {
-            this.cache = new HashMap<String, LruCache<String,Collection<Long>>>();
+            this.cache = new HashMap<String, OffHeapIdCache>();
         }
-        LruCache<String, Collection<Long>> cache = this.cache.get( key );
+        OffHeapIdCache cache = this.cache.get( key );
         if ( cache != null )
         {
             cache.resize( size );
         }
         else
         {
-            cache = new LruCache<String, Collection<Long>>( "Batch inserter cache for " + key, size );
+            cache = new OffHeapIdCache( "Batch inserter cache for " + key, size );
             this.cache.put( key, cache );
         }
     }
@@ -51,10 +51,21 @@ public class LuceneBatchInserterIndexProviderNewImpl implements BatchInserterInd
     final IndexStore indexStore;
     final EntityType nodeEntityType;
     final EntityType relationshipEntityType;
+    private final int indexingThreads;
 
     public LuceneBatchInserterIndexProviderNewImpl( final BatchInserter inserter )
+    {
+        this( inserter, 1 );
+    }
+
+    /**
+     * @param indexingThreads the number of threads adding documents to each
+     *            index, 1 to add them on the calling thread.
+     */
+    public LuceneBatchInserterIndexProviderNewImpl( final BatchInserter inserter, int indexingThreads )
     {
         this.inserter = inserter;
+        this.indexingThreads = indexingThreads;
         this.indexStore = ((BatchInserterImpl) inserter).getIndexStore();
         this.nodeEntityType = new EntityType()
         {
@@ -148,7 +159,7 @@ public class LuceneBatchInserterIndexProviderNewImpl implements BatchInserterInd
         {
             index = new LuceneBatchInserterIndex( inserter.getStoreDir(),
                     identifier,
-                    config );
+                    config, indexingThreads );
             indexes.put( identifier, index );
         }
         return index;
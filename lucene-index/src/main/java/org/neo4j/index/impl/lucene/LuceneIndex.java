@@ -56,7 +56,7 @@ public abstract class LuceneIndex<T extends PropertyContainer> implements Index<
     static final String KEY_START_NODE_ID = "_start_node_id_";
     static final String KEY_END_NODE_ID = "_end_node_id_";
 
-    private static Set<String> FORBIDDEN_KEYS = new HashSet<String>( Arrays.asList( null, KEY_DOC_ID, KEY_START_NODE_ID, KEY_END_NODE_ID ) );
+    static final Set<String> FORBIDDEN_KEYS = new HashSet<String>( Arrays.asList( null, KEY_DOC_ID, KEY_START_NODE_ID, KEY_END_NODE_ID ) );
 
     final LuceneIndexImplementation service;
     private final IndexIdentifier identifier;
@@ -254,7 +254,17 @@ public abstract class LuceneIndex<T extends PropertyContainer> implements Index<
             }
             else
             {
-                additionsSearcher = luceneTx.getAdditionsAsSearcher( this, additionalParametersOrNull );
+                // Sorted or top hits need the additions searched along with the rest
+                Collection<Long> addedIds = needsSearchedAdditions( additionalParametersOrNull ) ? null :
+                        luceneTx.getAddedIdsWithoutSearcher( this, query, additionalParametersOrNull );
+                if ( addedIds != null )
+                {
+                    ids.addAll( addedIds );
+                }
+                else
+                {
+                    additionsSearcher = luceneTx.getAdditionsAsSearcher( this, additionalParametersOrNull );
+                }
             }
             removedIds = keyForDirectLookup != null ?
                     luceneTx.getRemovedIds( this, keyForDirectLookup, valueForDirectLookup ) :
@@ -306,6 +316,11 @@ public abstract class LuceneIndex<T extends PropertyContainer> implements Index<
         return newEntityIterator( idIterator );
     }
 
+    private static boolean needsSearchedAdditions( QueryContext contextOrNull )
+    {
+        return contextOrNull != null && (contextOrNull.getSorting() != null || contextOrNull.getTop() > 0);
+    }
+
     @Override
     public boolean isWriteable()
     {
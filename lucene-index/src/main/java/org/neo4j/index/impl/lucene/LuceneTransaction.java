@@ -203,6 +203,22 @@ class LuceneTransaction extends XaTransaction
         return ids != null ? ids : Collections.<Long>emptySet();
     }
 
+    /**
+     * @return the ids added in this transaction that match {@code query}, or
+     * {@code null} if they can only be found with
+     * {@link #getAdditionsAsSearcher(LuceneIndex, QueryContext)}.
+     */
+    <T extends PropertyContainer> Collection<Long> getAddedIdsWithoutSearcher( LuceneIndex<T> index,
+            Query query, QueryContext contextOrNull )
+    {
+        TxDataHolder added = addedTxDataOrNull( index );
+        if ( added == null )
+        {
+            return Collections.emptySet();
+        }
+        return added.queryWithoutSearcher( query, contextOrNull );
+    }
+
     <T extends PropertyContainer> Collection<Long> getAddedIds( LuceneIndex<T> index,
             String key, Object value )
     {
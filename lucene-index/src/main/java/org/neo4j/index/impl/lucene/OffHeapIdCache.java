@@ -0,0 +1,602 @@
+/**
+ * Copyright (c) 2002-2012 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.index.impl.lucene;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import org.neo4j.helpers.UTF8;
+
+/**
+ * Maps values to the ids of the entities indexed with them, for one key of
+ * a {@link LuceneBatchInserterIndex}. Everything is kept outside of the heap,
+ * in an open addressing hash table with one slot per value and id, and the
+ * values themselves in a separate area so that a slot with a matching hash
+ * can be verified to really be for the value. A lookup of a value with one
+ * id is then a probe or two into the table and a comparison of the bytes.
+ * <p>
+ * A value is only cached with all its ids or not at all, a value that
+ * isn't cached has to be looked up in the index. That happens to values
+ * with more than {@link #MAX_IDS_PER_VALUE} ids, which would make the runs
+ * of the table too long, and to values added when the cache is full.
+ * <p>
+ * The memory is direct memory, which is limited by
+ * <CODE>-XX:MaxDirectMemorySize</CODE> rather than by the heap size. It's
+ * allocated as it's used, 24 bytes per slot and up to four slots per value
+ * and id of the capacity, plus the bytes of the values. Running out of
+ * direct memory makes the cache full rather than failing, so values are
+ * looked up in the index instead. If that happens while the table is
+ * rebuilt the cache is emptied. Memory of a cache that is resized or
+ * {@link #close() closed} is freed when the garbage collector gets to its
+ * buffers, which happens as direct memory runs low.
+ * <p>
+ * Not thread safe.
+ */
+class OffHeapIdCache
+{
+    static final int MAX_IDS_PER_VALUE = 16;
+
+    // Slots are three longs: the hash of the value, the id and where the value is
+    private static final int SLOT_LONGS = 3;
+    private static final long EMPTY = 0;
+    private static final long REMOVED = -2;
+    // Ids for marker slots of values that aren't for any or too many entities
+    private static final long NO_IDS = -1;
+    private static final long TOO_MANY_IDS = -3;
+
+    private final String name;
+    private int capacity;
+    private long slotCount;
+    private LongBuffers slots;
+    private ValueArea values;
+    // Slots with a value and slots removed from, removed ones stay until rebuilt
+    private long usedSlots;
+    private long removedSlots;
+
+    OffHeapIdCache( String name, int capacity )
+    {
+        this.name = name;
+        allocate( capacity );
+    }
+
+    private void allocate( int capacity )
+    {
+        if ( capacity < 1 )
+        {
+            throw new IllegalArgumentException( "capacity=" + capacity );
+        }
+        this.capacity = capacity;
+        // At most half full, so that runs stay short
+        slotCount = Long.highestOneBit( Math.max( 16L, capacity * 2L ) - 1 ) << 1;
+        // Any previous buffers are left to the garbage collector
+        slots = new LongBuffers( slotCount * SLOT_LONGS );
+        values = new ValueArea();
+        usedSlots = 0;
+        removedSlots = 0;
+    }
+
+    String getName()
+    {
+        return name;
+    }
+
+    /**
+     * @return the number of values and ids in the cache.
+     */
+    long size()
+    {
+        return usedSlots - removedSlots;
+    }
+
+    /**
+     * @return the ids cached for <CODE>value</CODE>, or <CODE>null</CODE>
+     *         if it isn't cached.
+     */
+    Collection<Long> get( String value )
+    {
+        byte[] bytes = UTF8.encode( value );
+        long hash = hash( bytes );
+        List<Long> ids = null;
+        for ( long slot = firstSlot( hash ); hashAt( slot ) != EMPTY; slot = nextSlot( slot ) )
+        {
+            long id = idAt( slot );
+            if ( id == REMOVED || !matches( slot, hash, bytes ) )
+            {
+                continue;
+            }
+            if ( id == TOO_MANY_IDS )
+            {
+                return null;
+            }
+            if ( ids == null )
+            {
+                ids = new ArrayList<Long>();
+            }
+            if ( id != NO_IDS )
+            {
+                ids.add( id );
+            }
+        }
+        return ids;
+    }
+
+    /**
+     * Adds <CODE>id</CODE> to the ids of <CODE>value</CODE>, which is then
+     * cached if it wasn't already.
+     */
+    void add( String value, long id )
+    {
+        byte[] bytes = UTF8.encode( value );
+        long hash = hash( bytes );
+        long marker = -1;
+        long valueRef = -1;
+        int idCount = 0;
+        for ( long slot = firstSlot( hash ); hashAt( slot ) != EMPTY; slot = nextSlot( slot ) )
+        {
+            long slotId = idAt( slot );
+            if ( slotId == REMOVED || !matches( slot, hash, bytes ) )
+            {
+                continue;
+            }
+            valueRef = valueRefAt( slot );
+            if ( slotId == TOO_MANY_IDS || slotId == id )
+            {
+                return;
+            }
+            if ( slotId == NO_IDS )
+            {
+                marker = slot;
+            }
+            else
+            {
+                idCount++;
+            }
+        }
+        if ( marker != -1 )
+        {
+            slots.set( marker * SLOT_LONGS + 1, id );
+        }
+        else if ( idCount == MAX_IDS_PER_VALUE )
+        {
+            invalidate( hash, bytes );
+        }
+        else if ( insert( hash, bytes, valueRef, id ) == -1 && idCount > 0 )
+        {
+            // Full, the ids it has are no longer all of them
+            invalidate( hash, bytes );
+        }
+    }
+
+    /**
+     * Sets the ids of <CODE>value</CODE> to <CODE>ids</CODE>, replacing
+     * the ones it had if it was cached.
+     */
+    void put( String value, Collection<Long> ids )
+    {
+        byte[] bytes = UTF8.encode( value );
+        long hash = hash( bytes );
+        long valueRef = removeAll( hash, bytes );
+        if ( ids.size() > MAX_IDS_PER_VALUE )
+        {
+            insert( hash, bytes, valueRef, TOO_MANY_IDS );
+        }
+        else if ( ids.isEmpty() )
+        {
+            insert( hash, bytes, valueRef, NO_IDS );
+        }
+        else
+        {
+            for ( long id : ids )
+            {
+                valueRef = insert( hash, bytes, valueRef, id );
+                if ( valueRef == -1 )
+                {
+                    removeAll( hash, bytes );
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Removes <CODE>id</CODE> from the ids of <CODE>value</CODE>, if it's
+     * cached. A value left without ids stays cached as not being for any
+     * entity.
+     */
+    void remove( String value, long id )
+    {
+        byte[] bytes = UTF8.encode( value );
+        long hash = hash( bytes );
+        long found = -1;
+        int others = 0;
+        for ( long slot = firstSlot( hash ); hashAt( slot ) != EMPTY; slot = nextSlot( slot ) )
+        {
+            long slotId = idAt( slot );
+            if ( slotId == REMOVED || !matches( slot, hash, bytes ) )
+            {
+                continue;
+            }
+            if ( slotId == id )
+            {
+                found = slot;
+            }
+            else if ( slotId != NO_IDS )
+            {
+                others++;
+            }
+        }
+        if ( found == -1 )
+        {
+            return;
+        }
+        if ( others == 0 )
+        {
+            slots.set( found * SLOT_LONGS + 1, NO_IDS );
+        }
+        else
+        {
+            slots.set( found * SLOT_LONGS + 1, REMOVED );
+            removedSlots++;
+        }
+    }
+
+    /**
+     * Changes the number of values and ids the cache can hold, which drops
+     * everything in it if it doesn't fit.
+     */
+    void resize( int newCapacity )
+    {
+        if ( newCapacity == capacity )
+        {
+            return;
+        }
+        if ( size() > newCapacity )
+        {
+            allocate( newCapacity );
+        }
+        else
+        {
+            rebuild( newCapacity );
+        }
+    }
+
+    /**
+     * Lets go of the memory of this cache, which can't be used after this.
+     */
+    void close()
+    {
+        slots = null;
+        values = null;
+    }
+
+    /*
+     * Makes sure the value is looked up in the index from now on, by
+     * replacing its slots with a marker saying it has too many ids.
+     */
+    private void invalidate( long hash, byte[] bytes )
+    {
+        long valueRef = removeAll( hash, bytes );
+        insert( hash, bytes, valueRef, TOO_MANY_IDS );
+    }
+
+    // Returns where the value is stored, if it was in any slot
+    private long removeAll( long hash, byte[] bytes )
+    {
+        long valueRef = -1;
+        for ( long slot = firstSlot( hash ); hashAt( slot ) != EMPTY; slot = nextSlot( slot ) )
+        {
+            if ( idAt( slot ) != REMOVED && matches( slot, hash, bytes ) )
+            {
+                valueRef = valueRefAt( slot );
+                slots.set( slot * SLOT_LONGS + 1, REMOVED );
+                removedSlots++;
+            }
+        }
+        return valueRef;
+    }
+
+    /*
+     * Puts the id in a new slot, reusing a removed one if there's one in
+     * the run. Returns where the value is stored, or -1 if the cache is full.
+     */
+    private long insert( long hash, byte[] bytes, long valueRef, long id )
+    {
+        if ( size() >= capacity )
+        {
+            return -1;
+        }
+        if ( usedSlots >= slotCount * 3 / 4 )
+        {
+            // Mostly removed slots, get rid of them
+            if ( !rebuild( capacity ) )
+            {
+                // Emptied, other ids of the value may be gone
+                return -1;
+            }
+            valueRef = -1;
+        }
+        if ( valueRef == -1 )
+        {
+            valueRef = values.add( bytes );
+            if ( valueRef == -1 )
+            {
+                return -1;
+            }
+        }
+        long slot = firstSlot( hash );
+        while ( hashAt( slot ) != EMPTY && idAt( slot ) != REMOVED )
+        {
+            slot = nextSlot( slot );
+        }
+        if ( !slots.allocate( slot * SLOT_LONGS ) || !slots.allocate( slot * SLOT_LONGS + SLOT_LONGS - 1 ) )
+        {
+            // Out of direct memory
+            return -1;
+        }
+        if ( hashAt( slot ) == EMPTY )
+        {
+            usedSlots++;
+        }
+        else
+        {
+            removedSlots--;
+        }
+        setSlot( slot, hash, id, valueRef );
+        return valueRef;
+    }
+
+    /*
+     * Moves everything over to a new table. Returns false if it ran out of
+     * direct memory, which leaves the cache empty.
+     */
+    private boolean rebuild( int newCapacity )
+    {
+        LongBuffers oldSlots = slots;
+        ValueArea oldValues = values;
+        long oldSlotCount = slotCount;
+        allocate( newCapacity );
+        for ( long slot = 0; slot < oldSlotCount; slot++ )
+        {
+            long hash = oldSlots.get( slot * SLOT_LONGS );
+            long id = oldSlots.get( slot * SLOT_LONGS + 1 );
+            if ( hash == EMPTY || id == REMOVED )
+            {
+                continue;
+            }
+            byte[] bytes = oldValues.get( oldSlots.get( slot * SLOT_LONGS + 2 ) );
+            long valueRef = -1;
+            // Ids of the same value share the value, look for one already moved
+            for ( long newSlot = firstSlot( hash ); hashAt( newSlot ) != EMPTY; newSlot = nextSlot( newSlot ) )
+            {
+                if ( matches( newSlot, hash, bytes ) )
+                {
+                    valueRef = valueRefAt( newSlot );
+                    break;
+                }
+            }
+            if ( insert( hash, bytes, valueRef, id ) == -1 )
+            {
+                // Out of direct memory, some ids of a value may be missing
+                allocate( newCapacity );
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean matches( long slot, long hash, byte[] bytes )
+    {
+        return hashAt( slot ) == hash && values.equals( valueRefAt( slot ), bytes );
+    }
+
+    private long firstSlot( long hash )
+    {
+        return (hash ^ (hash >>> 32)) & (slotCount - 1);
+    }
+
+    private long nextSlot( long slot )
+    {
+        return (slot + 1) & (slotCount - 1);
+    }
+
+    private long hashAt( long slot )
+    {
+        return slots.get( slot * SLOT_LONGS );
+    }
+
+    private long idAt( long slot )
+    {
+        return slots.get( slot * SLOT_LONGS + 1 );
+    }
+
+    private long valueRefAt( long slot )
+    {
+        return slots.get( slot * SLOT_LONGS + 2 );
+    }
+
+    private void setSlot( long slot, long hash, long id, long valueRef )
+    {
+        slots.set( slot * SLOT_LONGS, hash );
+        slots.set( slot * SLOT_LONGS + 1, id );
+        slots.set( slot * SLOT_LONGS + 2, valueRef );
+    }
+
+    /*
+     * FNV-1a, never EMPTY.
+     */
+    private static long hash( byte[] bytes )
+    {
+        long hash = 0xcbf29ce484222325L;
+        for ( byte b : bytes )
+        {
+            hash ^= b & 0xFF;
+            hash *= 0x100000001b3L;
+        }
+        return hash == EMPTY ? 1 : hash;
+    }
+
+    /**
+     * @return a new zeroed direct buffer, or <CODE>null</CODE> if there's
+     *         not enough direct memory for it.
+     */
+    ByteBuffer allocateDirect( int size )
+    {
+        try
+        {
+            return ByteBuffer.allocateDirect( size );
+        }
+        catch ( OutOfMemoryError e )
+        {
+            return null;
+        }
+    }
+
+    @Override
+    public String toString()
+    {
+        return getClass().getSimpleName() + "[" + name + ", " + size() + "/" + capacity + "]";
+    }
+
+    /**
+     * A long array of zeros in direct buffers, which can be larger than one
+     * buffer. Buffers are allocated when first written to.
+     */
+    private class LongBuffers
+    {
+        private static final int BUFFER_BITS = 16;
+        private static final int BUFFER_MASK = (1 << BUFFER_BITS) - 1;
+
+        private final long length;
+        private final ByteBuffer[] buffers;
+
+        LongBuffers( long length )
+        {
+            this.length = length;
+            buffers = new ByteBuffer[(int) ((length + BUFFER_MASK) >>> BUFFER_BITS)];
+        }
+
+        long get( long index )
+        {
+            ByteBuffer buffer = buffers[(int) (index >>> BUFFER_BITS)];
+            return buffer == null ? 0 : buffer.getLong( ((int) index & BUFFER_MASK) << 3 );
+        }
+
+        /**
+         * Only for indexes that have been {@link #allocate(long) allocated}.
+         */
+        void set( long index, long value )
+        {
+            buffers[(int) (index >>> BUFFER_BITS)].putLong( ((int) index & BUFFER_MASK) << 3, value );
+        }
+
+        /**
+         * Allocates the buffer holding <CODE>index</CODE>, unless it is already.
+         *
+         * @return <CODE>false</CODE> if there's not enough direct memory for it.
+         */
+        boolean allocate( long index )
+        {
+            int i = (int) (index >>> BUFFER_BITS);
+            if ( buffers[i] == null )
+            {
+                long longs = Math.min( length - ((long) i << BUFFER_BITS), 1 << BUFFER_BITS );
+                // Direct buffers are zeroed, i.e. all slots are EMPTY
+                buffers[i] = allocateDirect( (int) longs * 8 );
+            }
+            return buffers[i] != null;
+        }
+    }
+
+    /**
+     * Values as their length followed by their bytes, in direct buffers
+     * allocated as needed, each twice the size of the one before up to
+     * {@link #BUFFER_SIZE}. A reference to a value is its buffer in the
+     * upper bits and the position in it in the lower ones.
+     */
+    private class ValueArea
+    {
+        private static final int BUFFER_BITS = 24;
+        private static final int BUFFER_SIZE = 1 << BUFFER_BITS;
+        private static final int FIRST_BUFFER_SIZE = 1 << 16;
+
+        private final List<ByteBuffer> buffers = new ArrayList<ByteBuffer>();
+
+        /**
+         * @return the reference to the value, or -1 if it's too large or
+         * there's not enough direct memory for it.
+         */
+        long add( byte[] bytes )
+        {
+            int length = 4 + bytes.length;
+            if ( length > BUFFER_SIZE )
+            {
+                return -1;
+            }
+            ByteBuffer buffer = buffers.isEmpty() ? null : buffers.get( buffers.size() - 1 );
+            if ( buffer == null || buffer.remaining() < length )
+            {
+                int size = buffer == null ? FIRST_BUFFER_SIZE : Math.min( BUFFER_SIZE, buffer.capacity() * 2 );
+                ByteBuffer newBuffer = allocateDirect( Math.max( size, length ) );
+                if ( newBuffer == null )
+                {
+                    return -1;
+                }
+                buffer = newBuffer;
+                buffers.add( buffer );
+            }
+            long ref = ((long) (buffers.size() - 1) << BUFFER_BITS) | buffer.position();
+            buffer.putInt( bytes.length );
+            buffer.put( bytes );
+            return ref;
+        }
+
+        byte[] get( long ref )
+        {
+            ByteBuffer buffer = buffers.get( (int) (ref >>> BUFFER_BITS) );
+            int position = (int) (ref & (BUFFER_SIZE - 1));
+            byte[] bytes = new byte[buffer.getInt( position )];
+            for ( int i = 0; i < bytes.length; i++ )
+            {
+                bytes[i] = buffer.get( position + 4 + i );
+            }
+            return bytes;
+        }
+
+        boolean equals( long ref, byte[] bytes )
+        {
+            ByteBuffer buffer = buffers.get( (int) (ref >>> BUFFER_BITS) );
+            int position = (int) (ref & (BUFFER_SIZE - 1));
+            if ( buffer.getInt( position ) != bytes.length )
+            {
+                return false;
+            }
+            for ( int i = 0; i < bytes.length; i++ )
+            {
+                if ( buffer.get( position + 4 + i ) != bytes[i] )
+                {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
@@ -40,6 +40,14 @@ abstract class TxData
 
     abstract Collection<Long> query( TxDataHolder holder, Query query, QueryContext contextOrNull );
 
+    /**
+     * Like {@link #query(TxDataHolder, Query, QueryContext)}, but only if the
+     * query can be answered without building a searcher for this data.
+     *
+     * @return the matching ids, or {@code null} if the query needs a searcher.
+     */
+    abstract Collection<Long> queryWithoutSearcher( Query query, QueryContext contextOrNull );
+
     abstract Collection<Long> get( TxDataHolder holder, String key, Object value );
     
     abstract Collection<Long> getOrphans( String key );
@@ -37,6 +37,21 @@ public class LuceneBatchInserterIndexProvider implements BatchInserterIndexProvi
     {
         provider = new LuceneBatchInserterIndexProviderNewImpl( inserter );
     }
+
+    /**
+     * Creates a provider whose indexes add documents with
+     * <CODE>indexingThreads</CODE> threads each. Writes to an entity are
+     * still applied in the order they were made, and documents are built on
+     * the calling thread, so the indexes are used the same way.
+     *
+     * @param inserter the batch inserter to index entities of.
+     * @param indexingThreads the number of threads adding documents to each
+     *            index, 1 to add them on the calling thread.
+     */
+    public LuceneBatchInserterIndexProvider( final BatchInserter inserter, int indexingThreads )
+    {
+        provider = new LuceneBatchInserterIndexProviderNewImpl( inserter, indexingThreads );
+    }
     
     @Override
     public BatchInserterIndex nodeIndex( String indexName, Map<String, String> config )
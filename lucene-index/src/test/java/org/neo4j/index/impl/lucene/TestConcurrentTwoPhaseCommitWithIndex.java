@@ -0,0 +1,93 @@
+/**
+ * Copyright (c) 2002-2012 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.index.impl.lucene;
+
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThat;
+import static org.neo4j.helpers.collection.IteratorUtil.count;
+import static org.neo4j.helpers.collection.MapUtil.stringMap;
+import static org.neo4j.index.impl.lucene.Contains.contains;
+import static org.neo4j.index.impl.lucene.IsEmpty.isEmpty;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.neo4j.graphdb.DynamicRelationshipType;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.graphdb.index.Index;
+import org.neo4j.test.ImpermanentGraphDatabase;
+
+public class TestConcurrentTwoPhaseCommitWithIndex
+{
+    private ImpermanentGraphDatabase db;
+
+    @Before
+    public void doBefore() throws Exception
+    {
+        db = new ImpermanentGraphDatabase( stringMap( "concurrent_two_phase_commit", "true" ) );
+    }
+
+    @After
+    public void doAfter() throws Exception
+    {
+        db.shutdown();
+    }
+
+    @Test
+    public void commitTransactionsTouchingGraphAndIndex() throws Exception
+    {
+        Index<Node> index = db.index().forNodes( "nodes" );
+        Node first = null;
+        for ( int i = 0; i < 10; i++ )
+        {
+            Transaction tx = db.beginTx();
+            Node node = db.createNode();
+            node.setProperty( "name", "node " + i );
+            index.add( node, "name", "node " + i );
+            if ( first == null )
+            {
+                first = node;
+            }
+            else
+            {
+                node.createRelationshipTo( first, DynamicRelationshipType.withName( "KNOWS" ) );
+            }
+            tx.success();
+            tx.finish();
+            assertThat( index.get( "name", "node " + i ), contains( node ) );
+        }
+        assertEquals( 9, count( first.getRelationships() ) );
+
+        Transaction tx = db.beginTx();
+        for ( Relationship relationship : first.getRelationships() )
+        {
+            relationship.delete();
+        }
+        index.remove( first );
+        first.delete();
+        tx.success();
+        tx.finish();
+        assertThat( index.get( "name", "node 0" ), isEmpty() );
+        assertThat( index.query( "name", "node*" ).size(), is( 9 ) );
+    }
+}
@@ -57,7 +57,6 @@ import org.neo4j.index.Neo4jTestCase;
 import org.neo4j.index.lucene.ValueContext;
 import org.neo4j.kernel.impl.batchinsert.BatchInserter;
 import org.neo4j.kernel.impl.batchinsert.BatchInserterImpl;
-import org.neo4j.kernel.impl.cache.LruCache;
 
 public class TestLuceneBatchInsert
 {
@@ -418,30 +417,71 @@ public class TestLuceneBatchInsert
         inserter.shutdown();
     }
     
+    @Test
+    public void indexWithSeveralThreadsAppliesWritesOfAnEntityInOrder() throws Exception
+    {
+        String path = new File( PATH, "10" ).getAbsolutePath();
+        org.neo4j.unsafe.batchinsert.BatchInserter inserter =
+                org.neo4j.unsafe.batchinsert.BatchInserters.inserter( path );
+        org.neo4j.unsafe.batchinsert.BatchInserterIndexProvider provider =
+                new org.neo4j.unsafe.batchinsert.LuceneBatchInserterIndexProvider( inserter, 4 );
+        org.neo4j.unsafe.batchinsert.BatchInserterIndex index = provider.nodeIndex( "threads", EXACT_CONFIG );
+        int count = 5000;
+        long[] ids = new long[count];
+        for ( int i = 0; i < count; i++ )
+        {
+            ids[i] = inserter.createNode( null );
+            index.add( ids[i], map( "name", "name" + i, "group", i % 10 ) );
+        }
+        for ( int i = 0; i < count; i += 2 )
+        {
+            index.updateOrAdd( ids[i], map( "name", "renamed" + i, "group", i % 10 ) );
+        }
+        index.flush();
+        for ( int i = 0; i < count; i++ )
+        {
+            String name = i % 2 == 0 ? "renamed" + i : "name" + i;
+            assertEquals( ids[i], index.get( "name", name ).getSingle().longValue() );
+        }
+        assertEquals( count / 10, index.get( "group", 3 ).size() );
+        provider.shutdown();
+        inserter.shutdown();
+
+        GraphDatabaseService db = new GraphDatabaseFactory().newEmbeddedDatabase( path );
+        Index<Node> dbIndex = db.index().forNodes( "threads" );
+        for ( int i = 0; i < count; i++ )
+        {
+            String name = i % 2 == 0 ? "renamed" + i : "name" + i;
+            assertEquals( db.getNodeById( ids[i] ), dbIndex.get( "name", name ).getSingle() );
+        }
+        assertEquals( 0, dbIndex.get( "name", "name0" ).size() );
+        db.shutdown();
+    }
+
     private void assertCacheContainsSomething( BatchInserterIndex index, String... keys )
     {
-        Map<String, LruCache<String, Collection<Long>>> cache = getIndexCache( index );
+        Map<String, OffHeapIdCache> cache = getIndexCache( index );
         for ( String key : keys )
             assertTrue( cache.get( key ).size() > 0 );
     }
 
     private void assertCacheIsEmpty( BatchInserterIndex index, String... keys )
     {
-        Map<String, LruCache<String, Collection<Long>>> cache = getIndexCache( index );
+        Map<String, OffHeapIdCache> cache = getIndexCache( index );
         for ( String key : keys )
         {
-            LruCache<String, Collection<Long>> keyCache = cache.get( key );
+            OffHeapIdCache keyCache = cache.get( key );
             assertTrue( keyCache == null || keyCache.size() == 0 );
         }
     }
 
-    private Map<String, LruCache<String, Collection<Long>>> getIndexCache( BatchInserterIndex index )
+    private Map<String, OffHeapIdCache> getIndexCache( BatchInserterIndex index )
     {
         try
         {
             Field field = index.getClass().getDeclaredField( "cache" );
             field.setAccessible( true );
-            return (Map<String, LruCache<String, Collection<Long>>>) field.get( index );
+            return (Map<String, OffHeapIdCache>) field.get( index );
         }
         catch ( Exception e )
         {
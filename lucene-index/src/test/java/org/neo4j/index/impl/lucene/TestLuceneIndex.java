@@ -710,6 +710,37 @@ public class TestLuceneIndex extends AbstractLuceneIndexTest
         assertThat( index.query( NumericRangeQuery.newIntRange( key, 0, 20, false, false ) ), contains( node2 ) );
     }
 
+    @Test
+    public void queryUncommittedValuesOfExactIndex()
+    {
+        Index<Node> index = nodeIndex( LuceneIndexImplementation.EXACT_CONFIG );
+        Node node1 = graphDb.createNode();
+        Node node2 = graphDb.createNode();
+        Node node3 = graphDb.createNode();
+        index.add( node1, "name", "Mattias" );
+        index.add( node2, "name", "Matt" );
+        index.add( node3, "name", "Tobias" );
+        index.add( node1, "age", numeric( 30 ) );
+        index.add( node2, "age", numeric( 40 ) );
+        index.add( node3, "age", numeric( 50L ) );
+
+        assertThat( index.query( "name", "Matt*" ), contains( node1, node2 ) );
+        assertThat( index.query( "name", "[Matt TO Mattias]" ), contains( node1, node2 ) );
+        assertThat( index.query( "name", "{Matt TO Tobias}" ), contains( node1 ) );
+        assertThat( index.query( NumericRangeQuery.newIntRange( "age", 30, 45, true, true ) ), contains( node1, node2 ) );
+        assertThat( index.query( NumericRangeQuery.newLongRange( "age", 30L, 60L, true, true ) ), contains( node3 ) );
+        BooleanQuery query = new BooleanQuery();
+        query.add( new TermQuery( new Term( "name", "Matt" ) ), Occur.SHOULD );
+        query.add( NumericRangeQuery.newIntRange( "age", 0, 35, true, true ), Occur.SHOULD );
+        assertThat( index.query( query ), contains( node1, node2 ) );
+
+        index.remove( node2, "name", "Matt" );
+        assertThat( index.query( "name", "Matt*" ), contains( node1 ) );
+        assertContainsInOrder( index.query( "name", new QueryContext( "*" ).sort( "name" ) ), node1, node3 );
+        restartTx();
+        assertThat( index.query( "name", "Matt*" ), contains( node1 ) );
+    }
+
     @Test
     public void sortNumericValues() throws Exception
     {
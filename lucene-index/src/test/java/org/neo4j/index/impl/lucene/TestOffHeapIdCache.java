@@ -0,0 +1,236 @@
+/**
+ * Copyright (c) 2002-2012 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.index.impl.lucene;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+
+import org.junit.Test;
+
+public class TestOffHeapIdCache
+{
+    @Test
+    public void shouldGetIdsAddedForValue() throws Exception
+    {
+        OffHeapIdCache cache = new OffHeapIdCache( "name", 100 );
+        assertNull( cache.get( "Mattias" ) );
+        cache.add( "Mattias", 10 );
+        cache.add( "Mattias", 12 );
+        cache.add( "Mattias", 10 );
+        cache.add( "Persson", 11 );
+        assertEquals( set( 10, 12 ), new HashSet<Long>( cache.get( "Mattias" ) ) );
+        assertEquals( set( 11 ), new HashSet<Long>( cache.get( "Persson" ) ) );
+        assertNull( cache.get( "Matti" ) );
+        assertEquals( 3, cache.size() );
+    }
+
+    @Test
+    public void shouldKeepValueWithoutIdsWhenLastIdIsRemoved() throws Exception
+    {
+        OffHeapIdCache cache = new OffHeapIdCache( "name", 100 );
+        cache.add( "value", 1 );
+        cache.add( "value", 2 );
+        cache.remove( "value", 1 );
+        assertEquals( set( 2 ), new HashSet<Long>( cache.get( "value" ) ) );
+        cache.remove( "value", 2 );
+        assertTrue( cache.get( "value" ).isEmpty() );
+        cache.add( "value", 3 );
+        assertEquals( set( 3 ), new HashSet<Long>( cache.get( "value" ) ) );
+    }
+
+    @Test
+    public void shouldReplaceIdsOfValueWhenPut() throws Exception
+    {
+        OffHeapIdCache cache = new OffHeapIdCache( "name", 100 );
+        cache.add( "value", 1 );
+        cache.put( "value", Arrays.asList( 4L, 5L ) );
+        assertEquals( set( 4, 5 ), new HashSet<Long>( cache.get( "value" ) ) );
+        cache.put( "other", Collections.<Long>emptyList() );
+        assertTrue( cache.get( "other" ).isEmpty() );
+    }
+
+    @Test
+    public void shouldNotCacheValuesWithTooManyIds() throws Exception
+    {
+        OffHeapIdCache cache = new OffHeapIdCache( "name", 1000 );
+        for ( long id = 0; id <= OffHeapIdCache.MAX_IDS_PER_VALUE; id++ )
+        {
+            cache.add( "common", id );
+        }
+        assertNull( cache.get( "common" ) );
+        cache.add( "common", 100 );
+        assertNull( cache.get( "common" ) );
+        cache.add( "rare", 1 );
+        assertEquals( set( 1 ), new HashSet<Long>( cache.get( "rare" ) ) );
+    }
+
+    @Test
+    public void shouldNotReturnSomeOfTheIdsOfValueWhenFull() throws Exception
+    {
+        OffHeapIdCache cache = new OffHeapIdCache( "name", 10 );
+        cache.add( "value", 0 );
+        for ( long id = 1; id < 10; id++ )
+        {
+            cache.add( "value" + id, id );
+        }
+        cache.add( "value", 10 );
+        assertNull( cache.get( "value" ) );
+        cache.add( "new", 11 );
+        assertNull( cache.get( "new" ) );
+        assertEquals( set( 9 ), new HashSet<Long>( cache.get( "value9" ) ) );
+    }
+
+    @Test
+    public void shouldFindAllOfManyValues() throws Exception
+    {
+        int count = 100000;
+        OffHeapIdCache cache = new OffHeapIdCache( "name", count );
+        for ( int i = 0; i < count; i++ )
+        {
+            cache.add( "value" + i, i );
+        }
+        for ( int i = 0; i < count; i++ )
+        {
+            assertEquals( set( i ), new HashSet<Long>( cache.get( "value" + i ) ) );
+        }
+        assertNull( cache.get( "value" + count ) );
+    }
+
+    @Test
+    public void shouldStayCorrectWhenValuesAreRemovedAndAddedOver() throws Exception
+    {
+        OffHeapIdCache cache = new OffHeapIdCache( "name", 50 );
+        for ( int round = 0; round < 200; round++ )
+        {
+            for ( int i = 0; i < 20; i++ )
+            {
+                cache.add( "value" + i, round * 100 + i );
+                cache.add( "value" + i, round * 100 + i + 50 );
+                cache.remove( "value" + i, (round - 1) * 100 + i );
+                cache.remove( "value" + i, (round - 1) * 100 + i + 50 );
+            }
+        }
+        for ( int i = 0; i < 20; i++ )
+        {
+            assertEquals( set( 19900 + i, 19950 + i ), new HashSet<Long>( cache.get( "value" + i ) ) );
+        }
+        assertEquals( 40, cache.size() );
+    }
+
+    @Test
+    public void shouldKeepValuesWhenResizedIfTheyFit() throws Exception
+    {
+        OffHeapIdCache cache = new OffHeapIdCache( "name", 10 );
+        for ( long id = 0; id < 10; id++ )
+        {
+            cache.add( "value" + (id % 5), id );
+        }
+        cache.resize( 1000 );
+        assertEquals( set( 2, 7 ), new HashSet<Long>( cache.get( "value2" ) ) );
+        cache.add( "more", 100 );
+        assertEquals( 11, cache.size() );
+        cache.resize( 5 );
+        assertNull( cache.get( "value2" ) );
+        assertEquals( 0, cache.size() );
+    }
+
+    @Test
+    public void shouldOnlyAllocateMemoryAsItsUsed() throws Exception
+    {
+        // Tens of gigabytes if all slots were allocated up front
+        OffHeapIdCache cache = new OffHeapIdCache( "name", Integer.MAX_VALUE / 2 );
+        for ( long id = 0; id < 100; id++ )
+        {
+            cache.add( "value" + (id % 10), id );
+        }
+        assertEquals( set( 3, 13, 23, 33, 43, 53, 63, 73, 83, 93 ), new HashSet<Long>( cache.get( "value3" ) ) );
+        cache.close();
+    }
+
+    @Test
+    public void shouldNotReturnSomeOfTheIdsOfValueWhenOutOfMemoryInRebuild() throws Exception
+    {
+        final int[] allocations = new int[1];
+        OffHeapIdCache cache = new OffHeapIdCache( "name", 16 )
+        {
+            @Override
+            ByteBuffer allocateDirect( int size )
+            {
+                // The first table gets its slots and values, the rebuilt one runs out
+                // of memory at its first buffer, and after that there's memory again
+                return ++allocations[0] == 3 ? null : super.allocateDirect( size );
+            }
+        };
+        Map<String, Collection<Long>> expected = new HashMap<String, Collection<Long>>();
+        for ( int i = 0; i < 4; i++ )
+        {
+            // Removed ids leave removed slots behind, which makes the table rebuilt
+            String value = "value" + i;
+            expected.put( value, set() );
+            for ( long id = 1; id <= 5; id++ )
+            {
+                cache.add( value, id );
+                expected.get( value ).add( id );
+                assertAllIdsIfCached( cache, expected );
+            }
+            for ( long id = 1; id <= 4; id++ )
+            {
+                cache.remove( value, id );
+                expected.get( value ).remove( id );
+                assertAllIdsIfCached( cache, expected );
+            }
+            cache.put( "put" + i, Arrays.asList( 1L, 2L, 3L ) );
+            expected.put( "put" + i, set( 1, 2, 3 ) );
+            assertAllIdsIfCached( cache, expected );
+        }
+        assertTrue( "Never rebuilt", allocations[0] > 2 );
+    }
+
+    private static void assertAllIdsIfCached( OffHeapIdCache cache, Map<String, Collection<Long>> expected )
+    {
+        for ( Map.Entry<String, Collection<Long>> entry : expected.entrySet() )
+        {
+            Collection<Long> ids = cache.get( entry.getKey() );
+            if ( ids != null )
+            {
+                assertEquals( entry.getKey(), entry.getValue(), new HashSet<Long>( ids ) );
+            }
+        }
+    }
+
+    private static Collection<Long> set( long... ids )
+    {
+        Collection<Long> result = new HashSet<Long>();
+        for ( long id : ids )
+        {
+            result.add( id );
+        }
+        return result;
+    }
+}
@@ -393,6 +393,21 @@ public class ReadOnlyGraphDatabaseProxy implements GraphDatabaseService, GraphDa
             return actual.hasRelationship( type, dir );
         }
 
+        public int getDegree()
+        {
+            return actual.getDegree();
+        }
+
+        public int getDegree( RelationshipType... types )
+        {
+            return actual.getDegree( types );
+        }
+
+        public int getDegree( Direction direction, RelationshipType... types )
+        {
+            return actual.getDegree( direction, types );
+        }
+
         public Traverser traverse( Order traversalOrder, StopEvaluator stopEvaluator,
                 ReturnableEvaluator returnableEvaluator, RelationshipType relationshipType,
                 Direction direction )